@@ -0,0 +1,8 @@
+#!/bin/bash
+
+DIR=`dirname $BASH_SOURCE`/..
+
+CP=$DIR/build/bones.jar
+CP=$CP:$DIR/lib/jpct-1.26.jar
+
+java -cp $CP raft.jpct.bones.util.BvhClipImporter "$@"
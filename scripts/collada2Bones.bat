@@ -0,0 +1,7 @@
+echo off
+set DIR="%~dp0\.."
+
+set CP=%DIR%\build\bones.jar
+set CP=%CP%;%DIR%\lib\jpct-1.26.jar
+
+java -cp %CP% raft.jpct.bones.util.ArdorColladaImporter -native %*
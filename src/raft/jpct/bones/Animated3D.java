@@ -11,8 +11,11 @@ import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
+import com.threed.jpct.Animation;
+import com.threed.jpct.Config;
 import com.threed.jpct.GenericVertexController;
 import com.threed.jpct.IVertexController;
+import com.threed.jpct.Logger;
 import com.threed.jpct.Matrix;
 import com.threed.jpct.Mesh;
 import com.threed.jpct.Object3D;
@@ -66,24 +69,43 @@ public class Animated3D extends Object3D implements Cloneable {
 	private final VertexController vertexController = new VertexController();
 	
 	private int index;
+	/** true if this is an instance which borrows source mesh of its master */
+	private boolean sharedSourceMesh = false;
 	private boolean destMeshDirty = false;
 	private transient SimpleVector[] sourceMesh;
 	private transient SimpleVector[] destMesh;
 	private transient SimpleVector[] sourceNormals;
 	private transient SimpleVector[] destNormals;
 	
+	// sparse pose animation state. when pose animation is applied, only vertices touched by poses of 
+	// PoseClipSequence are reset. touchedVertices is the set used in last reset, null if there is none. 
+	// if outsideClean is true, destination vertices not in touchedVertices are same as source vertices 
+	// (if touchedVertices is null, all destination vertices are same as source)
+	private transient int[] touchedVertices;
+	private transient boolean[] touchedMask;
+	/** the vertices marked in touchedMask */
+	private transient int[] maskVertices;
+	private transient boolean outsideClean = false;
+	/** true while a pose from PoseClipSequence is being applied */
+	private transient boolean applyingPoseSequence = false;
+	private transient PoseAccumulator poseAccumulator;
+	/** true if this is an object of an instance whose pose is returned to pool */
+	private transient boolean released = false;
+	
     private SimpleVector vertexSum = new SimpleVector();
     private SimpleVector vertexTemp = new SimpleVector();
 	
     private SimpleVector normalSum = new SimpleVector();
     private SimpleVector normalTemp = new SimpleVector();
     
+    /** unpacked influences of a vertex when skin is packed */
+    private float[] weightsTemp = new float[Skeleton.MAX_JOINTS_PER_VERTEX];
+    private short[] jointIndicesTemp = new short[Skeleton.MAX_JOINTS_PER_VERTEX];
+    
 	private boolean autoApplyAnimation = true;
 	
 	private float scaleX = 1, scaleY = 1, scaleZ = 1;
 	
-	// TODO maybe add a method createAnimationSequence() to create jPCT mesh animation sequence
-
 	/** 
 	 * <p>Same as {@link #Animated3D(Animated3D, boolean)  Animated3D(Object3D, MESH_REUSE)}</p>
 	 * 
@@ -117,6 +139,44 @@ public class Animated3D extends Object3D implements Cloneable {
 		attachVertexController();
 	}
 
+	/**
+	 * <p>Creates a lightweight instance of given object which is animated by given pose. 
+	 * Mesh is copied but source (bind pose) vertices and normals are borrowed from master object, 
+	 * so master's mesh need not to be in bind pose.</p>
+	 *  
+	 * @see AnimatedGroup#createInstance()
+	 */
+	Animated3D(Animated3D master, SkeletonPose pose) {
+		super(master, MESH_DONT_REUSE);
+		if ((pose != null) && (pose.skeleton != master.skeleton))
+			throw new IllegalArgumentException("pose belongs to another skeleton");
+		
+		this.skeleton = master.skeleton;
+		this.skin = master.skin;
+		this.currentPose = pose;
+		this.meshData = master.meshData;
+		this.skinClipSequence = master.skinClipSequence;
+		this.poseClipSequence = master.poseClipSequence;
+		this.autoApplyAnimation = master.autoApplyAnimation;
+		this.index = master.index;
+		this.scaleX = master.scaleX;
+		this.scaleY = master.scaleY;
+		this.scaleZ = master.scaleZ;
+		
+		// source mesh of master is never modified, so there is no need to keep another copy. 
+		// we alter the mesh directly, this way vertex controller does not allocate separate destination arrays
+		getMesh().setVertexController(vertexController, IVertexController.ALTER_SOURCE_MESH);
+		
+		this.sourceMesh = master.sourceMesh;
+		this.sourceNormals = master.sourceNormals;
+		this.destMesh = vertexController.getDestinationMesh();
+		this.destNormals = vertexController.getDestinationNormals();
+		this.sharedSourceMesh = true;
+		// copied mesh may be in any pose, mark it dirty so skinning starts from shared source mesh
+		this.destMeshDirty = true;
+		this.outsideClean = false;
+	}
+
 	/** Creates a Animated3D out of given information. */
 	public Animated3D(MeshData meshData, SkinData skin, SkeletonPose currentPose) {
 		super(meshData.coordinates, meshData.uvs, meshData.indices, TextureManager.TEXTURE_NOTFOUND);
@@ -153,8 +213,8 @@ public class Animated3D extends Object3D implements Cloneable {
 	}
 	
 	/** 
-	 * Creates a Animated3D by re-loading information previously saved to stream. 
-	 * @see #writeToStream(java.io.ObjectOutputStream) */
+	 * Creates a Animated3D by re-loading information previously saved to stream in legacy format. 
+	 * @see BonesIO */
 	Animated3D(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
 		this((MeshData) in.readObject(), (SkinData) in.readObject(), (SkeletonPose) in.readObject());
 //		this(MeshData.readFromStream(in), SkinData.readFromStream(in), SkeletonPose.readFromStream(in));
@@ -225,6 +285,11 @@ public class Animated3D extends Object3D implements Cloneable {
 		return (skin == null) ? null : skin.clone();
 	}
 	
+	/** returns mesh data, or null if discarded */
+	MeshData getMeshData() {
+		return meshData;
+	}
+	
 	/** If this object is called via Ardor3D's or jME's loader, calling this method saves some memory. */
 	public void discardMeshData() {
 		meshData = null;
@@ -254,21 +319,60 @@ public class Animated3D extends Object3D implements Cloneable {
         	destMesh[i].set(sourceMesh[i]);
         }
         destMeshDirty = false;
+        touchedVertices = null;
+        outsideClean = true;
 	}
 	
 	/** Applies animation to mesh. */
 	public void applyAnimation() {
+		checkNotReleased();
+		// only pose animation is applied after a sparse reset, restore vertices not touched by poses
+		if (!destMeshDirty && (touchedVertices != null) && !outsideClean) 
+			resetUntouchedVertices();
+		
 		maybeDoScale();
 		vertexController.updateMesh();
 		touch();
 		destMeshDirty = true;
 	}
-
+	
+	/** copies source vertices to destination vertices which are not in touched set */
+	private void resetUntouchedVertices() {
+		boolean[] mask = touchedMask;
+        for (int i = 0; i < sourceMesh.length; i++) {
+        	if (!mask[i])
+        		destMesh[i].set(sourceMesh[i]);
+        }
+        outsideClean = true;
+	}
+	
+	/** sets touched vertices and updates touched mask if necessary */
+	private void setTouchedVertices(int[] touched) {
+		touchedVertices = touched;
+		if (touched == maskVertices)
+			return;
+		
+		if ((touchedMask == null) || (touchedMask.length != sourceMesh.length)) {
+			touchedMask = new boolean[sourceMesh.length];
+		} else {
+			for (int index : maskVertices)
+				touchedMask[index] = false;
+		}
+		for (int index : touched) 
+			touchedMask[index] = true;
+		
+		maskVertices = touched;
+	}
+	
 	/** applies the scaling to destination mesh */
 	private void maybeDoScale() {
 		if ((scaleX == 1) && (scaleY == 1) && (scaleZ == 1))
 			return;
 		
+		// all destination vertices are modified
+		touchedVertices = null;
+		outsideClean = false;
+		
         float scaleX = this.scaleX;
         float scaleY = this.scaleY;
         float scaleZ = this.scaleZ;
@@ -310,6 +414,7 @@ public class Animated3D extends Object3D implements Cloneable {
 	public void animateSkin(float index, int sequence) {
 		if (skinClipSequence == null)
 			return;
+		checkNotReleased();
 		
 		if (sequence == 0) {
 			skinClipSequence.animate(index * skinClipSequence.getTime(), currentPose);
@@ -324,6 +429,116 @@ public class Animated3D extends Object3D implements Cloneable {
 			applyAnimation();
 	}
 	
+	/** 
+	 * <p>Bakes skin and pose animations of this object into a jPCT mesh {@link Animation}. Each {@link SkinClip} in 
+	 * {@link SkinClipSequence} and each {@link PoseClip} in {@link PoseClipSequence} is sampled at given frame rate 
+	 * and each sample is stored as a keyframe. Each clip becomes a sub sequence of returned animation in order, 
+	 * skin clips first. Pose clips are baked in bind pose.</p>
+	 * 
+	 * <p>Returned animation can be assigned to an {@link Object3D} sharing the same mesh layout
+	 * via {@link Object3D#setAnimationSequence(Animation)} and played with {@link Object3D#animate(float, int)}
+	 * without any skinning cost. The price is memory, see {@link #estimateAnimationMemory(Animation)}.</p>
+	 * 
+	 * <p>Current {@link SkeletonPose} is not modified, but the mesh of this object is reset to initial state.</p>
+	 * 
+	 * <p>jPCT limits number of sub sequences of an animation with {@link Config#maxAnimationSubSequences}. 
+	 * It's a global setting, so it's not modified here, caller should raise it if there are many clips.</p> 
+	 * 
+	 * @param fps number of keyframes per second 
+	 * @throws IllegalStateException if there are no clips or {@link Config#maxAnimationSubSequences} is not 
+	 * 		greater than number of clips
+	 * @see BonesIO#saveAnimation(Animation, java.io.OutputStream)
+	 * */
+	public Animation createAnimationSequence(float fps) {
+		if (fps <= 0)
+			throw new IllegalArgumentException("fps: " + fps);
+		
+		int skinClipCount = (skinClipSequence == null) ? 0 : skinClipSequence.getSize();
+		int poseClipCount = (poseClipSequence == null) ? 0 : poseClipSequence.getSize();
+		if (skinClipCount + poseClipCount == 0)
+			throw new IllegalStateException("no animations to bake");
+		
+		int keyFrameCount = 0;
+		for (int i = 0; i < skinClipCount; i++) 
+			keyFrameCount += getBakeFrameCount(skinClipSequence.getClip(i).getTime(), fps);
+		for (int i = 0; i < poseClipCount; i++) 
+			keyFrameCount += getBakeFrameCount(poseClipSequence.getClip(i).getTime(), fps);
+		
+		// jPCT limits number of sub sequences, sequence 0 is reserved for whole animation  
+		if (Config.maxAnimationSubSequences <= skinClipCount + poseClipCount) 
+			throw new IllegalStateException("Config.maxAnimationSubSequences is " + Config.maxAnimationSubSequences 
+					+ ", raise it to at least " + (skinClipCount + poseClipCount + 1) + " to bake " 
+					+ (skinClipCount + poseClipCount) + " clip(s)");
+		
+		Animation animation = new Animation(keyFrameCount);
+		animation.setInterpolationMethod(Animation.LINEAR);
+		
+		// use a private pose so shared pose is not disturbed
+		SkeletonPose oldPose = currentPose;
+		currentPose = new SkeletonPose(skeleton);
+		try {
+			for (int i = 0; i < skinClipCount; i++) {
+				SkinClip clip = skinClipSequence.getClip(i);
+				animation.createSubSequence((clip.getName() == null) ? ("skin" + (i + 1)) : clip.getName());
+				
+				int frames = getBakeFrameCount(clip.getTime(), fps);
+				for (int frame = 0; frame < frames; frame++) {
+					clip.applyTo(Math.min(frame / fps, clip.getTime()), currentPose);
+					currentPose.updateTransforms();
+					
+					// skin from source mesh, ignoring any pose animation
+					destMeshDirty = true;
+					applySkeletonPose();
+					applyAnimation();
+					animation.addKeyFrame(getMesh().cloneMesh(Mesh.COMPRESS));
+				}
+			}
+			
+			for (int i = 0; i < poseClipCount; i++) {
+				PoseClip clip = poseClipSequence.getClip(i);
+				animation.createSubSequence((clip.getName() == null) ? ("pose" + (i + 1)) : clip.getName());
+				
+				int frames = getBakeFrameCount(clip.getTime(), fps);
+				for (int frame = 0; frame < frames; frame++) {
+					resetAnimation();
+					clip.applyTo(Math.min(frame / fps, clip.getTime()), this, 1f);
+					applyAnimation();
+					animation.addKeyFrame(getMesh().cloneMesh(Mesh.COMPRESS));
+				}
+			}
+		} finally {
+			currentPose = oldPose;
+			resetAnimation();
+			applyAnimation();
+		}
+		
+		Logger.log("Baked " + (skinClipCount + poseClipCount) + " clips into " + keyFrameCount 
+				+ " keyframes, estimated memory: " + estimateAnimationMemory(animation) + " bytes", Logger.MESSAGE);
+		return animation;
+	}
+	
+	/** 
+	 * <p>Returns a rough estimate of memory used by keyframes of given {@link Animation}, in bytes.</p> 
+	 * @see #createAnimationSequence(float)
+	 * */
+	public static long estimateAnimationMemory(Animation animation) {
+		long size = SkinHelper.OBJECT_OVERHEAD;
+		for (Mesh mesh : animation.getKeyFrames()) {
+			if (mesh == null)
+				continue;
+			// keyframes are compressed, so only vertex and normal coordinates and triangle indices count 
+			size += SkinHelper.OBJECT_OVERHEAD + 6 * SkinHelper.sizeOfArray(mesh.getUniqueVertexCount(), 4);
+			size += SkinHelper.sizeOfArray(mesh.getTriangleCount(), 
+					SkinHelper.REFERENCE_SIZE + (int) SkinHelper.sizeOfArray(3, 4));
+		}
+		return size;
+	}
+	
+	/** returns number of keyframes to bake a clip of given length. both ends are included */
+	private static int getBakeFrameCount(float time, float fps) {
+		return (int) Math.ceil(time * fps) + 1;
+	}
+	
 	/** Same as {@link #animatePose(float, int, float) animatePose(float, int, 1)} */
 	public void animatePose(float index, int sequence) {
 		animatePose(index, sequence, 1f);
@@ -355,16 +570,38 @@ public class Animated3D extends Object3D implements Cloneable {
 	void animatePoseDontApply(float index, int sequence, float weight) {
 		if (poseClipSequence == null)
 			return;
+		checkNotReleased();
 		
-        // first reset to initial position
+		final int[] touched = poseClipSequence.getTouchedVertices(this.index);
+		
+        // first reset to initial position. only vertices touched by poses are reset, 
+		// rest is either already clean or taken from source mesh when skinning or applying animation  
 		if (destMeshDirty) {
-			resetAnimation();
+			outsideClean = outsideClean && ((touchedVertices == null) || (touchedVertices == touched));
+			setTouchedVertices(touched);
+			
+	        for (int i : touched) {
+	        	destMesh[i].set(sourceMesh[i]);
+	        }
+	        destMeshDirty = false;
+	        
+		} else if ((touchedVertices != null) && (touchedVertices != touched)) {
+			// sequence changed between cumulative calls, make all vertices valid
+			if (!outsideClean)
+				resetUntouchedVertices();
+			touchedVertices = null;
 		}
-		if (sequence == 0) {
-			poseClipSequence.animate(index * poseClipSequence.getTime(), this, weight);
-		} else {
-			PoseClip clip = poseClipSequence.getClip(sequence - 1); 
-			clip.applyTo(index * clip.getTime(), this, weight);
+		
+		applyingPoseSequence = true;
+		try {
+			if (sequence == 0) {
+				poseClipSequence.animate(index * poseClipSequence.getTime(), this, weight);
+			} else {
+				PoseClip clip = poseClipSequence.getClip(sequence - 1); 
+				clip.applyTo(index * clip.getTime(), this, weight);
+			}
+		} finally {
+			applyingPoseSequence = false;
 		}
 	}
 	
@@ -421,27 +658,62 @@ public class Animated3D extends Object3D implements Cloneable {
 	
 	
 	/** 
-	 * <p>Writes mesh and skinning information to stream. This method is different
-	 * from serializing whole object.</p>
+	 * <p>Writes name, index, mesh and skinning information to stream in compact binary form.
+	 * Skeleton, pose and clips are not written.</p>
+	 * 
+	 * @see BonesFormat
 	 * */
-	void writeToStream(java.io.ObjectOutputStream out) throws IOException {
+	void writeToStream(java.io.DataOutput out) throws IOException {
 		if (meshData == null)
 			throw new IllegalStateException("this object does not contain mesh data. did you call discardMeshData() ?");
-
-//		MeshData.writeToStream(meshData, out);
-//		SkinData.writeToStream(skin, out);
-//		SkeletonPose.writeToStream(currentPose, out);
-		out.writeObject(meshData);
-		out.writeObject(skin);
-		out.writeObject(currentPose);
+		
+		BonesIO.writeString(out, getName());
 		out.writeInt(index);
-		out.writeObject(getName());
-		out.writeObject(skinClipSequence);
-//		SkinClipSequence.writeToStream(skinClipSequence, out);
-		out.writeObject(poseClipSequence);
+		MeshData.writeToStream(meshData, out);
+		SkinData.writeToStream(skin, out);
+	}
+	
+	/** 
+	 * <p>Returns a rough estimate of memory used by this object which is not shared with other instances, in bytes. 
+	 * This includes jPCT mesh and vertex arrays used for animation. {@link SkeletonPose} is not included since
+	 * it is typically shared by a group.</p>
+	 * 
+	 * @see AnimatedGroup#estimateInstanceMemory()
+	 * @see AnimatedGroup#createInstance()
+	 * */
+	public long estimateInstanceMemory() {
+		Mesh mesh = getMesh();
+		int vertexCount = mesh.getUniqueVertexCount();
+		int triangleCount = mesh.getTriangleCount();
+		
+		// jPCT mesh: vertex and normal coordinates, triangle to vertex indices
+		long size = 6 * SkinHelper.sizeOfArray(vertexCount, 4); 
+		size += SkinHelper.sizeOfArray(triangleCount, SkinHelper.REFERENCE_SIZE + (int) SkinHelper.sizeOfArray(3, 4));
+		size += SkinHelper.sizeOfArray(mesh.getVertexCount(), 4);
+		
+		// vertex controller arrays. destination and source arrays are same for instances
+		size += SkinHelper.sizeOf(destMesh) + SkinHelper.sizeOf(destNormals);
+		if (!sharedSourceMesh)
+			size += SkinHelper.sizeOf(sourceMesh) + SkinHelper.sizeOf(sourceNormals);
+		
+		return size;
+	}
+	
+	/** returns the accumulator used to apply poses, creates it if necessary */
+	PoseAccumulator getPoseAccumulator() {
+		if (poseAccumulator == null)
+			poseAccumulator = new PoseAccumulator();
+		return poseAccumulator;
 	}
 	
+	/** returns destination vertices for pose animation */
 	SimpleVector[] getDestinationMesh() {
+		if (!applyingPoseSequence && (touchedVertices != null)) {
+			// a pose outside of PoseClipSequence may touch any vertex. make all vertices valid
+			if (!destMeshDirty && !outsideClean)
+				resetUntouchedVertices();
+			touchedVertices = null;
+		}
 		return destMesh;
 	}
 	
@@ -471,15 +743,29 @@ public class Animated3D extends Object3D implements Cloneable {
 		destNormals = vertexController.getDestinationNormals();
 	}
 	
+	/** marks this object released, so it throws an exception if animated. see {@link AnimatedGroup#releaseInstance()} */
+	void release() {
+		released = true;
+	}
+	
+	private void checkNotReleased() {
+		if (released)
+			throw new IllegalStateException("Instance is released, its pose may be used by another instance");
+	}
+	
 	/** Applies skin animation to internal copy of mesh. Actual mesh is not updated yet. 
 	 * Call {@link #applyAnimation()} to update mesh.  */
 	public void applySkeletonPose() {
+		checkNotReleased();
         
         SimpleVector[] destMesh = this.destMesh;
         SimpleVector[] destNormals = this.destNormals;
         
-        // if pose animation is applied, destination vertices are already initialized based on source and offseted, so use them  
+        // if pose animation is applied, destination vertices are already initialized based on source and offseted, so use them.
+        // after a sparse reset, only touched vertices are valid, rest is taken from source
         SimpleVector[] sourceMesh = !destMeshDirty ? destMesh : this.sourceMesh;
+        final boolean[] touchedMask = (!destMeshDirty && (touchedVertices != null) && !outsideClean) ? this.touchedMask : null;
+        final SimpleVector[] originalMesh = this.sourceMesh;
         //SimpleVector[] sourceNormals = !destMeshDirty ? destNormals : this.sourceNormals;
         SimpleVector[] sourceNormals = this.sourceNormals;
         
@@ -491,6 +777,10 @@ public class Animated3D extends Object3D implements Cloneable {
         
         float[][] skinWeights = skin.weights;
         short[][] skinJointIndices = skin.jointIndices;
+        final int[] packedWeights = skin.packedWeights;
+        final int[] packedJointIndices = skin.packedJointIndices;
+        final float[] weightsTemp = this.weightsTemp;
+        final short[] jointIndicesTemp = this.jointIndicesTemp;
         
         // Cycle through each vertex
         int count = sourceMesh.length;
@@ -505,10 +795,18 @@ public class Animated3D extends Object3D implements Cloneable {
             normalSum.z = 0f;
 
             // pull in joint data
-            final float[] weights = skinWeights[i];
-            final short[] jointIndices = skinJointIndices[i];
+            final float[] weights;
+            final short[] jointIndices;
+            if (packedWeights == null) {
+            	weights = skinWeights[i];
+            	jointIndices = skinJointIndices[i];
+            } else {
+            	weights = weightsTemp;
+            	jointIndices = jointIndicesTemp;
+            	SkinData.unpack(packedWeights[i], packedJointIndices[i], weights, jointIndices);
+            }
 
-            SimpleVector sourceMesh_i = sourceMesh[i];
+            SimpleVector sourceMesh_i = ((touchedMask == null) || touchedMask[i]) ? sourceMesh[i] : originalMesh[i];
             SimpleVector sourceNormals_i = sourceNormals[i];
             Matrix[] currentPosePalette = currentPose.palette;
             
@@ -563,6 +861,8 @@ public class Animated3D extends Object3D implements Cloneable {
         } // for vertices
         
 		destMeshDirty = true;
+		touchedVertices = null;
+		outsideClean = false;
 	}
 
 //	/** Applies skin animation to internal copy of mesh. Actual mesh is not updated yet. 
@@ -632,6 +932,29 @@ public class Animated3D extends Object3D implements Cloneable {
 //		destMeshDirty = true;
 //	}
 	
+	/** 
+	 * <p>Same as {@link #applySkeletonPose()} but first looks up given frame in cache. 
+	 * Cache is not used if a pose animation is applied to this object since last skinning.</p>
+	 * 
+	 * @param source the {@link SkinClip} or {@link SkinClipSequence} current pose is sampled from 
+	 * @param frame the quantized frame number current pose is sampled at 
+	 * */
+	void applySkeletonPose(SkinCache cache, Object source, int frame) {
+		// if pose animation is applied, skinned vertices depend on pose offsets too, so don't use cache 
+		final boolean cacheable = destMeshDirty;
+		
+		if (cacheable && cache.get(source, frame, sourceMesh, skin, destMesh, destNormals)) {
+			touchedVertices = null;
+			outsideClean = false;
+			return;
+		}
+		
+		applySkeletonPose();
+		
+		if (cacheable)
+			cache.put(source, frame, sourceMesh, skin, destMesh, destNormals);
+	}
+	
 	/** 
 	 * <p>Merge many <code>Animated3D</code>s into one. This method
 	 * does not require all Animated3Ds share the same {@link Skeleton}
@@ -31,6 +31,14 @@ public class AnimatedGroup implements java.io.Serializable, Iterable<Animated3D>
 
 	private boolean autoApplyAnimation = true;
 	
+	/** the pose obtained from skeleton's pool if this is an instance */
+	private transient SkeletonPose pooledPose;
+	/** true if this instance's pose is returned to pool */
+	private transient boolean released = false;
+	
+	private transient PoseCache poseCache;
+	private transient SkinCache skinCache;
+	
 	/**
 	 * Creates a new AnimatedGroup out of given objects. All objects must have the same {@link Skeleton}.
 	 * 
@@ -167,20 +175,88 @@ public class AnimatedGroup implements java.io.Serializable, Iterable<Animated3D>
 		if (skinClipSequence == null)
 			return;
 		
+		animateSkinDontApply(index, sequence);
+		
+		if (autoApplyAnimation)
+			applyAnimation();
+	}
+	
+	/** 
+	 * <p>Updates current pose and applies it to internal copy of meshes. Actual meshes are not touched, 
+	 * so this method can be called from a thread other than rendering thread.</p>
+	 * 
+	 * @see AnimationSystem 
+	 * */
+	void animateSkinDontApply(float index, int sequence) {
+		if (skinClipSequence == null)
+			return;
+		if (released)
+			throw new IllegalStateException("Instance is released, its pose may be used by another instance");
+		
 		SkeletonPose currentPose = objects[0].getSkeletonPose();
-		if (sequence == 0) {
-			skinClipSequence.animate(index * skinClipSequence.getTime(), currentPose);
+		
+		final Object source = (sequence == 0) ? skinClipSequence : skinClipSequence.getClip(sequence - 1);
+		float seconds = index * ((sequence == 0) ? skinClipSequence.getTime() : ((SkinClip) source).getTime());
+		
+		// snap time to skin cache's frame so skinned vertices match the frame they are cached with.
+		// pose is still evaluated, since it may be used for other purposes like attaching objects to joints 
+		final int frame = (skinCache == null) ? 0 : skinCache.getFrame(seconds);
+		if (skinCache != null)
+			seconds = skinCache.getTime(frame);
+		
+		if (poseCache != null) {
+			if (sequence == 0)
+				poseCache.animate(skinClipSequence, seconds, currentPose);
+			else 
+				poseCache.animate((SkinClip) source, seconds, currentPose);
 		} else {
-			SkinClip clip = skinClipSequence.getClip(sequence - 1); 
-			clip.applyTo(index * clip.getTime(), currentPose);
+			if (sequence == 0)
+				skinClipSequence.animate(seconds, currentPose);
+			else 
+				((SkinClip) source).applyTo(seconds, currentPose);
+			currentPose.updateTransforms();
 		}
-		currentPose.updateTransforms();
 		
-		for (Animated3D so : objects) 
-			so.applySkeletonPose();
-		
-		if (autoApplyAnimation)
-			applyAnimation();
+		final Object cacheKey = (sequence == 0) ? source : ((SkinClip) source).getCacheKey();
+		for (Animated3D so : objects) {
+			if (skinCache != null)
+				so.applySkeletonPose(skinCache, cacheKey, frame);
+			else 
+				so.applySkeletonPose();
+		}
+	}
+	
+	/** Returns the {@link PoseCache} used by skin animations. May be null. */
+	public PoseCache getPoseCache() {
+		return poseCache;
+	}
+
+	/** 
+	 * <p>Sets the {@link PoseCache} used by skin animations. When set, {@link #animateSkin(float, int)} 
+	 * reuses poses evaluated by other groups sharing the same cache at the same quantized time.
+	 * Instances created by {@link #createInstance()} inherit the cache. Default is null.</p>
+	 * 
+	 * @see PoseCache
+	 * */
+	public void setPoseCache(PoseCache poseCache) {
+		this.poseCache = poseCache;
+	}
+	
+	/** Returns the {@link SkinCache} used by skin animations. May be null. */
+	public SkinCache getSkinCache() {
+		return skinCache;
+	}
+	
+	/** 
+	 * <p>Sets the {@link SkinCache} used by skin animations. When set, {@link #animateSkin(float, int)} 
+	 * copies skinned vertices of objects sharing the same source mesh at the same quantized time 
+	 * instead of skinning them again. Instances created by {@link #createInstance()} inherit the cache. 
+	 * Default is null.</p>
+	 * 
+	 * @see SkinCache
+	 * */
+	public void setSkinCache(SkinCache skinCache) {
+		this.skinCache = skinCache;
 	}
 	
 	/** 
@@ -294,16 +370,6 @@ public class AnimatedGroup implements java.io.Serializable, Iterable<Animated3D>
 		return Arrays.asList(objects).iterator();
 	}
 	
-	void writeToStream(java.io.ObjectOutputStream out) throws IOException {
-		out.writeInt(objects.length);
-		
-		for (Animated3D so : objects) {
-			so.writeToStream(out);
-		}
-		out.writeObject(skinClipSequence);
-		out.writeObject(poseClipSequence);
-	}
-	
 	/** returns number of objects in this group */
 	public int getSize() {
 		return objects.length;
@@ -450,6 +516,71 @@ public class AnimatedGroup implements java.io.Serializable, Iterable<Animated3D>
 		return clone;
 	}
 	
+	/** 
+	 * <p>Creates a lightweight instance of this group which can be animated independently.</p>
+	 * 
+	 * <p>Unlike {@link #clone()}, created group has its own {@link SkeletonPose} (obtained from a pool)
+	 * and its own meshes. Immutable parts, {@link Skeleton}, {@link SkinData}, {@link MeshData}, 
+	 * {@link SkinClipSequence}, {@link PoseClipSequence} and bind pose vertices and normals are shared
+	 * with this group.</p>
+	 * 
+	 * <p>Created objects should be built before being added to world as any other {@link Object3D}.
+	 * Once an instance is no longer needed, {@link #releaseInstance()} can be called to return its pose to pool.</p>
+	 * 
+	 * @see #estimateInstanceMemory()
+	 * @see AnimationSystem
+	 * */
+	public AnimatedGroup createInstance() {
+		Skeleton skeleton = objects[0].getSkeleton();
+		SkeletonPose pose = (skeleton == null) ? null : skeleton.obtainPose();
+		
+		Animated3D[] instances = new Animated3D[objects.length];
+		for (int i = 0; i < instances.length; i++) {
+			instances[i] = new Animated3D(objects[i], pose);
+			instances[i].setName(objects[i].getName());
+		}
+		AnimatedGroup instance = new AnimatedGroup(instances, skinClipSequence, poseClipSequence);
+		instance.autoApplyAnimation = this.autoApplyAnimation;
+		instance.poseCache = this.poseCache;
+		instance.skinCache = this.skinCache;
+		instance.pooledPose = pose;
+		return instance;
+	}
+	
+	/** 
+	 * <p>Returns the {@link SkeletonPose} of this instance to pool. The pose may be given to another instance,
+	 * so this group and its objects cannot be animated after this method is called: animating or applying 
+	 * animation throws an {@link IllegalStateException}. Has no effect if this group is not created via 
+	 * {@link #createInstance()}.</p>
+	 * */
+	public void releaseInstance() {
+		if (pooledPose == null)
+			return;
+		released = true;
+		for (Animated3D object : objects) {
+			object.release();
+		}
+		pooledPose.skeleton.releasePose(pooledPose);
+		pooledPose = null;
+	}
+	
+	/** 
+	 * <p>Returns a rough estimate of memory used by this group which is not shared with other instances, in bytes.</p>
+	 * 
+	 * @see #createInstance()
+	 * @see Animated3D#estimateInstanceMemory()
+	 * */
+	public long estimateInstanceMemory() {
+		long size = 0;
+		for (Animated3D object : objects) {
+			size += object.estimateInstanceMemory();
+		}
+		SkeletonPose pose = objects[0].getSkeletonPose();
+		if (pose != null)
+			size += pose.estimateMemory();
+		return size;
+	}
+	
     private static <T> boolean equals(T one, T two) {
         if (one == null) {
             return (two == null);
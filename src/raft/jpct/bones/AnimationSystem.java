@@ -0,0 +1,529 @@
+package raft.jpct.bones;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.threed.jpct.Object3D;
+import com.threed.jpct.SimpleVector;
+
+/**
+ * <p>Animates many {@link AnimatedGroup}s in parallel. Each group is added to system as an {@link Instance}
+ * which holds its own animation state (clip, time and speed).</p>
+ *
+ * <p>{@link #update(float)} advances time of all instances, then samples their {@link SkeletonPose}s,
+ * updates transforms and skins their meshes on a thread pool. Worker threads pick next instance from
+ * a shared counter, so a thread which finishes early steals the remaining work of others.
+ * Once all instances are skinned, animations are applied to jPCT meshes in calling thread.
+ * So <code>update</code> should be called from the thread which also renders the world.</p>
+ *
+ * <p>Each added group must have its own {@link SkeletonPose}. Groups which are cloned via
+ * {@link AnimatedGroup#clone()} share their pose with master so they cannot be animated independently.</p>
+ *
+ * <p>For large populations, system can be configured to re-skin only some of instances each frame. 
+ * See {@link #setUpdateBudget(long)} and {@link #setUpdateFraction(float)}. In that case instances are
+ * ordered by a priority calculated from their distance to view point, their visibility and number of
+ * frames since their last update. Clocks of all instances advance each frame regardless. 
+ * Instances which are skipped keep their last mesh and become more urgent in next frames, 
+ * so no instance is starved.</p>
+ *
+ * <p>Only skin animations are handled at the moment. Pose animations should still be applied via
+ * {@link AnimatedGroup#animatePose(float, int)}.</p>
+ *
+ * @see AnimatedGroup#animateSkin(float, int)
+ *
+ * @author hakan eryargi (r a f t)
+ * */
+public class AnimationSystem {
+
+	private static final AtomicInteger poolNumber = new AtomicInteger(1);
+
+	/** priority of an instance which was not visible in last frame is multiplied by this */
+	private static final float INVISIBLE_WEIGHT = 0.1f;
+
+	private final ExecutorService executor;
+	private final int parallelism;
+	private final boolean ownsExecutor;
+
+	private final List<Instance> instances = new ArrayList<Instance>();
+	private final Map<SkeletonPose, Instance> poses = new IdentityHashMap<SkeletonPose, Instance>();
+
+	private long updateBudget = 0;
+	private float updateFraction = 1f;
+	private int maxSkippedFrames = 10;
+	private float distanceScale = 100f;
+	private final SimpleVector viewPoint = new SimpleVector();
+	private final SimpleVector tmpPosition = new SimpleVector();
+
+	private long frame = 0;
+	private int lastUpdateCount = 0;
+
+	/** Creates a new AnimationSystem which uses as many threads as available processors. */
+	public AnimationSystem() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * <p>Creates a new AnimationSystem which uses given number of threads. Calling thread is also counted,
+	 * so a system with one thread does all the work in calling thread.</p> */
+	public AnimationSystem(int threadCount) {
+		if (threadCount < 1)
+			throw new IllegalArgumentException("threadCount: " + threadCount);
+
+		this.parallelism = threadCount;
+		this.executor = (threadCount == 1) ? null : Executors.newFixedThreadPool(threadCount - 1, new DaemonThreadFactory());
+		this.ownsExecutor = true;
+	}
+
+	/**
+	 * <p>Creates a new AnimationSystem which uses given executor. At most <code>parallelism - 1</code> tasks are
+	 * submitted to executor at once, calling thread also takes part in work.
+	 * {@link #shutdown()} does not shutdown given executor.</p> */
+	public AnimationSystem(ExecutorService executor, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism: " + parallelism);
+
+		this.parallelism = parallelism;
+		this.executor = executor;
+		this.ownsExecutor = false;
+	}
+
+	/**
+	 * <p>Adds given group to system.</p>
+	 *
+	 * @return the instance which holds animation state of group
+	 * @throws IllegalArgumentException if group shares its {@link SkeletonPose} with an already added group
+	 * */
+	public synchronized Instance add(AnimatedGroup group) {
+		SkeletonPose pose = group.get(0).getSkeletonPose();
+		if (pose != null) {
+			if (poses.containsKey(pose))
+				throw new IllegalArgumentException("group shares its SkeletonPose with another group in system");
+		}
+		Instance instance = new Instance(group);
+		instances.add(instance);
+		if (pose != null)
+			poses.put(pose, instance);
+		return instance;
+	}
+
+	/** Removes given instance from system. */
+	public synchronized boolean remove(Instance instance) {
+		if (!instances.remove(instance))
+			return false;
+
+		SkeletonPose pose = instance.group.get(0).getSkeletonPose();
+		if (pose != null)
+			poses.remove(pose);
+		return true;
+	}
+
+	/** Returns number of instances in system. */
+	public synchronized int getSize() {
+		return instances.size();
+	}
+
+	/** Returns the specified instance. */
+	public synchronized Instance get(int index) {
+		return instances.get(index);
+	}
+
+	/** Returns the time budget for skinning in nanoseconds. 0 means unlimited. */
+	public synchronized long getUpdateBudget() {
+		return updateBudget;
+	}
+
+	/**
+	 * <p>Sets the time budget for skinning in each {@link #update(float)} in nanoseconds. Once budget is exceeded,
+	 * remaining instances are left to next frames. Instances which are skipped more than 
+	 * {@link #setMaxSkippedFrames(int) max skipped frames} are updated regardless of budget.
+	 * 0 means unlimited, which is the default.</p> */
+	public synchronized void setUpdateBudget(long nanos) {
+		if (nanos < 0)
+			throw new IllegalArgumentException("nanos: " + nanos);
+		this.updateBudget = nanos;
+	}
+
+	/** Returns the fraction of instances updated each frame. */
+	public synchronized float getUpdateFraction() {
+		return updateFraction;
+	}
+
+	/**
+	 * <p>Sets the fraction of instances re-skinned in each {@link #update(float)}. For example 0.25 means
+	 * at most one quarter of instances are updated each frame. Instances which are skipped more than 
+	 * {@link #setMaxSkippedFrames(int) max skipped frames} are updated regardless. Default is 1.</p> */
+	public synchronized void setUpdateFraction(float fraction) {
+		if (fraction <= 0 || fraction > 1)
+			throw new IllegalArgumentException("fraction: " + fraction);
+		this.updateFraction = fraction;
+	}
+
+	/** Returns the maximum number of frames an instance can be skipped. */
+	public synchronized int getMaxSkippedFrames() {
+		return maxSkippedFrames;
+	}
+
+	/** Sets the maximum number of consecutive frames an instance can be skipped
+	 * due to budget or fraction limits. Default is 10. */
+	public synchronized void setMaxSkippedFrames(int maxSkippedFrames) {
+		if (maxSkippedFrames < 0)
+			throw new IllegalArgumentException("maxSkippedFrames: " + maxSkippedFrames);
+		this.maxSkippedFrames = maxSkippedFrames;
+	}
+
+	/** <p>Sets the view point used in priority calculation. Typically this is the camera position.</p> */
+	public synchronized void setViewPoint(SimpleVector viewPoint) {
+		this.viewPoint.set(viewPoint);
+	}
+
+	/** 
+	 * <p>Sets the distance scale used in priority calculation. An instance at this distance to view point 
+	 * has half the priority of an instance at view point. Default is 100.</p> */
+	public synchronized void setDistanceScale(float distanceScale) {
+		if (distanceScale <= 0)
+			throw new IllegalArgumentException("distanceScale: " + distanceScale);
+		this.distanceScale = distanceScale;
+	}
+
+	/** Returns number of instances re-skinned in last {@link #update(float)}. */
+	public synchronized int getLastUpdateCount() {
+		return lastUpdateCount;
+	}
+
+	/**
+	 * <p>Advances all instances by given time, calculates their new poses and meshes in parallel,
+	 * waits until all are done and finally applies animations to jPCT meshes.</p>
+	 *
+	 * <p>If an update budget or fraction is set, only some of instances are re-skinned.</p>
+	 *
+	 * <p>This method should be called from rendering thread.</p>
+	 *
+	 * @param seconds elapsed time since last update
+	 * @see #setUpdateBudget(long)
+	 * @see #setUpdateFraction(float)
+	 * */
+	public synchronized void update(float seconds) {
+		frame++;
+		
+		List<Instance> enabled = new ArrayList<Instance>(this.instances.size());
+		for (Instance instance : this.instances) {
+			if (instance.enabled) {
+				instance.advance(seconds);
+				enabled.add(instance);
+			}
+		}
+		final Instance[] instances = enabled.toArray(new Instance[enabled.size()]);
+		
+		int limit = instances.length;
+		int mandatory = instances.length;
+		long deadline = 0;
+		
+		if ((updateBudget > 0) || (updateFraction < 1)) {
+			mandatory = prioritize(instances);
+			
+			if (updateFraction < 1)
+				limit = Math.max(mandatory, Math.min(instances.length, (int) Math.ceil(instances.length * updateFraction)));
+			if (updateBudget > 0)
+				deadline = System.nanoTime() + updateBudget;
+		}
+
+		animate(instances, limit, mandatory, deadline);
+
+		int count = 0;
+		for (Instance instance : instances) {
+			if (instance.updated) {
+				instance.updated = false;
+				instance.lastUpdateFrame = frame;
+				instance.group.applyAnimation();
+				count++;
+			}
+		}
+		this.lastUpdateCount = count;
+	}
+
+	/**
+	 * <p>Shuts down the thread pool of this system. Has no effect if this system is created with an
+	 * external executor.</p> */
+	public void shutdown() {
+		if (ownsExecutor && (executor != null))
+			executor.shutdown();
+	}
+
+	/** 
+	 * sorts instances by descending priority. instances which are skipped too many frames come first. 
+	 * @return number of instances which should be updated regardless of limits */
+	private int prioritize(Instance[] instances) {
+		int mandatory = 0;
+		
+		for (Instance instance : instances) {
+			long waited = frame - instance.lastUpdateFrame;
+			instance.overdue = (waited > maxSkippedFrames);
+			if (instance.overdue)
+				mandatory++;
+			
+			instance.group.getRoot().getTranslation(tmpPosition);
+			float distance = tmpPosition.distance(viewPoint);
+			
+			float score = waited * instance.priority / (1 + distance / distanceScale);
+			if (!instance.wasVisible())
+				score *= INVISIBLE_WEIGHT;
+			instance.score = score;
+		}
+		
+		Arrays.sort(instances, new Comparator<Instance>() {
+			public int compare(Instance one, Instance two) {
+				if (one.overdue != two.overdue)
+					return one.overdue ? -1 : 1;
+				return Float.compare(two.score, one.score);
+			}
+		});
+		return mandatory;
+	}
+
+	/** 
+	 * animates first <code>limit</code> instances and returns when all are done. once deadline is passed,
+	 * only first <code>mandatory</code> instances are animated. 
+	 * animated instances are marked as updated.  */
+	private void animate(final Instance[] instances, final int limit, final int mandatory, final long deadline) {
+		final AtomicInteger next = new AtomicInteger(0);
+
+		Callable<Void> worker = new Callable<Void>() {
+			public Void call() throws Exception {
+				int index;
+				while ((index = next.getAndIncrement()) < limit) {
+					if ((index >= mandatory) && (deadline != 0) && (System.nanoTime() - deadline > 0)) 
+						break;
+					Instance instance = instances[index];
+					instance.animate();
+					instance.updated = true;
+				}
+				return null;
+			}
+		};
+
+		int taskCount = (executor == null) ? 0 : Math.min(parallelism, limit) - 1;
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(taskCount);
+
+		for (int i = 0; i < taskCount; i++) {
+			futures.add(executor.submit(worker));
+		}
+
+		RuntimeException failure = null;
+		try {
+			// calling thread also works
+			worker.call();
+		} catch (RuntimeException e) {
+			failure = e;
+		} catch (Exception e) {
+			failure = new RuntimeException(e);
+		}
+
+		// wait for all tasks even if calling thread failed. jPCT meshes must not be touched while workers are running
+		boolean interrupted = false;
+		for (Future<Void> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if (failure == null)
+						failure = (e.getCause() instanceof RuntimeException)
+								? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * <p>Animation state of an {@link AnimatedGroup} in {@link AnimationSystem}.</p>
+	 *
+	 * <p>Time of an instance is in seconds and relative to start of its current clip
+	 * (or start of whole {@link SkinClipSequence} if sequence is 0).</p>
+	 * */
+	public static class Instance {
+		private final AnimatedGroup group;
+
+		private int sequence = 0;
+		private float time = 0;
+		private float speed = 1;
+		private boolean loop = true;
+		private float priority = 1;
+		private volatile boolean enabled = true;
+		
+		// updated by system
+		private long lastUpdateFrame = 0;
+		private float score;
+		private boolean overdue;
+		private volatile boolean updated = false;
+
+		private Instance(AnimatedGroup group) {
+			this.group = group;
+		}
+
+		/** Returns the group of this instance. */
+		public AnimatedGroup getGroup() {
+			return group;
+		}
+
+		/** Returns root object of group.
+		 * @see AnimatedGroup#getRoot() */
+		public Object3D getRoot() {
+			return group.getRoot();
+		}
+
+		/** Returns current sequence number. */
+		public int getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * <p>Sets the clip to play and resets time to zero.</p>
+		 *
+		 * @param sequence the number of {@link SkinClip} in {@link SkinClipSequence}. 1 is the first sequence.
+		 * 			0 means whole {@link SkinClipSequence}
+		 * @see AnimatedGroup#animateSkin(float, int)
+		 * */
+		public Instance setSequence(int sequence) {
+			SkinClipSequence clipSequence = group.getSkinClipSequence();
+			if ((sequence < 0) || ((clipSequence != null) && (sequence > clipSequence.getSize())))
+				throw new IllegalArgumentException("sequence: " + sequence);
+
+			this.sequence = sequence;
+			this.time = 0;
+			return this;
+		}
+
+		/** Returns current time in seconds. */
+		public float getTime() {
+			return time;
+		}
+
+		/** Sets current time in seconds. */
+		public Instance setTime(float time) {
+			this.time = time;
+			return this;
+		}
+
+		/** Returns playback speed. */
+		public float getSpeed() {
+			return speed;
+		}
+
+		/** Sets playback speed. 1 means normal speed, negative values play backwards. Default is 1. */
+		public Instance setSpeed(float speed) {
+			this.speed = speed;
+			return this;
+		}
+
+		/** Returns if animation is looped. */
+		public boolean isLoop() {
+			return loop;
+		}
+
+		/** Sets if animation is looped. If not, animation stops at the end. Default is true. */
+		public Instance setLoop(boolean loop) {
+			this.loop = loop;
+			return this;
+		}
+
+		/** Returns if this instance is animated. */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/** Sets if this instance is animated. A disabled instance keeps its last pose. Default is true. */
+		public Instance setEnabled(boolean enabled) {
+			this.enabled = enabled;
+			return this;
+		}
+
+		/** Returns the priority multiplier of this instance. */
+		public float getPriority() {
+			return priority;
+		}
+
+		/** 
+		 * <p>Sets the priority multiplier of this instance. Only meaningful if system updates some of instances
+		 * each frame. Default is 1.</p>
+		 * 
+		 * @see AnimationSystem#setUpdateBudget(long)
+		 * @see AnimationSystem#setUpdateFraction(float) */
+		public Instance setPriority(float priority) {
+			if (priority <= 0)
+				throw new IllegalArgumentException("priority: " + priority);
+			this.priority = priority;
+			return this;
+		}
+
+		/** returns true if any of objects in group was visible in last frame */
+		boolean wasVisible() {
+			for (Animated3D object : group) {
+				if (object.getVisibility() && object.wasVisible())
+					return true;
+			}
+			return false;
+		}
+
+		/** returns length of current clip in seconds */
+		float getClipTime() {
+			SkinClipSequence clipSequence = group.getSkinClipSequence();
+			if (clipSequence == null)
+				return 0;
+			return (sequence == 0) ? clipSequence.getTime() : clipSequence.getClip(sequence - 1).getTime();
+		}
+
+		/** advances time of this instance */
+		void advance(float seconds) {
+			float clipTime = getClipTime();
+			time += seconds * speed;
+
+			if (clipTime <= 0) {
+				time = 0;
+			} else if (loop) {
+				time %= clipTime;
+				if (time < 0)
+					time += clipTime;
+			} else {
+				time = SkinHelper.clamp(0, clipTime, time);
+			}
+		}
+
+		/** samples pose, updates transforms and skins meshes. jPCT meshes are not touched. */
+		void animate() {
+			float clipTime = getClipTime();
+			float index = (clipTime <= 0) ? 0 : time / clipTime;
+			group.animateSkinDontApply(index, sequence);
+		}
+	}
+
+	/** creates daemon threads so an unstopped system does not prevent JVM exit */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final int poolId = poolNumber.getAndIncrement();
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "bones-animation-" + poolId + "-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+package raft.jpct.bones;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>A registry which shares identical {@link Skeleton}s, {@link MeshData}s, {@link SkinData}s and
+ * {@link SkinClip}s among loaded groups. Data are identified by a hash of their binary form,
+ * so two skeletons are shared only if they are exactly the same. Skin clips are shared only if
+ * their skeletons are shared too.</p>
+ *
+ * <p>When the same file, or files exported with the same rig, are loaded with the same registry,
+ * returned groups share data instead of each holding its own copy. Registry keeps soft references,
+ * so data not used by any group is released under memory pressure.</p>
+ *
+ * <p>Shared data should not be modified. This class is thread safe.</p>
+ *
+ * @see BonesIO#loadGroup(java.io.File, AssetRegistry)
+ * */
+public class AssetRegistry {
+
+	private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+	private long hits = 0;
+	private long misses = 0;
+	private long bytesSaved = 0;
+
+	/** Creates a new empty registry. */
+	public AssetRegistry() {}
+
+	/** returns the registered skeleton identical to given one, or registers given one */
+	Skeleton intern(Skeleton skeleton) throws IOException {
+		return intern(new Key(ContentHash.of(skeleton), null), skeleton, skeleton.estimateMemory());
+	}
+
+	/** returns the registered mesh data identical to given one, or registers given one */
+	MeshData intern(MeshData meshData) throws IOException {
+		if (meshData == null)
+			return null;
+		ContentHash hash = new ContentHash();
+		MeshData.writeToStream(meshData, hash.out);
+		return intern(new Key(hash.digest(), null), meshData, meshData.estimateMemory());
+	}
+
+	/** returns the registered skin data identical to given one, or registers given one */
+	SkinData intern(SkinData skin) throws IOException {
+		if (skin == null)
+			return null;
+		ContentHash hash = new ContentHash();
+		SkinData.writeToStream(skin, hash.out);
+		return intern(new Key(hash.digest(), null), skin, skin.estimateMemory());
+	}
+
+	/** returns the registered clip identical to given one and bound to same skeleton, or registers given one */
+	SkinClip intern(SkinClip clip) throws IOException {
+		ContentHash hash = new ContentHash();
+		SkinClip.writeToStream(clip, hash.out);
+		return intern(new Key(hash.digest(), clip.getSkeleton()), clip, clip.estimateMemory());
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized <T> T intern(Key key, T value, long size) {
+		purge();
+
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			Object existing = entry.get();
+			if ((existing != null) && (existing.getClass() == value.getClass())) {
+				hits++;
+				bytesSaved += size;
+				return (T) existing;
+			}
+		}
+		misses++;
+		entries.put(key, new Entry(key, value, queue));
+		return value;
+	}
+
+	/** removes entries whose values are collected */
+	private void purge() {
+		Entry entry;
+		while ((entry = (Entry) queue.poll()) != null) {
+			if (entries.get(entry.key) == entry)
+				entries.remove(entry.key);
+		}
+	}
+
+	/** Returns estimated memory saved by sharing, in bytes. That is the total size of duplicates found. */
+	public synchronized long getBytesSaved() {
+		return bytesSaved;
+	}
+
+	/** Returns number of duplicates found. */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/** Returns number of registered data. */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/** Returns number of data currently in registry. */
+	public synchronized int getSize() {
+		purge();
+		return entries.size();
+	}
+
+	/** Removes all registered data and resets statistics. Already loaded groups are not effected. */
+	public synchronized void clear() {
+		entries.clear();
+		hits = 0;
+		misses = 0;
+		bytesSaved = 0;
+	}
+
+	/** Returns string representation. */
+	@Override
+	public synchronized String toString() {
+		return "AssetRegistry [size=" + entries.size() + ", hits=" + hits + ", misses=" + misses + ", bytesSaved=" + bytesSaved + "]";
+	}
+
+	private static class Entry extends SoftReference<Object> {
+		private final Key key;
+
+		private Entry(Key key, Object value, ReferenceQueue<Object> queue) {
+			super(value, queue);
+			this.key = key;
+		}
+	}
+
+	/** a content hash and optionally an owner compared by identity */
+	private static class Key {
+		private final byte[] digest;
+		private final Object owner;
+		private final int hash;
+
+		private Key(byte[] digest, Object owner) {
+			this.digest = digest;
+			this.owner = owner;
+			this.hash = 31 * Arrays.hashCode(digest) + System.identityHashCode(owner);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return (owner == other.owner) && Arrays.equals(digest, other.digest);
+		}
+	}
+}
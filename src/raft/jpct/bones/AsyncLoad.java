@@ -0,0 +1,89 @@
+package raft.jpct.bones;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>A {@link Future} of an asset loaded in two steps: decoding runs on an {@link Executor}, creation of
+ * jPCT objects runs on the thread calling {@link #get()}. So typically render thread polls {@link #isDone()}
+ * and calls {@link #get()} once decoding is done.</p>
+ *
+ * @see BonesIO#loadGroupAsync(java.io.File, Executor)
+ * */
+class AsyncLoad<T> implements Future<T> {
+
+	/** the two steps of loading */
+	static abstract class Task<T> {
+		/** called on executor thread. should not create jPCT objects */
+		abstract void decode() throws IOException;
+
+		/** called on the thread calling get() once */
+		abstract T create() throws IOException;
+	}
+
+	private final Task<T> task;
+	private final FutureTask<Void> decoding;
+
+	private boolean created = false;
+	private T result;
+	private ExecutionException failure;
+
+	AsyncLoad(final Task<T> task, Executor executor) {
+		this.task = task;
+		this.decoding = new FutureTask<Void>(new Callable<Void>() {
+			public Void call() throws Exception {
+				task.decode();
+				return null;
+			}
+		});
+		executor.execute(decoding);
+	}
+
+	/** Returns true if decoding is complete. {@link #get()} will not block after then, but it will create objects. */
+	public boolean isDone() {
+		return decoding.isDone();
+	}
+
+	public boolean isCancelled() {
+		return decoding.isCancelled();
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return decoding.cancel(mayInterruptIfRunning);
+	}
+
+	/** Waits for decoding if necessary, then creates the objects on calling thread. */
+	public T get() throws InterruptedException, ExecutionException {
+		decoding.get();
+		return create();
+	}
+
+	/** Waits for decoding at most given time if necessary, then creates the objects on calling thread. */
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		decoding.get(timeout, unit);
+		return create();
+	}
+
+	private synchronized T create() throws ExecutionException {
+		if (!created) {
+			created = true;
+			try {
+				result = task.create();
+			} catch (IOException e) {
+				failure = new ExecutionException(e);
+			} catch (RuntimeException e) {
+				failure = new ExecutionException(e);
+			}
+		}
+		if (failure != null)
+			throw failure;
+		return result;
+	}
+
+}
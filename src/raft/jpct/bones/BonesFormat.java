@@ -0,0 +1,723 @@
+package raft.jpct.bones;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Reads and writes compact binary form of groups and objects. Data is written as a sequence of
+ * tagged sections, each prefixed with its tag, flags and length. Section contents are written with
+ * {@link DataOutput} and bulk primitive arrays, there is no Java serialization involved.</p>
+ *
+ * <p>Unknown sections are skipped by reader, so new sections can be added without breaking
+ * older readers.</p>
+ *
+ * <p>Optionally large sections are deflated in independent chunks, see {@link SectionCodec}. When reading
+ * from a buffer, all compressed sections are inflated in parallel.</p>
+ *
+ * @see BonesIO
+ * */
+class BonesFormat {
+
+	/** marks end of sections */
+	static final byte SECTION_END = 0;
+	/** the {@link Skeleton} shared by all objects */
+	static final byte SECTION_SKELETON = 1;
+	/** an {@link Animated3D}: pose id, name, index, {@link MeshData} and {@link SkinData} */
+	static final byte SECTION_OBJECT = 2;
+	// tag 3 is not used, skin clips are written as clip index and clip sections
+	/** poses and {@link PoseClip}s of {@link PoseClipSequence} */
+	static final byte SECTION_POSE_CLIPS = 4;
+	/** name, time, offset and length of each {@link SkinClip}. offsets are relative to end of this section */
+	static final byte SECTION_CLIP_INDEX = 5;
+	/** a single {@link SkinClip}. clip sections follow clip index in order */
+	static final byte SECTION_SKIN_CLIP = 6;
+	/** hash of shared content of a skeleton or clip package. references to package carry the same hash */
+	static final byte SECTION_PACKAGE_HASH = 7;
+	/** id and hash of a skeleton package used instead of {@link #SECTION_SKELETON} */
+	static final byte SECTION_SKELETON_REF = 8;
+	/** id and hash of a clip package used instead of clip sections */
+	static final byte SECTION_CLIPS_REF = 9;
+	
+	/** size of tag, flags and length preceding each section */
+	static final int SECTION_HEADER_SIZE = 6;
+
+	/** no pose */
+	private static final int NO_POSE = -1;
+
+	/** can not be instantiated */
+	private BonesFormat() {}
+
+	/** 
+	 * writes group. if ids are given, references to skeleton and clip packages are written instead of embedding them. 
+	 * if compress is true, large sections are deflated 
+	 * */
+	static void writeGroup(AnimatedGroup group, String skeletonId, String clipsId, boolean compress, DataOutput out) throws IOException {
+		Animated3D[] objects = new Animated3D[group.getSize()];
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = group.get(i);
+		}
+		writeObjects(objects, group.getSkinClipSequence(), group.getPoseClipSequence(), skeletonId, clipsId, compress, out);
+	}
+
+	static void writeObject(Animated3D object, boolean compress, DataOutput out) throws IOException {
+		writeObjects(new Animated3D[] { object }, object.getSkinClipSequence(), object.getPoseClipSequence(), null, null, compress, out);
+	}
+	
+	static void writeSkeletonPackage(Skeleton skeleton, DataOutput out) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream section = new DataOutputStream(buffer);
+		
+		writeHash(section, ContentHash.of(skeleton));
+		writeSection(out, SECTION_PACKAGE_HASH, buffer, false);
+		
+		Skeleton.writeToStream(skeleton, section);
+		writeSection(out, SECTION_SKELETON, buffer, false);
+		
+		out.writeByte(SECTION_END);
+	}
+	
+	static void writeClipsPackage(SkinClipSequence sequence, String skeletonId, boolean compress, DataOutput out) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream section = new DataOutputStream(buffer);
+		
+		BonesIO.writeString(section, skeletonId);
+		writeHash(section, ContentHash.of(sequence.getSkeleton()));
+		writeSection(out, SECTION_SKELETON_REF, buffer, false);
+		
+		writeHash(section, hashOf(sequence));
+		writeSection(out, SECTION_PACKAGE_HASH, buffer, false);
+		
+		writeSkinClips(sequence, out, section, buffer, compress);
+		
+		out.writeByte(SECTION_END);
+	}
+	
+	/** returns hash of clip sections of given sequence. hash does not depend on compression */
+	private static byte[] hashOf(SkinClipSequence sequence) throws IOException {
+		ContentHash hash = new ContentHash();
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		writeSkinClips(sequence, hash.out, new DataOutputStream(buffer), buffer, false);
+		return hash.digest();
+	}
+
+	static AnimatedGroup readGroup(DataInput in, AssetRegistry registry) throws IOException {
+		return readContent(in, -1, registry, null).createGroup();
+	}
+	
+	/** 
+	 * reads a group whose skin clips are loaded on demand from given input's buffer. 
+	 * if there is no clip index, clips are loaded eagerly 
+	 * */
+	static AnimatedGroup readGroupLazy(ByteBufferInput in, long clipMemoryBudget, AssetRegistry registry) throws IOException {
+		if (clipMemoryBudget <= 0)
+			throw new IllegalArgumentException("clipMemoryBudget: " + clipMemoryBudget);
+		return readContent(in, clipMemoryBudget, registry, null).createGroup();
+	}
+
+	static Animated3D readObject(DataInput in, AssetRegistry registry) throws IOException {
+		return readContent(in, -1, registry, null).createObject();
+	}
+
+	private static void writeObjects(Animated3D[] objects, SkinClipSequence skinClipSequence,
+			PoseClipSequence poseClipSequence, String skeletonId, String clipsId, boolean compress, DataOutput out) throws IOException {
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream section = new DataOutputStream(buffer);
+
+		writeSkeletonAndObjects(objects, skeletonId, compress, out, section, buffer);
+
+		if (skinClipSequence != null) {
+			if (clipsId != null) {
+				BonesIO.writeString(section, clipsId);
+				writeHash(section, hashOf(skinClipSequence));
+				writeSection(out, SECTION_CLIPS_REF, buffer, false);
+			} else {
+				writeSkinClips(skinClipSequence, out, section, buffer, compress);
+			}
+		}
+
+		if (poseClipSequence != null) {
+			PoseClipSequence.writeToStream(poseClipSequence, section);
+			writeSection(out, SECTION_POSE_CLIPS, buffer, compress);
+		}
+
+		out.writeByte(SECTION_END);
+	}
+
+	private static void writeSkeletonAndObjects(Animated3D[] objects, String skeletonId, boolean compress, DataOutput out, 
+			DataOutputStream section, ByteArrayOutputStream buffer) throws IOException {
+
+		Skeleton skeleton = null;
+		for (Animated3D object : objects) {
+			if (object.getSkeleton() != null) {
+				skeleton = object.getSkeleton();
+				break;
+			}
+		}
+
+		if (skeleton != null) {
+			if (skeletonId != null) {
+				BonesIO.writeString(section, skeletonId);
+				writeHash(section, ContentHash.of(skeleton));
+				writeSection(out, SECTION_SKELETON_REF, buffer, false);
+			} else {
+				Skeleton.writeToStream(skeleton, section);
+				writeSection(out, SECTION_SKELETON, buffer, compress);
+			}
+		}
+
+		// objects sharing a pose will share it again after loading
+		Map<SkeletonPose, Integer> poseIds = new IdentityHashMap<SkeletonPose, Integer>();
+		for (Animated3D object : objects) {
+			if ((object.getSkeleton() != null) && (object.getSkeleton() != skeleton))
+				throw new IllegalArgumentException("objects have different skeletons");
+
+			int poseId = NO_POSE;
+			SkeletonPose pose = object.getSkeletonPose();
+			if (pose != null) {
+				if (!poseIds.containsKey(pose))
+					poseIds.put(pose, poseIds.size());
+				poseId = poseIds.get(pose);
+			}
+
+			section.writeInt(poseId);
+			object.writeToStream(section);
+			writeSection(out, SECTION_OBJECT, buffer, compress);
+		}
+	}
+	
+	/** writes skeleton and objects of group but not its clips. used by {@link GroupWriter} */
+	static void writeGroupObjects(AnimatedGroup group, boolean compress, DataOutput out) throws IOException {
+		Animated3D[] objects = new Animated3D[group.getSize()];
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = group.get(i);
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		writeSkeletonAndObjects(objects, null, compress, out, new DataOutputStream(buffer), buffer);
+	}
+	
+	/** writes a single skin clip section and returns length of its payload. used by {@link GroupWriter} */
+	static int writeSkinClip(SkinClip clip, boolean compress, DataOutput out) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		SkinClip.writeToStream(clip, new DataOutputStream(buffer));
+		
+		byte[] payload = buffer.toByteArray();
+		byte flags = 0;
+		if (compress && (payload.length >= SectionCodec.MIN_COMPRESS_SIZE)) {
+			payload = SectionCodec.deflate(payload);
+			flags = SectionCodec.FLAG_DEFLATED;
+		}
+		writeSection(out, SECTION_SKIN_CLIP, flags, payload);
+		return payload.length;
+	}
+	
+	/** writes a skin clip section whose uncompressed payload is read from given stream. used by {@link GroupWriter} */
+	static void writeSkinClip(InputStream payload, int length, DataOutput out) throws IOException {
+		out.writeByte(SECTION_SKIN_CLIP);
+		out.writeByte(0);
+		out.writeInt(length);
+		
+		byte[] buffer = new byte[8192];
+		int remaining = length;
+		while (remaining > 0) {
+			int read = payload.read(buffer, 0, Math.min(buffer.length, remaining));
+			if (read < 0)
+				throw new EOFException("Clip payload is shorter than " + length + " bytes");
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+	}
+	
+	/** 
+	 * writes a clip index for the clip sections written just before it. offsets in such an index are negative. 
+	 * used by {@link GroupWriter} 
+	 * */
+	static void writeTrailingClipIndex(List<String> names, List<Float> times, List<Integer> lengths, 
+			DataOutput out) throws IOException {
+		
+		long clipsSize = 0;
+		for (int length : lengths) {
+			clipsSize += SECTION_HEADER_SIZE + length;
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream section = new DataOutputStream(buffer);
+		
+		// offsets do not change size of index, so first write it to find out its size
+		writeClipIndex(names, times, new int[names.size()], lengths, section);
+		long indexEnd = clipsSize + SECTION_HEADER_SIZE + buffer.size();
+		if (indexEnd > Integer.MAX_VALUE)
+			throw new IOException("Clips are too large to index: " + clipsSize + " bytes");
+		buffer.reset();
+		
+		int[] offsets = new int[names.size()];
+		long position = 0;
+		for (int i = 0; i < offsets.length; i++) {
+			position += SECTION_HEADER_SIZE;
+			offsets[i] = (int) (position - indexEnd);
+			position += lengths.get(i);
+		}
+		writeClipIndex(names, times, offsets, lengths, section);
+		writeSection(out, SECTION_CLIP_INDEX, buffer, false);
+	}
+	
+	private static void writeClipIndex(List<String> names, List<Float> times, int[] offsets, List<Integer> lengths, 
+			DataOutput out) throws IOException {
+		out.writeInt(names.size());
+		for (int i = 0; i < offsets.length; i++) {
+			BonesIO.writeString(out, names.get(i));
+			out.writeFloat(times.get(i));
+			out.writeInt(offsets[i]);
+			out.writeInt(lengths.get(i));
+		}
+	}
+	
+	/** writes pose clips section. used by {@link GroupWriter} */
+	static void writePoseClips(PoseClipSequence sequence, boolean compress, DataOutput out) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PoseClipSequence.writeToStream(sequence, new DataOutputStream(buffer));
+		writeSection(out, SECTION_POSE_CLIPS, buffer, compress);
+	}
+	
+	/** writes end of sections. used by {@link GroupWriter} */
+	static void writeEnd(DataOutput out) throws IOException {
+		out.writeByte(SECTION_END);
+	}
+
+	/** writes clip index followed by a section for each clip. clip index itself is never compressed */
+	private static void writeSkinClips(SkinClipSequence sequence, DataOutput out, 
+			DataOutputStream section, ByteArrayOutputStream buffer, boolean compress) throws IOException {
+		
+		byte[][] clips = new byte[sequence.getSize()][];
+		byte[] flags = new byte[clips.length];
+		for (int i = 0; i < clips.length; i++) {
+			SkinClip.writeToStream(sequence.getClip(i), section);
+			clips[i] = buffer.toByteArray();
+			buffer.reset();
+			
+			if (compress && (clips[i].length >= SectionCodec.MIN_COMPRESS_SIZE)) {
+				clips[i] = SectionCodec.deflate(clips[i]);
+				flags[i] = SectionCodec.FLAG_DEFLATED;
+			}
+		}
+		
+		section.writeInt(clips.length);
+		int offset = 0;
+		for (int i = 0; i < clips.length; i++) {
+			SkinClip clip = sequence.getClip(i);
+			offset += SECTION_HEADER_SIZE;
+			
+			BonesIO.writeString(section, clip.getName());
+			section.writeFloat(clip.getTime());
+			section.writeInt(offset);
+			section.writeInt(clips[i].length);
+			
+			offset += clips[i].length;
+		}
+		writeSection(out, SECTION_CLIP_INDEX, buffer, false);
+		
+		for (int i = 0; i < clips.length; i++) {
+			writeSection(out, SECTION_SKIN_CLIP, flags[i], clips[i]);
+		}
+	}
+	
+	private static void writeHash(DataOutput out, byte[] hash) throws IOException {
+		out.writeInt(hash.length);
+		out.write(hash);
+	}
+	
+	private static byte[] readHash(DataInput in) throws IOException {
+		byte[] hash = new byte[in.readInt()];
+		in.readFully(hash);
+		return hash;
+	}
+	
+	/** writes contents of buffer as a section and resets buffer. if compress is true and section is large enough, it's deflated */
+	private static void writeSection(DataOutput out, byte tag, ByteArrayOutputStream buffer, boolean compress) throws IOException {
+		byte[] payload = buffer.toByteArray();
+		buffer.reset();
+		
+		if (compress && (payload.length >= SectionCodec.MIN_COMPRESS_SIZE)) {
+			writeSection(out, tag, SectionCodec.FLAG_DEFLATED, SectionCodec.deflate(payload));
+		} else {
+			writeSection(out, tag, (byte) 0, payload);
+		}
+	}
+	
+	private static void writeSection(DataOutput out, byte tag, byte flags, byte[] payload) throws IOException {
+		out.writeByte(tag);
+		out.writeByte(flags);
+		out.writeInt(payload.length);
+		out.write(payload);
+	}
+
+	/** 
+	 * reads all sections. if clipMemoryBudget is positive, input must be a {@link ByteBufferInput} and skin clips are loaded lazily.
+	 * no jPCT objects are created, so this can be called from any thread. if registry is not null, 
+	 * skeleton, mesh data, skin data and eagerly loaded clips are replaced with registered identical ones.  
+	 * references to other packages are resolved with given loader, which may be null if there is no reference. 
+	 * */
+	static Content readContent(DataInput in, long clipMemoryBudget, AssetRegistry registry, 
+			PackageLoader packages) throws IOException {
+		final boolean lazy = (clipMemoryBudget > 0);
+		
+		Content content = new Content();
+		Skeleton skeleton = null;
+		List<SkinClip> skinClips = new ArrayList<SkinClip>();
+		List<SkinClipSequence> clipPackages = new ArrayList<SkinClipSequence>();
+		LazySkinClips lazyClips = null;
+		
+		// clip index follows the clips if written by a GroupWriter
+		final boolean hasClipIndex = lazy && containsSection((ByteBufferInput) in, SECTION_CLIP_INDEX);
+		
+		// start inflating all compressed sections at once, keyed by payload position
+		Map<Integer, SectionCodec.Inflation> inflations = (in instanceof ByteBufferInput) 
+				? startInflations((ByteBufferInput) in, lazy, hasClipIndex) : Collections.<Integer, SectionCodec.Inflation>emptyMap();
+
+		while (true) {
+			byte tag = in.readByte();
+			if (tag == SECTION_END)
+				break;
+			int flags = in.readUnsignedByte();
+			int length = in.readInt();
+			
+			if ((flags & ~SectionCodec.FLAG_DEFLATED) != 0)
+				throw new IOException("Unknown section flags: " + flags);
+			
+			if (isSkipped(tag, lazy, hasClipIndex)) {
+				skipFully(in, length);
+				continue;
+			}
+			
+			DataInput section = in;
+			int sectionEnd = (in instanceof ByteBufferInput) ? ((ByteBufferInput) in).getPosition() + length : -1;
+			
+			if ((flags & SectionCodec.FLAG_DEFLATED) != 0) 
+				section = new ByteBufferInput(ByteBuffer.wrap(inflate(in, length, inflations)));
+
+			switch (tag) {
+				case SECTION_SKELETON:
+					skeleton = Skeleton.readFromStream(section);
+					if (registry != null)
+						skeleton = registry.intern(skeleton);
+					break;
+
+				case SECTION_OBJECT: {
+					ObjectContent object = new ObjectContent();
+					object.poseId = section.readInt();
+					object.name = BonesIO.readString(section);
+					object.index = section.readInt();
+					object.meshData = MeshData.readFromStream(section);
+					object.skin = SkinData.readFromStream(section);
+					if (registry != null) {
+						object.meshData = registry.intern(object.meshData);
+						object.skin = registry.intern(object.skin);
+					}
+					
+					if ((object.poseId != NO_POSE) && (skeleton == null))
+						throw new IOException("Object has a pose but there is no skeleton");
+					content.objects.add(object);
+					break;
+				}
+
+				case SECTION_PACKAGE_HASH:
+					content.hash = readHash(section);
+					break;
+					
+				case SECTION_SKELETON_REF: {
+					String id = BonesIO.readString(section);
+					byte[] hash = readHash(section);
+					if (packages == null)
+						throw new IOException("Skeleton is in another package, use a PackageLoader to load: " + id);
+					skeleton = packages.resolveSkeleton(id, hash);
+					break;
+				}
+					
+				case SECTION_CLIPS_REF: {
+					String id = BonesIO.readString(section);
+					byte[] hash = readHash(section);
+					if (packages == null)
+						throw new IOException("Clips are in another package, use a PackageLoader to load: " + id);
+					SkinClipSequence clips = packages.resolveClips(id, hash);
+					if (skeleton == null)
+						throw new IOException("Found clips but there is no skeleton");
+					if (clips.getSkeleton() != skeleton) {
+						// skeleton is embedded in group, not shared with clip package 
+						clips = rebindClips(clips, skeleton, id);
+					}
+					clipPackages.add(clips);
+					break;
+				}
+					
+				case SECTION_POSE_CLIPS:
+					content.poseClipSequence = PoseClipSequence.readFromStream(section);
+					break;
+					
+				case SECTION_CLIP_INDEX: 
+					if (skeleton == null)
+						throw new IOException("Found clip index but there is no skeleton");
+					lazyClips = readClipIndex(section, sectionEnd, ((ByteBufferInput) in).getBuffer(), skeleton, clipMemoryBudget);
+					break;
+					
+				case SECTION_SKIN_CLIP: 
+					if (skeleton == null)
+						throw new IOException("Found skin clip but there is no skeleton");
+					skinClips.add(intern(registry, SkinClip.readFromStream(section, skeleton)));
+					break;
+			}
+		}
+
+		if (lazyClips != null) {
+			content.skinClipSequence = new SkinClipSequence(lazyClips);
+		} else if (!skinClips.isEmpty()) {
+			content.skinClipSequence = new SkinClipSequence(skinClips);
+		}
+		if (!clipPackages.isEmpty()) {
+			if ((content.skinClipSequence == null) && (clipPackages.size() == 1)) {
+				// share the package's sequence as is
+				content.skinClipSequence = clipPackages.get(0);
+			} else {
+				List<SkinClip> all = new ArrayList<SkinClip>();
+				if (content.skinClipSequence != null)
+					clipPackages.add(0, content.skinClipSequence);
+				for (SkinClipSequence clips : clipPackages) {
+					for (SkinClip clip : clips) 
+						all.add(clip);
+				}
+				content.skinClipSequence = new SkinClipSequence(all);
+			}
+		}
+		
+		content.skeleton = skeleton;
+		return content;
+	}
+	
+	private static SkinClip intern(AssetRegistry registry, SkinClip clip) throws IOException {
+		return (registry == null) ? clip : registry.intern(clip);
+	}
+	
+	/** 
+	 * returns copies of package clips bound to given skeleton. package clips are shared so they are not modified. 
+	 * clips of a lazy package are all loaded 
+	 * */
+	private static SkinClipSequence rebindClips(SkinClipSequence clips, Skeleton skeleton, String id) throws IOException {
+		try {
+			skeleton.checkAlmostEqual(clips.getSkeleton());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Clip package has a different skeleton: " + id + ", " + e.getMessage());
+		}
+		List<SkinClip> rebound = new ArrayList<SkinClip>(clips.getSize());
+		for (SkinClip clip : clips) {
+			SkinClip copy = new SkinClip(skeleton, clip);
+			copy.setName(clip.getName());
+			rebound.add(copy);
+		}
+		return new SkinClipSequence(rebound);
+	}
+
+	/** reads clip index. offsets in index are relative to sectionEnd, the position in buffer where index section ends */
+	private static LazySkinClips readClipIndex(DataInput in, int sectionEnd, ByteBuffer buffer,
+			Skeleton skeleton, long clipMemoryBudget) throws IOException {
+		
+		int size = in.readInt();
+		String[] names = new String[size];
+		float[] times = new float[size];
+		int[] offsets = new int[size];
+		int[] lengths = new int[size];
+		
+		for (int i = 0; i < size; i++) {
+			names[i] = BonesIO.readString(in);
+			times[i] = in.readFloat();
+			offsets[i] = sectionEnd + in.readInt();
+			lengths[i] = in.readInt();
+		}
+		return (size == 0) ? null : new LazySkinClips(buffer, skeleton, names, times, offsets, lengths, clipMemoryBudget);
+	}
+
+	/** returns true if a section with given tag is not needed */
+	private static boolean isSkipped(byte tag, boolean lazy, boolean hasClipIndex) {
+		switch (tag) {
+			case SECTION_SKELETON:
+			case SECTION_OBJECT:
+			case SECTION_POSE_CLIPS:
+			case SECTION_PACKAGE_HASH:
+			case SECTION_SKELETON_REF:
+			case SECTION_CLIPS_REF:
+				return false;
+			case SECTION_CLIP_INDEX:
+				return !lazy;
+			case SECTION_SKIN_CLIP:
+				// loaded on demand
+				return lazy && hasClipIndex;
+			default:
+				return true;
+		}
+	}
+	
+	/** 
+	 * scans section headers without moving input and starts inflating all needed compressed sections in parallel. 
+	 * returned map is keyed by payload position 
+	 * */
+	private static Map<Integer, SectionCodec.Inflation> startInflations(ByteBufferInput in, 
+			boolean lazy, boolean hasClipIndex) throws IOException {
+		Map<Integer, SectionCodec.Inflation> inflations = new HashMap<Integer, SectionCodec.Inflation>();
+		ByteBuffer buffer = in.getBuffer();
+		
+		while (buffer.remaining() >= SECTION_HEADER_SIZE) {
+			byte tag = buffer.get();
+			if (tag == SECTION_END)
+				break;
+			int flags = buffer.get();
+			int length = buffer.getInt();
+			if ((length < 0) || (length > buffer.remaining()))
+				break; // corrupt, main loop will fail 
+			
+			if (((flags & SectionCodec.FLAG_DEFLATED) != 0) && !isSkipped(tag, lazy, hasClipIndex)) {
+				ByteBuffer payload = buffer.slice();
+				payload.limit(length);
+				inflations.put(buffer.position(), SectionCodec.startInflate(payload, true));
+			}
+			buffer.position(buffer.position() + length);
+		}
+		return inflations;
+	}
+	
+	/** returns true if there is a section with given tag. input is not moved */
+	private static boolean containsSection(ByteBufferInput in, byte tag) {
+		ByteBuffer buffer = in.getBuffer();
+		
+		while (buffer.remaining() >= SECTION_HEADER_SIZE) {
+			byte next = buffer.get();
+			if (next == SECTION_END)
+				break;
+			buffer.get(); // flags
+			int length = buffer.getInt();
+			if ((length < 0) || (length > buffer.remaining()))
+				break;
+			
+			if (next == tag)
+				return true;
+			buffer.position(buffer.position() + length);
+		}
+		return false;
+	}
+	
+	/** returns inflated payload of current section and moves input to end of section */
+	private static byte[] inflate(DataInput in, int length, Map<Integer, SectionCodec.Inflation> inflations) throws IOException {
+		if (in instanceof ByteBufferInput) {
+			ByteBufferInput bufferInput = (ByteBufferInput) in;
+			SectionCodec.Inflation inflation = inflations.get(bufferInput.getPosition());
+			if (inflation == null) {
+				if ((length < 0) || (length > bufferInput.getRemaining()))
+					throw new EOFException("Section length " + length + " exceeds remaining " + bufferInput.getRemaining());
+				ByteBuffer payload = bufferInput.getBuffer().slice();
+				payload.limit(length);
+				inflation = SectionCodec.startInflate(payload, false);
+			}
+			skipFully(in, length);
+			return inflation.get();
+		}
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return SectionCodec.inflate(ByteBuffer.wrap(payload));
+	}
+
+	private static void skipFully(DataInput in, int length) throws IOException {
+		while (length > 0) {
+			int skipped = in.skipBytes(length);
+			if (skipped <= 0) {
+				in.readByte();
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+	}
+
+	/** 
+	 * decoded contents of a stream. {@link Animated3D}s are not created until {@link #createGroup()} or 
+	 * {@link #createObject()} is called, since they are jPCT objects 
+	 * */
+	static class Content {
+		private final List<ObjectContent> objects = new ArrayList<ObjectContent>();
+		private Skeleton skeleton;
+		private SkinClipSequence skinClipSequence;
+		private PoseClipSequence poseClipSequence;
+		private byte[] hash;
+		
+		Skeleton getSkeleton() {
+			return skeleton;
+		}
+		
+		SkinClipSequence getSkinClipSequence() {
+			return skinClipSequence;
+		}
+		
+		/** returns package hash or null */
+		byte[] getHash() {
+			return hash;
+		}
+		
+		AnimatedGroup createGroup() throws IOException {
+			AnimatedGroup group = new AnimatedGroup(createObjects());
+			group.setSkinClipSequence(skinClipSequence);
+			group.setPoseClipSequence(poseClipSequence);
+			return group;
+		}
+		
+		Animated3D createObject() throws IOException {
+			if (objects.size() != 1)
+				throw new IOException("Expected one object but found " + objects.size());
+
+			Animated3D object = createObjects()[0];
+			object.setSkinClipSequence(skinClipSequence);
+			object.setPoseClipSequence(poseClipSequence);
+			return object;
+		}
+		
+		private Animated3D[] createObjects() throws IOException {
+			if (objects.isEmpty())
+				throw new IOException("No objects found");
+			
+			// objects sharing a pose when saved share it again
+			List<SkeletonPose> poses = new ArrayList<SkeletonPose>();
+			
+			Animated3D[] result = new Animated3D[objects.size()];
+			for (int i = 0; i < result.length; i++) {
+				ObjectContent content = objects.get(i);
+				
+				SkeletonPose pose = null;
+				if (content.poseId != NO_POSE) {
+					while (poses.size() <= content.poseId)
+						poses.add(new SkeletonPose(skeleton));
+					pose = poses.get(content.poseId);
+				}
+				
+				result[i] = new Animated3D(content.meshData, content.skin, pose);
+				result[i].setName(content.name);
+				result[i].setIndex(content.index);
+			}
+			return result;
+		}
+	}
+	
+	/** decoded contents of an object section */
+	private static class ObjectContent {
+		private int poseId;
+		private String name;
+		private int index;
+		private MeshData meshData;
+		private SkinData skin;
+	}
+
+}
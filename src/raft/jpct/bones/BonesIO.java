@@ -1,40 +1,155 @@
 package raft.jpct.bones;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import com.threed.jpct.Animation;
 import com.threed.jpct.Logger;
+import com.threed.jpct.Matrix;
 
 /** 
  * <p>Contains static loader and saver methods.</p> 
  * 
+ * <p>Groups and objects are saved in a compact binary format made of tagged sections.
+ * Files saved with older versions via Java serialization can still be loaded.</p>
+ * 
  * @author hakan eryargi (r a f t)
  * */
 public class BonesIO {
 
-	private static final String HEADER_GROUP = "Bones-Group";
-	private static final String HEADER_OBJECT = "Bones-Object";
-	private static final short VERSION = 4;
+	static final String HEADER_GROUP = "Bones-Group";
+	static final String HEADER_OBJECT = "Bones-Object";
+	static final String HEADER_SKELETON = "Bones-Skeleton";
+	static final String HEADER_CLIPS = "Bones-Clips";
+	private static final String HEADER_ANIMATION = "Bones-Animation";
+	/** version of compact binary format */
+	static final short VERSION = 5;
+	/** version of Java serialization based format */
+	private static final short LEGACY_VERSION = 4;
+	
+	/** number of elements converted at once while reading/writing primitive arrays */
+	static final int BULK_SIZE = 8192;
 	
 	static final int NULL = -1;
 	static final int NON_NULL = 0;
 	
+	/** executor used by async loaders when none is given. created on demand */
+	private static ExecutorService defaultExecutor = null;
+	
 	/** can not be instantiated */
 	private BonesIO() {}
 	
+	/** Returns version of the binary format written by save methods. */
+	public static int getFormatVersion() {
+		return VERSION;
+	}
+	
 	/** 
 	 * <p>Saves given skin group to given stream.</p>
 	 * @see AnimatedGroup 
 	 * */
 	public static void saveGroup(AnimatedGroup group, OutputStream out) throws IOException {
-		ObjectOutputStream oout = new ObjectOutputStream(out);
-		writeHeader(oout, HEADER_GROUP);
-		group.writeToStream(oout);
-		oout.flush();
+		saveGroup(group, null, null, out, false);
+	}
+	
+	/** 
+	 * <p>Saves given skin group to given stream. If compress is true, large sections are deflated in chunks. 
+	 * Compressed files are smaller and are inflated in parallel while loading.</p>
+	 * @see AnimatedGroup 
+	 * */
+	public static void saveGroup(AnimatedGroup group, OutputStream out, boolean compress) throws IOException {
+		saveGroup(group, null, null, out, compress);
+	}
+	
+	/** 
+	 * <p>Saves given skin group to given stream without its skeleton and skin clips. Instead, references 
+	 * to skeleton and clip packages are saved. Such a group can be loaded with a {@link PackageLoader}.</p>
+	 * 
+	 * @param skeletonId id of skeleton package or null to embed skeleton
+	 * @param clipsId id of clip package or null to embed clips. if skeleton is embedded, clips of package 
+	 * 		are copied and bound to embedded skeleton while loading, so they are not lazily loaded
+	 * @see #saveSkeleton(Skeleton, OutputStream)
+	 * @see #saveClips(SkinClipSequence, String, OutputStream)
+	 * @see PackageLoader
+	 * */
+	public static void saveGroup(AnimatedGroup group, String skeletonId, String clipsId, OutputStream out) throws IOException {
+		saveGroup(group, skeletonId, clipsId, out, false);
+	}
+	
+	/** 
+	 * <p>Same as {@link #saveGroup(AnimatedGroup, String, String, OutputStream)} but optionally compresses 
+	 * large sections.</p>
+	 * 
+	 * @see #saveGroup(AnimatedGroup, OutputStream, boolean)
+	 * */
+	public static void saveGroup(AnimatedGroup group, String skeletonId, String clipsId, OutputStream out, 
+			boolean compress) throws IOException {
+		DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+		writeHeader(dout, HEADER_GROUP, VERSION);
+		BonesFormat.writeGroup(group, skeletonId, clipsId, compress, dout);
+		dout.flush();
+	}
+	
+	/** 
+	 * <p>Saves given {@link Skeleton} as a package which can be referenced by groups and clip packages.</p>
+	 * 
+	 * @see PackageLoader
+	 * */
+	public static void saveSkeleton(Skeleton skeleton, OutputStream out) throws IOException {
+		DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+		writeHeader(dout, HEADER_SKELETON, VERSION);
+		BonesFormat.writeSkeletonPackage(skeleton, dout);
+		dout.flush();
+	}
+	
+	/** 
+	 * <p>Saves given {@link SkinClipSequence} as a package which can be referenced by groups. 
+	 * Skeleton of sequence is not saved but referenced.</p>
+	 * 
+	 * @param skeletonId id of skeleton package
+	 * @see PackageLoader
+	 * */
+	public static void saveClips(SkinClipSequence sequence, String skeletonId, OutputStream out) throws IOException {
+		saveClips(sequence, skeletonId, out, false);
+	}
+	
+	/** 
+	 * <p>Same as {@link #saveClips(SkinClipSequence, String, OutputStream)} but optionally compresses 
+	 * clips. Each clip is compressed separately, so lazy loading still works.</p>
+	 * 
+	 * @see #saveGroup(AnimatedGroup, OutputStream, boolean)
+	 * */
+	public static void saveClips(SkinClipSequence sequence, String skeletonId, OutputStream out, 
+			boolean compress) throws IOException {
+		if (skeletonId == null)
+			throw new NullPointerException("skeletonId");
+		
+		DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+		writeHeader(dout, HEADER_CLIPS, VERSION);
+		BonesFormat.writeClipsPackage(sequence, skeletonId, compress, dout);
+		dout.flush();
 	}
 	
 	/** 
@@ -42,10 +157,18 @@ public class BonesIO {
 	 * @see Animated3D 
 	 * */
 	public static void saveObject(Animated3D object, OutputStream out) throws IOException {
-		ObjectOutputStream oout = new ObjectOutputStream(out);
-		writeHeader(oout, HEADER_OBJECT);
-		object.writeToStream(oout);
-		oout.flush();
+		saveObject(object, out, false);
+	}
+	
+	/** 
+	 * <p>Saves given {@link Animated3D} to given stream. If compress is true, large sections are deflated.</p> 
+	 * @see #saveGroup(AnimatedGroup, OutputStream, boolean) 
+	 * */
+	public static void saveObject(Animated3D object, OutputStream out, boolean compress) throws IOException {
+		DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+		writeHeader(dout, HEADER_OBJECT, VERSION);
+		BonesFormat.writeObject(object, compress, dout);
+		dout.flush();
 	}
 	
 	/** 
@@ -60,13 +183,18 @@ public class BonesIO {
 			Logger.log("Wrapping input stream in a BufferedInputStream", Logger.MESSAGE);
 			in = new BufferedInputStream(in);
 		}
-		ObjectInputStream oin = new ObjectInputStream(in);
-		readHeader(oin, HEADER_OBJECT);
-		try {
-			return new Animated3D(oin);
-		} catch (ClassNotFoundException e) {
-			throw new IOException(e);
+		if (isLegacyStream(in)) {
+			ObjectInputStream oin = new ObjectInputStream(in);
+			readHeader(oin, HEADER_OBJECT, LEGACY_VERSION);
+			try {
+				return new Animated3D(oin);
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
 		}
+		DataInputStream din = new DataInputStream(in);
+		readHeader(din, HEADER_OBJECT, VERSION);
+		return BonesFormat.readObject(din, null);
 	}
 	
 	/** 
@@ -77,281 +205,467 @@ public class BonesIO {
 	 * @see #saveGroup(AnimatedGroup, OutputStream) 
 	 * */
 	public static AnimatedGroup loadGroup(InputStream in) throws IOException {
+		return loadGroup(in, null);
+	}
+	
+	/** 
+	 * <p>Same as {@link #loadGroup(InputStream)} but shares identical data with other groups loaded 
+	 * with same registry. Registry is not used for files in legacy format.</p>
+	 *  
+	 * @param registry the registry, may be null
+	 * @see AssetRegistry
+	 * */
+	public static AnimatedGroup loadGroup(InputStream in, AssetRegistry registry) throws IOException {
+		if (!(in instanceof BufferedInputStream)) {
+			Logger.log("Wrapping input stream in a BufferedInputStream", Logger.MESSAGE);
+			in = new BufferedInputStream(in);
+		}
+		if (isLegacyStream(in)) {
+			ObjectInputStream oin = new ObjectInputStream(in);
+			readHeader(oin, HEADER_GROUP, LEGACY_VERSION);
+			try {
+				return new AnimatedGroup(oin);
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+		DataInputStream din = new DataInputStream(in);
+		readHeader(din, HEADER_GROUP, VERSION);
+		return BonesFormat.readGroup(din, registry);
+	}
+
+	/** 
+	 * <p>Loads an {@link AnimatedGroup} from given file by memory mapping it. Vertex, weight and keyframe 
+	 * arrays are bulk copied from mapped buffer, so loading costs roughly page faults of the file 
+	 * and processes loading same file share one copy in page cache.</p>
+	 * 
+	 * <p>Files in legacy format are loaded via {@link #loadGroup(InputStream)}.</p>
+	 *  
+	 * @see #saveGroup(AnimatedGroup, OutputStream) 
+	 * */
+	public static AnimatedGroup loadGroup(File file) throws IOException {
+		return loadGroup(file, null);
+	}
+	
+	/** 
+	 * <p>Same as {@link #loadGroup(File)} but shares identical skeleton, mesh, skin and clip data with 
+	 * other groups loaded with same registry. Registry is not used for files in legacy format.</p>
+	 *  
+	 * @param registry the registry, may be null
+	 * @see AssetRegistry
+	 * */
+	public static AnimatedGroup loadGroup(File file, AssetRegistry registry) throws IOException {
+		ByteBufferInput in = map(file);
+		if (isLegacyStream(in)) {
+			InputStream legacyIn = new BufferedInputStream(new FileInputStream(file));
+			try {
+				return loadGroup(legacyIn);
+			} finally {
+				legacyIn.close();
+			}
+		}
+		
+		readHeader(in, HEADER_GROUP, VERSION);
+		return BonesFormat.readGroup(in, registry);
+	}
+	
+	/** 
+	 * <p>Same as {@link #loadGroup(File)} but skin clips are not loaded up front. Returned group's 
+	 * {@link SkinClipSequence} loads each clip on first use from mapped file, and unloads least recently 
+	 * used ones when loaded clips exceed given memory budget.</p> 
+	 * 
+	 * <p>Files in legacy format or without a clip index are loaded eagerly.</p>
+	 * 
+	 * @param clipMemoryBudget maximum estimated memory of loaded clips in bytes
+	 * @see SkinClipSequence#isLazy()
+	 * @see SkinClipSequence#prefetch(int...)
+	 * @see SkinClipSequence#unload(int...)
+	 * */
+	public static AnimatedGroup loadGroupLazy(File file, long clipMemoryBudget) throws IOException {
+		return loadGroupLazy(file, clipMemoryBudget, null);
+	}
+	
+	/** 
+	 * <p>Same as {@link #loadGroupLazy(File, long)} but shares identical skeleton, mesh and skin data with 
+	 * other groups loaded with same registry. Lazily loaded clips are not shared.</p>
+	 *  
+	 * @param registry the registry, may be null
+	 * @see AssetRegistry
+	 * */
+	public static AnimatedGroup loadGroupLazy(File file, long clipMemoryBudget, AssetRegistry registry) throws IOException {
+		ByteBufferInput in = map(file);
+		if (isLegacyStream(in)) {
+			Logger.log("Legacy file, clips will be loaded eagerly: " + file, Logger.WARNING);
+			return loadGroup(file);
+		}
+		
+		readHeader(in, HEADER_GROUP, VERSION);
+		return BonesFormat.readGroupLazy(in, clipMemoryBudget, registry);
+	}
+	
+	/** 
+	 * <p>Loads an {@link Animated3D} from given file by memory mapping it.</p>
+	 *  
+	 * @see #loadGroup(File)
+	 * @see #saveObject(Animated3D, OutputStream) 
+	 * */
+	public static Animated3D loadObject(File file) throws IOException {
+		return loadObject(file, null);
+	}
+	
+	/** 
+	 * <p>Same as {@link #loadObject(File)} but shares identical data with other objects and groups 
+	 * loaded with same registry.</p>
+	 *  
+	 * @param registry the registry, may be null
+	 * @see AssetRegistry
+	 * */
+	public static Animated3D loadObject(File file, AssetRegistry registry) throws IOException {
+		ByteBufferInput in = map(file);
+		if (isLegacyStream(in)) {
+			InputStream legacyIn = new BufferedInputStream(new FileInputStream(file));
+			try {
+				return loadObject(legacyIn);
+			} finally {
+				legacyIn.close();
+			}
+		}
+		
+		readHeader(in, HEADER_OBJECT, VERSION);
+		return BonesFormat.readObject(in, registry);
+	}
+	
+	/** 
+	 * <p>Same as {@link #loadGroupAsync(File, Executor)} but uses a default executor with daemon threads.</p>
+	 * */
+	public static Future<AnimatedGroup> loadGroupAsync(File file) {
+		return loadGroupAsync(file, getDefaultExecutor());
+	}
+	
+	/** 
+	 * <p>Loads an {@link AnimatedGroup} from given file in background. File is decoded on given executor,  
+	 * but jPCT objects are created on the thread calling {@link Future#get()}. So a typical usage is, 
+	 * render thread checks {@link Future#isDone()} each frame and calls {@link Future#get()} when it returns true. 
+	 * {@link Future#get()} still blocks if decoding is not done yet.</p>
+	 * 
+	 * <p>Files in legacy format are completely loaded on executor.</p>
+	 * 
+	 * @see #loadGroup(File)
+	 * */
+	public static Future<AnimatedGroup> loadGroupAsync(File file, Executor executor) {
+		return loadGroupAsync(file, executor, null);
+	}
+	
+	/** 
+	 * <p>Same as {@link #loadGroupAsync(File, Executor)} but shares identical data with other groups 
+	 * loaded with same registry.</p>
+	 *  
+	 * @param registry the registry, may be null
+	 * @see AssetRegistry
+	 * */
+	public static Future<AnimatedGroup> loadGroupAsync(final File file, Executor executor, final AssetRegistry registry) {
+		return new AsyncLoad<AnimatedGroup>(new AsyncLoad.Task<AnimatedGroup>() {
+			private BonesFormat.Content content;
+			private AnimatedGroup legacyGroup;
+			
+			@Override
+			void decode() throws IOException {
+				ByteBufferInput in = map(file);
+				if (isLegacyStream(in)) {
+					legacyGroup = loadGroup(file);
+					return;
+				}
+				readHeader(in, HEADER_GROUP, VERSION);
+				content = BonesFormat.readContent(in, -1, registry, null);
+			}
+			
+			@Override
+			AnimatedGroup create() throws IOException {
+				return (legacyGroup != null) ? legacyGroup : content.createGroup();
+			}
+		}, executor);
+	}
+	
+	/** 
+	 * <p>Same as {@link #loadObjectAsync(File, Executor)} but uses a default executor with daemon threads.</p>
+	 * */
+	public static Future<Animated3D> loadObjectAsync(File file) {
+		return loadObjectAsync(file, getDefaultExecutor());
+	}
+	
+	/** 
+	 * <p>Loads an {@link Animated3D} from given file in background.</p>
+	 * 
+	 * @see #loadGroupAsync(File, Executor)
+	 * @see #loadObject(File)
+	 * */
+	public static Future<Animated3D> loadObjectAsync(final File file, Executor executor) {
+		return new AsyncLoad<Animated3D>(new AsyncLoad.Task<Animated3D>() {
+			private BonesFormat.Content content;
+			private Animated3D legacyObject;
+			
+			@Override
+			void decode() throws IOException {
+				ByteBufferInput in = map(file);
+				if (isLegacyStream(in)) {
+					legacyObject = loadObject(file);
+					return;
+				}
+				readHeader(in, HEADER_OBJECT, VERSION);
+				content = BonesFormat.readContent(in, -1, null, null);
+			}
+			
+			@Override
+			Animated3D create() throws IOException {
+				return (legacyObject != null) ? legacyObject : content.createObject();
+			}
+		}, executor);
+	}
+	
+	private static synchronized Executor getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "BonesIO loader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return defaultExecutor;
+	}
+	
+	/** maps given file read only. mapping remains valid after channel is closed */
+	static ByteBufferInput map(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File is too large to map: " + size);
+			return new ByteBufferInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+		} finally {
+			fis.close();
+		}
+	}
+	
+	/** 
+	 * <p>Saves given baked {@link Animation} to given stream.</p>
+	 * 
+	 * @see Animated3D#createAnimationSequence(float) 
+	 * */
+	public static void saveAnimation(Animation animation, OutputStream out) throws IOException {
+		ObjectOutputStream oout = new ObjectOutputStream(out);
+		writeHeader(oout, HEADER_ANIMATION, LEGACY_VERSION);
+		oout.writeObject(animation);
+		oout.flush();
+	}
+	
+	/** 
+	 * <p>Loads a baked {@link Animation} from given stream. Animation should be saved to stream
+	 * via {@link #saveAnimation(Animation, OutputStream)}</p>
+	 *  
+	 * @see Animated3D#createAnimationSequence(float)
+	 * @see #saveAnimation(Animation, OutputStream) 
+	 * */
+	public static Animation loadAnimation(InputStream in) throws IOException {
 		if (!(in instanceof BufferedInputStream)) {
 			Logger.log("Wrapping input stream in a BufferedInputStream", Logger.MESSAGE);
 			in = new BufferedInputStream(in);
 		}
 		ObjectInputStream oin = new ObjectInputStream(in);
-		readHeader(oin, HEADER_GROUP);
+		readHeader(oin, HEADER_ANIMATION, LEGACY_VERSION);
 		try {
-			return new AnimatedGroup(oin);
+			return (Animation) oin.readObject();
 		} catch (ClassNotFoundException e) {
 			throw new IOException(e);
 		}
 	}
 
-	private static void writeHeader(java.io.ObjectOutputStream out, String header) throws IOException {
+	static void writeHeader(DataOutput out, String header, short version) throws IOException {
 		out.writeUTF(header);
-		out.writeShort(VERSION);
+		out.writeShort(version);
 	}
 	
-	private static void readHeader(java.io.ObjectInputStream in, String requiredHeader) throws IOException {
+	static void readHeader(DataInput in, String requiredHeader, short requiredVersion) throws IOException {
 		String header = in.readUTF();
 		if (!requiredHeader.equals(header))
 			throw new IOException("Invalid header: " + header);
 		short version = in.readShort();
-		if (VERSION != version)
-			throw new IOException("Version mismatch. Current version: " + VERSION + ", stream version: " + version);
+		if (requiredVersion != version)
+			throw new IOException("Version mismatch. Current version: " + requiredVersion + ", stream version: " + version);
+	}
+
+	/** checks if buffer starts with Java serialization magic. does not consume any bytes */
+	private static boolean isLegacyStream(ByteBufferInput in) {
+		return (in.peekShort() == (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF));
+	}
+	
+	/** checks if stream starts with Java serialization magic. stream must support mark/reset */
+	private static boolean isLegacyStream(InputStream in) throws IOException {
+		in.mark(2);
+		int magic = (in.read() << 8) | in.read();
+		in.reset();
+		return (magic == (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF));
+	}
+	
+	/** writes given array with a length prefix. elements are written in bulk */
+	static void writeFloatArray(DataOutput out, float[] array) throws IOException {
+		if (array == null) {
+			out.writeInt(NULL);
+			return;
+		} 
+		out.writeInt(array.length);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(Math.min(array.length, BULK_SIZE) * 4);
+		FloatBuffer floats = buffer.asFloatBuffer();
+		for (int offset = 0; offset < array.length; offset += BULK_SIZE) {
+			int count = Math.min(BULK_SIZE, array.length - offset);
+			floats.clear();
+			floats.put(array, offset, count);
+			out.write(buffer.array(), 0, count * 4);
+		}
 	}
 
+	static float[] readFloatArray(DataInput in) throws IOException {
+		int size = in.readInt();
+		if (size == NULL)
+			return null;
+		
+		float[] array = new float[size];
+		if (in instanceof ByteBufferInput) {
+			((ByteBufferInput) in).readFloats(array);
+			return array;
+		}
+		
+		byte[] bytes = new byte[Math.min(size, BULK_SIZE) * 4];
+		FloatBuffer floats = ByteBuffer.wrap(bytes).asFloatBuffer();
+		for (int offset = 0; offset < size; offset += BULK_SIZE) {
+			int count = Math.min(BULK_SIZE, size - offset);
+			in.readFully(bytes, 0, count * 4);
+			floats.clear();
+			floats.get(array, offset, count);
+		}
+		return array;
+	}
 	
+	/** writes given array with a length prefix. elements are written in bulk */
+	static void writeIntArray(DataOutput out, int[] array) throws IOException {
+		if (array == null) {
+			out.writeInt(NULL);
+			return;
+		} 
+		out.writeInt(array.length);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(Math.min(array.length, BULK_SIZE) * 4);
+		IntBuffer ints = buffer.asIntBuffer();
+		for (int offset = 0; offset < array.length; offset += BULK_SIZE) {
+			int count = Math.min(BULK_SIZE, array.length - offset);
+			ints.clear();
+			ints.put(array, offset, count);
+			out.write(buffer.array(), 0, count * 4);
+		}
+	}
 	
-//	static void writeFloatArray(ObjectOutputStream out, float[] array) throws IOException {
-//		if (array == null) {
-//			out.writeInt(NULL);
-//		} else {
-//			out.writeInt(array.length);
-//			for (float val : array) {
-//				out.writeFloat(val);
-//			}
-//		}
-//	}
-//
-//	static void writeFloat2Array(ObjectOutputStream out, float[][] array) throws IOException {
-//		if (array == null) {
-//			out.writeInt(NULL);
-//		} else {
-//			out.writeInt(array.length);
-//			for (float[] subarray : array) {
-//				writeFloatArray(out, subarray);
-//			}
-//		}
-//	}
-//	
-//	static void writeIntArray(ObjectOutputStream out, int[] array) throws IOException {
-//		if (array == null) {
-//			out.writeInt(NULL);
-//		} else {
-//			out.writeInt(array.length);
-//			for (int val : array) {
-//				out.writeInt(val);
-//			}
-//		}
-//	}
-//	
-//	static int[] readIntArray(ObjectInputStream in) throws IOException {
-//		int size = in.readInt();
-//		if (size == NULL)
-//			return null;
-//		
-//		int[] array = new int[size];
-//		for (int i = 0; i < size; i++) {
-//			array[i] = in.readInt();
-//		}
-//		return array;
-//	}
-//	
-//	
-//	static void writeShortArray(ObjectOutputStream out, short[] array) throws IOException {
-//		if (array == null) {
-//			out.writeInt(NULL);
-//		} else {
-//			out.writeInt(array.length);
-//			for (short val : array) {
-//				out.writeShort(val);
-//			}
-//		}
-//	}
-//	
-//	static void writeShort2Array(ObjectOutputStream out, short[][] array) throws IOException {
-//		if (array == null) {
-//			out.writeInt(NULL);
-//		} else {
-//			out.writeInt(array.length);
-//			for (short[] subarray : array) {
-//				writeShortArray(out, subarray);
-//			}
-//		}
-//	}
-//	
-//	static void writeMatrix(ObjectOutputStream out, Matrix matrix) throws IOException {
-//		if (matrix == null) {
-//			out.writeInt(NULL);
-//		} else {
-//			out.writeInt(NON_NULL);
-//			float[] dump = matrix.getDump();
-//			for (float val : dump) {
-//				out.writeFloat(val);
-//			}
-//		}
-//	}
-//	
-//	static Matrix readMatrix(ObjectInputStream in) throws IOException {
-//		if (in.readInt() == NULL)
-//			return null;
-//		
-//		float[] dump = new float[16];
-//		for (int i = 0; i < 16; i++) {
-//			dump[i] = in.readFloat();
-//		}
-//		Matrix matrix = new Matrix();
-//		matrix.setDump(dump);
-//		return matrix;
-//	}
-//	
-//	static float[] readFloatArray(ObjectInputStream in) throws IOException {
-//		int size = in.readInt();
-//		if (size == NULL)
-//			return null;
-//		
-//		float[] array = new float[size];
-//		for (int i = 0; i < size; i++) {
-//			array[i] = in.readFloat();
-//		}
-//		return array;
-//	}
-//	
-//	static float[][] readFloat2Array(ObjectInputStream in) throws IOException {
-//		int size = in.readInt();
-//		if (size == NULL)
-//			return null;
-//		
-//		float[][] array = new float[size][];
-//		for (int i = 0; i < size; i++) {
-//			array[i] = readFloatArray(in);
-//		}
-//		return array;
-//	}
-//	
-//	static short[] readShortArray(ObjectInputStream in) throws IOException {
-//		int size = in.readInt();
-//		if (size == NULL)
-//			return null;
-//		
-//		short[] array = new short[size];
-//		for (int i = 0; i < size; i++) {
-//			array[i] = in.readShort();
-//		}
-//		return array;
-//	}
-//	
-//	static short[][] readShort2Array(ObjectInputStream in) throws IOException {
-//		int size = in.readInt();
-//		if (size == NULL)
-//			return null;
-//		
-//		short[][] array = new short[size][];
-//		for (int i = 0; i < size; i++) {
-//			array[i] = readShortArray(in);
-//		}
-//		return array;
-//	}
-//
-//	static void writeString(ObjectOutputStream out, String s) throws IOException {
-//		if (s == null) {
-//			out.writeInt(NULL);
-//		} else {
-//			out.writeInt(s.length());
-//			
-//			for (char c : s.toCharArray()) {
-//				out.writeChar(c);
-//			}
-//		}
-//	}
-//	
-//	static String readString(ObjectInputStream in) throws IOException {
-//		int size = in.readInt();
-//		if (size == NULL)
-//			return null;
-//		
-//		char[] chars = new char[size];
-//		for (int i = 0; i < size; i++) {
-//			chars[i] = in.readChar();
-//		}
-//		return new String(chars);
-//	}
-//
-//	static void writeSimpleVectorArray(ObjectOutputStream out, SimpleVector[] array) throws IOException {
-//		if (array == null) {
-//			out.writeInt(NULL);
-//		} else {
-//			out.writeInt(array.length);
-//			for (SimpleVector vector : array) {
-//				writeSimpleVector(out, vector);
-//			}
-//		}
-//	}
-//	
-//	static SimpleVector[] readSimpleVectorArray(ObjectInputStream in) throws IOException {
-//		int size = in.readInt();
-//		if (size == NULL)
-//			return null;
-//		
-//		SimpleVector[] array = new SimpleVector[size];
-//		for (int i = 0; i < size; i++) {
-//			array[i] = readSimpleVector(in);
-//		}
-//		return array;
-//	}
-//	
-//	static void writeSimpleVector(ObjectOutputStream out, SimpleVector vector) throws IOException {
-//		if (vector == null) {
-//			out.writeInt(NULL);
-//		} else {
-//			out.writeInt(NON_NULL);
-//			out.writeFloat(vector.x);
-//			out.writeFloat(vector.y);
-//			out.writeFloat(vector.z);
-//		}
-//	}
-//	
-//	static SimpleVector readSimpleVector(ObjectInputStream in) throws IOException {
-//		if (in.readInt() == NULL)
-//			return null;
-//		
-//		return new SimpleVector(in.readFloat(), in.readFloat(), in.readFloat());
-//	}
-//	
-//	static void writeQuaternionArray(ObjectOutputStream out, Quaternion[] array) throws IOException {
-//		if (array == null) {
-//			out.writeInt(NULL);
-//		} else {
-//			out.writeInt(array.length);
-//			for (Quaternion quat : array) {
-//				writeQuaternion(out, quat);
-//			}
-//		}
-//	}
-//	
-//	static Quaternion[] readQuaternionArray(ObjectInputStream in) throws IOException {
-//		int size = in.readInt();
-//		if (size == NULL)
-//			return null;
-//		
-//		Quaternion[] array = new Quaternion[size];
-//		for (int i = 0; i < size; i++) {
-//			array[i] = readQuaternion(in);
-//		}
-//		return array;
-//	}
-//	
-//	static void writeQuaternion(ObjectOutputStream out, Quaternion quat) throws IOException {
-//		if (quat == null) {
-//			out.writeInt(NULL);
-//		} else {
-//			out.writeInt(NON_NULL);
-//			out.writeFloat(quat.x);
-//			out.writeFloat(quat.y);
-//			out.writeFloat(quat.z);
-//			out.writeFloat(quat.w);
-//		}
-//	}
-//	
-//	static Quaternion readQuaternion(ObjectInputStream in) throws IOException {
-//		if (in.readInt() == NULL)
-//			return null;
-//		
-//		return new Quaternion(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
-//	}
-//	
+	static int[] readIntArray(DataInput in) throws IOException {
+		int size = in.readInt();
+		if (size == NULL)
+			return null;
+		
+		int[] array = new int[size];
+		if (in instanceof ByteBufferInput) {
+			((ByteBufferInput) in).readInts(array);
+			return array;
+		}
+		
+		byte[] bytes = new byte[Math.min(size, BULK_SIZE) * 4];
+		IntBuffer ints = ByteBuffer.wrap(bytes).asIntBuffer();
+		for (int offset = 0; offset < size; offset += BULK_SIZE) {
+			int count = Math.min(BULK_SIZE, size - offset);
+			in.readFully(bytes, 0, count * 4);
+			ints.clear();
+			ints.get(array, offset, count);
+		}
+		return array;
+	}
+	
+	/** writes given array with a length prefix. elements are written in bulk */
+	static void writeShortArray(DataOutput out, short[] array) throws IOException {
+		if (array == null) {
+			out.writeInt(NULL);
+			return;
+		} 
+		out.writeInt(array.length);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(Math.min(array.length, BULK_SIZE) * 2);
+		ShortBuffer shorts = buffer.asShortBuffer();
+		for (int offset = 0; offset < array.length; offset += BULK_SIZE) {
+			int count = Math.min(BULK_SIZE, array.length - offset);
+			shorts.clear();
+			shorts.put(array, offset, count);
+			out.write(buffer.array(), 0, count * 2);
+		}
+	}
+	
+	static short[] readShortArray(DataInput in) throws IOException {
+		int size = in.readInt();
+		if (size == NULL)
+			return null;
+		
+		short[] array = new short[size];
+		if (in instanceof ByteBufferInput) {
+			((ByteBufferInput) in).readShorts(array);
+			return array;
+		}
+		
+		byte[] bytes = new byte[Math.min(size, BULK_SIZE) * 2];
+		ShortBuffer shorts = ByteBuffer.wrap(bytes).asShortBuffer();
+		for (int offset = 0; offset < size; offset += BULK_SIZE) {
+			int count = Math.min(BULK_SIZE, size - offset);
+			in.readFully(bytes, 0, count * 2);
+			shorts.clear();
+			shorts.get(array, offset, count);
+		}
+		return array;
+	}
+	
+	static void writeMatrix(DataOutput out, Matrix matrix) throws IOException {
+		if (matrix == null) {
+			out.writeInt(NULL);
+		} else {
+			out.writeInt(NON_NULL);
+			float[] dump = matrix.getDump();
+			for (float val : dump) {
+				out.writeFloat(val);
+			}
+		}
+	}
+	
+	static Matrix readMatrix(DataInput in) throws IOException {
+		if (in.readInt() == NULL)
+			return null;
+		
+		float[] dump = new float[16];
+		for (int i = 0; i < 16; i++) {
+			dump[i] = in.readFloat();
+		}
+		Matrix matrix = new Matrix();
+		matrix.setDump(dump);
+		return matrix;
+	}
+	
+	static void writeString(DataOutput out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(NULL);
+		} else {
+			out.writeInt(NON_NULL);
+			out.writeUTF(s);
+		}
+	}
+	
+	static String readString(DataInput in) throws IOException {
+		if (in.readInt() == NULL)
+			return null;
+		return in.readUTF();
+	}
 }
@@ -129,6 +129,7 @@ public class BonesImporter {
 	 * @param node jME OgreEntityNode
 	 * @param scale the scale
 	 * @param rotation the rotation applied to whole system. maybe null
+	 * @see OgreXmlImporter#importGroup(java.net.URL, float, Quaternion)
 	 * */
 	public static AnimatedGroup importOgre(OgreEntityNode node, float scale, Quaternion rotation) throws IOException {
 		if (node.getControllerCount() == 0)
@@ -298,6 +299,56 @@ public class BonesImporter {
 		return group;
 	}
 	
+	/** 
+	 * <p>Optimizes meshes of given group for smaller size: vertices not referenced by any polygon are removed and 
+	 * duplicate vertices are welded into one. Vertices are duplicate if their position, UV, skin weights and offsets 
+	 * in all poses are exactly the same. Polygons and animations are not changed.</p>
+	 * 
+	 * <p>Since jPCT calculates normals out of geometry, welding vertices at a hard edge makes the edge look smooth.</p>
+	 * 
+	 * <p>Mesh poses of group are modified in place, so they should not be shared with other groups.</p>
+	 * 
+	 * @return a new group if any mesh is optimized, otherwise given group
+	 * @throws IllegalStateException if mesh data of any object is discarded
+	 * @see Animated3D#discardMeshData()
+	 * */
+	public static AnimatedGroup optimizeMeshes(AnimatedGroup group) {
+		return MeshOptimizer.weld(group);
+	}
+	
+	/** 
+	 * <p>Reorders polygons of meshes in given group for post-transform vertex cache locality, using Tom Forsyth's 
+	 * linear-speed vertex cache optimisation. Vertices are then reordered by their first use, so skin and pose 
+	 * animations also walk vertex arrays linearly. Vertices not referenced by any polygon are removed. 
+	 * Average cache miss ratio (ACMR) before and after is logged for each mesh.</p>
+	 * 
+	 * <p>If clusterJoints is true, polygons are first grouped by the joint which effects them most, 
+	 * so a small set of joints is used at a time during skinning, at the cost of a slightly higher ACMR.</p>
+	 * 
+	 * <p>Mesh poses of group are modified in place, so they should not be shared with other groups.</p>
+	 * 
+	 * @return a new group with reordered meshes
+	 * @throws IllegalStateException if mesh data of any object is discarded
+	 * @see Animated3D#discardMeshData()
+	 * */
+	public static AnimatedGroup reorderMeshes(AnimatedGroup group, boolean clusterJoints) {
+		return MeshOptimizer.reorder(group, clusterJoints);
+	}
+	
+	/** 
+	 * <p>Compacts skins of objects in given group. Influences below threshold are dropped, remaining ones are 
+	 * renormalized and, if skeleton has at most 256 joints, packed as 8-bit weights and joint indices.
+	 * Can be applied to imported or loaded groups.</p>
+	 * 
+	 * @param threshold minimum weight of an influence, for example 0.01
+	 * @return a new group with compacted skins
+	 * @throws IllegalStateException if mesh data of any skinned object is discarded
+	 * @see SkinData#compact(float)
+	 * */
+	public static AnimatedGroup compactSkins(AnimatedGroup group, float threshold) {
+		return MeshOptimizer.compactSkins(group, threshold);
+	}
+	
 	private static boolean ordered(List<com.jmex.model.ogrexml.anim.Bone> bones) {
 		for (int i = 0; i < bones.size(); i++) {
 			com.jmex.model.ogrexml.anim.Bone bone = bones.get(i);
@@ -0,0 +1,684 @@
+package raft.jpct.bones;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.threed.jpct.Logger;
+import com.threed.jpct.Matrix;
+
+/**
+ * <p>Imports motion capture data from Biovision BVH files. Hierarchy of a BVH file can be imported as a
+ * {@link Skeleton} and its motion as a {@link SkinClip}.</p>
+ *
+ * <p>Motion capture files are typically long, so motion is read line by line and each frame is converted to
+ * joint transforms right away without creating any objects. {@link #writeClip(URL, GroupWriter, float, Quaternion)}
+ * writes converted frames to a temporary file at their final positions in a .bones clip section, which is then
+ * appended to writer. So memory use does not depend on length of motion.</p>
+ *
+ * <p>Motion can be imported onto an existing skeleton, for example one of a model exported from a modelling tool,
+ * without any retargeting: joints are matched by name and should have same hierarchy. Rest pose of skeleton is
+ * assumed to be same as BVH hierarchy, where all joints are unrotated. Joints of BVH file missing in skeleton are
+ * skipped and joints of skeleton missing in BVH file are not animated.</p>
+ *
+ * <p>Each frame becomes a key frame and name of clip is name of file without extension.
+ * BVH files are typically Y up, so a rotation of x180 is typically required.</p>
+ *
+ * @author hakan eryargi (r a f t)
+ */
+public class BvhImporter {
+
+	private static final int X_POSITION = 0, Y_POSITION = 1, Z_POSITION = 2;
+	private static final int X_ROTATION = 3, Y_ROTATION = 4, Z_ROTATION = 5;
+	private static final String[] CHANNEL_NAMES = { "Xposition", "Yposition", "Zposition",
+			"Xrotation", "Yrotation", "Zrotation" };
+
+	private final String name;
+	private final BvhReader reader;
+	/** joints in file order, so parents come first */
+	private final List<BvhJoint> joints = new ArrayList<BvhJoint>();
+	/** number of values in a frame */
+	private int valueCount = 0;
+	private int frameCount;
+	private float frameTime;
+
+	private BvhImporter(URL url, BvhReader reader) {
+		this.name = clipName(url);
+		this.reader = reader;
+	}
+
+	/**
+	 * <p>Constructs a {@link Skeleton} out of hierarchy of a BVH file. Joints are in file order, and rest pose is
+	 * hierarchy with all joints unrotated. Motion in file is not read.</p>
+	 *
+	 * @param bvhUrl location of BVH file
+	 * @param scale the scale
+	 * @param rotation the rotation applied to whole system. maybe null
+	 * @throws IOException if file cannot be read or is malformed
+	 * */
+	public static Skeleton importSkeleton(URL bvhUrl, float scale, Quaternion rotation) throws IOException {
+		if (scale == 0)
+			throw new IllegalArgumentException("scale: " + scale);
+
+		BvhImporter importer = open(bvhUrl);
+		try {
+			Skeleton skeleton = importer.createSkeleton();
+			if (rotation != null)
+				skeleton.rotate(rotation);
+			if (scale != 1)
+				skeleton.scale(scale);
+			return skeleton;
+		} finally {
+			importer.reader.close();
+		}
+	}
+
+	/**
+	 * <p>Imports motion of a BVH file as a {@link SkinClip} of given skeleton. Whole motion is kept in memory,
+	 * so for long motions {@link #writeClip(URL, GroupWriter, float, Quaternion)} is preferable.</p>
+	 *
+	 * @param bvhUrl location of BVH file
+	 * @param skeleton the skeleton to animate. can be imported from same file or another one with same hierarchy
+	 * @param scale the scale. should be same as the one skeleton is imported with
+	 * @param rotation the rotation applied to whole system. should be same as the one skeleton is imported with.
+	 * 		maybe null
+	 * @throws IOException if file cannot be read, is malformed or hierarchy does not match skeleton
+	 * */
+	public static SkinClip importClip(URL bvhUrl, Skeleton skeleton, float scale, Quaternion rotation) throws IOException {
+		if (scale == 0)
+			throw new IllegalArgumentException("scale: " + scale);
+
+		BvhImporter importer = open(bvhUrl);
+		try {
+			int[] jointIndices = importer.mapJoints(skeleton);
+			ClipWriter writer = new ClipWriter(importer.name, jointIndices, importer.frameCount, importer.frameTime, null);
+			importer.readFrames(writer, skeleton, jointIndices, scale, rotation);
+
+			ByteBuffer payload = writer.memory;
+			payload.clear();
+			return SkinClip.readFromStream(new ByteBufferInput(payload), skeleton);
+		} finally {
+			importer.reader.close();
+		}
+	}
+
+	/**
+	 * <p>Imports motion of a BVH file and writes it to given writer as a {@link SkinClip} of writer's skeleton.
+	 * Frames are streamed through a temporary file, so memory use is independent of length of motion.
+	 * Written clip section is not compressed.</p>
+	 *
+	 * @param bvhUrl location of BVH file
+	 * @param writer the writer. joints of its group's skeleton should match BVH hierarchy
+	 * @param scale the scale. should be same as the one skeleton is imported with
+	 * @param rotation the rotation applied to whole system. should be same as the one skeleton is imported with.
+	 * 		maybe null
+	 * @throws IOException if file cannot be read, is malformed or hierarchy does not match skeleton
+	 * */
+	public static void writeClip(URL bvhUrl, GroupWriter writer, float scale, Quaternion rotation) throws IOException {
+		if (scale == 0)
+			throw new IllegalArgumentException("scale: " + scale);
+
+		BvhImporter importer = open(bvhUrl);
+		File tempFile = null;
+		try {
+			Skeleton skeleton = writer.getSkeleton();
+			int[] jointIndices = importer.mapJoints(skeleton);
+
+			tempFile = File.createTempFile("bones", ".clip");
+			RandomAccessFile file = new RandomAccessFile(tempFile, "rw");
+			int length;
+			try {
+				ClipWriter clipWriter = new ClipWriter(importer.name, jointIndices, importer.frameCount,
+						importer.frameTime, file.getChannel());
+				importer.readFrames(clipWriter, skeleton, jointIndices, scale, rotation);
+				length = clipWriter.length;
+			} finally {
+				file.close();
+			}
+
+			InputStream in = new FileInputStream(tempFile);
+			try {
+				writer.addClip(importer.name, importer.getTime(), in, length);
+			} finally {
+				in.close();
+			}
+		} finally {
+			importer.reader.close();
+			if (tempFile != null && !tempFile.delete())
+				tempFile.deleteOnExit();
+		}
+	}
+
+	/** opens file and reads its hierarchy and motion header. reader is positioned at first frame */
+	private static BvhImporter open(URL url) throws IOException {
+		BvhReader reader = new BvhReader(new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8")));
+		BvhImporter importer = new BvhImporter(url, reader);
+		try {
+			importer.readHeader();
+			return importer;
+		} catch (IOException e) {
+			reader.close();
+			throw new IOException(url + ": " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			reader.close();
+			throw new IOException(url + ": " + e, e);
+		}
+	}
+
+	private void readHeader() throws IOException {
+		reader.expect("HIERARCHY");
+		String token = reader.nextToken();
+		while (!token.equals("MOTION")) {
+			if (!token.equals("ROOT"))
+				throw reader.error("Expected ROOT or MOTION but found " + token);
+			readJoint(BvhJoint.NO_PARENT);
+			token = reader.nextToken();
+		}
+		if (joints.isEmpty())
+			throw reader.error("No joints in hierarchy");
+
+		reader.expect("Frames:");
+		frameCount = reader.nextInt();
+		reader.expect("Frame");
+		reader.expect("Time:");
+		frameTime = (float) reader.nextNumber();
+		if (frameCount <= 0)
+			throw reader.error("Invalid frame count: " + frameCount);
+		if (!(frameTime > 0))
+			throw reader.error("Invalid frame time: " + frameTime);
+	}
+
+	/** reads a ROOT or JOINT block whose keyword is already read */
+	private void readJoint(int parent) throws IOException {
+		BvhJoint joint = new BvhJoint(reader.nextToken(), parent);
+		int index = joints.size();
+		joints.add(joint);
+
+		reader.expect("{");
+		reader.expect("OFFSET");
+		for (int i = 0; i < 3; i++) {
+			joint.offset[i] = reader.nextNumber();
+		}
+
+		String token = reader.nextToken();
+		if (token.equals("CHANNELS")) {
+			int count = reader.nextInt();
+			if (count < 0 || count > CHANNEL_NAMES.length)
+				throw reader.error("Invalid channel count: " + count);
+			joint.channels = new int[count];
+			joint.firstValue = valueCount;
+			valueCount += count;
+			for (int i = 0; i < count; i++) {
+				joint.channels[i] = channelType(reader.nextToken());
+			}
+			token = reader.nextToken();
+		}
+		while (!token.equals("}")) {
+			if (token.equals("JOINT")) {
+				readJoint(index);
+			} else if (token.equals("End")) {
+				// end site only marks the tip of a bone, it's not animated
+				reader.expect("Site");
+				reader.expect("{");
+				reader.expect("OFFSET");
+				for (int i = 0; i < 3; i++) {
+					reader.nextNumber();
+				}
+				reader.expect("}");
+			} else {
+				throw reader.error("Unexpected " + token + " in joint " + joint.name);
+			}
+			token = reader.nextToken();
+		}
+	}
+
+	private int channelType(String token) throws IOException {
+		for (int i = 0; i < CHANNEL_NAMES.length; i++) {
+			if (CHANNEL_NAMES[i].equalsIgnoreCase(token))
+				return i;
+		}
+		throw reader.error("Unknown channel " + token);
+	}
+
+	private Skeleton createSkeleton() {
+		Joint[] skeletonJoints = new Joint[joints.size()];
+		double[] positions = new double[joints.size() * 3];
+		for (int i = 0; i < skeletonJoints.length; i++) {
+			BvhJoint joint = joints.get(i);
+			for (int j = 0; j < 3; j++) {
+				positions[i * 3 + j] = joint.offset[j];
+				if (joint.parent != BvhJoint.NO_PARENT)
+					positions[i * 3 + j] += positions[joint.parent * 3 + j];
+			}
+			Matrix inverseBindPose = new Matrix();
+			inverseBindPose.translate((float) -positions[i * 3], (float) -positions[i * 3 + 1], (float) -positions[i * 3 + 2]);
+
+			int parent = (joint.parent == BvhJoint.NO_PARENT) ? Joint.NO_PARENT : joint.parent;
+			skeletonJoints[i] = new Joint(inverseBindPose, i, parent, joint.name);
+		}
+		return new Skeleton(skeletonJoints);
+	}
+
+	/**
+	 * returns index of skeleton joint for each BVH joint, or -1 if BVH joint is not in skeleton.
+	 * throws an exception if matched joints have different parents
+	 * */
+	private int[] mapJoints(Skeleton skeleton) throws IOException {
+		int[] jointIndices = new int[joints.size()];
+		int mapped = 0;
+		for (int i = 0; i < jointIndices.length; i++) {
+			BvhJoint joint = joints.get(i);
+			jointIndices[i] = -1;
+			for (Joint skeletonJoint : skeleton) {
+				if (joint.name.equals(skeletonJoint.getName())) {
+					jointIndices[i] = skeletonJoint.getIndex();
+					break;
+				}
+			}
+			if (jointIndices[i] == -1) {
+				Logger.log("Skipping joint " + joint.name + ", it is not in skeleton", Logger.WARNING);
+				continue;
+			}
+			Joint skeletonJoint = skeleton.getJoint(jointIndices[i]);
+			int expectedParent = (joint.parent == BvhJoint.NO_PARENT) ? -1 : jointIndices[joint.parent];
+			int parent = skeletonJoint.hasParent() ? skeletonJoint.getParentIndex() : -1;
+			if (parent != expectedParent)
+				throw new IOException("Hierarchy does not match skeleton, joint " + joint.name
+						+ " has a different parent");
+			for (int j = 0; j < i; j++) {
+				if (jointIndices[j] == jointIndices[i])
+					throw new IOException("Duplicate joint " + joint.name);
+			}
+			mapped++;
+		}
+		if (mapped == 0)
+			throw new IOException("No joints of " + name + " are in skeleton");
+		return jointIndices;
+	}
+
+	/** reads all frames and passes local transform of each mapped joint to writer */
+	private void readFrames(ClipWriter writer, Skeleton skeleton, int[] jointIndices, float scale, Quaternion rotation)
+			throws IOException {
+		double[] values = new double[valueCount];
+		double[] transform = new double[7];
+
+		for (int frame = 0; frame < frameCount; frame++) {
+			try {
+				for (int i = 0; i < valueCount; i++) {
+					values[i] = reader.nextNumber();
+				}
+			} catch (EOFException e) {
+				throw new IOException(name + ": Expected " + frameCount + " frames but found " + frame);
+			}
+
+			for (int i = 0; i < jointIndices.length; i++) {
+				if (jointIndices[i] == -1)
+					continue;
+				BvhJoint joint = joints.get(i);
+				joint.getTransform(values, transform);
+				transform[0] *= scale;
+				transform[1] *= scale;
+				transform[2] *= scale;
+
+				if (rotation != null && !skeleton.getJoint(jointIndices[i]).hasParent())
+					rotate(transform, rotation);
+				writer.addFrame(jointIndices[i], transform);
+			}
+		}
+		if (reader.hasMoreTokens())
+			Logger.log(name + ": Ignoring data after " + frameCount + " frames", Logger.WARNING);
+		writer.finish();
+	}
+
+	/** time of last frame, same as time of clip */
+	private float getTime() {
+		return (float) ((frameCount - 1) * (double) frameTime);
+	}
+
+	/**
+	 * rotates a root joint's transform by given rotation, same as {@link JointChannel#rotate(Skeleton, Quaternion)}.
+	 * transform is translation followed by rotation quaternion
+	 * */
+	private static void rotate(double[] transform, Quaternion rotation) {
+		double rx = rotation.x, ry = rotation.y, rz = rotation.z, rw = rotation.w;
+		double x = transform[3], y = transform[4], z = transform[5], w = transform[6];
+
+		// rotation * quaternion
+		transform[3] = rw * x + rx * w + ry * z - rz * y;
+		transform[4] = rw * y - rx * z + ry * w + rz * x;
+		transform[5] = rw * z + rx * y - ry * x + rz * w;
+		transform[6] = rw * w - rx * x - ry * y - rz * z;
+
+		// translation rotated by rotation: t + 2w (r x t) + 2 r x (r x t)
+		double tx = transform[0], ty = transform[1], tz = transform[2];
+		double cx = ry * tz - rz * ty, cy = rz * tx - rx * tz, cz = rx * ty - ry * tx;
+		transform[0] = tx + 2 * (rw * cx + ry * cz - rz * cy);
+		transform[1] = ty + 2 * (rw * cy + rz * cx - rx * cz);
+		transform[2] = tz + 2 * (rw * cz + rx * cy - ry * cx);
+	}
+
+	private static String clipName(URL url) {
+		String path = url.getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		int dot = name.lastIndexOf('.');
+		return (dot > 0) ? name.substring(0, dot) : name;
+	}
+
+	/** a joint of BVH hierarchy */
+	private static class BvhJoint {
+		private static final int NO_PARENT = -1;
+
+		private final String name;
+		private final int parent;
+		private final double[] offset = new double[3];
+		private int[] channels = new int[0];
+		/** index of this joint's first value in a frame */
+		private int firstValue = 0;
+
+		private BvhJoint(String name, int parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		/**
+		 * calculates local transform of this joint in given frame. first three elements of transform are
+		 * translation and next four are rotation quaternion. rotations are applied in channel order
+		 * */
+		private void getTransform(double[] frame, double[] transform) {
+			transform[0] = offset[0];
+			transform[1] = offset[1];
+			transform[2] = offset[2];
+			double x = 0, y = 0, z = 0, w = 1;
+
+			for (int i = 0; i < channels.length; i++) {
+				double value = frame[firstValue + i];
+				int channel = channels[i];
+				if (channel <= Z_POSITION) {
+					transform[channel] += value;
+					continue;
+				}
+				double half = Math.toRadians(value) / 2;
+				double s = Math.sin(half), c = Math.cos(half);
+				double nx, ny, nz, nw;
+				// quaternion * axis rotation
+				switch (channel) {
+					case X_ROTATION:
+						nx = w * s + x * c;
+						ny = y * c + z * s;
+						nz = z * c - y * s;
+						nw = w * c - x * s;
+						break;
+					case Y_ROTATION:
+						nx = x * c - z * s;
+						ny = w * s + y * c;
+						nz = z * c + x * s;
+						nw = w * c - y * s;
+						break;
+					default:
+						nx = x * c + y * s;
+						ny = y * c - x * s;
+						nz = w * s + z * c;
+						nw = w * c - z * s;
+				}
+				x = nx;
+				y = ny;
+				z = nz;
+				w = nw;
+			}
+			transform[3] = x;
+			transform[4] = y;
+			transform[5] = z;
+			transform[6] = w;
+		}
+	}
+
+	/**
+	 * <p>Writes payload of a clip section, in the layout of {@link SkinClip#writeToStream(SkinClip, java.io.DataOutput)}.
+	 * Size of each channel is known in advance, so times, scales and array headers are written once, and rotations
+	 * and translations are collected frame by frame in small buffers which are written at their position when full.</p>
+	 *
+	 * <p>Payload is written to a file channel or, if it is null, to a heap buffer.</p>
+	 * */
+	private static class ClipWriter {
+		private static final int BUFFER_SIZE = 8192;
+
+		private final FileChannel file;
+		private final ByteBuffer memory;
+		private final int length;
+
+		/** channel slot of each joint, or -1 if joint is not animated */
+		private final int[] slots;
+		private final ByteBuffer[] translationBuffers;
+		private final ByteBuffer[] rotationBuffers;
+		private final long[] translationPositions;
+		private final long[] rotationPositions;
+
+		/** jointIndices: skeleton joint index of each BVH joint or -1 */
+		private ClipWriter(String name, int[] jointIndices, int frameCount, float frameTime, FileChannel file)
+				throws IOException {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(buffer);
+			out.writeInt(BonesIO.NON_NULL);
+			BonesIO.writeString(out, name);
+
+			// channels are written in joint order
+			int jointCount = 0;
+			for (int jointIndex : jointIndices) {
+				jointCount = Math.max(jointCount, jointIndex + 1);
+			}
+			slots = new int[jointCount];
+			Arrays.fill(slots, -1);
+			int slotCount = 0;
+			for (int jointIndex : jointIndices) {
+				if (jointIndex != -1)
+					slots[jointIndex] = 0;
+			}
+			for (int i = 0; i < jointCount; i++) {
+				if (slots[i] != -1)
+					slots[i] = slotCount++;
+			}
+			out.writeInt(slotCount);
+			byte[] header = buffer.toByteArray();
+
+			// NON_NULL, joint index and arrays of times, rotations, translations and scales with length prefixes
+			long channelLength = 6 * 4 + (long) frameCount * (1 + 4 + 3 + 3) * 4;
+			long totalLength = header.length + slotCount * channelLength;
+			if (totalLength > Integer.MAX_VALUE)
+				throw new IOException("Clip is too large for a section: " + totalLength + " bytes");
+			this.length = (int) totalLength;
+
+			this.file = file;
+			this.memory = (file == null) ? ByteBuffer.allocate(length) : null;
+
+			translationBuffers = new ByteBuffer[slotCount];
+			rotationBuffers = new ByteBuffer[slotCount];
+			translationPositions = new long[slotCount];
+			rotationPositions = new long[slotCount];
+
+			write(ByteBuffer.allocate(header.length).put(header), 0);
+
+			ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE);
+			for (int jointIndex = 0; jointIndex < jointCount; jointIndex++) {
+				int slot = slots[jointIndex];
+				if (slot == -1)
+					continue;
+				long position = header.length + slot * channelLength;
+
+				chunk.clear();
+				chunk.putInt(BonesIO.NON_NULL).putInt(jointIndex).putInt(frameCount);
+				position = write(chunk, position);
+				for (int frame = 0; frame < frameCount; frame++) {
+					chunk.putFloat((float) (frame * (double) frameTime));
+					if (!chunk.hasRemaining())
+						position = write(chunk, position);
+				}
+				chunk.putInt(frameCount * 4);
+				position = write(chunk, position);
+
+				rotationPositions[slot] = position;
+				position += frameCount * 4L * 4;
+				chunk.putInt(frameCount * 3);
+				position = write(chunk, position);
+
+				translationPositions[slot] = position;
+				position += frameCount * 3L * 4;
+				chunk.putInt(frameCount * 3);
+				for (int i = 0; i < frameCount * 3; i++) {
+					chunk.putFloat(1);
+					if (!chunk.hasRemaining())
+						position = write(chunk, position);
+				}
+				write(chunk, position);
+
+				translationBuffers[slot] = ByteBuffer.allocate(BUFFER_SIZE);
+				rotationBuffers[slot] = ByteBuffer.allocate(BUFFER_SIZE);
+			}
+		}
+
+		/** adds transform of given joint in next frame. transform is translation followed by rotation quaternion */
+		private void addFrame(int jointIndex, double[] transform) throws IOException {
+			int slot = slots[jointIndex];
+			ByteBuffer translations = translationBuffers[slot];
+			if (translations.remaining() < 3 * 4)
+				translationPositions[slot] = write(translations, translationPositions[slot]);
+			translations.putFloat((float) transform[0]).putFloat((float) transform[1]).putFloat((float) transform[2]);
+
+			ByteBuffer rotations = rotationBuffers[slot];
+			if (rotations.remaining() < 4 * 4)
+				rotationPositions[slot] = write(rotations, rotationPositions[slot]);
+			rotations.putFloat((float) transform[3]).putFloat((float) transform[4])
+					.putFloat((float) transform[5]).putFloat((float) transform[6]);
+		}
+
+		/** writes remaining buffered frames */
+		private void finish() throws IOException {
+			for (int slot = 0; slot < translationBuffers.length; slot++) {
+				translationPositions[slot] = write(translationBuffers[slot], translationPositions[slot]);
+				rotationPositions[slot] = write(rotationBuffers[slot], rotationPositions[slot]);
+			}
+		}
+
+		/** writes contents of given buffer at given position and clears it. returns position after written bytes */
+		private long write(ByteBuffer buffer, long position) throws IOException {
+			buffer.flip();
+			if (file == null) {
+				memory.position((int) position);
+				position += buffer.remaining();
+				memory.put(buffer);
+			} else {
+				while (buffer.hasRemaining()) {
+					position += file.write(buffer, position);
+				}
+			}
+			buffer.clear();
+			return position;
+		}
+	}
+
+	/**
+	 * <p>Reads white space separated tokens of a BVH file line by line. Characters of each line are copied into
+	 * a reused buffer and numbers are parsed right from it with {@link DecimalParser}, without creating strings.</p>
+	 * */
+	private static class BvhReader {
+		private final BufferedReader reader;
+		private char[] line = new char[256];
+		private int length = 0;
+		private int position = 0;
+		private int lineNumber = 0;
+
+		private BvhReader(BufferedReader reader) {
+			this.reader = reader;
+		}
+
+		private void close() throws IOException {
+			reader.close();
+		}
+
+		/** skips white space, reading new lines as required. returns false at end of file */
+		private boolean hasMoreTokens() throws IOException {
+			while (true) {
+				while (position < length && line[position] <= ' ') {
+					position++;
+				}
+				if (position < length)
+					return true;
+
+				String next = reader.readLine();
+				if (next == null) {
+					length = 0;
+					position = 0;
+					return false;
+				}
+				length = next.length();
+				if (length > line.length)
+					line = new char[Math.max(length, line.length * 2)];
+				next.getChars(0, length, line, 0);
+				position = 0;
+				lineNumber++;
+			}
+		}
+
+		/** returns end of token at current position */
+		private int tokenEnd() throws IOException {
+			if (!hasMoreTokens())
+				throw new EOFException("Unexpected end of file");
+			int end = position;
+			while (end < length && line[end] > ' ') {
+				end++;
+			}
+			return end;
+		}
+
+		private String nextToken() throws IOException {
+			int end = tokenEnd();
+			String token = new String(line, position, end - position);
+			position = end;
+			return token;
+		}
+
+		private void expect(String token) throws IOException {
+			String next = nextToken();
+			if (!next.equals(token))
+				throw error("Expected " + token + " but found " + next);
+		}
+
+		private int nextInt() throws IOException {
+			int end = tokenEnd();
+			int start = position;
+			position = end;
+			try {
+				return DecimalParser.parseInt(line, start, end);
+			} catch (NumberFormatException e) {
+				throw error("Invalid number " + new String(line, start, end - start));
+			}
+		}
+
+		private double nextNumber() throws IOException {
+			int end = tokenEnd();
+			int start = position;
+			position = end;
+			try {
+				return DecimalParser.parseDouble(line, start, end);
+			} catch (NumberFormatException e) {
+				throw error("Invalid number " + new String(line, start, end - start));
+			}
+		}
+
+		private IOException error(String message) {
+			return new IOException(message + " at line " + lineNumber);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package raft.jpct.bones;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>A {@link DataInput} reading from a {@link ByteBuffer}, typically a memory mapped file.
+ * Primitive arrays are bulk copied from buffer without any intermediate byte array.</p>
+ *
+ * @see BonesIO#loadGroup(java.io.File)
+ * */
+class ByteBufferInput implements DataInput {
+
+	private final ByteBuffer buffer;
+
+	/** Creates a new ByteBufferInput reading from given buffer's position in big endian order. */
+	ByteBufferInput(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/** returns current position in buffer */
+	int getPosition() {
+		return buffer.position();
+	}
+
+	/** returns the underlying buffer. positions in this buffer are same as {@link #getPosition()} */
+	ByteBuffer getBuffer() {
+		return buffer.duplicate();
+	}
+	
+	/** returns number of remaining bytes */
+	int getRemaining() {
+		return buffer.remaining();
+	}
+
+	/** returns next two bytes as an unsigned short without consuming them, or -1 if there are less */
+	int peekShort() {
+		if (buffer.remaining() < 2)
+			return -1;
+		return buffer.getShort(buffer.position()) & 0xFFFF;
+	}
+
+	void readFloats(float[] array) throws IOException {
+		checkRemaining(array.length * 4);
+		buffer.asFloatBuffer().get(array);
+		buffer.position(buffer.position() + array.length * 4);
+	}
+
+	void readInts(int[] array) throws IOException {
+		checkRemaining(array.length * 4);
+		buffer.asIntBuffer().get(array);
+		buffer.position(buffer.position() + array.length * 4);
+	}
+
+	void readShorts(short[] array) throws IOException {
+		checkRemaining(array.length * 2);
+		buffer.asShortBuffer().get(array);
+		buffer.position(buffer.position() + array.length * 2);
+	}
+
+	private void checkRemaining(int length) throws EOFException {
+		if (length < 0 || buffer.remaining() < length)
+			throw new EOFException("Requested " + length + " bytes but only " + buffer.remaining() + " remaining");
+	}
+
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		checkRemaining(len);
+		buffer.get(b, off, len);
+	}
+
+	public int skipBytes(int n) {
+		int skipped = Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+
+	public boolean readBoolean() throws IOException {
+		return (readByte() != 0);
+	}
+
+	public byte readByte() throws IOException {
+		try {
+			return buffer.get();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+
+	public int readUnsignedByte() throws IOException {
+		return readByte() & 0xFF;
+	}
+
+	public short readShort() throws IOException {
+		try {
+			return buffer.getShort();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xFFFF;
+	}
+
+	public char readChar() throws IOException {
+		return (char) readShort();
+	}
+
+	public int readInt() throws IOException {
+		try {
+			return buffer.getInt();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+
+	public long readLong() throws IOException {
+		try {
+			return buffer.getLong();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+
+	public float readFloat() throws IOException {
+		try {
+			return buffer.getFloat();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+
+	public double readDouble() throws IOException {
+		try {
+			return buffer.getDouble();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+
+	/** reads bytes up to a line terminator as in {@link DataInputStream#readLine()}. returns null at end of buffer */
+	public String readLine() throws IOException {
+		if (!buffer.hasRemaining())
+			return null;
+		
+		StringBuilder line = new StringBuilder();
+		while (buffer.hasRemaining()) {
+			int c = buffer.get() & 0xFF;
+			if (c == '\n')
+				break;
+			if (c == '\r') {
+				if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n')
+					buffer.get();
+				break;
+			}
+			line.append((char) c);
+		}
+		return line.toString();
+	}
+
+	public String readUTF() throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+
+}
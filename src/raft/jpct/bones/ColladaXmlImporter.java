@@ -0,0 +1,1506 @@
+package raft.jpct.bones;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.threed.jpct.Logger;
+import com.threed.jpct.Matrix;
+import com.threed.jpct.SimpleVector;
+
+/**
+ * <p>Imports Collada files directly with StAX, without Ardor3D. Sources, geometries, controllers, nodes and
+ * animations are read in a single pass. Numeric arrays are parsed right from xml characters, without creating
+ * a document or a string per number, so memory use is about the size of the numbers in file.</p>
+ *
+ * <p>Result is the same as loading file with Ardor3D's ColladaImporter and converting it via
+ * {@link BonesImporter#importCollada(com.ardor3d.extension.model.collada.jdom.data.ColladaStorage, float, Quaternion)},
+ * apart from rounding since Ardor3D skins vertices once while loading.
+ * Differently, all channels of an animation element are read, animated joint transforms with scale are
+ * decomposed instead of rejected, lines are skipped and vertices without weights are left unweighted.</p>
+ *
+ * @author hakan eryargi (r a f t)
+ */
+public class ColladaXmlImporter {
+
+	private static final String[] PRIMITIVE_TYPES = { "polygons", "polylist", "triangles" };
+	private static final String[] UNSUPPORTED_PRIMITIVE_TYPES = { "lines", "linestrips", "trifans", "tristrips" };
+	private static final String[] TRANSFORM_TYPES = { "lookat", "matrix", "rotate", "scale", "skew", "translate" };
+	private static final Map<String, Integer> ACCESSOR_SYMBOLS = new HashMap<String, Integer>();
+
+	static {
+		// same as Ardor3D
+		String[] symbols = { "ANGLE", "TIME", "X", "Y", "Z", "W", "R", "G", "B", "A", "S", "T", "P", "Q", "U", "V" };
+		int[] indices = { 3, 0, 0, 1, 2, 3, 0, 1, 2, 3, 0, 1, 2, 3, 0, 1 };
+		for (int i = 0; i < symbols.length; i++)
+			ACCESSOR_SYMBOLS.put(symbols[i], indices[i]);
+	}
+
+	private final Map<String, Source> sources = new HashMap<String, Source>();
+	/** position source id of each vertices element */
+	private final Map<String, String> vertices = new HashMap<String, String>();
+	private final Map<String, RawGeometry> geometries = new HashMap<String, RawGeometry>();
+	private final Map<String, RawSkin> skins = new HashMap<String, RawSkin>();
+	/** ids of morph controllers, which are not supported */
+	private final List<String> morphs = new ArrayList<String>();
+	/** input sources of samplers by semantic */
+	private final Map<String, Map<String, String>> samplers = new HashMap<String, Map<String, String>>();
+	private final List<RawChannel> channels = new ArrayList<RawChannel>();
+	private final Map<String, RawNode> nodes = new HashMap<String, RawNode>();
+	/** root nodes of visual scenes, in order of appearance */
+	private final Map<String, List<RawNode>> visualScenes = new LinkedHashMap<String, List<RawNode>>();
+	private String visualSceneUrl = null;
+
+	/** names of open elements */
+	private final List<String> elements = new ArrayList<String>();
+	private final NumberParser numbers = new NumberParser();
+	private Source source = null;
+	private RawGeometry geometry = null;
+	private Primitive primitive = null;
+	private RawSkin skin = null;
+	private String verticesId = null;
+	private Map<String, String> sampler = null;
+	/** list new input elements are added to */
+	private List<Input> inputs = null;
+	private List<RawNode> sceneNodes = null;
+	private final LinkedList<RawNode> nodeStack = new LinkedList<RawNode>();
+	private InstanceController instanceController = null;
+
+	/** joint of each joint node */
+	private final Map<RawNode, RawJoint> joints = new HashMap<RawNode, RawJoint>();
+	/** joints of the skeleton skins are bound to, at their index */
+	private List<RawJoint> skeletonJoints = null;
+
+	private ColladaXmlImporter() {
+	}
+
+	/**
+	 * <p>Constructs an {@link AnimatedGroup} out of a Collada file. All skins must be bound to same skeleton.
+	 * Animations in file are merged into a single clip.</p>
+	 *
+	 * @param colladaUrl location of Collada file
+	 * @param scale the scale
+	 * @param rotation the rotation applied to whole system. maybe null
+	 * @throws IOException if file cannot be read, is malformed or contains no skins
+	 * */
+	public static AnimatedGroup importGroup(URL colladaUrl, float scale, Quaternion rotation) throws IOException {
+		if (scale == 0)
+			throw new IllegalArgumentException("scale: " + scale);
+
+		ColladaXmlImporter loader = new ColladaXmlImporter();
+		loader.parse(colladaUrl);
+		return loader.createGroup(scale, rotation);
+	}
+
+	private void parse(URL url) throws IOException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+		InputStream in = url.openStream();
+		try {
+			XMLStreamReader reader = factory.createXMLStreamReader(new BufferedInputStream(in));
+			try {
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						elements.add(reader.getLocalName());
+						startElement(reader);
+						// elements with content are read till their end
+						if (reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
+							endElement(reader);
+							elements.remove(elements.size() - 1);
+						}
+					} else if (event == XMLStreamConstants.END_ELEMENT) {
+						endElement(reader);
+						elements.remove(elements.size() - 1);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(url + ": " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			throw new IOException(url + ": " + e.getMessage(), e);
+		} finally {
+			in.close();
+		}
+	}
+
+	private void startElement(XMLStreamReader reader) throws IOException, XMLStreamException {
+		String element = reader.getLocalName();
+		String parent = parent();
+
+		if (element.equals("source") && reader.getAttributeValue(null, "id") != null) {
+			source = new Source();
+			sources.put(attribute(reader, "id"), source);
+
+		} else if (source != null && (element.equals("float_array") || element.equals("int_array"))) {
+			source.floats = numbers.readFloats(reader, intAttribute(reader, "count", 0));
+
+		} else if (source != null && (element.equals("Name_array") || element.equals("IDREF_array"))) {
+			source.idref = element.equals("IDREF_array");
+			source.names = numbers.readNames(reader, intAttribute(reader, "count", 0));
+
+		} else if (source != null && element.equals("accessor")) {
+			source.stride = intAttribute(reader, "stride", 1);
+			source.offset = intAttribute(reader, "offset", 0);
+
+		} else if (element.equals("input") && (inputs != null)) {
+			inputs.add(new Input(attribute(reader, "semantic"), id(attribute(reader, "source")),
+					intAttribute(reader, "offset", 0)));
+
+		} else if (element.equals("geometry")) {
+			geometry = new RawGeometry(attribute(reader, "name", "geometry"));
+			geometries.put(attribute(reader, "id"), geometry);
+
+		} else if (geometry != null && element.equals("vertices")) {
+			verticesId = attribute(reader, "id");
+			inputs = new ArrayList<Input>();
+
+		} else if (geometry != null && parent.equals("mesh") && isPrimitive(element)) {
+			primitive = new Primitive(element, reader.getAttributeValue(null, "name"));
+			geometry.primitives.add(primitive);
+			inputs = primitive.inputs;
+
+		} else if (primitive != null && element.equals("p") && parent.equals(primitive.type)) {
+			primitive.p.add(numbers.readInts(reader, 0));
+
+		} else if (primitive != null && element.equals("vcount")) {
+			primitive.vcount = numbers.readInts(reader, intAttribute(reader, "count", 0));
+
+		} else if (element.equals("controller")) {
+			skin = new RawSkin(attribute(reader, "id"));
+
+		} else if (skin != null && element.equals("skin")) {
+			skin.source = id(attribute(reader, "source"));
+			skins.put(skin.id, skin);
+
+		} else if (skin != null && element.equals("morph")) {
+			morphs.add(skin.id);
+
+		} else if (skin != null && element.equals("bind_shape_matrix")) {
+			skin.bindShapeMatrix = numbers.readDoubles(reader);
+
+		} else if (skin != null && element.equals("joints")) {
+			inputs = skin.jointInputs;
+
+		} else if (skin != null && element.equals("vertex_weights")) {
+			skin.count = intAttribute(reader, "count");
+			inputs = skin.weightInputs;
+
+		} else if (skin != null && element.equals("vcount")) {
+			skin.vcount = numbers.readInts(reader, skin.count);
+
+		} else if (skin != null && element.equals("v")) {
+			skin.v = numbers.readInts(reader, 0);
+
+		} else if (element.equals("sampler") && parent.equals("animation")) {
+			sampler = new HashMap<String, String>();
+			samplers.put(attribute(reader, "id"), sampler);
+			inputs = new ArrayList<Input>();
+
+		} else if (element.equals("channel") && parent.equals("animation")) {
+			channels.add(new RawChannel(id(attribute(reader, "source")), attribute(reader, "target")));
+
+		} else if (element.equals("visual_scene")) {
+			sceneNodes = new ArrayList<RawNode>();
+			visualScenes.put(attribute(reader, "id", ""), sceneNodes);
+
+		} else if (element.equals("node")) {
+			RawNode node = new RawNode(reader.getAttributeValue(null, "id"), reader.getAttributeValue(null, "sid"),
+					reader.getAttributeValue(null, "name"), attribute(reader, "type", "NODE"));
+			if (!nodeStack.isEmpty()) {
+				nodeStack.getLast().children.add(node);
+			} else if (sceneNodes != null) {
+				sceneNodes.add(node);
+			}
+			if (node.id != null)
+				nodes.put(node.id, node);
+			nodeStack.add(node);
+
+		} else if (parent.equals("node") && isTransform(element)) {
+			nodeStack.getLast().transforms.add(new RawTransform(element, reader.getAttributeValue(null, "sid"),
+					numbers.readDoubles(reader)));
+
+		} else if (parent.equals("node") && element.equals("instance_controller")) {
+			instanceController = new InstanceController(id(attribute(reader, "url")));
+			nodeStack.getLast().controllers.add(instanceController);
+
+		} else if (instanceController != null && element.equals("skeleton")) {
+			instanceController.skeletons.add(id(reader.getElementText().trim()));
+
+		} else if (parent.equals("node") && element.equals("instance_node")) {
+			nodeStack.getLast().instanceNodes.add(id(attribute(reader, "url")));
+
+		} else if (element.equals("instance_visual_scene")) {
+			visualSceneUrl = id(attribute(reader, "url"));
+		}
+	}
+
+	private void endElement(XMLStreamReader reader) throws IOException {
+		String element = reader.getLocalName();
+
+		if (element.equals("source")) {
+			source = null;
+		} else if (element.equals("geometry")) {
+			geometry = null;
+		} else if (geometry != null && element.equals("vertices")) {
+			for (Input input : inputs) {
+				if (input.semantic.equals("POSITION"))
+					vertices.put(verticesId, input.source);
+			}
+			inputs = null;
+		} else if ((primitive != null) && element.equals(primitive.type)) {
+			primitive = null;
+			inputs = null;
+		} else if (element.equals("controller")) {
+			skin = null;
+		} else if (skin != null && (element.equals("joints") || element.equals("vertex_weights"))) {
+			inputs = null;
+		} else if (sampler != null && element.equals("sampler")) {
+			for (Input input : inputs) {
+				sampler.put(input.semantic, input.source);
+			}
+			sampler = null;
+			inputs = null;
+		} else if (element.equals("visual_scene")) {
+			sceneNodes = null;
+		} else if (element.equals("node")) {
+			nodeStack.removeLast();
+		} else if (element.equals("instance_controller")) {
+			instanceController = null;
+		}
+	}
+
+	private AnimatedGroup createGroup(float scale, Quaternion rotation) throws IOException {
+		List<RawNode> sceneRoots = (visualSceneUrl == null) ? null : visualScenes.get(visualSceneUrl);
+		if (sceneRoots == null)
+			throw new IOException("No visual scene found in collada file");
+
+		// walk scene like Ardor3D: joint nodes form skeletons, controllers are bound after all
+		List<RawJoint> rootJoints = new ArrayList<RawJoint>();
+		List<InstanceController> instanceControllers = new ArrayList<InstanceController>();
+		for (RawNode node : sceneRoots) {
+			walkNode(node, null, rootJoints, instanceControllers);
+		}
+		for (RawJoint root : rootJoints) {
+			indexJoints(root, new ArrayList<RawJoint>());
+		}
+
+		List<SkinnedMesh> skinnedMeshes = new LinkedList<SkinnedMesh>();
+		for (InstanceController controller : instanceControllers) {
+			createSkinnedMeshes(controller, skinnedMeshes);
+		}
+		if (skinnedMeshes.isEmpty())
+			throw new IOException("Collada file contains no skins");
+
+		Skeleton skeleton = createSkeleton();
+
+		Matrix transform = null;
+		if ((scale != 1) || (rotation != null)) {
+			transform = new Matrix();
+			if (rotation != null)
+				rotation.setRotation(transform);
+			if (scale != 1)
+				transform.matMul(SkinHelper.getScaleMatrix(scale));
+		}
+
+		SkeletonPose currentPose = new SkeletonPose(skeleton);
+		currentPose.updateTransforms();
+
+		Animated3D[] objects = new Animated3D[skinnedMeshes.size()];
+		int index = 0;
+		for (SkinnedMesh skinnedMesh : skinnedMeshes) {
+			if (transform != null)
+				skinnedMesh.mesh.applyTransform(transform);
+
+			Animated3D object = new Animated3D(skinnedMesh.mesh, skinnedMesh.skin, currentPose);
+			object.setName(skinnedMesh.name);
+			objects[index++] = object;
+		}
+		AnimatedGroup group = new AnimatedGroup(objects);
+
+		List<JointChannel> jointChannels = createJointChannels();
+		if (!jointChannels.isEmpty()) {
+			SkinClip skinClip = new SkinClip(skeleton, jointChannels);
+			group.setSkinClipSequence(new SkinClipSequence(skinClip));
+
+			if (rotation != null) {
+				for (JointChannel channel : skinClip) {
+					if (channel != null)
+						channel.rotate(skeleton, rotation);
+				}
+			}
+			if (scale != 1) {
+				for (JointChannel channel : skinClip) {
+					if (channel != null)
+						channel.scale(scale);
+				}
+			}
+			Logger.log("Created one animation clip", Logger.MESSAGE);
+		}
+
+		// finally rotate/scale skeleton. this should be done after jointChannels are rotated/scaled
+		if (transform != null) {
+			if (rotation != null)
+				skeleton.rotate(rotation);
+			if (scale != 1)
+				skeleton.scale(scale);
+
+			currentPose.setToBindPose();
+			currentPose.updateTransforms();
+		}
+
+		return group;
+	}
+
+	/** collects joints and instance controllers in same order as Ardor3D does */
+	private void walkNode(RawNode node, RawJoint parentJoint, List<RawJoint> rootJoints,
+			List<InstanceController> instanceControllers) throws IOException {
+
+		if (node.type.equals("JOINT")) {
+			RawJoint joint = new RawJoint(node, parentJoint);
+			if (parentJoint == null) {
+				rootJoints.add(joint);
+			} else {
+				parentJoint.children.add(joint);
+			}
+			joints.put(node, joint);
+			parentJoint = joint;
+		}
+		instanceControllers.addAll(node.controllers);
+
+		for (String url : node.instanceNodes) {
+			RawNode instance = nodes.get(url);
+			if (instance == null)
+				throw new IOException("No node with id: " + url + " found");
+			walkNode(instance, parentJoint, rootJoints, instanceControllers);
+		}
+		for (RawNode child : node.children) {
+			walkNode(child, parentJoint, rootJoints, instanceControllers);
+		}
+	}
+
+	/** indexes joints depth first, so parents come first */
+	private static void indexJoints(RawJoint joint, List<RawJoint> skeleton) {
+		joint.index = skeleton.size();
+		joint.skeleton = skeleton;
+		skeleton.add(joint);
+
+		for (RawJoint child : joint.children) {
+			indexJoints(child, skeleton);
+		}
+	}
+
+	private Skeleton createSkeleton() {
+		Joint[] result = new Joint[skeletonJoints.size()];
+		for (RawJoint joint : skeletonJoints) {
+			int parentIndex = (joint.parent == null) ? Joint.NO_PARENT : joint.parent.index;
+			result[joint.index] = new Joint(joint.inverseBindPose, joint.index, parentIndex, joint.node.getJointName());
+		}
+		Skeleton skeleton = new Skeleton(result);
+		Logger.log("Skeleton created out of Collada nodes", Logger.MESSAGE);
+		return skeleton;
+	}
+
+	private void createSkinnedMeshes(InstanceController instanceController, List<SkinnedMesh> skinnedMeshes)
+			throws IOException {
+
+		RawSkin skin = skins.get(instanceController.url);
+		if (skin == null) {
+			if (!morphs.contains(instanceController.url))
+				throw new IOException("Unable to find controller with id: " + instanceController.url);
+			Logger.log("Morph target animation not supported, skipping controller " + instanceController.url, Logger.WARNING);
+			return;
+		}
+		RawGeometry geometry = geometries.get(skin.source);
+		if (geometry == null)
+			throw new IOException("Expected a mesh for skin source with url: " + skin.source);
+
+		List<RawNode> skeletonRoots = new ArrayList<RawNode>();
+		for (String id : instanceController.skeletons) {
+			RawNode root = nodes.get(id);
+			if (root == null)
+				throw new IOException("Unable to find node with id: " + id + ", referenced from skeleton");
+			skeletonRoots.add(root);
+		}
+
+		// joints and their inverse bind poses
+		List<String> jointNames = new ArrayList<String>();
+		boolean idref = false;
+		List<Matrix> bindMatrices = new ArrayList<Matrix>();
+		for (Input input : skin.jointInputs) {
+			Source source = getSource(input.source);
+			if (input.semantic.equals("JOINT")) {
+				checkData(input, source.names);
+				idref = source.idref;
+				for (int i = source.offset; i < source.names.length; i += source.stride) {
+					jointNames.add(source.names[i]);
+				}
+			} else if (input.semantic.equals("INV_BIND_MATRIX")) {
+				checkData(input, source.floats);
+				for (int i = source.offset; i < source.floats.length; i += source.stride) {
+					bindMatrices.add(toMatrix(source.floats, i));
+				}
+			}
+		}
+		if (bindMatrices.size() < jointNames.size())
+			throw new IOException("Missing inverse bind matrices in skin " + skin.id);
+
+		int[] order = new int[jointNames.size()];
+		for (int i = 0; i < order.length; i++) {
+			RawJoint joint = findJoint(jointNames.get(i), idref, skeletonRoots);
+			if (skeletonJoints == null)
+				skeletonJoints = joint.skeleton;
+			if (skeletonJoints != joint.skeleton)
+				throw new IOException("There are more than one skeletons in Collada file.");
+
+			joint.inverseBindPose = bindMatrices.get(i);
+			order[i] = joint.index;
+		}
+
+		// vertex weights
+		Map<String, Integer> jointNameIndices = new HashMap<String, Integer>();
+		for (int i = jointNames.size() - 1; i >= 0; i--) {
+			jointNameIndices.put(jointNames.get(i), i);
+		}
+		int[] jointIndices = null;
+		float[] weights = null;
+		int jointOffset = 0, weightOffset = 0, maxOffset = 0;
+		for (Input input : skin.weightInputs) {
+			Source source = getSource(input.source);
+			maxOffset = Math.max(maxOffset, input.offset);
+
+			if (input.semantic.equals("JOINT")) {
+				checkData(input, source.names);
+				jointOffset = input.offset;
+				jointIndices = new int[(source.names.length - source.offset + source.stride - 1) / source.stride];
+				for (int i = source.offset, j = 0; i < source.names.length; i += source.stride, j++) {
+					Integer jointIndex = jointNameIndices.get(source.names[i]);
+					if (jointIndex == null)
+						throw new IOException("Unknown joint accessed: " + source.names[i]);
+					jointIndices[j] = jointIndex;
+				}
+			} else if (input.semantic.equals("WEIGHT")) {
+				checkData(input, source.floats);
+				weightOffset = input.offset;
+				weights = new float[(source.floats.length - source.offset + source.stride - 1) / source.stride];
+				for (int i = source.offset, j = 0; i < source.floats.length; i += source.stride, j++) {
+					weights[j] = source.floats[i];
+				}
+			}
+		}
+		if (jointIndices == null || weights == null || skin.vcount == null || skin.v == null)
+			throw new IOException("Incomplete vertex_weights in skin " + skin.id);
+
+		int interval = maxOffset + 1;
+		// start of each vertex's influences in v
+		int[] influenceStarts = new int[skin.count + 1];
+		for (int i = 0, start = 0; i < skin.count; i++) {
+			influenceStarts[i] = start;
+			start += skin.vcount[i] * interval;
+			influenceStarts[i + 1] = start;
+		}
+		SkinWeights skinWeights = new SkinWeights(skin, order, jointIndices, weights, influenceStarts, interval,
+				jointOffset, weightOffset);
+
+		// same order as Ardor3D, by primitive type
+		for (String type : PRIMITIVE_TYPES) {
+			for (Primitive primitive : geometry.primitives) {
+				if (primitive.type.equals(type) && !primitive.p.isEmpty())
+					skinnedMeshes.add(createSkinnedMesh(geometry, primitive, skin.bindShapeMatrix, skinWeights));
+			}
+		}
+		for (String type : UNSUPPORTED_PRIMITIVE_TYPES) {
+			for (Primitive primitive : geometry.primitives) {
+				if (primitive.type.equals(type))
+					Logger.log("<" + type + "> not supported, skipping in geometry " + geometry.name, Logger.WARNING);
+			}
+		}
+		if (skinWeights.skippedInfluences)
+			Logger.log("Max of " + Skeleton.MAX_JOINTS_PER_VERTEX + " joints supported per vertex. "
+					+ "Skipped some in skin " + skin.id, Logger.WARNING);
+	}
+
+	/** finds joint of given name, searching like Ardor3D does */
+	private RawJoint findJoint(String name, boolean idref, List<RawNode> skeletonRoots) throws IOException {
+		RawNode found = null;
+		for (RawNode root : skeletonRoots) {
+			if (name.equals(idref ? root.id : root.sid)) {
+				found = root;
+			} else if (idref) {
+				found = nodes.get(name);
+			} else {
+				found = findNode(root.children, name, true);
+			}
+			if (found == null)
+				found = nodes.get(name);
+			if (found == null)
+				found = findNode(root.children, name, false);
+			if (found != null)
+				break;
+		}
+		if (found == null) {
+			if (idref) {
+				found = nodes.get(name);
+			} else {
+				for (List<RawNode> sceneNodes : visualScenes.values()) {
+					if ((found = findNode(sceneNodes, name, true)) != null)
+						break;
+				}
+			}
+			if (found == null)
+				found = nodes.get(name);
+			if (found == null) {
+				for (List<RawNode> sceneNodes : visualScenes.values()) {
+					if ((found = findNode(sceneNodes, name, false)) != null)
+						break;
+				}
+			}
+			if (found == null)
+				throw new IOException("Unable to find joint with " + (idref ? "id" : "sid") + ": " + name);
+		}
+		RawJoint joint = joints.get(found);
+		if (joint == null)
+			throw new IOException("Node is not a joint: " + name);
+		return joint;
+	}
+
+	/** searches given nodes and their descendants in document order, by sid or name */
+	private static RawNode findNode(List<RawNode> nodes, String value, boolean sid) {
+		for (RawNode node : nodes) {
+			if (value.equals(sid ? node.sid : node.name))
+				return node;
+			RawNode found = findNode(node.children, value, sid);
+			if (found != null)
+				return found;
+		}
+		return null;
+	}
+
+	private SkinnedMesh createSkinnedMesh(RawGeometry geometry, Primitive primitive, double[] bindShapeMatrix,
+			SkinWeights skinWeights) throws IOException {
+
+		int interval = 0;
+		Input vertexInput = null;
+		Input texCoordInput = null;
+		for (Input input : primitive.inputs) {
+			interval = Math.max(interval, input.offset + 1);
+			if (input.semantic.equals("VERTEX")) {
+				vertexInput = input;
+			} else if (input.semantic.equals("TEXCOORD")) {
+				// like Ardor3D, last texture coordinate set is used
+				texCoordInput = input;
+			}
+		}
+		if (vertexInput == null)
+			throw new IOException("No VERTEX input in geometry " + geometry.name);
+
+		// polygons and polylists are triangulated as fans
+		int[] lengths;
+		if (primitive.type.equals("polylist")) {
+			if (primitive.vcount == null || primitive.p.size() > 1)
+				throw new IOException("Malformed polylist in geometry " + geometry.name);
+			lengths = primitive.p.isEmpty() ? new int[0] : primitive.vcount;
+		} else if (primitive.type.equals("triangles")) {
+			if (primitive.p.size() > 1)
+				throw new IOException("Malformed triangles in geometry " + geometry.name);
+			lengths = primitive.p.isEmpty() ? new int[0] : new int[] { primitive.p.get(0).length / interval };
+		} else {
+			lengths = new int[primitive.p.size()];
+			for (int i = 0; i < lengths.length; i++) {
+				lengths[i] = primitive.p.get(i).length / interval;
+			}
+		}
+		boolean indexed = !primitive.type.equals("triangles");
+
+		int vertexCount = 0;
+		int indexCount = 0;
+		for (int length : lengths) {
+			vertexCount += length;
+			indexCount += Math.max(length - 2, 0) * 3;
+		}
+
+		Source positions = getSource(vertexInput.source);
+		checkData(vertexInput, positions.floats);
+		Source texCoords = (texCoordInput == null) ? null : getSource(texCoordInput.source);
+		if (texCoords != null)
+			checkData(texCoordInput, texCoords.floats);
+
+		float[] coordinates = new float[vertexCount * 3];
+		float[] uvs = (texCoords == null) ? null : new float[vertexCount * 2];
+		int[] indices = indexed ? new int[indexCount] : null;
+		float[][] weights = new float[vertexCount][];
+		short[][] jointIndices = new short[vertexCount][];
+
+		int vertex = 0;
+		int index = 0;
+		int pIndex = 0;
+		for (int polygon = 0; polygon < lengths.length; polygon++) {
+			int[] p;
+			int pStart;
+			if (primitive.type.equals("polygons")) {
+				p = primitive.p.get(polygon);
+				pStart = 0;
+			} else {
+				p = primitive.p.get(0);
+				pStart = pIndex;
+				pIndex += lengths[polygon] * interval;
+			}
+
+			int first = vertex;
+			for (int j = 0; j < lengths[polygon]; j++, vertex++) {
+				int entry = pStart + j * interval;
+				int originalIndex = p[entry + vertexInput.offset];
+
+				int position = positions.offset + originalIndex * positions.stride;
+				if (originalIndex < 0 || position + 2 >= positions.floats.length)
+					throw new IOException("Vertex index out of range: " + originalIndex + " in geometry " + geometry.name);
+				setPosition(coordinates, vertex, positions.floats, position, bindShapeMatrix);
+
+				if (texCoords != null) {
+					int uv = texCoords.offset + p[entry + texCoordInput.offset] * texCoords.stride;
+					uvs[vertex * 2] = texCoords.floats[uv];
+					uvs[vertex * 2 + 1] = 1 - texCoords.floats[uv + 1];
+				}
+
+				weights[vertex] = new float[Skeleton.MAX_JOINTS_PER_VERTEX];
+				jointIndices[vertex] = new short[Skeleton.MAX_JOINTS_PER_VERTEX];
+				skinWeights.get(originalIndex, weights[vertex], jointIndices[vertex]);
+
+				if (indexed && j >= 2) {
+					indices[index++] = first;
+					indices[index++] = vertex - 1;
+					indices[index++] = vertex;
+				}
+			}
+		}
+
+		String name = primitive.name;
+		if (name == null)
+			name = geometry.name + "_" + primitive.type;
+
+		return new SkinnedMesh(name, new MeshData(coordinates, uvs, indices), new SkinData(weights, jointIndices));
+	}
+
+	/** applies bind shape matrix to position and stores it */
+	private static void setPosition(float[] coordinates, int vertex, float[] positions, int position, double[] matrix) {
+		if (matrix == null) {
+			System.arraycopy(positions, position, coordinates, vertex * 3, 3);
+			return;
+		}
+		double x = positions[position];
+		double y = positions[position + 1];
+		double z = positions[position + 2];
+
+		for (int i = 0; i < 3; i++) {
+			coordinates[vertex * 3 + i] = (float) (matrix[i * 4] * x + matrix[i * 4 + 1] * y + matrix[i * 4 + 2] * z
+					+ matrix[i * 4 + 3]);
+		}
+	}
+
+	/** creates a channel for each animated joint node */
+	private List<JointChannel> createJointChannels() throws IOException {
+		// channels grouped by node they animate
+		Map<RawNode, List<TargetChannel>> channelsByNode = new LinkedHashMap<RawNode, List<TargetChannel>>();
+
+		for (RawChannel channel : channels) {
+			Target target = parseTarget(channel.target);
+			RawNode node = nodes.get(target.id);
+			if (node == null) {
+				Logger.log("No node with id " + target.id + ", skipping channel " + channel.target, Logger.WARNING);
+				continue;
+			}
+			if (target.sids.isEmpty())
+				continue;
+
+			for (int i = 0; i < target.sids.size() - 1 && node != null; i++) {
+				node = findNode(node.children, target.sids.get(i), true);
+			}
+			RawTransform transform = null;
+			String sid = target.sids.get(target.sids.size() - 1);
+			while (node != null && (transform = node.getTransform(sid)) == null) {
+				// transform of a descendant
+				node = findTransformOwner(node.children, sid);
+			}
+			if (transform == null) {
+				Logger.log("No element found with sid: " + sid + ", skipping channel.", Logger.WARNING);
+				continue;
+			}
+
+			List<TargetChannel> targetChannels = channelsByNode.get(node);
+			if (targetChannels == null) {
+				targetChannels = new ArrayList<TargetChannel>();
+				channelsByNode.put(node, targetChannels);
+			}
+			targetChannels.add(new TargetChannel(target, transform, channel.source));
+		}
+
+		List<JointChannel> jointChannels = new LinkedList<JointChannel>();
+		for (Map.Entry<RawNode, List<TargetChannel>> entry : channelsByNode.entrySet()) {
+			RawJoint joint = joints.get(entry.getKey());
+			if (joint == null || joint.skeleton != skeletonJoints) {
+				Logger.log("Animated node is not a joint of skeleton, skipping: " + entry.getKey().getJointName(), Logger.WARNING);
+				continue;
+			}
+			jointChannels.add(createJointChannel(joint, entry.getKey(), entry.getValue()));
+		}
+		return jointChannels;
+	}
+
+	private static RawNode findTransformOwner(List<RawNode> nodes, String sid) {
+		for (RawNode node : nodes) {
+			if (node.getTransform(sid) != null)
+				return node;
+			RawNode found = findTransformOwner(node.children, sid);
+			if (found != null)
+				return found;
+		}
+		return null;
+	}
+
+	/** samples all transforms of node at each key time of its channels, like Ardor3D does */
+	private JointChannel createJointChannel(RawJoint joint, RawNode node, List<TargetChannel> targetChannels)
+			throws IOException {
+
+		// working copies of transform values, animated values are written into these
+		double[][] arrays = new double[node.transforms.size()][];
+		for (int i = 0; i < arrays.length; i++) {
+			arrays[i] = node.transforms.get(i).values.clone();
+		}
+
+		for (TargetChannel targetChannel : targetChannels) {
+			Map<String, String> sampler = samplers.get(targetChannel.source);
+			if (sampler == null || !sampler.containsKey("INPUT") || !sampler.containsKey("OUTPUT"))
+				throw new IOException("Unable to find sampler with id: " + targetChannel.source);
+
+			Source input = getSource(sampler.get("INPUT"));
+			Source output = getSource(sampler.get("OUTPUT"));
+			if (input.floats == null || output.floats == null)
+				throw new IOException("Sampler has no float data: " + targetChannel.source);
+
+			targetChannel.times = input.floats;
+			targetChannel.data = output.floats;
+			targetChannel.stride = output.stride;
+			targetChannel.array = arrays[node.transforms.indexOf(targetChannel.transform)];
+		}
+
+		FloatArray times = new FloatArray(64);
+		List<double[]> matrices = new ArrayList<double[]>();
+		while (true) {
+			float lowestTime = Float.MAX_VALUE;
+			boolean found = false;
+			for (TargetChannel targetChannel : targetChannels) {
+				if (targetChannel.position < targetChannel.times.length) {
+					lowestTime = Math.min(lowestTime, targetChannel.times[targetChannel.position]);
+					found = true;
+				}
+			}
+			if (!found)
+				break;
+
+			for (TargetChannel targetChannel : targetChannels) {
+				if (targetChannel.position < targetChannel.times.length
+						&& targetChannel.times[targetChannel.position] == lowestTime) {
+					targetChannel.update();
+				}
+			}
+			times.add(lowestTime);
+			matrices.add(bakeTransforms(node.transforms, arrays));
+		}
+
+		int length = times.size();
+		SimpleVector[] translations = new SimpleVector[length];
+		Quaternion[] rotations = new Quaternion[length];
+		SimpleVector[] scales = new SimpleVector[length];
+		for (int i = 0; i < length; i++) {
+			double[] m = matrices.get(i);
+			translations[i] = new SimpleVector((float) m[3], (float) m[7], (float) m[11]);
+			scales[i] = removeScale(m);
+			rotations[i] = toQuaternion(m);
+		}
+		return new JointChannel(joint.index, times.toArray(), translations, rotations, scales);
+	}
+
+	/** multiplies transforms in order, returns a row major 4x4 matrix */
+	private static double[] bakeTransforms(List<RawTransform> transforms, double[][] arrays) {
+		double[] result = identity();
+
+		for (int i = 0; i < arrays.length; i++) {
+			String type = transforms.get(i).type;
+			double[] a = arrays[i];
+			double[] m = identity();
+
+			if (type.equals("translate")) {
+				m[3] = a[0];
+				m[7] = a[1];
+				m[11] = a[2];
+			} else if (type.equals("rotate")) {
+				if (a[3] == 0)
+					continue;
+				setRotation(m, Math.toRadians(a[3]), a[0], a[1], a[2]);
+			} else if (type.equals("scale")) {
+				m[0] = a[0];
+				m[5] = a[1];
+				m[10] = a[2];
+			} else if (type.equals("matrix")) {
+				System.arraycopy(a, 0, m, 0, 16);
+			} else if (type.equals("lookat")) {
+				setLookAt(m, a);
+			} else {
+				Logger.log("transform not currently supported: " + type, Logger.WARNING);
+				continue;
+			}
+			result = multiply(result, m);
+		}
+		return result;
+	}
+
+	private static double[] identity() {
+		double[] m = new double[16];
+		m[0] = m[5] = m[10] = m[15] = 1;
+		return m;
+	}
+
+	private static double[] multiply(double[] a, double[] b) {
+		double[] result = new double[16];
+		for (int i = 0; i < 4; i++) {
+			for (int j = 0; j < 4; j++) {
+				result[i * 4 + j] = a[i * 4] * b[j] + a[i * 4 + 1] * b[4 + j] + a[i * 4 + 2] * b[8 + j] + a[i * 4 + 3] * b[12 + j];
+			}
+		}
+		return result;
+	}
+
+	/** sets upper 3x3 of matrix to rotation of given radians around given axis */
+	private static void setRotation(double[] m, double angle, double x, double y, double z) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+		if (length != 0) {
+			x /= length;
+			y /= length;
+			z /= length;
+		}
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		double oneMinusCos = 1 - cos;
+
+		m[0] = x * x * oneMinusCos + cos;
+		m[1] = x * y * oneMinusCos - z * sin;
+		m[2] = x * z * oneMinusCos + y * sin;
+		m[4] = x * y * oneMinusCos + z * sin;
+		m[5] = y * y * oneMinusCos + cos;
+		m[6] = y * z * oneMinusCos - x * sin;
+		m[8] = x * z * oneMinusCos - y * sin;
+		m[9] = y * z * oneMinusCos + x * sin;
+		m[10] = z * z * oneMinusCos + cos;
+	}
+
+	/** sets matrix to look at transform: eye position, interest point and up vector */
+	private static void setLookAt(double[] m, double[] a) {
+		double[] zAxis = normalize(a[3] - a[0], a[4] - a[1], a[5] - a[2]);
+		double[] up = normalize(a[6], a[7], a[8]);
+		double[] xAxis = cross(up, zAxis);
+		double[] yAxis = cross(zAxis, xAxis);
+
+		for (int i = 0; i < 3; i++) {
+			m[i * 4] = xAxis[i];
+			m[i * 4 + 1] = yAxis[i];
+			m[i * 4 + 2] = zAxis[i];
+		}
+		m[3] = a[0];
+		m[7] = a[1];
+		m[11] = a[2];
+	}
+
+	private static double[] normalize(double x, double y, double z) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+		return (length == 0) ? new double[3] : new double[] { x / length, y / length, z / length };
+	}
+
+	private static double[] cross(double[] a, double[] b) {
+		return new double[] { a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0] };
+	}
+
+	/** removes scale from upper 3x3 of matrix and returns it. scale is one if matrix is a rotation */
+	private static SimpleVector removeScale(double[] m) {
+		double[] scale = new double[3];
+		boolean scaled = false;
+		for (int column = 0; column < 3; column++) {
+			scale[column] = Math.sqrt(m[column] * m[column] + m[4 + column] * m[4 + column] + m[8 + column] * m[8 + column]);
+			if (Math.abs(scale[column] - 1) > 1e-5)
+				scaled = true;
+		}
+		if (!scaled)
+			return new SimpleVector(1, 1, 1);
+
+		double determinant = m[0] * (m[5] * m[10] - m[6] * m[9]) - m[1] * (m[4] * m[10] - m[6] * m[8])
+				+ m[2] * (m[4] * m[9] - m[5] * m[8]);
+		if (determinant < 0)
+			scale[0] = -scale[0];
+
+		for (int column = 0; column < 3; column++) {
+			if (scale[column] == 0)
+				continue;
+			for (int row = 0; row < 3; row++) {
+				m[row * 4 + column] /= scale[column];
+			}
+		}
+		return new SimpleVector((float) scale[0], (float) scale[1], (float) scale[2]);
+	}
+
+	/** converts upper 3x3 of a row major rotation matrix to a quaternion */
+	private static Quaternion toQuaternion(double[] m) {
+		double m00 = m[0], m01 = m[1], m02 = m[2];
+		double m10 = m[4], m11 = m[5], m12 = m[6];
+		double m20 = m[8], m21 = m[9], m22 = m[10];
+		double trace = m00 + m11 + m22;
+		double x, y, z, w;
+
+		if (trace >= 0) {
+			double s = Math.sqrt(trace + 1);
+			w = 0.5 * s;
+			s = 0.5 / s;
+			x = (m21 - m12) * s;
+			y = (m02 - m20) * s;
+			z = (m10 - m01) * s;
+		} else if ((m00 > m11) && (m00 > m22)) {
+			double s = Math.sqrt(1.0 + m00 - m11 - m22);
+			x = s * 0.5;
+			s = 0.5 / s;
+			y = (m10 + m01) * s;
+			z = (m02 + m20) * s;
+			w = (m21 - m12) * s;
+		} else if (m11 > m22) {
+			double s = Math.sqrt(1.0 + m11 - m00 - m22);
+			y = s * 0.5;
+			s = 0.5 / s;
+			x = (m10 + m01) * s;
+			z = (m21 + m12) * s;
+			w = (m02 - m20) * s;
+		} else {
+			double s = Math.sqrt(1.0 + m22 - m00 - m11);
+			z = s * 0.5;
+			s = 0.5 / s;
+			x = (m02 + m20) * s;
+			y = (m21 + m12) * s;
+			w = (m10 - m01) * s;
+		}
+		return new Quaternion((float) x, (float) y, (float) z, (float) w);
+	}
+
+	/** converts a row major 4x4 matrix to a jPCT matrix. rotation and translation information is retrieved. */
+	private static Matrix toMatrix(float[] values, int offset) {
+		Matrix m = new Matrix();
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				m.set(j, i, values[offset + i * 4 + j]);
+			}
+		}
+		m.translate(values[offset + 3], values[offset + 7], values[offset + 11]);
+		return m;
+	}
+
+	/** parses an animation target like "node/transform.ANGLE" or "node/transform(0)(3)" */
+	private static Target parseTarget(String targetString) {
+		Target target = new Target();
+
+		int accessorIndex = targetString.indexOf('.');
+		if (accessorIndex == -1)
+			accessorIndex = targetString.indexOf('(');
+		boolean hasAccessor = (accessorIndex != -1);
+		if (!hasAccessor)
+			accessorIndex = targetString.length();
+
+		String base = targetString.substring(0, accessorIndex);
+		int sidIndex = base.indexOf('/');
+		target.id = (sidIndex == -1) ? base : base.substring(0, sidIndex);
+		if (sidIndex != -1) {
+			StringTokenizer tokenizer = new StringTokenizer(base.substring(sidIndex + 1), "/");
+			while (tokenizer.hasMoreTokens()) {
+				target.sids.add(tokenizer.nextToken());
+			}
+		}
+
+		if (hasAccessor) {
+			String accessor = targetString.substring(accessorIndex).replace(".", "");
+			if (accessor.startsWith("(")) {
+				int end = accessor.indexOf(')');
+				target.indexX = Integer.parseInt(accessor.substring(1, end));
+				if (end < accessor.length() - 1) {
+					String rest = accessor.substring(end + 1);
+					target.indexY = Integer.parseInt(rest.substring(1, rest.indexOf(')')));
+				}
+			} else {
+				Integer index = ACCESSOR_SYMBOLS.get(accessor);
+				if (index == null)
+					throw new IllegalArgumentException("Unknown accessor " + accessor + " in target " + targetString);
+				target.indexX = index;
+			}
+		}
+		return target;
+	}
+
+	private Source getSource(String id) throws IOException {
+		String positionSource = vertices.get(id);
+		Source source = sources.get((positionSource == null) ? id : positionSource);
+		if (source == null)
+			throw new IOException("Input source not found: " + id);
+		return source;
+	}
+
+	private static void checkData(Input input, Object data) throws IOException {
+		if (data == null)
+			throw new IOException("Source " + input.source + " of input " + input.semantic + " has no suitable data");
+	}
+
+	private String parent() {
+		return (elements.size() < 2) ? "" : elements.get(elements.size() - 2);
+	}
+
+	private static boolean isPrimitive(String element) {
+		for (String type : PRIMITIVE_TYPES) {
+			if (type.equals(element))
+				return true;
+		}
+		for (String type : UNSUPPORTED_PRIMITIVE_TYPES) {
+			if (type.equals(element))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isTransform(String element) {
+		for (String type : TRANSFORM_TYPES) {
+			if (type.equals(element))
+				return true;
+		}
+		return false;
+	}
+
+	/** strips leading # of a local reference */
+	private static String id(String url) {
+		return url.startsWith("#") ? url.substring(1) : url;
+	}
+
+	private static String attribute(XMLStreamReader reader, String name) throws IOException {
+		String value = reader.getAttributeValue(null, name);
+		if (value == null)
+			throw new IOException(MessageFormat.format("missing attribute {0} of {1} at line {2}",
+					name, reader.getLocalName(), reader.getLocation().getLineNumber()));
+		return value;
+	}
+
+	private static String attribute(XMLStreamReader reader, String name, String defaultValue) {
+		String value = reader.getAttributeValue(null, name);
+		return (value == null) ? defaultValue : value;
+	}
+
+	private static int intAttribute(XMLStreamReader reader, String name) throws IOException {
+		return Integer.parseInt(attribute(reader, name));
+	}
+
+	private static int intAttribute(XMLStreamReader reader, String name, int defaultValue) {
+		String value = reader.getAttributeValue(null, name);
+		return (value == null) ? defaultValue : Integer.parseInt(value);
+	}
+
+	/** a source element. either floats or names is set */
+	private static class Source {
+		private float[] floats = null;
+		private String[] names = null;
+		private boolean idref = false;
+		private int stride = 1;
+		private int offset = 0;
+	}
+
+	private static class Input {
+		private final String semantic;
+		/** id of source or vertices element */
+		private final String source;
+		private final int offset;
+
+		private Input(String semantic, String source, int offset) {
+			this.semantic = semantic;
+			this.source = source;
+			this.offset = offset;
+		}
+	}
+
+	private static class RawGeometry {
+		private final String name;
+		private final List<Primitive> primitives = new ArrayList<Primitive>();
+
+		private RawGeometry(String name) {
+			this.name = name;
+		}
+	}
+
+	/** a polygons, polylist or triangles element */
+	private static class Primitive {
+		private final String type;
+		private final String name;
+		private final List<Input> inputs = new ArrayList<Input>();
+		private final List<int[]> p = new ArrayList<int[]>();
+		private int[] vcount = null;
+
+		private Primitive(String type, String name) {
+			this.type = type;
+			this.name = name;
+		}
+	}
+
+	private static class RawSkin {
+		private final String id;
+		/** id of geometry */
+		private String source;
+		private double[] bindShapeMatrix = null;
+		private final List<Input> jointInputs = new ArrayList<Input>();
+		private final List<Input> weightInputs = new ArrayList<Input>();
+		private int count;
+		private int[] vcount = null;
+		private int[] v = null;
+
+		private RawSkin(String id) {
+			this.id = id;
+		}
+	}
+
+	/** influences of skin, resolved for original vertices */
+	private static class SkinWeights {
+		private final RawSkin skin;
+		private final int[] order;
+		private final int[] jointIndices;
+		private final float[] weights;
+		private final int[] influenceStarts;
+		private final int interval;
+		private final int jointOffset;
+		private final int weightOffset;
+		private boolean skippedInfluences = false;
+
+		private SkinWeights(RawSkin skin, int[] order, int[] jointIndices, float[] weights, int[] influenceStarts,
+				int interval, int jointOffset, int weightOffset) {
+			this.skin = skin;
+			this.order = order;
+			this.jointIndices = jointIndices;
+			this.weights = weights;
+			this.influenceStarts = influenceStarts;
+			this.interval = interval;
+			this.jointOffset = jointOffset;
+			this.weightOffset = weightOffset;
+		}
+
+		/** gets first non zero weights of vertex and normalizes them like Ardor3D does */
+		private void get(int vertex, float[] vertexWeights, short[] vertexJoints) throws IOException {
+			if (vertex >= skin.count)
+				throw new IOException("No vertex weights for vertex " + vertex + " in skin " + skin.id);
+
+			int j = 0;
+			float sum = 0;
+			for (int i = influenceStarts[vertex]; i < influenceStarts[vertex + 1]; i += interval) {
+				float weight = weights[skin.v[i + weightOffset]];
+				if (weight == 0)
+					continue;
+				if (j == Skeleton.MAX_JOINTS_PER_VERTEX) {
+					skippedInfluences = true;
+					continue;
+				}
+				vertexWeights[j] = weight;
+				vertexJoints[j] = (short) order[jointIndices[skin.v[i + jointOffset]]];
+				sum += weight;
+				j++;
+			}
+			if (sum != 0) {
+				for (j = 0; j < Skeleton.MAX_JOINTS_PER_VERTEX; j++)
+					vertexWeights[j] /= sum;
+			}
+		}
+	}
+
+	private static class SkinnedMesh {
+		private final String name;
+		private final MeshData mesh;
+		private final SkinData skin;
+
+		private SkinnedMesh(String name, MeshData mesh, SkinData skin) {
+			this.name = name;
+			this.mesh = mesh;
+			this.skin = skin;
+		}
+	}
+
+	private static class RawNode {
+		private final String id;
+		private final String sid;
+		private final String name;
+		private final String type;
+		private final List<RawTransform> transforms = new ArrayList<RawTransform>();
+		private final List<InstanceController> controllers = new ArrayList<InstanceController>();
+		/** ids of instantiated nodes */
+		private final List<String> instanceNodes = new ArrayList<String>();
+		private final List<RawNode> children = new ArrayList<RawNode>();
+
+		private RawNode(String id, String sid, String name, String type) {
+			this.id = id;
+			this.sid = sid;
+			this.name = name;
+			this.type = type;
+		}
+
+		private String getJointName() {
+			if (name != null)
+				return name;
+			return (id != null) ? id : sid;
+		}
+
+		private RawTransform getTransform(String sid) {
+			for (RawTransform transform : transforms) {
+				if (sid.equals(transform.sid))
+					return transform;
+			}
+			return null;
+		}
+	}
+
+	private static class RawTransform {
+		private final String type;
+		private final String sid;
+		private final double[] values;
+
+		private RawTransform(String type, String sid, double[] values) {
+			this.type = type;
+			this.sid = sid;
+			this.values = values;
+		}
+	}
+
+	private static class InstanceController {
+		/** id of controller */
+		private final String url;
+		/** ids of skeleton root nodes */
+		private final List<String> skeletons = new ArrayList<String>();
+
+		private InstanceController(String url) {
+			this.url = url;
+		}
+	}
+
+	private static class RawJoint {
+		private final RawNode node;
+		private final RawJoint parent;
+		private final List<RawJoint> children = new ArrayList<RawJoint>();
+		private int index;
+		/** joints of skeleton this joint belongs to */
+		private List<RawJoint> skeleton;
+		private Matrix inverseBindPose = new Matrix();
+
+		private RawJoint(RawNode node, RawJoint parent) {
+			this.node = node;
+			this.parent = parent;
+		}
+	}
+
+	private static class RawChannel {
+		/** id of sampler */
+		private final String source;
+		private final String target;
+
+		private RawChannel(String source, String target) {
+			this.source = source;
+			this.target = target;
+		}
+	}
+
+	private static class Target {
+		private String id;
+		private final List<String> sids = new ArrayList<String>();
+		/** index of animated value in transform, -1 if whole transform is animated */
+		private int indexX = -1;
+		/** row of animated matrix value, -1 if not a matrix value */
+		private int indexY = -1;
+	}
+
+	/** an animation channel while being sampled */
+	private static class TargetChannel {
+		private final Target target;
+		private final RawTransform transform;
+		/** id of sampler */
+		private final String source;
+		private float[] times;
+		private float[] data;
+		private int stride;
+		/** working copy of transform values */
+		private double[] array;
+		private int position = 0;
+
+		private TargetChannel(Target target, RawTransform transform, String source) {
+			this.target = target;
+			this.transform = transform;
+			this.source = source;
+		}
+
+		/** writes values of current key into transform values and advances to next key */
+		private void update() {
+			int offset = position * stride;
+			if (target.indexX == -1) {
+				for (int j = 0; j < array.length; j++)
+					array[j] = data[offset + j];
+			} else if (target.indexY == -1) {
+				array[target.indexX] = data[offset];
+			} else {
+				array[target.indexY * 4 + target.indexX] = data[offset];
+			}
+			position++;
+		}
+	}
+
+	/**
+	 * <p>Parses white space separated values of an element right from xml characters. Each value is collected
+	 * into a reused buffer and converted with {@link DecimalParser}, so common numbers create no strings.</p>
+	 * */
+	private static class NumberParser {
+		private static final int FLOATS = 0, DOUBLES = 1, INTS = 2, NAMES = 3;
+
+		private char[] token = new char[32];
+		private int length = 0;
+
+		private int type;
+		private int count;
+		private float[] floats;
+		private double[] doubles;
+		private int[] ints;
+		private String[] names;
+
+		/** reads float values till end of element. capacity is expected number of values, not a limit */
+		private float[] readFloats(XMLStreamReader reader, int capacity) throws XMLStreamException {
+			floats = new float[Math.max(capacity, 4)];
+			read(reader, FLOATS);
+			float[] result = floats;
+			if (count != result.length) {
+				result = new float[count];
+				System.arraycopy(floats, 0, result, 0, count);
+			}
+			floats = null;
+			return result;
+		}
+
+		private double[] readDoubles(XMLStreamReader reader) throws XMLStreamException {
+			doubles = new double[16];
+			read(reader, DOUBLES);
+			double[] result = new double[count];
+			System.arraycopy(doubles, 0, result, 0, count);
+			doubles = null;
+			return result;
+		}
+
+		private int[] readInts(XMLStreamReader reader, int capacity) throws XMLStreamException {
+			ints = new int[Math.max(capacity, 16)];
+			read(reader, INTS);
+			int[] result = ints;
+			if (count != result.length) {
+				result = new int[count];
+				System.arraycopy(ints, 0, result, 0, count);
+			}
+			ints = null;
+			return result;
+		}
+
+		private String[] readNames(XMLStreamReader reader, int capacity) throws XMLStreamException {
+			names = new String[Math.max(capacity, 4)];
+			read(reader, NAMES);
+			String[] result = names;
+			if (count != result.length) {
+				result = new String[count];
+				System.arraycopy(names, 0, result, 0, count);
+			}
+			names = null;
+			return result;
+		}
+
+		private void read(XMLStreamReader reader, int type) throws XMLStreamException {
+			this.type = type;
+			this.count = 0;
+			this.length = 0;
+
+			while (true) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+						|| event == XMLStreamConstants.SPACE) {
+
+					char[] text = reader.getTextCharacters();
+					for (int i = reader.getTextStart(), end = i + reader.getTextLength(); i < end; i++) {
+						char c = text[i];
+						if (c > ' ') {
+							if (length == token.length) {
+								char[] newToken = new char[length * 2];
+								System.arraycopy(token, 0, newToken, 0, length);
+								token = newToken;
+							}
+							token[length++] = c;
+						} else if (length != 0) {
+							endToken();
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					break;
+				} else if (event == XMLStreamConstants.START_ELEMENT) {
+					throw new XMLStreamException("Unexpected element " + reader.getLocalName(), reader.getLocation());
+				}
+			}
+			if (length != 0)
+				endToken();
+		}
+
+		private void endToken() {
+			switch (type) {
+				case FLOATS:
+					if (count == floats.length) {
+						float[] newFloats = new float[count * 2];
+						System.arraycopy(floats, 0, newFloats, 0, count);
+						floats = newFloats;
+					}
+					floats[count++] = DecimalParser.parseFloat(token, 0, length);
+					break;
+				case DOUBLES:
+					if (count == doubles.length) {
+						double[] newDoubles = new double[count * 2];
+						System.arraycopy(doubles, 0, newDoubles, 0, count);
+						doubles = newDoubles;
+					}
+					doubles[count++] = DecimalParser.parseDouble(token, 0, length);
+					break;
+				case INTS:
+					if (count == ints.length) {
+						int[] newInts = new int[count * 2];
+						System.arraycopy(ints, 0, newInts, 0, count);
+						ints = newInts;
+					}
+					ints[count++] = DecimalParser.parseInt(token, 0, length);
+					break;
+				default:
+					if (count == names.length) {
+						String[] newNames = new String[count * 2];
+						System.arraycopy(names, 0, newNames, 0, count);
+						names = newNames;
+					}
+					names[count++] = new String(token, 0, length);
+			}
+			length = 0;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package raft.jpct.bones;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>Computes a SHA-1 hash of data written to its {@link #out} stream. Used to identify
+ * data by their binary form.</p>
+ *
+ * @see AssetRegistry
+ * @see PackageLoader
+ * */
+class ContentHash {
+
+	private final MessageDigest digest;
+	/** the stream to write data to be hashed */
+	final DataOutputStream out;
+
+	ContentHash() {
+		try {
+			this.digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		this.out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+			@Override
+			public void write(int b) {}
+
+			@Override
+			public void write(byte[] b, int off, int len) {}
+		}, digest));
+	}
+
+	/** returns hash of written data and resets */
+	byte[] digest() throws IOException {
+		out.flush();
+		return digest.digest();
+	}
+
+	/** returns hash of given skeleton */
+	static byte[] of(Skeleton skeleton) throws IOException {
+		ContentHash hash = new ContentHash();
+		Skeleton.writeToStream(skeleton, hash.out);
+		return hash.digest();
+	}
+}
@@ -0,0 +1,157 @@
+package raft.jpct.bones;
+
+/**
+ * <p>Parses numbers right from a range of characters. Used by importers to parse large amounts of numbers
+ * without creating a string for each.</p>
+ *
+ * <p>Decimal numbers with up to 15 significant digits and a small exponent are converted with a single,
+ * correctly rounded operation. Others are parsed via {@link Double#parseDouble(String)}, so results are
+ * exactly same as {@link Float#parseFloat(String)} and {@link Double#parseDouble(String)}.
+ * Comma is accepted as decimal separator too.</p>
+ *
+ * @author hakan eryargi (r a f t)
+ */
+class DecimalParser {
+	/** powers of ten which are exactly representable as double */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/** can not be instantiated */
+	private DecimalParser() {}
+
+	/**
+	 * parses characters in range [start, end) as a double
+	 * @throws NumberFormatException if characters are not a number
+	 * */
+	static double parseDouble(char[] chars, int start, int end) {
+		double value = parseExact(chars, start, end);
+		if (Double.isNaN(value))
+			return Double.parseDouble(toString(chars, start, end));
+		return value;
+	}
+
+	/**
+	 * parses characters in range [start, end) as a float
+	 * @throws NumberFormatException if characters are not a number
+	 * */
+	static float parseFloat(char[] chars, int start, int end) {
+		double value = parseExact(chars, start, end);
+		if (!Double.isNaN(value) && !isFloatTie(value))
+			return (float) value;
+		// rounding double to float again may differ from rounding directly
+		return Float.parseFloat(toString(chars, start, end));
+	}
+
+	/**
+	 * parses characters in range [start, end) as an int
+	 * @throws NumberFormatException if characters are not an int
+	 * */
+	static int parseInt(char[] chars, int start, int end) {
+		int i = start;
+		boolean negative = (i < end) && (chars[i] == '-');
+		if (i < end && (chars[i] == '-' || chars[i] == '+'))
+			i++;
+		if (i == end || end - i > 9)
+			return Integer.parseInt(new String(chars, start, end - start));
+
+		int value = 0;
+		for (; i < end; i++) {
+			char c = chars[i];
+			if (c < '0' || c > '9')
+				return Integer.parseInt(new String(chars, start, end - start));
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/** returns true if value is halfway between two floats or out of normal float range */
+	private static boolean isFloatTie(double value) {
+		if (value == 0)
+			return false;
+		if (Math.abs(value) < Float.MIN_NORMAL)
+			return true;
+		return (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L;
+	}
+
+	/**
+	 * parses a decimal number with a single, correctly rounded operation. returns NaN if number has too many
+	 * digits, a large exponent or is malformed
+	 */
+	private static double parseExact(char[] chars, int start, int end) {
+		int i = start;
+		if (i == end)
+			return Double.NaN;
+		boolean negative = (chars[i] == '-');
+		if (negative || chars[i] == '+')
+			i++;
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean point = false;
+		boolean anyDigit = false;
+
+		for (; i < end; i++) {
+			char c = chars[i];
+			if (c >= '0' && c <= '9') {
+				anyDigit = true;
+				if (mantissa == 0 && c == '0') {
+					if (point)
+						exponent--;
+					continue;
+				}
+				if (digits == 15)
+					return Double.NaN;
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (point)
+					exponent--;
+			} else if ((c == '.' || c == ',') && !point) {
+				point = true;
+			} else if ((c == 'e' || c == 'E') && anyDigit) {
+				int e = parseExponent(chars, i + 1, end);
+				if (e == Integer.MIN_VALUE)
+					return Double.NaN;
+				exponent += e;
+				break;
+			} else {
+				return Double.NaN;
+			}
+		}
+		if (!anyDigit)
+			return Double.NaN;
+
+		double value;
+		if (mantissa == 0) {
+			value = 0;
+		} else if (exponent >= -22 && exponent <= 22) {
+			value = (exponent < 0) ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		} else {
+			return Double.NaN;
+		}
+		return negative ? -value : value;
+	}
+
+	/** parses exponent in given range. returns Integer.MIN_VALUE if it is malformed or too large */
+	private static int parseExponent(char[] chars, int start, int end) {
+		int i = start;
+		boolean negative = (i < end) && (chars[i] == '-');
+		if (i < end && (chars[i] == '-' || chars[i] == '+'))
+			i++;
+		if (i == end || end - i > 4)
+			return Integer.MIN_VALUE;
+
+		int value = 0;
+		for (; i < end; i++) {
+			char c = chars[i];
+			if (c < '0' || c > '9')
+				return Integer.MIN_VALUE;
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	private static String toString(char[] chars, int start, int end) {
+		return new String(chars, start, end - start).replace(',', '.');
+	}
+}
@@ -0,0 +1,42 @@
+package raft.jpct.bones;
+
+/**
+ * <p>A growable float array. Used by importers to collect values of unknown count without boxing.</p>
+ *
+ * @author hakan eryargi (r a f t)
+ */
+class FloatArray {
+	private float[] array;
+	private int size = 0;
+
+	FloatArray(int capacity) {
+		array = new float[Math.max(capacity, 4)];
+	}
+
+	void add(float value) {
+		if (size == array.length) {
+			float[] newArray = new float[size * 2];
+			System.arraycopy(array, 0, newArray, 0, size);
+			array = newArray;
+		}
+		array[size++] = value;
+	}
+
+	float get(int index) {
+		return array[index];
+	}
+
+	void set(int index, float value) {
+		array[index] = value;
+	}
+
+	int size() {
+		return size;
+	}
+
+	float[] toArray() {
+		float[] result = new float[size];
+		System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+}
@@ -0,0 +1,1627 @@
+package raft.jpct.bones;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.threed.jpct.Logger;
+import com.threed.jpct.Matrix;
+import com.threed.jpct.SimpleVector;
+
+/**
+ * <p>Imports glTF 2.0 files, both .gltf files with external or embedded buffers and binary .glb files.
+ * Buffers are accessed via little endian {@link ByteBuffer} views, so each tightly packed accessor is read with
+ * a single bulk copy. If joints and weights are stored as unsigned bytes, they are already in the layout of a
+ * packed {@link SkinData} and are copied as is.</p>
+ *
+ * <p>All skins must be bound to same skeleton, which is made of the joints of all skins, parents coming first.
+ * If there are no skins, meshes are imported without a skeleton, transformed by their node.
+ * Each animation becomes a {@link SkinClip}, and if it animates morph target weights, a {@link PoseClip} with same
+ * name. Morph targets become {@link MeshPose}s holding only the vertices they move.</p>
+ *
+ * <p>Only triangle primitives and first set of joints and weights are read. Animations of nodes which are neither
+ * joints nor meshes are ignored and step interpolation is approximated linearly between keys.
+ * glTF is Y up, so typically a rotation of x180 is required.</p>
+ *
+ * @author hakan eryargi (r a f t)
+ */
+public class GltfImporter {
+
+	private static final int GLB_MAGIC = 0x46546C67;
+	private static final int CHUNK_JSON = 0x4E4F534A;
+	private static final int CHUNK_BIN = 0x004E4942;
+
+	private static final int BYTE = 5120;
+	private static final int UNSIGNED_BYTE = 5121;
+	private static final int SHORT = 5122;
+	private static final int UNSIGNED_SHORT = 5123;
+	private static final int UNSIGNED_INT = 5125;
+	private static final int FLOAT = 5126;
+
+	private static final int TRIANGLES = 4;
+
+	private static final String[] TYPES = { "SCALAR", "VEC2", "VEC3", "VEC4", "MAT2", "MAT3", "MAT4" };
+	private static final int[] TYPE_COMPONENTS = { 1, 2, 3, 4, 4, 9, 16 };
+
+	/** required extensions which do not effect what is read */
+	private static final String[] IGNORABLE_EXTENSIONS = { "KHR_mesh_quantization", "KHR_materials_", "KHR_texture_" };
+
+	private final URL url;
+	private Map<String, Object> root;
+	private ByteBuffer[] buffers;
+	private RawNode[] nodes;
+	/** nodes of scene, depth first so parents come first */
+	private final List<RawNode> sceneNodes = new ArrayList<RawNode>();
+
+	/** joint nodes at their index in skeleton */
+	private final List<RawNode> jointNodes = new ArrayList<RawNode>();
+	private Skeleton skeleton = null;
+	private final List<RawMesh> meshes = new ArrayList<RawMesh>();
+
+	private GltfImporter(URL url) {
+		this.url = url;
+	}
+
+	/**
+	 * <p>Constructs an {@link AnimatedGroup} out of a glTF or GLB file. All skins must be bound to same skeleton.</p>
+	 *
+	 * @param gltfUrl location of glTF or GLB file. relative buffer uris are resolved against this
+	 * @param scale the scale
+	 * @param rotation the rotation applied to whole system. maybe null
+	 * @throws IOException if file or its buffers cannot be read, file is malformed or contains no meshes
+	 * */
+	public static AnimatedGroup importGroup(URL gltfUrl, float scale, Quaternion rotation) throws IOException {
+		if (scale == 0)
+			throw new IllegalArgumentException("scale: " + scale);
+
+		GltfImporter loader = new GltfImporter(gltfUrl);
+		try {
+			loader.load();
+			return loader.createGroup(scale, rotation);
+		} catch (RuntimeException e) {
+			throw new IOException(gltfUrl + ": " + e, e);
+		}
+	}
+
+	private void load() throws IOException {
+		byte[] data = readFully(url);
+		ByteBuffer file = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+
+		String json = null;
+		ByteBuffer binChunk = null;
+		if (data.length >= 12 && file.getInt(0) == GLB_MAGIC) {
+			int version = file.getInt(4);
+			if (version != 2)
+				throw new IOException("Unsupported GLB version: " + version);
+
+			int length = Math.min(file.getInt(8), data.length);
+			int offset = 12;
+			while (offset + 8 <= length) {
+				int chunkLength = file.getInt(offset);
+				int chunkType = file.getInt(offset + 4);
+				offset += 8;
+				if (chunkLength < 0 || offset + chunkLength > length)
+					throw new IOException("Malformed GLB chunk at " + (offset - 8));
+
+				if (chunkType == CHUNK_JSON && json == null) {
+					json = new String(data, offset, chunkLength, "UTF-8");
+				} else if (chunkType == CHUNK_BIN && binChunk == null) {
+					binChunk = view(file, offset, chunkLength);
+				}
+				// chunks are 4 byte aligned
+				offset += (chunkLength + 3) & ~3;
+			}
+			if (json == null)
+				throw new IOException("No JSON chunk in GLB file");
+		} else {
+			json = new String(data, "UTF-8");
+		}
+		root = object(new JsonParser(json).parse());
+
+		Map<String, Object> asset = getObject(root, "asset");
+		String version = (asset == null) ? null : getString(asset, "version");
+		if (version == null || !version.startsWith("2."))
+			throw new IOException("Unsupported glTF version: " + version);
+
+		for (Object extension : getArray(root, "extensionsRequired")) {
+			if (!isIgnorable((String) extension))
+				throw new IOException("Unsupported required extension: " + extension);
+		}
+
+		List<Object> bufferList = getArray(root, "buffers");
+		buffers = new ByteBuffer[bufferList.size()];
+		for (int i = 0; i < buffers.length; i++) {
+			Map<String, Object> buffer = object(bufferList.get(i));
+			String uri = getString(buffer, "uri");
+			ByteBuffer content;
+			if (uri == null) {
+				if (i != 0 || binChunk == null)
+					throw new IOException("Buffer " + i + " has no uri");
+				content = binChunk;
+			} else if (uri.startsWith("data:")) {
+				int comma = uri.indexOf(',');
+				if (comma < 0 || !uri.substring(0, comma).endsWith(";base64"))
+					throw new IOException("Unsupported data uri in buffer " + i);
+				byte[] decoded = decodeBase64(uri, comma + 1);
+				content = ByteBuffer.wrap(decoded).order(ByteOrder.LITTLE_ENDIAN);
+			} else {
+				byte[] external = readFully(new URL(url, uri));
+				content = ByteBuffer.wrap(external).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			int byteLength = getInt(buffer, "byteLength");
+			if (byteLength > content.remaining())
+				throw new IOException("Buffer " + i + " is shorter than its byteLength: " + content.remaining());
+			buffers[i] = content;
+		}
+
+		List<Object> nodeList = getArray(root, "nodes");
+		nodes = new RawNode[nodeList.size()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new RawNode(i, object(nodeList.get(i)));
+		}
+		for (RawNode node : nodes) {
+			for (int child : node.children) {
+				if (child < 0 || child >= nodes.length)
+					throw new IOException("No node with index: " + child);
+				if (nodes[child].parent != null)
+					throw new IOException("Node " + child + " has more than one parent");
+				nodes[child].parent = node;
+			}
+		}
+	}
+
+	private AnimatedGroup createGroup(float scale, Quaternion rotation) throws IOException {
+		collectSceneNodes();
+		createSkeleton();
+		createMeshes();
+		if (meshes.isEmpty())
+			throw new IOException("glTF file contains no meshes");
+
+		Matrix transform = null;
+		if ((scale != 1) || (rotation != null)) {
+			transform = new Matrix();
+			if (rotation != null)
+				rotation.setRotation(transform);
+			if (scale != 1)
+				transform.matMul(SkinHelper.getScaleMatrix(scale));
+		}
+
+		SkeletonPose currentPose = null;
+		if (skeleton != null) {
+			currentPose = new SkeletonPose(skeleton);
+			currentPose.updateTransforms();
+		}
+
+		Animated3D[] objects = new Animated3D[meshes.size()];
+		for (int i = 0; i < objects.length; i++) {
+			RawMesh mesh = meshes.get(i);
+			if (transform != null) {
+				mesh.mesh.applyTransform(transform);
+				for (MeshPose pose : mesh.poses) {
+					if (pose != null)
+						pose.applyTransform(transform);
+				}
+			}
+			objects[i] = new Animated3D(mesh.mesh, mesh.skin, currentPose);
+			objects[i].setName(mesh.name);
+			objects[i].setIndex(i);
+		}
+
+		List<SkinClip> skinClips = new LinkedList<SkinClip>();
+		List<PoseClip> poseClips = new LinkedList<PoseClip>();
+		createClips(skinClips, poseClips);
+
+		for (SkinClip skinClip : skinClips) {
+			if (rotation != null) {
+				for (JointChannel channel : skinClip) {
+					if (channel != null)
+						channel.rotate(skeleton, rotation);
+				}
+			}
+			if (scale != 1) {
+				for (JointChannel channel : skinClip) {
+					if (channel != null)
+						channel.scale(scale);
+				}
+			}
+			Logger.log("Created skeleton animation clip: " + skinClip.getName(), Logger.MESSAGE);
+		}
+		for (PoseClip poseClip : poseClips) {
+			Logger.log("Created pose animation clip: " + poseClip.getName(), Logger.MESSAGE);
+		}
+
+		// finally rotate/scale skeleton. this should be done after jointChannels are rotated/scaled
+		if ((skeleton != null) && (transform != null)) {
+			if (rotation != null)
+				skeleton.rotate(rotation);
+			if (scale != 1)
+				skeleton.scale(scale);
+
+			currentPose.setToBindPose();
+			currentPose.updateTransforms();
+		}
+
+		AnimatedGroup group = new AnimatedGroup(objects);
+		if (!skinClips.isEmpty())
+			group.setSkinClipSequence(new SkinClipSequence(skinClips));
+		if (!poseClips.isEmpty())
+			group.setPoseClipSequence(new PoseClipSequence(poseClips));
+
+		return group;
+	}
+
+	/** collects nodes of default scene depth first. if there are no scenes, all root nodes are used */
+	private void collectSceneNodes() throws IOException {
+		List<Object> scenes = getArray(root, "scenes");
+		if (scenes.isEmpty()) {
+			for (RawNode node : nodes) {
+				if (node.parent == null)
+					collectNodes(node);
+			}
+		} else {
+			int scene = getInt(root, "scene", 0);
+			if (scene < 0 || scene >= scenes.size())
+				throw new IOException("No scene with index: " + scene);
+			for (int index : getInts(object(scenes.get(scene)), "nodes")) {
+				if (index < 0 || index >= nodes.length)
+					throw new IOException("No node with index: " + index);
+				collectNodes(nodes[index]);
+			}
+		}
+	}
+
+	private void collectNodes(RawNode node) throws IOException {
+		if (node.inScene)
+			throw new IOException("Node " + node.index + " is referenced more than once");
+		node.inScene = true;
+		sceneNodes.add(node);
+
+		for (int child : node.children) {
+			collectNodes(nodes[child]);
+		}
+	}
+
+	/** creates skeleton out of joints of all skins used by meshes in scene. does nothing if there are no skins */
+	private void createSkeleton() throws IOException {
+		List<Object> skins = getArray(root, "skins");
+		List<Integer> usedSkins = new ArrayList<Integer>();
+		for (RawNode node : sceneNodes) {
+			if (node.mesh >= 0 && node.skin >= 0 && !usedSkins.contains(node.skin)) {
+				if (node.skin >= skins.size())
+					throw new IOException("No skin with index: " + node.skin);
+				usedSkins.add(node.skin);
+			}
+		}
+		if (usedSkins.isEmpty())
+			return;
+
+		for (int skin : usedSkins) {
+			for (int joint : getInts(object(skins.get(skin)), "joints")) {
+				if (joint < 0 || joint >= nodes.length)
+					throw new IOException("No node with index: " + joint);
+				if (!nodes[joint].inScene)
+					throw new IOException("Joint node " + joint + " is not in scene");
+				nodes[joint].isJoint = true;
+			}
+		}
+		// scene nodes are depth first, so parents come first
+		for (RawNode node : sceneNodes) {
+			if (node.isJoint) {
+				node.jointIndex = jointNodes.size();
+				jointNodes.add(node);
+			}
+		}
+
+		Matrix[] inverseBindPoses = new Matrix[jointNodes.size()];
+		boolean mismatch = false;
+		for (int skin : usedSkins) {
+			Map<String, Object> skinObject = object(skins.get(skin));
+			int[] joints = getInts(skinObject, "joints");
+
+			float[] matrices = null;
+			if (skinObject.containsKey("inverseBindMatrices")) {
+				Accessor accessor = getAccessor(getInt(skinObject, "inverseBindMatrices"));
+				if (accessor.components != 16 || accessor.count < joints.length)
+					throw new IOException("Invalid inverse bind matrices in skin " + skin);
+				matrices = readFloats(accessor);
+			}
+			for (int i = 0; i < joints.length; i++) {
+				Matrix matrix = new Matrix();
+				// column major glTF matrix has same layout with jPCT's row major matrix for row vectors
+				if (matrices != null)
+					matrix.setDump(Arrays.copyOfRange(matrices, i * 16, i * 16 + 16));
+
+				int jointIndex = nodes[joints[i]].jointIndex;
+				if (inverseBindPoses[jointIndex] == null) {
+					inverseBindPoses[jointIndex] = matrix;
+				} else if (!mismatch && !almostEqual(inverseBindPoses[jointIndex], matrix)) {
+					Logger.log("Skins have different inverse bind matrices for joint " + nodes[joints[i]].getName()
+							+ ", using first one", Logger.WARNING);
+					mismatch = true;
+				}
+			}
+		}
+
+		Joint[] joints = new Joint[jointNodes.size()];
+		for (RawNode node : jointNodes) {
+			RawNode parent = node.parent;
+			while (parent != null && !parent.isJoint)
+				parent = parent.parent;
+			int parentIndex = (parent == null) ? Joint.NO_PARENT : parent.jointIndex;
+			joints[node.jointIndex] = new Joint(inverseBindPoses[node.jointIndex], node.jointIndex, parentIndex, node.name);
+
+			node.parentTransform = getTransformBetween(parent, node);
+		}
+		skeleton = new Skeleton(joints);
+		Logger.log("Skeleton created out of glTF nodes", Logger.MESSAGE);
+	}
+
+	/** returns combined transform of nodes between given nodes, both exclusive. or null if it is identity */
+	private static double[] getTransformBetween(RawNode ancestor, RawNode node) {
+		double[] result = null;
+		for (RawNode parent = node.parent; parent != ancestor; parent = parent.parent) {
+			if (!parent.isIdentity())
+				result = (result == null) ? parent.getMatrix() : multiply(parent.getMatrix(), result);
+		}
+		return result;
+	}
+
+	private void createMeshes() throws IOException {
+		List<Object> meshList = getArray(root, "meshes");
+		boolean warnedJointSets = false;
+
+		for (RawNode node : sceneNodes) {
+			if (node.mesh < 0)
+				continue;
+			if (node.mesh >= meshList.size())
+				throw new IOException("No mesh with index: " + node.mesh);
+			if (skeleton != null && node.skin < 0) {
+				Logger.log("Skipping mesh of node " + node.getName() + ", it has no skin", Logger.WARNING);
+				continue;
+			}
+			Map<String, Object> mesh = object(meshList.get(node.mesh));
+			List<Object> primitives = getArray(mesh, "primitives");
+
+			String meshName = getString(mesh, "name");
+			if (meshName == null)
+				meshName = (node.name != null) ? node.name : "mesh" + node.mesh;
+
+			List<Object> targetNames = Collections.emptyList();
+			Map<String, Object> extras = getObject(mesh, "extras");
+			if (extras != null)
+				targetNames = getArray(extras, "targetNames");
+
+			// skinned meshes are in bind space, others are transformed by their node
+			Matrix transform = null;
+			Matrix poseTransform = null;
+			if (skeleton == null) {
+				double[] world = getTransformBetween(null, node);
+				if (!node.isIdentity())
+					world = (world == null) ? node.getMatrix() : multiply(world, node.getMatrix());
+				if (world != null) {
+					transform = toMatrix(world);
+					// pose offsets are not translated
+					double[] rotationScale = world.clone();
+					rotationScale[3] = rotationScale[7] = rotationScale[11] = 0;
+					poseTransform = toMatrix(rotationScale);
+				}
+			}
+
+			for (int p = 0; p < primitives.size(); p++) {
+				Map<String, Object> primitive = object(primitives.get(p));
+				String name = (primitives.size() == 1) ? meshName : meshName + "_" + p;
+
+				int mode = getInt(primitive, "mode", TRIANGLES);
+				if (mode != TRIANGLES) {
+					Logger.log("Only triangles are supported, skipping primitive " + name + " with mode " + mode,
+							Logger.WARNING);
+					continue;
+				}
+				Map<String, Object> attributes = getObject(primitive, "attributes");
+				if (attributes == null || !attributes.containsKey("POSITION"))
+					throw new IOException("No POSITION attribute in primitive " + name);
+				if (!warnedJointSets && node.skin >= 0 && attributes.containsKey("JOINTS_1")) {
+					Logger.log("Only first " + Skeleton.MAX_JOINTS_PER_VERTEX + " joints of vertices are used",
+							Logger.WARNING);
+					warnedJointSets = true;
+				}
+
+				Accessor positions = getAccessor(getInt(attributes, "POSITION"));
+				if (positions.components != 3)
+					throw new IOException("POSITION is not a VEC3 in primitive " + name);
+				float[] coordinates = readFloats(positions);
+				int vertexCount = positions.count;
+
+				float[] uvs = null;
+				if (attributes.containsKey("TEXCOORD_0")) {
+					Accessor texCoords = getAccessor(getInt(attributes, "TEXCOORD_0"));
+					if (texCoords.components != 2 || texCoords.count != vertexCount)
+						throw new IOException("Invalid TEXCOORD_0 in primitive " + name);
+					uvs = readFloats(texCoords);
+				}
+
+				int[] indices = null;
+				if (primitive.containsKey("indices")) {
+					Accessor indexAccessor = getAccessor(getInt(primitive, "indices"));
+					if (indexAccessor.components != 1)
+						throw new IOException("indices is not a SCALAR in primitive " + name);
+					indices = readInts(indexAccessor);
+					for (int index : indices) {
+						if (index < 0 || index >= vertexCount)
+							throw new IOException("Vertex index out of range: " + index + " in primitive " + name);
+					}
+				}
+
+				SkinData skin = (node.skin < 0) ? null : createSkinData(attributes, node.skin, vertexCount, name);
+
+				List<Object> targets = getArray(primitive, "targets");
+				MeshPose[] poses = new MeshPose[targets.size()];
+				for (int t = 0; t < poses.length; t++) {
+					String poseName = (t < targetNames.size() && targetNames.get(t) instanceof String)
+							? (String) targetNames.get(t) : "target" + t;
+					poses[t] = createMeshPose(object(targets.get(t)), vertexCount, poseName);
+					if (poses[t] != null && poseTransform != null)
+						poses[t].applyTransform(poseTransform);
+				}
+
+				MeshData meshData = new MeshData(coordinates, uvs, indices);
+				if (transform != null)
+					meshData.applyTransform(transform);
+
+				node.objectIndices.add(meshes.size());
+				meshes.add(new RawMesh(name, meshData, skin, poses));
+			}
+		}
+	}
+
+	/** creates skin of a primitive. unsigned byte joints and weights are used as packed skin data */
+	private SkinData createSkinData(Map<String, Object> attributes, int skin, int vertexCount, String name)
+			throws IOException {
+
+		if (!attributes.containsKey("JOINTS_0") || !attributes.containsKey("WEIGHTS_0"))
+			throw new IOException("No JOINTS_0 and WEIGHTS_0 attributes in skinned primitive " + name);
+
+		Accessor jointAccessor = getAccessor(getInt(attributes, "JOINTS_0"));
+		Accessor weightAccessor = getAccessor(getInt(attributes, "WEIGHTS_0"));
+		if (jointAccessor.components != 4 || jointAccessor.count != vertexCount
+				|| weightAccessor.components != 4 || weightAccessor.count != vertexCount)
+			throw new IOException("Invalid JOINTS_0 or WEIGHTS_0 in primitive " + name);
+
+		// skin's joint index to skeleton index
+		int[] skinJoints = getInts(object(getArray(root, "skins").get(skin)), "joints");
+		int[] jointMap = new int[skinJoints.length];
+		for (int i = 0; i < jointMap.length; i++)
+			jointMap[i] = nodes[skinJoints[i]].jointIndex;
+
+		if (jointAccessor.componentType == UNSIGNED_BYTE && weightAccessor.componentType == UNSIGNED_BYTE
+				&& weightAccessor.normalized && jointNodes.size() <= 256) {
+			int[] packedJointIndices = readPacked(jointAccessor);
+			int[] packedWeights = readPacked(weightAccessor);
+
+			for (int v = 0; v < vertexCount; v++) {
+				int packed = packedJointIndices[v];
+				int result = 0;
+				for (int slot = 0; slot < Skeleton.MAX_JOINTS_PER_VERTEX; slot++) {
+					int shift = slot * 8;
+					if (((packedWeights[v] >>> shift) & 0xFF) == 0)
+						continue;
+					int joint = (packed >>> shift) & 0xFF;
+					if (joint >= jointMap.length)
+						throw new IOException("Joint index out of range: " + joint + " in primitive " + name);
+					result |= jointMap[joint] << shift;
+				}
+				// joints of zero weight slots are cleared
+				packedJointIndices[v] = result;
+			}
+			return SkinData.packed(packedWeights, packedJointIndices);
+		}
+
+		int[] jointValues = readInts(jointAccessor);
+		float[] weightValues = readFloats(weightAccessor);
+		float[][] weights = new float[vertexCount][Skeleton.MAX_JOINTS_PER_VERTEX];
+		short[][] jointIndices = new short[vertexCount][Skeleton.MAX_JOINTS_PER_VERTEX];
+
+		for (int v = 0; v < vertexCount; v++) {
+			float sum = 0;
+			for (int slot = 0; slot < Skeleton.MAX_JOINTS_PER_VERTEX; slot++)
+				sum += weightValues[v * 4 + slot];
+
+			for (int slot = 0; slot < Skeleton.MAX_JOINTS_PER_VERTEX; slot++) {
+				float weight = weightValues[v * 4 + slot];
+				if (weight == 0)
+					continue;
+				int joint = jointValues[v * 4 + slot];
+				if (joint < 0 || joint >= jointMap.length)
+					throw new IOException("Joint index out of range: " + joint + " in primitive " + name);
+				weights[v][slot] = (sum == 1f) ? weight : weight / sum;
+				jointIndices[v][slot] = (short) jointMap[joint];
+			}
+		}
+		return new SkinData(weights, jointIndices);
+	}
+
+	/** creates a pose out of vertices moved by morph target. returns null if target moves no vertices */
+	private MeshPose createMeshPose(Map<String, Object> target, int vertexCount, String name) throws IOException {
+		if (!target.containsKey("POSITION"))
+			return null;
+		Accessor accessor = getAccessor(getInt(target, "POSITION"));
+		if (accessor.components != 3 || accessor.count != vertexCount)
+			throw new IOException("Invalid POSITION in morph target " + name);
+		float[] offsets = readFloats(accessor);
+
+		int count = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			if (offsets[v * 3] != 0 || offsets[v * 3 + 1] != 0 || offsets[v * 3 + 2] != 0)
+				count++;
+		}
+		if (count == 0)
+			return null;
+
+		float[] poseOffsets = new float[count * 3];
+		int[] poseIndices = new int[count];
+		int index = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			if (offsets[v * 3] != 0 || offsets[v * 3 + 1] != 0 || offsets[v * 3 + 2] != 0) {
+				System.arraycopy(offsets, v * 3, poseOffsets, index * 3, 3);
+				poseIndices[index++] = v;
+			}
+		}
+		return new MeshPose(name, poseOffsets, poseIndices);
+	}
+
+	/** creates a skin clip and a pose clip out of each animation, if it has related channels */
+	private void createClips(List<SkinClip> skinClips, List<PoseClip> poseClips) throws IOException {
+		List<Object> animations = getArray(root, "animations");
+		for (int a = 0; a < animations.size(); a++) {
+			Map<String, Object> animation = object(animations.get(a));
+			String name = getString(animation, "name");
+			if (name == null)
+				name = "animation" + a;
+
+			List<Object> samplerList = getArray(animation, "samplers");
+			Sampler[] samplers = new Sampler[samplerList.size()];
+
+			// samplers of each node by path
+			Map<RawNode, Map<String, Sampler>> tracks = new LinkedHashMap<RawNode, Map<String, Sampler>>();
+			for (Object channelObject : getArray(animation, "channels")) {
+				Map<String, Object> channel = object(channelObject);
+				Map<String, Object> target = getObject(channel, "target");
+				if (target == null || !target.containsKey("node"))
+					continue;
+				int nodeIndex = getInt(target, "node");
+				if (nodeIndex < 0 || nodeIndex >= nodes.length)
+					throw new IOException("No node with index: " + nodeIndex);
+				String path = getString(target, "path");
+
+				int samplerIndex = getInt(channel, "sampler");
+				if (samplerIndex < 0 || samplerIndex >= samplers.length)
+					throw new IOException("No sampler with index: " + samplerIndex + " in animation " + name);
+				if (samplers[samplerIndex] == null)
+					samplers[samplerIndex] = readSampler(object(samplerList.get(samplerIndex)), name);
+
+				RawNode node = nodes[nodeIndex];
+				Map<String, Sampler> nodeTracks = tracks.get(node);
+				if (nodeTracks == null) {
+					nodeTracks = new HashMap<String, Sampler>();
+					tracks.put(node, nodeTracks);
+				}
+				nodeTracks.put(path, samplers[samplerIndex]);
+			}
+
+			List<JointChannel> jointChannels = new LinkedList<JointChannel>();
+			List<MeshChannel> meshChannels = new LinkedList<MeshChannel>();
+			int ignored = 0;
+			for (Map.Entry<RawNode, Map<String, Sampler>> entry : tracks.entrySet()) {
+				RawNode node = entry.getKey();
+				Map<String, Sampler> nodeTracks = entry.getValue();
+				boolean used = false;
+
+				if (node.isJoint && (nodeTracks.containsKey("translation") || nodeTracks.containsKey("rotation")
+						|| nodeTracks.containsKey("scale"))) {
+					jointChannels.add(createJointChannel(node, nodeTracks));
+					used = true;
+				}
+				Sampler weights = nodeTracks.get("weights");
+				if (weights != null && !node.objectIndices.isEmpty()) {
+					for (int objectIndex : node.objectIndices) {
+						MeshChannel meshChannel = createMeshChannel(objectIndex, weights, name);
+						if (meshChannel != null)
+							meshChannels.add(meshChannel);
+					}
+					used = true;
+				}
+				if (!used)
+					ignored++;
+			}
+			if (ignored > 0)
+				Logger.log("Ignored channels of " + ignored + " node(s) in animation " + name
+						+ ", they are neither joints nor meshes", Logger.WARNING);
+
+			if (!jointChannels.isEmpty()) {
+				SkinClip skinClip = new SkinClip(skeleton, jointChannels);
+				skinClip.setName(name);
+				skinClips.add(skinClip);
+			}
+			if (!meshChannels.isEmpty()) {
+				PoseClip poseClip = new PoseClip(meshes.size(), meshChannels);
+				poseClip.setName(name);
+				poseClips.add(poseClip);
+			}
+		}
+	}
+
+	private Sampler readSampler(Map<String, Object> sampler, String animationName) throws IOException {
+		Accessor input = getAccessor(getInt(sampler, "input"));
+		Accessor output = getAccessor(getInt(sampler, "output"));
+		if (input.components != 1 || input.count == 0)
+			throw new IOException("Invalid sampler input in animation " + animationName);
+
+		String interpolation = getString(sampler, "interpolation");
+		boolean cubic = "CUBICSPLINE".equals(interpolation);
+		int valuesPerKey = cubic ? 3 : 1;
+
+		float[] times = readFloats(input);
+		float[] values = readFloats(output);
+		int components = values.length / (input.count * valuesPerKey);
+		if (components == 0 || components * input.count * valuesPerKey != values.length)
+			throw new IOException("Sampler output does not match input in animation " + animationName);
+		for (int i = 0; i < times.length; i++) {
+			if (times[i] < 0 || (i > 0 && times[i] < times[i - 1]))
+				throw new IOException("Sampler times are not incremental in animation " + animationName);
+		}
+		return new Sampler(times, values, components, cubic, "STEP".equals(interpolation));
+	}
+
+	/** samples translation, rotation and scale at key times of all tracks. missing ones are taken from node */
+	private JointChannel createJointChannel(RawNode node, Map<String, Sampler> nodeTracks) throws IOException {
+		Sampler translationTrack = nodeTracks.get("translation");
+		Sampler rotationTrack = nodeTracks.get("rotation");
+		Sampler scaleTrack = nodeTracks.get("scale");
+		if ((translationTrack != null && translationTrack.components != 3)
+				|| (rotationTrack != null && rotationTrack.components != 4)
+				|| (scaleTrack != null && scaleTrack.components != 3))
+			throw new IOException("Invalid animation data for joint " + node.getName());
+
+		float[] times = mergeTimes(translationTrack, rotationTrack, scaleTrack);
+		int length = times.length;
+		SimpleVector[] translations = new SimpleVector[length];
+		Quaternion[] rotations = new Quaternion[length];
+		SimpleVector[] scales = new SimpleVector[length];
+
+		double[] t = node.translation.clone();
+		double[] r = node.rotation.clone();
+		double[] s = node.scale.clone();
+		for (int i = 0; i < length; i++) {
+			if (translationTrack != null)
+				translationTrack.sample(times[i], t, false);
+			if (rotationTrack != null)
+				rotationTrack.sample(times[i], r, true);
+			if (scaleTrack != null)
+				scaleTrack.sample(times[i], s, false);
+
+			if (node.parentTransform == null) {
+				translations[i] = new SimpleVector((float) t[0], (float) t[1], (float) t[2]);
+				rotations[i] = new Quaternion((float) r[0], (float) r[1], (float) r[2], (float) r[3]);
+				scales[i] = new SimpleVector((float) s[0], (float) s[1], (float) s[2]);
+			} else {
+				// nodes between joint and its parent joint are folded into channel
+				double[] m = multiply(node.parentTransform, toMatrix(t, r, s));
+				double[] mt = new double[3], mr = new double[4], ms = new double[3];
+				decompose(m, mt, mr, ms);
+				translations[i] = new SimpleVector((float) mt[0], (float) mt[1], (float) mt[2]);
+				rotations[i] = new Quaternion((float) mr[0], (float) mr[1], (float) mr[2], (float) mr[3]);
+				scales[i] = new SimpleVector((float) ms[0], (float) ms[1], (float) ms[2]);
+			}
+		}
+		return new JointChannel(node.jointIndex, times, translations, rotations, scales);
+	}
+
+	/** creates a channel of morph target weights. frames hold only poses with non zero weight */
+	private MeshChannel createMeshChannel(int objectIndex, Sampler weights, String animationName) throws IOException {
+		MeshPose[] poses = meshes.get(objectIndex).poses;
+		if (weights.components != poses.length)
+			throw new IOException("Morph weights do not match targets of " + meshes.get(objectIndex).name
+					+ " in animation " + animationName);
+
+		boolean hasPoses = false;
+		for (MeshPose pose : poses)
+			hasPoses |= (pose != null);
+		if (!hasPoses)
+			return null;
+
+		int length = weights.times.length;
+		PoseFrame[] frames = new PoseFrame[length];
+		double[] values = new double[poses.length];
+		for (int i = 0; i < length; i++) {
+			weights.getValue(i, values);
+
+			int count = 0;
+			for (int p = 0; p < poses.length; p++) {
+				if (poses[p] != null && values[p] != 0)
+					count++;
+			}
+			MeshPose[] framePoses = new MeshPose[count];
+			float[] frameWeights = new float[count];
+			int index = 0;
+			for (int p = 0; p < poses.length; p++) {
+				if (poses[p] != null && values[p] != 0) {
+					framePoses[index] = poses[p];
+					frameWeights[index++] = (float) values[p];
+				}
+			}
+			frames[i] = new PoseFrame(framePoses, frameWeights);
+		}
+		return new MeshChannel(objectIndex, frames, weights.times);
+	}
+
+	/** returns sorted union of key times of given samplers, some of which may be null */
+	private static float[] mergeTimes(Sampler... samplers) {
+		float[] first = null;
+		boolean same = true;
+		int total = 0;
+		for (Sampler sampler : samplers) {
+			if (sampler == null)
+				continue;
+			if (first == null) {
+				first = sampler.times;
+			} else {
+				same &= Arrays.equals(first, sampler.times);
+			}
+			total += sampler.times.length;
+		}
+		// typically all tracks of a node share same times
+		if (same)
+			return first;
+
+		float[] times = new float[total];
+		int index = 0;
+		for (Sampler sampler : samplers) {
+			if (sampler != null) {
+				System.arraycopy(sampler.times, 0, times, index, sampler.times.length);
+				index += sampler.times.length;
+			}
+		}
+		Arrays.sort(times);
+		int length = 0;
+		for (int i = 0; i < times.length; i++) {
+			if (length == 0 || times[i] != times[length - 1])
+				times[length++] = times[i];
+		}
+		return Arrays.copyOf(times, length);
+	}
+
+	private Accessor getAccessor(int index) throws IOException {
+		List<Object> accessors = getArray(root, "accessors");
+		if (index < 0 || index >= accessors.size())
+			throw new IOException("No accessor with index: " + index);
+		return new Accessor(index, object(accessors.get(index)));
+	}
+
+	/** returns a little endian view of given buffer view, starting at given offset */
+	private ByteBuffer getBufferView(int index, int offset, int minLength) throws IOException {
+		List<Object> bufferViews = getArray(root, "bufferViews");
+		if (index < 0 || index >= bufferViews.size())
+			throw new IOException("No buffer view with index: " + index);
+		Map<String, Object> bufferView = object(bufferViews.get(index));
+
+		int bufferIndex = getInt(bufferView, "buffer");
+		if (bufferIndex < 0 || bufferIndex >= buffers.length)
+			throw new IOException("No buffer with index: " + bufferIndex);
+		ByteBuffer buffer = buffers[bufferIndex];
+
+		int start = getInt(bufferView, "byteOffset", 0);
+		int length = getInt(bufferView, "byteLength");
+		if (start < 0 || length < 0 || start + length > buffer.remaining())
+			throw new IOException("Buffer view " + index + " is out of its buffer");
+		if (offset < 0 || offset + minLength > length)
+			throw new IOException("Accessor data is out of buffer view " + index);
+
+		return view(buffer, start + offset, length - offset);
+	}
+
+	/** reads accessor values as floats. normalized integers are converted to [0,1] or [-1,1] range */
+	private float[] readFloats(Accessor accessor) throws IOException {
+		float[] result = new float[accessor.count * accessor.components];
+		ByteBuffer data = accessor.data;
+		if (data != null) {
+			if (accessor.componentType == FLOAT && accessor.isPacked()) {
+				data.asFloatBuffer().get(result);
+			} else {
+				for (int i = 0, index = 0; i < accessor.count; i++) {
+					int position = i * accessor.stride;
+					for (int c = 0; c < accessor.components; c++, position += accessor.componentSize) {
+						result[index++] = accessor.readFloat(data, position);
+					}
+				}
+			}
+		}
+		if (accessor.sparse != null)
+			applySparse(accessor, result, null);
+		return result;
+	}
+
+	/** reads accessor values as ints. accessor must be of an integer type */
+	private int[] readInts(Accessor accessor) throws IOException {
+		if (accessor.componentType == FLOAT)
+			throw new IOException("Accessor " + accessor.index + " is not of an integer type");
+
+		int[] result = new int[accessor.count * accessor.components];
+		ByteBuffer data = accessor.data;
+		if (data != null) {
+			if (accessor.componentType == UNSIGNED_INT && accessor.isPacked()) {
+				data.asIntBuffer().get(result);
+			} else {
+				for (int i = 0, index = 0; i < accessor.count; i++) {
+					int position = i * accessor.stride;
+					for (int c = 0; c < accessor.components; c++, position += accessor.componentSize) {
+						result[index++] = accessor.readInt(data, position);
+					}
+				}
+			}
+		}
+		if (accessor.sparse != null)
+			applySparse(accessor, null, result);
+		return result;
+	}
+
+	/** reads four unsigned bytes of each element into an int, first byte being lowest */
+	private int[] readPacked(Accessor accessor) throws IOException {
+		int[] result = new int[accessor.count];
+		ByteBuffer data = accessor.data;
+		if (data != null) {
+			if (accessor.isPacked()) {
+				data.asIntBuffer().get(result);
+			} else {
+				for (int i = 0; i < accessor.count; i++)
+					result[i] = data.getInt(i * accessor.stride);
+			}
+		}
+		if (accessor.sparse != null) {
+			int[] values = new int[accessor.count * 4];
+			for (int i = 0; i < accessor.count; i++) {
+				for (int c = 0; c < 4; c++)
+					values[i * 4 + c] = (result[i] >>> (c * 8)) & 0xFF;
+			}
+			applySparse(accessor, null, values);
+			for (int i = 0; i < accessor.count; i++) {
+				result[i] = values[i * 4] | (values[i * 4 + 1] << 8) | (values[i * 4 + 2] << 16) | (values[i * 4 + 3] << 24);
+			}
+		}
+		return result;
+	}
+
+	/** replaces values of elements listed in sparse storage of accessor. one of arrays is given */
+	private void applySparse(Accessor accessor, float[] floats, int[] ints) throws IOException {
+		Map<String, Object> sparse = accessor.sparse;
+		int count = getInt(sparse, "count");
+		Map<String, Object> indices = getObject(sparse, "indices");
+		Map<String, Object> values = getObject(sparse, "values");
+		if (indices == null || values == null)
+			throw new IOException("Malformed sparse accessor " + accessor.index);
+
+		int indexType = getInt(indices, "componentType");
+		int indexSize = componentSize(indexType);
+		ByteBuffer indexData = getBufferView(getInt(indices, "bufferView"), getInt(indices, "byteOffset", 0),
+				count * indexSize);
+		int valueSize = accessor.components * accessor.componentSize;
+		ByteBuffer valueData = getBufferView(getInt(values, "bufferView"), getInt(values, "byteOffset", 0),
+				count * valueSize);
+
+		for (int i = 0; i < count; i++) {
+			int element = (int) readComponent(indexData, i * indexSize, indexType, false);
+			if (element < 0 || element >= accessor.count)
+				throw new IOException("Sparse index out of range: " + element + " in accessor " + accessor.index);
+
+			int position = i * valueSize;
+			for (int c = 0; c < accessor.components; c++, position += accessor.componentSize) {
+				if (floats != null) {
+					floats[element * accessor.components + c] = accessor.readFloat(valueData, position);
+				} else {
+					ints[element * accessor.components + c] = accessor.readInt(valueData, position);
+				}
+			}
+		}
+	}
+
+	/** reads a component at given position. normalized values are converted to [0,1] or [-1,1] range */
+	private static double readComponent(ByteBuffer data, int position, int componentType, boolean normalized)
+			throws IOException {
+
+		switch (componentType) {
+			case FLOAT:
+				return data.getFloat(position);
+			case BYTE:
+				byte b = data.get(position);
+				return normalized ? Math.max(b / 127f, -1f) : b;
+			case UNSIGNED_BYTE:
+				int ub = data.get(position) & 0xFF;
+				return normalized ? ub / 255f : ub;
+			case SHORT:
+				short s = data.getShort(position);
+				return normalized ? Math.max(s / 32767f, -1f) : s;
+			case UNSIGNED_SHORT:
+				int us = data.getShort(position) & 0xFFFF;
+				return normalized ? us / 65535f : us;
+			case UNSIGNED_INT:
+				return data.getInt(position) & 0xFFFFFFFFL;
+			default:
+				throw new IOException("Unknown component type: " + componentType);
+		}
+	}
+
+	private static int componentSize(int componentType) throws IOException {
+		switch (componentType) {
+			case BYTE:
+			case UNSIGNED_BYTE:
+				return 1;
+			case SHORT:
+			case UNSIGNED_SHORT:
+				return 2;
+			case UNSIGNED_INT:
+			case FLOAT:
+				return 4;
+			default:
+				throw new IOException("Unknown component type: " + componentType);
+		}
+	}
+
+	/** returns a little endian view of given part of buffer. data is not copied */
+	private static ByteBuffer view(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(buffer.position() + offset);
+		view.limit(buffer.position() + offset + length);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static boolean isIgnorable(String extension) {
+		for (String ignorable : IGNORABLE_EXTENSIONS) {
+			if (extension.startsWith(ignorable))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean almostEqual(Matrix m1, Matrix m2) {
+		float[] d1 = m1.getDump();
+		float[] d2 = m2.getDump();
+		for (int i = 0; i < d1.length; i++) {
+			if (Math.abs(d1[i] - d2[i]) > 1e-4f)
+				return false;
+		}
+		return true;
+	}
+
+	/** returns a row major 4x4 matrix out of translation, rotation quaternion and scale */
+	private static double[] toMatrix(double[] t, double[] r, double[] s) {
+		double x = r[0], y = r[1], z = r[2], w = r[3];
+		double[] m = {
+				1 - 2 * (y * y + z * z), 2 * (x * y - z * w), 2 * (x * z + y * w), t[0],
+				2 * (x * y + z * w), 1 - 2 * (x * x + z * z), 2 * (y * z - x * w), t[1],
+				2 * (x * z - y * w), 2 * (y * z + x * w), 1 - 2 * (x * x + y * y), t[2],
+				0, 0, 0, 1 };
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++)
+				m[i * 4 + j] *= s[j];
+		}
+		return m;
+	}
+
+	/** converts a row major 4x4 matrix to a jPCT matrix. rotation and translation information is retrieved. */
+	private static Matrix toMatrix(double[] m) {
+		Matrix result = new Matrix();
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				result.set(j, i, (float) m[i * 4 + j]);
+			}
+		}
+		result.translate((float) m[3], (float) m[7], (float) m[11]);
+		return result;
+	}
+
+	private static double[] multiply(double[] a, double[] b) {
+		double[] m = new double[16];
+		for (int i = 0; i < 4; i++) {
+			for (int j = 0; j < 4; j++) {
+				m[i * 4 + j] = a[i * 4] * b[j] + a[i * 4 + 1] * b[4 + j] + a[i * 4 + 2] * b[8 + j] + a[i * 4 + 3] * b[12 + j];
+			}
+		}
+		return m;
+	}
+
+	/** decomposes a row major 4x4 matrix into translation, rotation quaternion and scale. shear is lost */
+	private static void decompose(double[] m, double[] t, double[] r, double[] s) {
+		t[0] = m[3];
+		t[1] = m[7];
+		t[2] = m[11];
+
+		for (int j = 0; j < 3; j++)
+			s[j] = Math.sqrt(m[j] * m[j] + m[4 + j] * m[4 + j] + m[8 + j] * m[8 + j]);
+		double determinant = m[0] * (m[5] * m[10] - m[6] * m[9]) - m[1] * (m[4] * m[10] - m[6] * m[8])
+				+ m[2] * (m[4] * m[9] - m[5] * m[8]);
+		if (determinant < 0)
+			s[0] = -s[0];
+
+		double m00 = m[0] / s[0], m01 = m[1] / s[1], m02 = m[2] / s[2];
+		double m10 = m[4] / s[0], m11 = m[5] / s[1], m12 = m[6] / s[2];
+		double m20 = m[8] / s[0], m21 = m[9] / s[1], m22 = m[10] / s[2];
+
+		// Shoemake
+		double trace = m00 + m11 + m22;
+		if (trace >= 0) {
+			double root = Math.sqrt(trace + 1);
+			r[3] = 0.5 * root;
+			root = 0.5 / root;
+			r[0] = (m21 - m12) * root;
+			r[1] = (m02 - m20) * root;
+			r[2] = (m10 - m01) * root;
+		} else if (m00 > m11 && m00 > m22) {
+			double root = Math.sqrt(1 + m00 - m11 - m22);
+			r[0] = 0.5 * root;
+			root = 0.5 / root;
+			r[1] = (m10 + m01) * root;
+			r[2] = (m02 + m20) * root;
+			r[3] = (m21 - m12) * root;
+		} else if (m11 > m22) {
+			double root = Math.sqrt(1 + m11 - m00 - m22);
+			r[1] = 0.5 * root;
+			root = 0.5 / root;
+			r[0] = (m10 + m01) * root;
+			r[2] = (m21 + m12) * root;
+			r[3] = (m02 - m20) * root;
+		} else {
+			double root = Math.sqrt(1 + m22 - m00 - m11);
+			r[2] = 0.5 * root;
+			root = 0.5 / root;
+			r[0] = (m02 + m20) * root;
+			r[1] = (m21 + m12) * root;
+			r[3] = (m10 - m01) * root;
+		}
+		normalize(r);
+	}
+
+	private static void normalize(double[] q) {
+		double length = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+		if (length == 0) {
+			q[3] = 1;
+			return;
+		}
+		for (int i = 0; i < 4; i++)
+			q[i] /= length;
+	}
+
+	private static byte[] readFully(URL url) throws IOException {
+		URLConnection connection = url.openConnection();
+		int length = connection.getContentLength();
+		InputStream in = connection.getInputStream();
+		try {
+			byte[] data = new byte[(length > 0) ? length : 8192];
+			int size = 0;
+			while (true) {
+				if (size == data.length) {
+					int b = in.read();
+					if (b < 0)
+						break;
+					data = Arrays.copyOf(data, size * 2);
+					data[size++] = (byte) b;
+				}
+				int read = in.read(data, size, data.length - size);
+				if (read < 0)
+					break;
+				size += read;
+			}
+			return (size == data.length) ? data : Arrays.copyOf(data, size);
+		} finally {
+			in.close();
+		}
+	}
+
+	/** decodes base64 data of a data uri starting at given index */
+	private static byte[] decodeBase64(String s, int start) throws IOException {
+		byte[] result = new byte[(s.length() - start) * 3 / 4];
+		int length = 0;
+		int bits = 0;
+		int bitCount = 0;
+		for (int i = start; i < s.length(); i++) {
+			char c = s.charAt(i);
+			int value;
+			if (c >= 'A' && c <= 'Z') {
+				value = c - 'A';
+			} else if (c >= 'a' && c <= 'z') {
+				value = c - 'a' + 26;
+			} else if (c >= '0' && c <= '9') {
+				value = c - '0' + 52;
+			} else if (c == '+' || c == '-') {
+				value = 62;
+			} else if (c == '/' || c == '_') {
+				value = 63;
+			} else if (c == '=') {
+				break;
+			} else {
+				throw new IOException("Invalid base64 character: " + c);
+			}
+			bits = (bits << 6) | value;
+			bitCount += 6;
+			if (bitCount >= 8) {
+				bitCount -= 8;
+				result[length++] = (byte) (bits >> bitCount);
+			}
+		}
+		return (length == result.length) ? result : Arrays.copyOf(result, length);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> object(Object value) throws IOException {
+		if (!(value instanceof Map))
+			throw new IOException("Expected a JSON object but found: " + value);
+		return (Map<String, Object>) value;
+	}
+
+	/** returns child object with given key or null if there is no such key */
+	private static Map<String, Object> getObject(Map<String, Object> parent, String key) throws IOException {
+		Object value = parent.get(key);
+		return (value == null) ? null : object(value);
+	}
+
+	/** returns child array with given key or an empty list if there is no such key */
+	@SuppressWarnings("unchecked")
+	private static List<Object> getArray(Map<String, Object> parent, String key) throws IOException {
+		Object value = parent.get(key);
+		if (value == null)
+			return Collections.emptyList();
+		if (!(value instanceof List))
+			throw new IOException("Expected a JSON array for " + key + " but found: " + value);
+		return (List<Object>) value;
+	}
+
+	private static String getString(Map<String, Object> parent, String key) throws IOException {
+		Object value = parent.get(key);
+		if (value != null && !(value instanceof String))
+			throw new IOException("Expected a string for " + key + " but found: " + value);
+		return (String) value;
+	}
+
+	private static int getInt(Map<String, Object> parent, String key) throws IOException {
+		if (!parent.containsKey(key))
+			throw new IOException("No " + key + " in " + parent);
+		return getInt(parent, key, 0);
+	}
+
+	private static int getInt(Map<String, Object> parent, String key, int defaultValue) throws IOException {
+		Object value = parent.get(key);
+		if (value == null)
+			return defaultValue;
+		if (!(value instanceof Number))
+			throw new IOException("Expected a number for " + key + " but found: " + value);
+		return ((Number) value).intValue();
+	}
+
+	private static int[] getInts(Map<String, Object> parent, String key) throws IOException {
+		double[] values = getDoubles(parent, key, new double[0]);
+		int[] result = new int[values.length];
+		for (int i = 0; i < values.length; i++)
+			result[i] = (int) values[i];
+		return result;
+	}
+
+	private static double[] getDoubles(Map<String, Object> parent, String key, double[] defaultValue) throws IOException {
+		if (!parent.containsKey(key))
+			return defaultValue;
+		List<Object> list = getArray(parent, key);
+		double[] result = new double[list.size()];
+		for (int i = 0; i < result.length; i++) {
+			if (!(list.get(i) instanceof Number))
+				throw new IOException("Expected numbers for " + key + " but found: " + list);
+			result[i] = ((Number) list.get(i)).doubleValue();
+		}
+		return result;
+	}
+
+	/** an accessor with its buffer view resolved */
+	private class Accessor {
+		private final int index;
+		private final int count;
+		private final int components;
+		private final int componentType;
+		private final int componentSize;
+		private final boolean normalized;
+		/** view starting at first element. null if accessor has no buffer view, then values are zero */
+		private final ByteBuffer data;
+		private final int stride;
+		private final Map<String, Object> sparse;
+
+		private Accessor(int index, Map<String, Object> accessor) throws IOException {
+			this.index = index;
+			this.count = getInt(accessor, "count");
+			this.componentType = getInt(accessor, "componentType");
+			this.componentSize = componentSize(componentType);
+			this.normalized = Boolean.TRUE.equals(accessor.get("normalized"));
+			this.sparse = getObject(accessor, "sparse");
+
+			int typeIndex = Arrays.asList(TYPES).indexOf(getString(accessor, "type"));
+			if (typeIndex < 0)
+				throw new IOException("Unknown type of accessor " + index + ": " + accessor.get("type"));
+			this.components = TYPE_COMPONENTS[typeIndex];
+			if (count < 0)
+				throw new IOException("Negative count in accessor " + index);
+
+			int elementSize = components * componentSize;
+			if (accessor.containsKey("bufferView")) {
+				int bufferView = getInt(accessor, "bufferView");
+				Map<String, Object> view = object(getArray(root, "bufferViews").get(bufferView));
+				this.stride = getInt(view, "byteStride", elementSize);
+				if (stride < elementSize)
+					throw new IOException("Stride is smaller than element size in accessor " + index);
+				int length = (count == 0) ? 0 : (count - 1) * stride + elementSize;
+				this.data = getBufferView(bufferView, getInt(accessor, "byteOffset", 0), length);
+			} else {
+				this.stride = elementSize;
+				this.data = null;
+			}
+		}
+
+		/** returns true if elements are tightly packed, so they can be bulk copied */
+		private boolean isPacked() {
+			return stride == components * componentSize;
+		}
+
+		private float readFloat(ByteBuffer buffer, int position) throws IOException {
+			return (float) readComponent(buffer, position, componentType, normalized);
+		}
+
+		private int readInt(ByteBuffer buffer, int position) throws IOException {
+			return (int) readComponent(buffer, position, componentType, false);
+		}
+	}
+
+	/** a node as read from file. matrix is decomposed into translation, rotation and scale */
+	private static class RawNode {
+		private final int index;
+		private final String name;
+		private final int[] children;
+		private final int mesh;
+		private final int skin;
+		private final double[] translation;
+		private final double[] rotation;
+		private final double[] scale;
+
+		private RawNode parent = null;
+		private boolean inScene = false;
+		private boolean isJoint = false;
+		private int jointIndex = -1;
+		/** transform of nodes between this and its parent joint. null if identity */
+		private double[] parentTransform = null;
+		private final List<Integer> objectIndices = new ArrayList<Integer>();
+
+		private RawNode(int index, Map<String, Object> node) throws IOException {
+			this.index = index;
+			this.name = getString(node, "name");
+			this.children = getInts(node, "children");
+			this.mesh = getInt(node, "mesh", -1);
+			this.skin = getInt(node, "skin", -1);
+
+			if (node.containsKey("matrix")) {
+				double[] matrix = getDoubles(node, "matrix", null);
+				if (matrix.length != 16)
+					throw new IOException("Invalid matrix in node " + index);
+				// column major to row major
+				double[] m = new double[16];
+				for (int i = 0; i < 4; i++) {
+					for (int j = 0; j < 4; j++)
+						m[i * 4 + j] = matrix[j * 4 + i];
+				}
+				translation = new double[3];
+				rotation = new double[4];
+				scale = new double[3];
+				decompose(m, translation, rotation, scale);
+			} else {
+				translation = getDoubles(node, "translation", new double[] { 0, 0, 0 });
+				rotation = getDoubles(node, "rotation", new double[] { 0, 0, 0, 1 });
+				scale = getDoubles(node, "scale", new double[] { 1, 1, 1 });
+				if (translation.length != 3 || rotation.length != 4 || scale.length != 3)
+					throw new IOException("Invalid transform in node " + index);
+			}
+		}
+
+		private String getName() {
+			return (name == null) ? String.valueOf(index) : name;
+		}
+
+		private boolean isIdentity() {
+			return translation[0] == 0 && translation[1] == 0 && translation[2] == 0
+					&& rotation[0] == 0 && rotation[1] == 0 && rotation[2] == 0
+					&& scale[0] == 1 && scale[1] == 1 && scale[2] == 1;
+		}
+
+		/** returns local transform as a row major matrix */
+		private double[] getMatrix() {
+			return toMatrix(translation, rotation, scale);
+		}
+	}
+
+	private static class RawMesh {
+		private final String name;
+		private final MeshData mesh;
+		private final SkinData skin;
+		/** pose of each morph target, null if target moves no vertices */
+		private final MeshPose[] poses;
+
+		private RawMesh(String name, MeshData mesh, SkinData skin, MeshPose[] poses) {
+			this.name = name;
+			this.mesh = mesh;
+			this.skin = skin;
+			this.poses = poses;
+		}
+	}
+
+	/** an animation sampler. for cubic splines, each key has an in tangent, a value and an out tangent */
+	private static class Sampler {
+		private final float[] times;
+		private final float[] values;
+		private final int components;
+		private final boolean cubic;
+		private final boolean step;
+
+		private Sampler(float[] times, float[] values, int components, boolean cubic, boolean step) {
+			this.times = times;
+			this.values = values;
+			this.components = components;
+			this.cubic = cubic;
+			this.step = step;
+		}
+
+		/** copies value at given key */
+		private void getValue(int key, double[] out) {
+			int offset = cubic ? (key * 3 + 1) * components : key * components;
+			for (int i = 0; i < components; i++)
+				out[i] = values[offset + i];
+		}
+
+		/** samples value at given time. rotations are spherically interpolated */
+		private void sample(float time, double[] out, boolean rotation) {
+			int last = times.length - 1;
+			int key = Arrays.binarySearch(times, time);
+			if (key < 0)
+				key = -key - 2;
+
+			if (key < 0) {
+				getValue(0, out);
+			} else if (key >= last || times[key] == time || step) {
+				getValue(Math.min(key, last), out);
+			} else {
+				double dt = times[key + 1] - times[key];
+				double t = (time - times[key]) / dt;
+
+				if (cubic) {
+					double t2 = t * t;
+					double t3 = t2 * t;
+					int v0 = (key * 3 + 1) * components;
+					int b0 = (key * 3 + 2) * components;
+					int a1 = (key * 3 + 3) * components;
+					int v1 = (key * 3 + 4) * components;
+					for (int i = 0; i < components; i++) {
+						out[i] = (2 * t3 - 3 * t2 + 1) * values[v0 + i] + (t3 - 2 * t2 + t) * dt * values[b0 + i]
+								+ (-2 * t3 + 3 * t2) * values[v1 + i] + (t3 - t2) * dt * values[a1 + i];
+					}
+				} else if (rotation) {
+					int q0 = key * 4;
+					int q1 = q0 + 4;
+					double dot = 0;
+					for (int i = 0; i < 4; i++)
+						dot += values[q0 + i] * values[q1 + i];
+					double sign = (dot < 0) ? -1 : 1;
+					dot *= sign;
+
+					double s0 = 1 - t;
+					double s1 = t;
+					if (dot < 0.9995) {
+						double theta = Math.acos(dot);
+						double sin = Math.sin(theta);
+						s0 = Math.sin((1 - t) * theta) / sin;
+						s1 = Math.sin(t * theta) / sin;
+					}
+					for (int i = 0; i < 4; i++)
+						out[i] = s0 * values[q0 + i] + sign * s1 * values[q1 + i];
+				} else {
+					int v0 = key * components;
+					int v1 = v0 + components;
+					for (int i = 0; i < components; i++)
+						out[i] = values[v0 + i] + (values[v1 + i] - values[v0 + i]) * t;
+				}
+			}
+			if (rotation)
+				normalize(out);
+		}
+	}
+
+	/** a minimal JSON parser. objects are parsed into maps, arrays into lists and numbers into doubles */
+	private static class JsonParser {
+		private final String json;
+		private int position = 0;
+
+		private JsonParser(String json) {
+			this.json = json;
+		}
+
+		private Object parse() throws IOException {
+			// skip byte order mark
+			if (json.startsWith("\uFEFF"))
+				position++;
+			Object value = parseValue();
+			skipWhitespace();
+			if (position != json.length())
+				throw error("Unexpected character");
+			return value;
+		}
+
+		private Object parseValue() throws IOException {
+			skipWhitespace();
+			if (position >= json.length())
+				throw error("Unexpected end of JSON");
+
+			switch (json.charAt(position)) {
+				case '{':
+					return parseObject();
+				case '[':
+					return parseArray();
+				case '"':
+					return parseString();
+				case 't':
+					expectLiteral("true");
+					return Boolean.TRUE;
+				case 'f':
+					expectLiteral("false");
+					return Boolean.FALSE;
+				case 'n':
+					expectLiteral("null");
+					return null;
+				default:
+					return parseNumber();
+			}
+		}
+
+		private Map<String, Object> parseObject() throws IOException {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			position++;
+			skipWhitespace();
+			if (peek() == '}') {
+				position++;
+				return map;
+			}
+			while (true) {
+				skipWhitespace();
+				if (peek() != '"')
+					throw error("Expected a key");
+				String key = parseString();
+				skipWhitespace();
+				expect(':');
+				map.put(key, parseValue());
+				skipWhitespace();
+				if (peek() == ',') {
+					position++;
+				} else {
+					expect('}');
+					return map;
+				}
+			}
+		}
+
+		private List<Object> parseArray() throws IOException {
+			List<Object> list = new ArrayList<Object>();
+			position++;
+			skipWhitespace();
+			if (peek() == ']') {
+				position++;
+				return list;
+			}
+			while (true) {
+				list.add(parseValue());
+				skipWhitespace();
+				if (peek() == ',') {
+					position++;
+				} else {
+					expect(']');
+					return list;
+				}
+			}
+		}
+
+		private String parseString() throws IOException {
+			StringBuilder sb = new StringBuilder();
+			position++;
+			while (true) {
+				if (position >= json.length())
+					throw error("Unterminated string");
+				char c = json.charAt(position++);
+				if (c == '"')
+					return sb.toString();
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				if (position >= json.length())
+					throw error("Unterminated string");
+				c = json.charAt(position++);
+				switch (c) {
+					case 'b':
+						sb.append('\b');
+						break;
+					case 'f':
+						sb.append('\f');
+						break;
+					case 'n':
+						sb.append('\n');
+						break;
+					case 'r':
+						sb.append('\r');
+						break;
+					case 't':
+						sb.append('\t');
+						break;
+					case 'u':
+						if (position + 4 > json.length())
+							throw error("Invalid unicode escape");
+						try {
+							sb.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+						} catch (NumberFormatException e) {
+							throw error("Invalid unicode escape");
+						}
+						position += 4;
+						break;
+					default:
+						sb.append(c);
+				}
+			}
+		}
+
+		private Double parseNumber() throws IOException {
+			int start = position;
+			while (position < json.length() && "+-0123456789.eE".indexOf(json.charAt(position)) >= 0)
+				position++;
+			if (start == position)
+				throw error("Unexpected character");
+			try {
+				return Double.valueOf(json.substring(start, position));
+			} catch (NumberFormatException e) {
+				throw error("Invalid number");
+			}
+		}
+
+		private void expectLiteral(String literal) throws IOException {
+			if (!json.startsWith(literal, position))
+				throw error("Unexpected character");
+			position += literal.length();
+		}
+
+		private void expect(char c) throws IOException {
+			if (peek() != c)
+				throw error("Expected '" + c + "'");
+			position++;
+		}
+
+		private char peek() throws IOException {
+			if (position >= json.length())
+				throw error("Unexpected end of JSON");
+			return json.charAt(position);
+		}
+
+		private void skipWhitespace() {
+			while (position < json.length() && Character.isWhitespace(json.charAt(position)))
+				position++;
+		}
+
+		private IOException error(String message) {
+			return new IOException(message + " at position " + position + " of JSON");
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package raft.jpct.bones;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Writes a group incrementally. Skeleton and objects of group are written once when writer is created,
+ * then {@link SkinClip}s are appended to stream as they are added. So clips of many files can be converted
+ * into a single file without keeping all of them in memory at once.</p>
+ *
+ * <p>Written stream is same as a group saved via {@link BonesIO#saveGroup(AnimatedGroup, OutputStream)}
+ * containing all added clips, and can be loaded with any load method of {@link BonesIO}. Pose clips are kept
+ * in memory and written when writer is finished.</p>
+ *
+ * <p>Typical usage:</p>
+ * <pre>
+ * GroupWriter writer = new GroupWriter(firstGroup, out);
+ * for (each other file) {
+ *     writer.addClips(importGroup(file));
+ * }
+ * writer.finish();
+ * </pre>
+ *
+ * @see AnimatedGroup#mergeAnimations(AnimatedGroup...)
+ * */
+public class GroupWriter {
+
+	private final DataOutputStream out;
+	private final AnimatedGroup group;
+	private final boolean compress;
+
+	private final List<String> clipNames = new ArrayList<String>();
+	private final List<Float> clipTimes = new ArrayList<Float>();
+	private final List<Integer> clipLengths = new ArrayList<Integer>();
+	private final List<PoseClip> poseClips = new ArrayList<PoseClip>();
+
+	private boolean finished = false;
+
+	/**
+	 * Creates a new GroupWriter without compression.
+	 * @see #GroupWriter(AnimatedGroup, OutputStream, boolean)
+	 * */
+	public GroupWriter(AnimatedGroup group, OutputStream out) throws IOException {
+		this(group, out, false);
+	}
+
+	/**
+	 * Creates a new GroupWriter and writes skeleton and objects of given group. Skin and pose clips of
+	 * group are also added.
+	 *
+	 * @param group the group whose skeleton and objects are written
+	 * @param compress if true, large sections are compressed
+	 * @see BonesIO#saveGroup(AnimatedGroup, OutputStream, boolean)
+	 * */
+	public GroupWriter(AnimatedGroup group, OutputStream out, boolean compress) throws IOException {
+		if (group.get(0).getSkeleton() == null)
+			throw new IllegalArgumentException("Group has no skeleton");
+
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.group = group;
+		this.compress = compress;
+
+		BonesIO.writeHeader(this.out, BonesIO.HEADER_GROUP, BonesIO.VERSION);
+		BonesFormat.writeGroupObjects(group, compress, this.out);
+		addClips(group);
+	}
+
+	/**
+	 * Writes given clip. Clip's skeleton must be almost identical to skeleton of group.
+	 *
+	 * @throws IllegalArgumentException if skeletons are not almost identical
+	 * @see Skeleton#checkAlmostEqual(Skeleton)
+	 * */
+	public void addClip(SkinClip clip) throws IOException {
+		checkNotFinished();
+		if (clip.getSkeleton() != group.get(0).getSkeleton())
+			group.get(0).getSkeleton().checkAlmostEqual(clip.getSkeleton());
+
+		int length = BonesFormat.writeSkinClip(clip, compress, out);
+		clipNames.add(clip.getName());
+		clipTimes.add(clip.getTime());
+		clipLengths.add(length);
+	}
+
+	/**
+	 * writes a clip section whose payload is read from given stream, without loading it. payload should be a clip
+	 * of this writer's skeleton. used by {@link BvhImporter}
+	 * */
+	void addClip(String name, float time, InputStream payload, int length) throws IOException {
+		checkNotFinished();
+		BonesFormat.writeSkinClip(payload, length, out);
+		clipNames.add(name);
+		clipTimes.add(time);
+		clipLengths.add(length);
+	}
+
+	/**
+	 * Writes skin clips of given group, and keeps its pose clips to be written later. Given group's objects should
+	 * be the same with objects of this writer's group, as in {@link AnimatedGroup#mergeAnimations(AnimatedGroup...)}.
+	 * Given group is not referenced after this method returns, so it can be released.
+	 *
+	 * @throws IllegalArgumentException if number of objects differ or skeletons are not almost identical
+	 * */
+	public void addClips(AnimatedGroup other) throws IOException {
+		checkNotFinished();
+		if (other.getSize() != group.getSize())
+			throw new IllegalArgumentException("number of objects differ in groups.");
+
+		if (other.getSkinClipSequence() != null) {
+			for (SkinClip clip : other.getSkinClipSequence()) {
+				addClip(clip);
+			}
+		}
+		if (other.getPoseClipSequence() != null) {
+			for (PoseClip clip : other.getPoseClipSequence()) {
+				poseClips.add(clip);
+			}
+		}
+	}
+
+	/** Returns number of skin clips written so far. */
+	public int getClipCount() {
+		return clipNames.size();
+	}
+
+	/**
+	 * Writes clip index and pose clips and flushes stream. Underlying stream is not closed.
+	 * No more clips can be added after this method is called.
+	 * */
+	public void finish() throws IOException {
+		checkNotFinished();
+		finished = true;
+
+		if (!clipNames.isEmpty())
+			BonesFormat.writeTrailingClipIndex(clipNames, clipTimes, clipLengths, out);
+		if (!poseClips.isEmpty())
+			BonesFormat.writePoseClips(new PoseClipSequence(poseClips), compress, out);
+		BonesFormat.writeEnd(out);
+		out.flush();
+		poseClips.clear();
+	}
+
+	Skeleton getSkeleton() {
+		return group.get(0).getSkeleton();
+	}
+
+	private void checkNotFinished() {
+		if (finished)
+			throw new IllegalStateException("Writer is finished");
+	}
+}
@@ -0,0 +1,41 @@
+package raft.jpct.bones;
+
+/**
+ * <p>A growable int array. Used by importers to collect values of unknown count without boxing.</p>
+ *
+ * @author hakan eryargi (r a f t)
+ */
+class IntArray {
+	private int[] array;
+	private int size = 0;
+
+	IntArray(int capacity) {
+		array = new int[Math.max(capacity, 4)];
+	}
+
+	void add(int value) {
+		if (size == array.length) {
+			int[] newArray = new int[size * 2];
+			System.arraycopy(array, 0, newArray, 0, size);
+			array = newArray;
+		}
+		array[size++] = value;
+	}
+
+	int get(int index) {
+		return array[index];
+	}
+
+	int size() {
+		return size;
+	}
+
+	/** returns values as an array. backing array is returned if it is full */
+	int[] toArray() {
+		if (size == array.length)
+			return array;
+		int[] result = new int[size];
+		System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+}
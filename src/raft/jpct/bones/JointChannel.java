@@ -35,11 +35,6 @@ public class JointChannel implements java.io.Serializable {
 	private final SimpleVector[] translations;
     private final SimpleVector[] scales;
 	
-    private transient Quaternion tmpRotation = new Quaternion();
-    private transient SimpleVector tmpTranslation = new SimpleVector();
-    private transient SimpleVector tmpScale = new SimpleVector();
-    private transient Matrix tmpScaleMatrix = new Matrix();
-    
     /**
      * <p>Creates a new JointChannel out of given data. The arrays must be same length.<p>
      * 
@@ -75,15 +70,14 @@ public class JointChannel implements java.io.Serializable {
 		this.translations = new SimpleVector[length];
 		this.scales = new SimpleVector[length];
 	}
-	
-//	private JointChannel(ObjectInputStream in) throws IOException {
-//		this.jointIndex = in.readShort();
-//		this.times = BonesIO.readFloatArray(in);
-//		this.rotations = BonesIO.readQuaternionArray(in);
-//		this.translations = BonesIO.readSimpleVectorArray(in);
-//		this.scales = BonesIO.readSimpleVectorArray(in);
-//	}
 
+	/** returns estimated memory used by this channel in bytes */
+	long estimateMemory() {
+		return SkinHelper.OBJECT_OVERHEAD + SkinHelper.sizeOfArray(times.length, 4)
+				+ SkinHelper.sizeOfArray(rotations.length, SkinHelper.REFERENCE_SIZE + SkinHelper.QUATERNION_SIZE)
+				+ SkinHelper.sizeOf(translations) + SkinHelper.sizeOf(scales);
+	}
+	
 	/** returns the index of joint this channel is related to. */
 	public int getJointIndex() {
 		return jointIndex;
@@ -132,15 +126,17 @@ public class JointChannel implements java.io.Serializable {
 	}
 	
 	/** 
-	 * applies channel data to given matrix. given seconds should be in [0,time] range, otherwise clamped.  
+	 * applies channel data to local transform of related joint in given pose. 
+	 * given seconds should be in [0,time] range, otherwise clamped.
+	 * temporary objects of pose are used, so many poses can be animated by the same channel concurrently.  
 	 * */
-	void applyTo(final float seconds, final Matrix target) {
+	void applyTo(final float seconds, final SkeletonPose pose) {
 		// figure out what frames we are between and by how much
 		final int lastFrame = times.length - 1;
 		if (seconds <= 0 || times.length == 1) {
-			applyTo(0, target);
+			applyTo(0, pose);
 		} else if (seconds >= times[lastFrame]) {
-			applyTo(lastFrame, target);
+			applyTo(lastFrame, pose);
 		} else {
 			int startFrame = times.length - 2;
 
@@ -153,44 +149,47 @@ public class JointChannel implements java.io.Serializable {
 			final float progressPercent = (seconds - times[startFrame])
 					/ (times[startFrame + 1] - times[startFrame]);
 
-			applyTo(startFrame, progressPercent, target);
+			applyTo(startFrame, progressPercent, pose);
 		}
 	}
 	
-	/** applies channel data to given matrix. index should be [0,length) range otherwise 
+	/** applies channel data to given pose. index should be [0,length) range otherwise 
 	 * it will be clamped
 	 * */
-    void applyTo(int sampleIndex, Matrix target) {
+    void applyTo(int sampleIndex, SkeletonPose pose) {
     	sampleIndex = SkinHelper.clamp(0, times.length-1, sampleIndex);
-    	applyToMatrix(rotations[sampleIndex], translations[sampleIndex], scales[sampleIndex], target);
+    	applyToMatrix(rotations[sampleIndex], translations[sampleIndex], scales[sampleIndex], pose);
     }
     
     
 	/** 
-	 * applies interpolated channel data to given matrix. 
+	 * applies interpolated channel data to given pose. 
 	 * index should be [0,length-1) range otherwise 
 	 * an ArrayIndexOutOfBoundsException will be thrown
 	 *  
 	 * @throws ArrayIndexOutOfBoundsException */
-    void applyTo(final int sampleIndex, final float progressPercent, final Matrix target) {
+    void applyTo(final int sampleIndex, final float progressPercent, final SkeletonPose pose) {
         // shortcut
         if (progressPercent == 0.0f) {
-            applyTo(sampleIndex, target);
+            applyTo(sampleIndex, pose);
             return;
         } else if (progressPercent == 1.0f) {
-            applyTo(sampleIndex + 1, target);
+            applyTo(sampleIndex + 1, pose);
             return;
         }
 
         // apply linear interpolation
-        tmpRotation.slerp(rotations[sampleIndex], rotations[sampleIndex + 1], progressPercent);
-        SkinHelper.interpolate(translations[sampleIndex], translations[sampleIndex + 1], tmpTranslation, progressPercent);
-        SkinHelper.interpolate(scales[sampleIndex], scales[sampleIndex + 1], tmpScale, progressPercent);
+        pose.tmpRotation.slerp(rotations[sampleIndex], rotations[sampleIndex + 1], progressPercent);
+        SkinHelper.interpolate(translations[sampleIndex], translations[sampleIndex + 1], pose.tmpTranslation, progressPercent);
+        SkinHelper.interpolate(scales[sampleIndex], scales[sampleIndex + 1], pose.tmpScale, progressPercent);
 
-        applyToMatrix(tmpRotation, tmpTranslation, tmpScale, target);
+        applyToMatrix(pose.tmpRotation, pose.tmpTranslation, pose.tmpScale, pose);
     }
     
-    private void applyToMatrix(Quaternion rotation, SimpleVector translation, SimpleVector scale, Matrix target) {
+    private void applyToMatrix(Quaternion rotation, SimpleVector translation, SimpleVector scale, SkeletonPose pose) {
+    	Matrix target = pose.locals[jointIndex];
+    	Matrix tmpScaleMatrix = pose.tmpScaleMatrix;
+    	
     	target.setIdentity();
     	rotation.setRotation(target);
     	SkinHelper.setTranslation(target, translation);
@@ -259,34 +258,61 @@ public class JointChannel implements java.io.Serializable {
 		}		
 	}
 
-	private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
-		in.defaultReadObject();
+	static JointChannel readFromStream(java.io.DataInput in) throws IOException {
+		if (in.readInt() == BonesIO.NULL)
+			return null;
+		
+		int jointIndex = in.readInt();
+		float[] times = BonesIO.readFloatArray(in);
+		float[] rotations = BonesIO.readFloatArray(in);
+		float[] translations = BonesIO.readFloatArray(in);
+		float[] scales = BonesIO.readFloatArray(in);
 		
-	    tmpRotation = new Quaternion();
-	    tmpTranslation = new SimpleVector();
-	    tmpScale = new SimpleVector();
-	    tmpScaleMatrix = new Matrix();
+		JointChannel channel = new JointChannel(jointIndex, times.length);
+		System.arraycopy(times, 0, channel.times, 0, times.length);
+		for (int i = 0; i < times.length; i++) {
+			channel.rotations[i] = new Quaternion(rotations[i*4], rotations[i*4 + 1], rotations[i*4 + 2], rotations[i*4 + 3]);
+			channel.translations[i] = new SimpleVector(translations[i*3], translations[i*3 + 1], translations[i*3 + 2]);
+			channel.scales[i] = new SimpleVector(scales[i*3], scales[i*3 + 1], scales[i*3 + 2]);
+		}
+		return channel;
 	}
 	
-//	static JointChannel readFromStream(java.io.ObjectInputStream in) throws IOException {
-//		if (in.readInt() == BonesIO.NULL)
-//			return null;
-//		return new JointChannel(in);
-//	}
-//	
-//	static void writeToStream(JointChannel object, java.io.ObjectOutputStream out) throws IOException {
-//		if (object == null) {
-//			out.writeInt(BonesIO.NULL);
-//		} else {
-//			out.writeInt(BonesIO.NON_NULL);
-//			
-//			out.writeShort(object.jointIndex);
-//			BonesIO.writeFloatArray(out, object.times);
-//			BonesIO.writeQuaternionArray(out, object.rotations);
-//			BonesIO.writeSimpleVectorArray(out, object.translations);
-//			BonesIO.writeSimpleVectorArray(out, object.scales);
-//			
-//		}
-//	}
+	/** writes channel data. rotations, translations and scales are packed into float arrays */
+	static void writeToStream(JointChannel object, java.io.DataOutput out) throws IOException {
+		if (object == null) {
+			out.writeInt(BonesIO.NULL);
+		} else {
+			out.writeInt(BonesIO.NON_NULL);
+			
+			int length = object.times.length;
+			float[] rotations = new float[length * 4];
+			float[] translations = new float[length * 3];
+			float[] scales = new float[length * 3];
+			for (int i = 0; i < length; i++) {
+				Quaternion q = object.rotations[i];
+				rotations[i*4] = q.x;
+				rotations[i*4 + 1] = q.y;
+				rotations[i*4 + 2] = q.z;
+				rotations[i*4 + 3] = q.w;
+				
+				SimpleVector t = object.translations[i];
+				translations[i*3] = t.x;
+				translations[i*3 + 1] = t.y;
+				translations[i*3 + 2] = t.z;
+				
+				SimpleVector s = object.scales[i];
+				scales[i*3] = s.x;
+				scales[i*3 + 1] = s.y;
+				scales[i*3 + 2] = s.z;
+			}
+			
+			out.writeInt(object.jointIndex);
+			BonesIO.writeFloatArray(out, object.times);
+			BonesIO.writeFloatArray(out, rotations);
+			BonesIO.writeFloatArray(out, translations);
+			BonesIO.writeFloatArray(out, scales);
+		}
+	}
 	
 }
@@ -0,0 +1,123 @@
+package raft.jpct.bones;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Skin clips of a lazily loaded {@link SkinClipSequence}. Clips are decoded from a memory mapped
+ * file on first use and kept in a least recently used cache bounded by a memory budget.
+ * Names and times of clips are read from clip index, so they are available without loading clips.</p>
+ *
+ * @see BonesIO#loadGroupLazy(java.io.File, long)
+ * */
+class LazySkinClips {
+
+	private final ByteBuffer buffer;
+	private final Skeleton skeleton;
+
+	private final String[] names;
+	private final float[] times;
+	private final int[] offsets;
+	private final int[] lengths;
+
+	private final LruCache<SkinClip> cache;
+	private final LruCache.Key[] keys;
+	/** 
+	 * cache keys of clips. a clip is a new object each time it's loaded, so pose and skin caches use these 
+	 * instead of clips. so cached entries are reused after a clip is reloaded and they don't keep unloaded clips in memory 
+	 * */
+	private final Object[] clipKeys;
+
+	/**
+	 * @param buffer the buffer containing clip sections
+	 * @param offsets absolute position of each clip in buffer
+	 * @param lengths length of each clip in bytes
+	 * @param memoryBudget maximum memory loaded clips may use in bytes
+	 * */
+	LazySkinClips(ByteBuffer buffer, Skeleton skeleton, String[] names, float[] times,
+			int[] offsets, int[] lengths, long memoryBudget) {
+
+		if (names.length == 0)
+			throw new IllegalArgumentException("no clips");
+
+		this.buffer = buffer;
+		this.skeleton = skeleton;
+		this.names = names;
+		this.times = times;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.cache = new LruCache<SkinClip>(memoryBudget);
+
+		this.keys = new LruCache.Key[names.length];
+		this.clipKeys = new Object[names.length];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new LruCache.Key(i, this);
+			clipKeys[i] = new Object();
+		}
+	}
+
+	int getSize() {
+		return names.length;
+	}
+
+	Skeleton getSkeleton() {
+		return skeleton;
+	}
+
+	String getName(int index) {
+		return names[index];
+	}
+
+	float getTime(int index) {
+		return times[index];
+	}
+
+	/** returns the clip, loading it if necessary */
+	SkinClip get(int index) {
+		SkinClip clip = cache.get(keys[index]);
+		if (clip != null)
+			return clip;
+
+		// load outside of lock. another thread may load same clip concurrently, that's harmless
+		clip = load(index);
+		cache.put(keys[index], clip, clip.estimateMemory());
+		return clip;
+	}
+
+	boolean isLoaded(int index) {
+		return cache.contains(keys[index]);
+	}
+
+	void unload(int index) {
+		cache.remove(keys[index]);
+	}
+
+	void unloadAll() {
+		cache.clear();
+	}
+
+	long getMemoryBudget() {
+		return cache.getMaxMemory();
+	}
+
+	long getMemoryUsage() {
+		return cache.getMemoryUsage();
+	}
+
+	private SkinClip load(int index) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(offsets[index] + lengths[index]);
+		slice.position(offsets[index]);
+		try {
+			// flags byte of section header
+			if ((buffer.get(offsets[index] - 5) & SectionCodec.FLAG_DEFLATED) != 0)
+				slice = ByteBuffer.wrap(SectionCodec.inflate(slice));
+			SkinClip clip = SkinClip.readFromStream(new ByteBufferInput(slice), skeleton);
+			clip.setCacheKey(clipKeys[index]);
+			return clip;
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to load clip " + index + " (" + names[index] + ")", e);
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+package raft.jpct.bones;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * <p>A thread safe, least recently used cache with a memory cap. Keeps hit, miss and eviction statistics.
+ * Used by {@link PoseCache}, {@link SkinCache} and 
+ * lazily loaded {@link SkinClipSequence}s.</p>
+ * */
+class LruCache<V> {
+
+	private final long maxMemory;
+	
+	private final LinkedHashMap<Key, Entry<V>> entries = new LinkedHashMap<Key, Entry<V>>(16, 0.75f, true);
+	private long memory = 0;
+	
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	
+	LruCache(long maxMemory) {
+		if (maxMemory <= 0)
+			throw new IllegalArgumentException("maxMemory: " + maxMemory);
+		this.maxMemory = maxMemory;
+	}
+	
+	long getMaxMemory() {
+		return maxMemory;
+	}
+	
+	/** returns the cached value or null. counts a hit or miss */
+	synchronized V get(Key key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+	
+	/** puts given value and evicts least recently used ones if necessary */
+	synchronized void put(Key key, V value, long size) {
+		Entry<V> old = entries.put(key, new Entry<V>(value, size));
+		if (old != null)
+			memory -= old.size;
+		memory += size;
+		
+		Iterator<Entry<V>> it = entries.values().iterator();
+		while ((memory > maxMemory) && it.hasNext()) {
+			memory -= it.next().size;
+			it.remove();
+			evictions++;
+		}
+	}
+	
+	/** removes given key and returns its value or null */
+	synchronized V remove(Key key) {
+		Entry<V> entry = entries.remove(key);
+		if (entry == null)
+			return null;
+		memory -= entry.size;
+		return entry.value;
+	}
+	
+	/** returns true if key is cached. does not count a hit or miss */
+	synchronized boolean contains(Key key) {
+		return entries.containsKey(key);
+	}
+	
+	synchronized long getHits() {
+		return hits;
+	}
+	
+	synchronized long getMisses() {
+		return misses;
+	}
+	
+	synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	synchronized float getHitRatio() {
+		long total = hits + misses;
+		return (total == 0) ? 0 : (float) hits / total;
+	}
+	
+	synchronized void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+	
+	synchronized int getSize() {
+		return entries.size();
+	}
+	
+	synchronized long getMemoryUsage() {
+		return memory;
+	}
+	
+	synchronized void clear() {
+		entries.clear();
+		memory = 0;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "size=" + entries.size() + ", memory=" + memory + ", hits=" + hits + ", misses=" + misses;
+	}
+	
+	private static class Entry<V> {
+		private final V value;
+		private final long size;
+		
+		private Entry(V value, long size) {
+			this.value = value;
+			this.size = size;
+		}
+	}
+	
+	/** a key made of an integer step and some objects compared by identity */
+	static class Key {
+		private final Object[] parts;
+		private final int step;
+		private final int hash;
+		
+		Key(int step, Object... parts) {
+			this.parts = parts;
+			this.step = step;
+			
+			int hash = step;
+			for (Object part : parts)
+				hash = 31 * hash + System.identityHashCode(part);
+			this.hash = hash;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			if ((step != other.step) || (parts.length != other.parts.length))
+				return false;
+			for (int i = 0; i < parts.length; i++) {
+				if (parts[i] != other.parts[i])
+					return false;
+			}
+			return true;
+		}
+		
+		@Override
+		public String toString() {
+			return "Key [step=" + step + ", parts=" + Arrays.toString(parts) + "]";
+		}
+	}
+}
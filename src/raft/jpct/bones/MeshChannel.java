@@ -1,6 +1,11 @@
 package raft.jpct.bones;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
 
 /** 
  * <p>Pose animation data related to a single mesh. A PoseChannel consists of a
@@ -15,6 +20,9 @@ public class MeshChannel implements java.io.Serializable {
 	
     private final PoseFrame[] frames;
     private final float[] times;
+    
+    /** lazily created, see getTouchedVertices() */
+    private transient int[] touchedVertices;
 	
     /**
      * <p>Creates a new MeshChannel out of given data. The arrays must be same length.<p>
@@ -61,12 +69,14 @@ public class MeshChannel implements java.io.Serializable {
 	}
 	
 	void applyTo(float seconds, Animated3D target, float weight) {
+		PoseAccumulator accumulator = target.getPoseAccumulator();
+		
 		// figure out what frames we are between and by how much
 		final int lastFrame = times.length - 1;
 		if (seconds <= 0 || times.length == 1) {
-			applyFrame(0, weight, target);
+			accumulator.add(frames[0], weight);
 		} else if (seconds >= times[lastFrame]) {
-			applyFrame(lastFrame, weight, target);
+			accumulator.add(frames[lastFrame], weight);
 		} else {
 			int startFrame = times.length - 2;
 
@@ -79,22 +89,115 @@ public class MeshChannel implements java.io.Serializable {
             int endFrame = startFrame + 1;
             float blend = (seconds - times[startFrame]) / (times[endFrame] - times[startFrame]);
             
-            applyFrame(startFrame, weight*(1-blend), target);
-            applyFrame(endFrame, weight*blend, target);
+            // poses common to both frames are merged, so each is applied once
+            accumulator.add(frames[startFrame], weight*(1-blend));
+            accumulator.add(frames[endFrame], weight*blend);
 		}
+		accumulator.apply(getTouchedVertices(), target.getDestinationMesh());
 	}
 	
-    void applyFrame(int frameIndex, float weight, Animated3D target){
-        PoseFrame frame = frames[frameIndex];
-
-        for (int i = 0; i < frame.poses.length; i++){
-            MeshPose pose = frame.poses[i];
-            float poseWeight = frame.weights[i] * weight;
-
-            pose.apply(poseWeight, target);
-        }
-    }
+	/** returns sorted indices of vertices modified by any pose in this channel. */
+	int[] getTouchedVertices() {
+		int[] touched = touchedVertices;
+		if (touched == null) {
+			BitSet set = new BitSet();
+			collectVertexIndices(set);
+			
+			touched = new int[set.cardinality()];
+			int i = 0;
+			for (int index = set.nextSetBit(0); index >= 0; index = set.nextSetBit(index + 1)) {
+				touched[i++] = index;
+			}
+			touchedVertices = touched;
+		}
+		return touched;
+	}
 	
+    /** returns poses used by frames of this channel. a pose may appear more than once */
+    List<MeshPose> getPoses() {
+    	List<MeshPose> poses = new ArrayList<MeshPose>();
+    	for (PoseFrame frame : frames) {
+    		poses.addAll(Arrays.asList(frame.poses));
+    	}
+    	return poses;
+    }
+    
+    /** replaces poses of frames with the ones they are mapped to. poses which are not in map are kept */
+    void replacePoses(Map<MeshPose, MeshPose> replacements) {
+    	for (PoseFrame frame : frames) {
+    		for (int i = 0; i < frame.poses.length; i++) {
+    			MeshPose replacement = replacements.get(frame.poses[i]);
+    			if (replacement != null)
+    				frame.poses[i] = replacement;
+    		}
+    	}
+    }
+    
+    /** quantizes all poses in this channel */
+    void quantizePoses() {
+    	for (PoseFrame frame : frames) {
+    		for (MeshPose pose : frame.poses) {
+    			pose.quantize();
+    		}
+    	}
+    }
+    
+    /** clears cached touched vertices, so they are collected again from poses */
+    void invalidateTouchedVertices() {
+    	touchedVertices = null;
+    }
+    
+    /** adds indices of vertices any pose in this channel modifies to given set */
+    void collectVertexIndices(BitSet set) {
+    	for (PoseFrame frame : frames) {
+    		for (MeshPose pose : frame.poses) {
+    			pose.collectVertexIndices(set);
+    		}
+    	}
+    }
+    
+    /** reads a channel. poses are referenced by their index in given pose table */
+    static MeshChannel readFromStream(java.io.DataInput in, MeshPose[] poseTable) throws IOException {
+		if (in.readInt() == BonesIO.NULL)
+			return null;
+		
+		int objectIndex = in.readInt();
+		float[] times = BonesIO.readFloatArray(in);
+		
+		PoseFrame[] frames = new PoseFrame[times.length];
+		for (int i = 0; i < frames.length; i++) {
+			int[] poseIds = BonesIO.readIntArray(in);
+			float[] weights = BonesIO.readFloatArray(in);
+			
+			MeshPose[] poses = new MeshPose[poseIds.length];
+			for (int j = 0; j < poses.length; j++) 
+				poses[j] = poseTable[poseIds[j]];
+			frames[i] = new PoseFrame(poses, weights);
+		}
+		return new MeshChannel(objectIndex, frames, times);
+    }
+    
+    /** writes channel. poses are written as their index in pose table */
+    static void writeToStream(MeshChannel object, java.io.DataOutput out, Map<MeshPose, Integer> poseIds) throws IOException {
+		if (object == null) {
+			out.writeInt(BonesIO.NULL);
+		} else {
+			out.writeInt(BonesIO.NON_NULL);
+			
+			out.writeInt(object.objectIndex);
+			BonesIO.writeFloatArray(out, object.times);
+			
+			for (PoseFrame frame : object.frames) {
+				int[] ids = new int[frame.poses.length];
+				for (int j = 0; j < ids.length; j++) 
+					ids[j] = poseIds.get(frame.poses[j]);
+				
+				BonesIO.writeIntArray(out, ids);
+				BonesIO.writeFloatArray(out, frame.weights);
+			}
+		}
+    }
+    
     /** check time values are valid */
 	private void validateTimes() {
 		float last = -1f;
@@ -1,11 +1,7 @@
 package raft.jpct.bones;
 
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.io.IOException;
 
-import com.threed.jpct.Logger;
 import com.threed.jpct.Matrix;
 import com.threed.jpct.Object3D;
 import com.threed.jpct.SimpleVector;
@@ -19,8 +15,6 @@ import com.threed.jpct.SimpleVector;
 public class MeshData implements java.io.Serializable {
 	private static final long serialVersionUID = 1L;
 	
-	private static final boolean COMPACT_ARRAYS = false;
-	
 	final float[] coordinates;
 	final float[] uvs;
 	final int[] indices;
@@ -44,55 +38,6 @@ public class MeshData implements java.io.Serializable {
 				if ((uvs != null) && ((index + 1) * 2 > uvs.length)) 
 					throw new IllegalArgumentException("index: " + index + ", no corresponding UV");
 			}
-
-			if (COMPACT_ARRAYS) {
-			
-				Set<Integer> set = new TreeSet<Integer>();
-				for (int index : indices) {
-					set.add(index);
-				}
-	//			System.out.println(set.size() + ": "  + set);
-				
-				if (coordinates.length > set.size() * 3) {
-					// TODO maybe use a ratio to decide sparseness
-	
-					Logger.log("indexed geometry is sparse. remapping indices to compact arrays", Logger.WARNING);
-					
-					Map<Integer, Integer> map = new TreeMap<Integer, Integer>();
-					
-					int position = 0;
-					for (Integer index : set) {
-						map.put(index, position);
-						position++;
-					}
-	
-					float[] newCoordinates = new float[set.size() * 3];
-					float[] newUvs = (uvs == null) ? null : new float[set.size() * 2];
-					
-					for (int i = 0; i < indices.length; i++) {
-						int oldIndex = indices[i];
-						int newIndex = map.get(oldIndex);
-						
-						indices[i] = newIndex;
-						
-						newCoordinates[newIndex*3] = coordinates[oldIndex*3];
-						newCoordinates[newIndex*3 + 1] = coordinates[oldIndex*3 + 1];
-						newCoordinates[newIndex*3 + 2] = coordinates[oldIndex*3 + 2];
-						
-						if (newUvs != null) {
-							newUvs[newIndex*2] = uvs[oldIndex*2];
-							newUvs[newIndex*2 + 1] = uvs[oldIndex*2 + 1];
-						}
-					}
-					
-					Logger.log("remapped indices, size reduced from " + coordinates.length/3 + " to " + newCoordinates.length/3, Logger.MESSAGE);
-	
-					coordinates = newCoordinates;
-					uvs = newUvs;
-					
-				} // end remapping
-				
-			} // if COMPACT_ARRAYS
 		}
 		
 		
@@ -107,13 +52,23 @@ public class MeshData implements java.io.Serializable {
 			System.arraycopy(indices, 0, this.indices, 0, indices.length);
 	}
 	
-//	private MeshData(ObjectInputStream in) throws IOException {
-//		this.coordinates = BonesIO.readFloatArray(in);
-//		this.uvs = BonesIO.readFloatArray(in);
-//		this.indices = BonesIO.readIntArray(in);
-//	} 
+	private MeshData(java.io.DataInput in) throws IOException {
+		this.coordinates = BonesIO.readFloatArray(in);
+		this.uvs = BonesIO.readFloatArray(in);
+		this.indices = BonesIO.readIntArray(in);
+	} 
 	
 	
+	/** returns estimated memory used by this mesh data in bytes */
+	long estimateMemory() {
+		long memory = SkinHelper.OBJECT_OVERHEAD + SkinHelper.sizeOfArray(coordinates.length, 4);
+		if (uvs != null)
+			memory += SkinHelper.sizeOfArray(uvs.length, 4);
+		if (indices != null)
+			memory += SkinHelper.sizeOfArray(indices.length, 4);
+		return memory;
+	}
+	
 	boolean isEmpty() {
 		return (coordinates.length == 0);
 	}
@@ -131,23 +86,23 @@ public class MeshData implements java.io.Serializable {
 		}
 	}
 	
-//	static MeshData readFromStream(java.io.ObjectInputStream in) throws IOException {
-//		if (in.readInt() == BonesIO.NULL)
-//			return null;
-//		return new MeshData(in);
-//	}
-//	
-//	static void writeToStream(MeshData object, java.io.ObjectOutputStream out) throws IOException {
-//		if (object == null) {
-//			out.writeInt(BonesIO.NULL);
-//		} else {
-//			out.writeInt(BonesIO.NON_NULL);
-//			
-//			BonesIO.writeFloatArray(out, object.coordinates);
-//			BonesIO.writeFloatArray(out, object.uvs);
-//			BonesIO.writeIntArray(out, object.indices);
-//		}
-//	}
+	static MeshData readFromStream(java.io.DataInput in) throws IOException {
+		if (in.readInt() == BonesIO.NULL)
+			return null;
+		return new MeshData(in);
+	}
+	
+	static void writeToStream(MeshData object, java.io.DataOutput out) throws IOException {
+		if (object == null) {
+			out.writeInt(BonesIO.NULL);
+		} else {
+			out.writeInt(BonesIO.NON_NULL);
+			
+			BonesIO.writeFloatArray(out, object.coordinates);
+			BonesIO.writeFloatArray(out, object.uvs);
+			BonesIO.writeIntArray(out, object.indices);
+		}
+	}
 	
 	
 
@@ -0,0 +1,590 @@
+package raft.jpct.bones;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.threed.jpct.Logger;
+
+/**
+ * <p>Import time optimizations of {@link MeshData} and {@link SkinData}. Meshes are modified together with their {@link SkinData}
+ * and the {@link MeshPose}s of their pose clips, so that they stay consistent.</p>
+ *
+ * @see BonesImporter#optimizeMeshes(AnimatedGroup)
+ * */
+class MeshOptimizer {
+
+	/** size of simulated LRU vertex cache while reordering triangles */
+	private static final int CACHE_SIZE = 32;
+	/** size of FIFO vertex cache used to measure ACMR */
+	static final int ACMR_CACHE_SIZE = 16;
+
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	/** can not be instantiated */
+	private MeshOptimizer() {}
+
+	/**
+	 * removes unused vertices and welds duplicates. returns a new group if anything is changed,
+	 * otherwise given group. mesh poses are modified in place
+	 * */
+	static AnimatedGroup weld(AnimatedGroup group) {
+		separateSharedPoses(group.getPoseClipSequence());
+		Animated3D[] objects = new Animated3D[group.getSize()];
+		boolean changed = false;
+
+		for (int i = 0; i < objects.length; i++) {
+			Animated3D object = group.get(i);
+			List<MeshPose> poses = getPoses(group.getPoseClipSequence(), object.getIndex());
+
+			int[] map = createWeldMap(object, poses);
+			if (map == null) {
+				objects[i] = object;
+			} else {
+				objects[i] = remap(object, getIndices(object.getMeshData()), map, poses);
+				changed = true;
+			}
+		}
+		if (!changed)
+			return group;
+
+		if (group.getPoseClipSequence() != null)
+			group.getPoseClipSequence().invalidateTouchedVertices();
+		return new AnimatedGroup(objects, group.getSkinClipSequence(), group.getPoseClipSequence());
+	}
+
+	/**
+	 * reorders triangles of each mesh for vertex cache locality and then vertices by their first use.
+	 * if clusterJoints is true, triangles are first grouped by their dominant joint. returns a new group,
+	 * mesh poses are modified in place
+	 * */
+	static AnimatedGroup reorder(AnimatedGroup group, boolean clusterJoints) {
+		separateSharedPoses(group.getPoseClipSequence());
+		Animated3D[] objects = new Animated3D[group.getSize()];
+
+		for (int i = 0; i < objects.length; i++) {
+			Animated3D object = group.get(i);
+			MeshData mesh = object.getMeshData();
+			if (mesh == null)
+				throw new IllegalStateException("object does not contain mesh data. did you call discardMeshData() ?");
+
+			final int vertexCount = mesh.coordinates.length / 3;
+			int[] indices = getIndices(mesh);
+			int[] clusters = (clusterJoints && (object.skin != null)) ? getDominantJoints(indices, object.skin) : null;
+			int[] ordered = reorderTriangles(indices, vertexCount, clusters);
+
+			// vertices by first use
+			int[] map = new int[vertexCount];
+			Arrays.fill(map, -1);
+			int next = 0;
+			for (int index : ordered) {
+				if (map[index] == -1)
+					map[index] = next++;
+			}
+			objects[i] = remap(object, ordered, map, getPoses(group.getPoseClipSequence(), object.getIndex()));
+
+			Logger.log(String.format("Reordered mesh of %s, ACMR before: %.3f, after: %.3f", object.getName(),
+					getACMR(indices, ACMR_CACHE_SIZE), getACMR(objects[i].getMeshData().indices, ACMR_CACHE_SIZE)), Logger.MESSAGE);
+		}
+
+		if (group.getPoseClipSequence() != null)
+			group.getPoseClipSequence().invalidateTouchedVertices();
+		return new AnimatedGroup(objects, group.getSkinClipSequence(), group.getPoseClipSequence());
+	}
+
+	/**
+	 * returns average cache miss ratio of given triangles: number of vertex transforms per triangle with a
+	 * FIFO cache of given size. 3 is worst, 0.5 is about the best for a large regular mesh
+	 * */
+	static float getACMR(int[] indices, int cacheSize) {
+		if (indices.length == 0)
+			return 0;
+
+		int[] cache = new int[cacheSize];
+		Arrays.fill(cache, -1);
+		int head = 0;
+		int misses = 0;
+
+		for (int index : indices) {
+			boolean hit = false;
+			for (int cached : cache) {
+				if (cached == index) {
+					hit = true;
+					break;
+				}
+			}
+			if (!hit) {
+				misses++;
+				cache[head] = index;
+				head = (head + 1) % cacheSize;
+			}
+		}
+		return misses / (indices.length / 3f);
+	}
+
+	/** returns the joint which effects each triangle most, summing weights of its vertices */
+	private static int[] getDominantJoints(int[] indices, SkinData skin) {
+		int[] joints = new int[indices.length / 3];
+		Map<Integer, Float> sums = new HashMap<Integer, Float>();
+
+		for (int t = 0; t < joints.length; t++) {
+			sums.clear();
+			for (int v = 0; v < 3; v++) {
+				int vertex = indices[t * 3 + v];
+				for (int slot = 0; slot < skin.getSlotCount(vertex); slot++) {
+					float weight = skin.getWeight(vertex, slot);
+					if (weight == 0)
+						continue;
+					int joint = skin.getJointIndex(vertex, slot);
+					Float sum = sums.get(joint);
+					sums.put(joint, (sum == null) ? weight : sum + weight);
+				}
+			}
+			int best = -1;
+			float bestSum = 0;
+			for (Map.Entry<Integer, Float> entry : sums.entrySet()) {
+				int joint = entry.getKey();
+				float sum = entry.getValue();
+				if ((sum > bestSum) || ((sum == bestSum) && (joint < best))) {
+					best = joint;
+					bestSum = sum;
+				}
+			}
+			joints[t] = best;
+		}
+		return joints;
+	}
+
+	/**
+	 * returns triangles reordered for vertex cache locality. if clusters is not null, triangles are grouped by
+	 * their cluster in ascending order and each group is reordered separately
+	 * */
+	static int[] reorderTriangles(int[] indices, int vertexCount, int[] clusters) {
+		final int triangleCount = indices.length / 3;
+		if (clusters == null)
+			return reorderTriangles(indices, vertexCount);
+
+		int[] sortedClusters = clusters.clone();
+		Arrays.sort(sortedClusters);
+
+		int[] result = new int[indices.length];
+		int offset = 0;
+		for (int i = 0; i < sortedClusters.length; ) {
+			int cluster = sortedClusters[i];
+			int size = 0;
+			while ((i < sortedClusters.length) && (sortedClusters[i] == cluster)) {
+				size++;
+				i++;
+			}
+
+			int[] clusterIndices = new int[size * 3];
+			int k = 0;
+			for (int t = 0; t < triangleCount; t++) {
+				if (clusters[t] == cluster) {
+					System.arraycopy(indices, t * 3, clusterIndices, k, 3);
+					k += 3;
+				}
+			}
+			int[] ordered = reorderTriangles(clusterIndices, vertexCount);
+			System.arraycopy(ordered, 0, result, offset, ordered.length);
+			offset += ordered.length;
+		}
+		return result;
+	}
+
+	/**
+	 * returns triangles reordered with Tom Forsyth's linear-speed vertex cache optimisation. at each step
+	 * the triangle with the highest score is added, where score favours vertices recently used and
+	 * vertices with few remaining triangles
+	 * */
+	private static int[] reorderTriangles(int[] indices, int vertexCount) {
+		final int triangleCount = indices.length / 3;
+
+		// triangles of each vertex
+		int[] remaining = new int[vertexCount];
+		for (int index : indices)
+			remaining[index]++;
+		int[] offsets = new int[vertexCount + 1];
+		for (int v = 0; v < vertexCount; v++)
+			offsets[v + 1] = offsets[v] + remaining[v];
+		int[] vertexTriangles = new int[indices.length];
+		int[] fill = offsets.clone();
+		for (int i = 0; i < indices.length; i++)
+			vertexTriangles[fill[indices[i]]++] = i / 3;
+
+		float[] vertexScores = new float[vertexCount];
+		for (int v = 0; v < vertexCount; v++)
+			vertexScores[v] = getVertexScore(-1, remaining[v]);
+
+		boolean[] added = new boolean[triangleCount];
+		float[] triangleScores = new float[triangleCount];
+		for (int t = 0; t < triangleCount; t++)
+			triangleScores[t] = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]] + vertexScores[indices[t * 3 + 2]];
+
+		int[] cache = new int[CACHE_SIZE + 3];
+		int cacheSize = 0;
+		int[] newCache = new int[CACHE_SIZE + 3];
+
+		int[] result = new int[indices.length];
+		int scanPosition = 0;
+		int best = -1;
+
+		for (int r = 0; r < triangleCount; r++) {
+			if (best == -1) {
+				// nothing in cache, take best of the rest
+				while (added[scanPosition])
+					scanPosition++;
+				float bestScore = -Float.MAX_VALUE;
+				for (int t = scanPosition; t < triangleCount; t++) {
+					if (!added[t] && (triangleScores[t] > bestScore)) {
+						bestScore = triangleScores[t];
+						best = t;
+					}
+				}
+			}
+
+			added[best] = true;
+			System.arraycopy(indices, best * 3, result, r * 3, 3);
+
+			// put vertices of triangle to front of cache, followed by the rest
+			int newCacheSize = 0;
+			for (int v = 0; v < 3; v++) {
+				int vertex = indices[best * 3 + v];
+				if (!contains(newCache, newCacheSize, vertex))
+					newCache[newCacheSize++] = vertex;
+
+				// move this triangle out of active triangles of vertex
+				int last = offsets[vertex] + remaining[vertex] - 1;
+				for (int k = offsets[vertex]; k <= last; k++) {
+					if (vertexTriangles[k] == best) {
+						vertexTriangles[k] = vertexTriangles[last];
+						vertexTriangles[last] = best;
+						break;
+					}
+				}
+				remaining[vertex]--;
+			}
+			final int triangleVertices = newCacheSize;
+			for (int c = 0; c < cacheSize; c++) {
+				int vertex = cache[c];
+				if (!contains(newCache, triangleVertices, vertex))
+					newCache[newCacheSize++] = vertex;
+			}
+			int[] tmp = cache;
+			cache = newCache;
+			newCache = tmp;
+
+			// update scores of vertices in cache and of their triangles, also find best triangle
+			best = -1;
+			float bestScore = -1;
+			for (int c = 0; c < newCacheSize; c++) {
+				int vertex = cache[c];
+				int position = (c < CACHE_SIZE) ? c : -1;
+
+				float score = getVertexScore(position, remaining[vertex]);
+				float delta = score - vertexScores[vertex];
+				vertexScores[vertex] = score;
+
+				for (int k = offsets[vertex]; k < offsets[vertex] + remaining[vertex]; k++) {
+					int t = vertexTriangles[k];
+					triangleScores[t] += delta;
+					if (triangleScores[t] > bestScore) {
+						bestScore = triangleScores[t];
+						best = t;
+					}
+				}
+			}
+			cacheSize = Math.min(newCacheSize, CACHE_SIZE);
+		}
+		return result;
+	}
+
+	private static boolean contains(int[] array, int length, int value) {
+		for (int i = 0; i < length; i++) {
+			if (array[i] == value)
+				return true;
+		}
+		return false;
+	}
+
+	private static float getVertexScore(int cachePosition, int remainingTriangles) {
+		if (remainingTriangles == 0)
+			return -1;
+
+		float score = 0;
+		if (cachePosition < 0) {
+			// not in cache
+		} else if (cachePosition < 3) {
+			// used in last triangle
+			score = LAST_TRIANGLE_SCORE;
+		} else {
+			float scale = 1f / (CACHE_SIZE - 3);
+			score = (float) Math.pow(1 - (cachePosition - 3) * scale, CACHE_DECAY_POWER);
+		}
+		return score + VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+	}
+
+	/** compacts skin of each object. returns a new group */
+	static AnimatedGroup compactSkins(AnimatedGroup group, float threshold) {
+		Animated3D[] objects = new Animated3D[group.getSize()];
+
+		for (int i = 0; i < objects.length; i++) {
+			Animated3D object = group.get(i);
+			if (object.skin == null) {
+				objects[i] = object;
+				continue;
+			}
+			MeshData mesh = object.getMeshData();
+			if (mesh == null)
+				throw new IllegalStateException("object does not contain mesh data. did you call discardMeshData() ?");
+
+			SkinData skin = object.skin.compact(threshold);
+			objects[i] = new Animated3D(mesh, skin, object.getSkeletonPose());
+			objects[i].setName(object.getName());
+			objects[i].setIndex(object.getIndex());
+
+			Logger.log(MessageFormat.format("Compacted skin of {0}, {1} influence(s) reduced to {2}, memory reduced from {3} to {4} bytes{5}",
+					object.getName(), countInfluences(object.skin), countInfluences(skin),
+					object.skin.estimateMemory(), skin.estimateMemory(), skin.isPacked() ? "" : ", too many joints to pack"), Logger.MESSAGE);
+		}
+		return new AnimatedGroup(objects, group.getSkinClipSequence(), group.getPoseClipSequence());
+	}
+
+	private static int countInfluences(SkinData skin) {
+		int count = 0;
+		for (int i = 0; i < skin.getVertexCount(); i++) {
+			for (int slot = 0; slot < skin.getSlotCount(i); slot++) {
+				if (skin.getWeight(i, slot) != 0)
+					count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * poses are remapped in place for each object, so a pose used by more than one object, as poses of Ogre's
+	 * shared geometry, is replaced with a copy in channels of each object but the first one
+	 * */
+	static void separateSharedPoses(PoseClipSequence sequence) {
+		if (sequence == null)
+			return;
+
+		Map<MeshPose, Integer> owners = new IdentityHashMap<MeshPose, Integer>();
+		Map<Integer, Map<MeshPose, MeshPose>> copies = new HashMap<Integer, Map<MeshPose, MeshPose>>();
+		for (PoseClip clip : sequence) {
+			for (MeshChannel channel : clip) {
+				if (channel == null)
+					continue;
+				Map<MeshPose, MeshPose> objectCopies = copies.get(channel.objectIndex);
+				for (MeshPose pose : channel.getPoses()) {
+					Integer owner = owners.get(pose);
+					if (owner == null) {
+						owners.put(pose, channel.objectIndex);
+					} else if (owner != channel.objectIndex) {
+						if (objectCopies == null) {
+							objectCopies = new IdentityHashMap<MeshPose, MeshPose>();
+							copies.put(channel.objectIndex, objectCopies);
+						}
+						if (!objectCopies.containsKey(pose))
+							objectCopies.put(pose, pose.copy());
+					}
+				}
+				if (objectCopies != null)
+					channel.replacePoses(objectCopies);
+			}
+		}
+	}
+
+	/** returns distinct poses of given object in sequence */
+	static List<MeshPose> getPoses(PoseClipSequence sequence, int objectIndex) {
+		List<MeshPose> poses = new ArrayList<MeshPose>();
+		if (sequence == null)
+			return poses;
+
+		Map<MeshPose, Boolean> seen = new IdentityHashMap<MeshPose, Boolean>();
+		for (PoseClip clip : sequence) {
+			MeshChannel channel = clip.getChannel(objectIndex);
+			if (channel == null)
+				continue;
+			for (MeshPose pose : channel.getPoses()) {
+				if (seen.put(pose, Boolean.TRUE) == null)
+					poses.add(pose);
+			}
+		}
+		return poses;
+	}
+
+	/**
+	 * returns old to new vertex index map, -1 for removed vertices, or null if nothing can be removed.
+	 * vertices are welded if their position, uv, skin and offsets in all poses are exactly the same
+	 * */
+	private static int[] createWeldMap(Animated3D object, List<MeshPose> poses) {
+		MeshData mesh = object.getMeshData();
+		if (mesh == null)
+			throw new IllegalStateException("object does not contain mesh data. did you call discardMeshData() ?");
+
+		final int vertexCount = mesh.coordinates.length / 3;
+		final int[] indices = getIndices(mesh);
+
+		boolean[] used = new boolean[vertexCount];
+		for (int index : indices)
+			used[index] = true;
+
+		// collect pose offsets of each vertex
+		List<List<float[]>> poseOffsets = null;
+		if (!poses.isEmpty()) {
+			poseOffsets = new ArrayList<List<float[]>>(vertexCount);
+			for (int i = 0; i < vertexCount; i++)
+				poseOffsets.add(null);
+
+			for (int p = 0; p < poses.size(); p++) {
+				MeshPose pose = poses.get(p);
+				int[] poseIndices = pose.getIndices();
+				float[] offsets = pose.getOffsets();
+				for (int k = 0; k < poseIndices.length; k++) {
+					List<float[]> list = poseOffsets.get(poseIndices[k]);
+					if (list == null) {
+						list = new ArrayList<float[]>(2);
+						poseOffsets.set(poseIndices[k], list);
+					}
+					list.add(new float[] { p, offsets[k * 3], offsets[k * 3 + 1], offsets[k * 3 + 2] });
+				}
+			}
+		}
+
+		Map<VertexKey, Integer> newIndices = new HashMap<VertexKey, Integer>();
+		int[] map = new int[vertexCount];
+		for (int i = 0; i < vertexCount; i++) {
+			if (!used[i]) {
+				map[i] = -1;
+				continue;
+			}
+			VertexKey key = new VertexKey(mesh, object.skin, i, (poseOffsets == null) ? null : poseOffsets.get(i));
+			Integer newIndex = newIndices.get(key);
+			if (newIndex == null) {
+				newIndex = newIndices.size();
+				newIndices.put(key, newIndex);
+			}
+			map[i] = newIndex;
+		}
+
+		if (newIndices.size() == vertexCount)
+			return null;
+
+		Logger.log("Optimized mesh of " + object.getName() + ", vertices reduced from "
+				+ vertexCount + " to " + newIndices.size(), Logger.MESSAGE);
+		return map;
+	}
+
+	/** returns indices of mesh. for non-indexed mesh, sequential indices are returned */
+	static int[] getIndices(MeshData mesh) {
+		if (mesh.indices != null)
+			return mesh.indices;
+
+		int[] indices = new int[mesh.coordinates.length / 3];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = i;
+		return indices;
+	}
+
+	/**
+	 * returns a new object whose mesh and skin is remapped with given old to new vertex index map.
+	 * new index of a vertex is -1 if it's removed. indices are the polygons of object in terms of old vertices,
+	 * they may differ from the ones in mesh only by order. given poses are remapped in place
+	 * */
+	static Animated3D remap(Animated3D object, int[] oldIndices, int[] map, List<MeshPose> poses) {
+		MeshData mesh = object.getMeshData();
+		SkinData skin = object.skin;
+
+		int newCount = 0;
+		for (int newIndex : map)
+			newCount = Math.max(newCount, newIndex + 1);
+
+		float[] coordinates = new float[newCount * 3];
+		float[] uvs = (mesh.uvs == null) ? null : new float[newCount * 2];
+
+		for (int i = 0; i < map.length; i++) {
+			int n = map[i];
+			if (n < 0)
+				continue;
+			System.arraycopy(mesh.coordinates, i * 3, coordinates, n * 3, 3);
+			if (uvs != null)
+				System.arraycopy(mesh.uvs, i * 2, uvs, n * 2, 2);
+		}
+
+		int[] indices = new int[oldIndices.length];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = map[oldIndices[i]];
+
+		for (MeshPose pose : poses)
+			pose.remapIndices(map);
+
+		Animated3D result = new Animated3D(new MeshData(coordinates, uvs, indices),
+				(skin == null) ? null : skin.remap(map, newCount), object.getSkeletonPose());
+		result.setName(object.getName());
+		result.setIndex(object.getIndex());
+		return result;
+	}
+
+	/** all data of a vertex which must be same for vertices to be welded. compared by exact bits */
+	private static class VertexKey {
+		private final int[] bits;
+		private final int hash;
+
+		private VertexKey(MeshData mesh, SkinData skin, int vertex, List<float[]> poseOffsets) {
+			int size = 5;
+			if (skin != null)
+				size += skin.getSlotCount(vertex) * 2;
+			if (poseOffsets != null)
+				size += poseOffsets.size() * 4;
+
+			int[] bits = new int[size];
+			int b = 0;
+			for (int i = 0; i < 3; i++)
+				bits[b++] = Float.floatToIntBits(mesh.coordinates[vertex * 3 + i]);
+			if (mesh.uvs != null) {
+				bits[b++] = Float.floatToIntBits(mesh.uvs[vertex * 2]);
+				bits[b++] = Float.floatToIntBits(mesh.uvs[vertex * 2 + 1]);
+			} else {
+				b += 2;
+			}
+			if (skin != null) {
+				for (int slot = 0; slot < skin.getSlotCount(vertex); slot++) {
+					float weight = skin.getWeight(vertex, slot);
+					// joint index of an unused slot does not matter
+					if (weight == 0) {
+						b += 2;
+						continue;
+					}
+					bits[b++] = Float.floatToIntBits(weight);
+					bits[b++] = skin.getJointIndex(vertex, slot);
+				}
+			}
+			if (poseOffsets != null) {
+				for (float[] offset : poseOffsets) {
+					for (float f : offset)
+						bits[b++] = Float.floatToIntBits(f);
+				}
+			}
+			this.bits = bits;
+			this.hash = Arrays.hashCode(bits);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof VertexKey) && Arrays.equals(bits, ((VertexKey) obj).bits);
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package raft.jpct.bones;
 
 import java.io.IOException;
+import java.io.ObjectStreamField;
+import java.util.BitSet;
 
 import com.threed.jpct.Matrix;
 import com.threed.jpct.SimpleVector;
@@ -8,73 +10,311 @@ import com.threed.jpct.SimpleVector;
 /**
  * <p>A pose of mesh vertices. Vertex positions in pose are defined as offsets to
  * their original positions.</p>
- * 
+ *
+ * <p>Offsets are stored packed in a float array. Optionally they can be quantized to 16 bits
+ * relative to bounds of this pose, see {@link #quantize()}.</p>
+ *
  * <p>This class is originally adapted from <a href="http://www.jmonkeyengine.com" target="_blank">jME.</a></p>
- * 
+ *
  * @author hakan eryargi (r a f t)
  */
 public class MeshPose implements java.io.Serializable {
 	private static final long serialVersionUID = 1L;
 
-    private final String name;
+	/** serialized form is kept same as when offsets were stored as a SimpleVector array */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("name", String.class),
+		new ObjectStreamField("offsets", SimpleVector[].class),
+		new ObjectStreamField("indices", int[].class),
+		new ObjectStreamField("quantized", boolean.class),
+	};
+
+	private static final int QUANTIZE_LEVELS = 0xFFFF;
+
+    private String name;
+
+    /** packed offsets, x,y,z for each index. null if quantized */
+    private transient float[] offsets;
+    /** quantized offsets, x,y,z for each index. null if not quantized */
+    private transient short[] quantizedOffsets;
+    /** minimum x,y,z and step size x,y,z of quantized offsets */
+    private transient float[] quantizeBounds;
+
+    private transient int[] indices;
 
-    private final SimpleVector[] offsets;
-    private final int[] indices;
-    
-    private transient SimpleVector tmpVector = new SimpleVector();
-    
 
     /** Creates a new MeshPose out of given  data. */
 	public MeshPose(String name, SimpleVector[] offsets, int[] indices) {
 		this(name, indices.length);
-		
+
 		if (offsets.length != indices.length)
             throw new IllegalArgumentException("Offsets and indices must be same length!");
 
         for (int i = 0; i < indices.length; i++) {
         	this.indices[i] = indices[i];
-        	this.offsets[i] = new SimpleVector(offsets[i]);
+        	this.offsets[i * 3] = offsets[i].x;
+        	this.offsets[i * 3 + 1] = offsets[i].y;
+        	this.offsets[i * 3 + 2] = offsets[i].z;
         }
 	}
-	
+
+	/**
+	 * Creates a new MeshPose out of given data.
+	 * @param offsets packed offsets, x,y,z for each index. length must be 3 times length of indices
+	 * */
+	public MeshPose(String name, float[] offsets, int[] indices) {
+		this(name, indices.length);
+
+		if (offsets.length != indices.length * 3)
+            throw new IllegalArgumentException("Offsets length must be 3 times of indices length!");
+
+		System.arraycopy(indices, 0, this.indices, 0, indices.length);
+		System.arraycopy(offsets, 0, this.offsets, 0, offsets.length);
+	}
+
 	private MeshPose(String name, int length) {
 		this.name = name;
-		this.offsets = new SimpleVector[length];
+		this.offsets = new float[length * 3];
 		this.indices = new int[length];
 	}
 
+	/** returns a copy of this pose, which can be modified independently. quantization is kept */
+	MeshPose copy() {
+		MeshPose copy = new MeshPose(name, 0);
+		copy.indices = indices.clone();
+		if (quantizedOffsets == null) {
+			copy.offsets = offsets.clone();
+		} else {
+			copy.offsets = null;
+			copy.quantizedOffsets = quantizedOffsets.clone();
+			copy.quantizeBounds = quantizeBounds.clone();
+		}
+		return copy;
+	}
+
 	/** returns name of this pose. */
 	public String getName() {
 		return name;
 	}
 
-	/** Applies this pose to given object. */
-	void apply(float poseWeight, Animated3D target) { 
-		SimpleVector[] vertices = target.getDestinationMesh(); 
-		
-		SimpleVector tmpVector = this.tmpVector; 
-		
-        for (int i = 0; i < indices.length; i++){
-        	SimpleVector offset = offsets[i];
-            int vertIndex = indices[i];
+	/** returns number of vertices this pose modifies */
+	public int getSize() {
+		return indices.length;
+	}
 
-            tmpVector.set(offset);
-            tmpVector.scalarMul(poseWeight);
+	/** returns true if offsets are quantized */
+	public boolean isQuantized() {
+		return (quantizedOffsets != null);
+	}
 
-            vertices[vertIndex].add(tmpVector);
-        }
+	/**
+	 * <p>Quantizes offsets to 16 bits relative to bounds of this pose. This almost halves memory usage
+	 * at the cost of precision: error is at most 1/131070 of offset range on each axis.
+	 * Has no effect if already quantized.</p>
+	 * */
+	public void quantize() {
+		if (quantizedOffsets != null)
+			return;
+
+		float[] bounds = new float[6];
+		for (int axis = 0; axis < 3; axis++) {
+			float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+			for (int i = axis; i < offsets.length; i += 3) {
+				min = Math.min(min, offsets[i]);
+				max = Math.max(max, offsets[i]);
+			}
+			if (offsets.length == 0)
+				min = max = 0;
+			bounds[axis] = min;
+			bounds[axis + 3] = (max - min) / QUANTIZE_LEVELS;
+		}
+
+		short[] quantized = new short[offsets.length];
+		for (int i = 0; i < offsets.length; i++) {
+			int axis = i % 3;
+			float step = bounds[axis + 3];
+			quantized[i] = (step == 0) ? 0 : (short) Math.round((offsets[i] - bounds[axis]) / step);
+		}
+
+		this.quantizedOffsets = quantized;
+		this.quantizeBounds = bounds;
+		this.offsets = null;
+	}
+
+	/** returns offsets packed as x,y,z for each index. a new array is returned if quantized */
+	float[] getOffsets() {
+		if (quantizedOffsets == null)
+			return offsets;
+
+		float[] result = new float[quantizedOffsets.length];
+		float[] bounds = quantizeBounds;
+		for (int i = 0; i < result.length; i++) {
+			int axis = i % 3;
+			result[i] = bounds[axis] + (quantizedOffsets[i] & QUANTIZE_LEVELS) * bounds[axis + 3];
+		}
+		return result;
+	}
+
+	/** returns vertex indices */
+	int[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 * remaps vertex indices with given old to new index map. vertices mapped to -1 are removed.
+	 * if more than one vertex is mapped to same index, only the first one is kept
+	 * */
+	void remapIndices(int[] map) {
+		boolean quantized = isQuantized();
+		float[] offsets = getOffsets();
+
+		BitSet seen = new BitSet();
+		int[] newIndices = new int[indices.length];
+		float[] newOffsets = new float[offsets.length];
+		int size = 0;
+		for (int i = 0; i < indices.length; i++) {
+			int index = map[indices[i]];
+			if ((index < 0) || seen.get(index))
+				continue;
+			seen.set(index);
+			newIndices[size] = index;
+			System.arraycopy(offsets, i * 3, newOffsets, size * 3, 3);
+			size++;
+		}
+
+		this.indices = new int[size];
+		System.arraycopy(newIndices, 0, this.indices, 0, size);
+		this.offsets = new float[size * 3];
+		System.arraycopy(newOffsets, 0, this.offsets, 0, size * 3);
+		if (quantized) {
+			this.quantizedOffsets = null;
+			this.quantizeBounds = null;
+			quantize();
+		}
+	}
+
+	/** adds weighted offsets to given packed accumulator which is indexed by vertex index */
+	void accumulate(float weight, float[] sums) {
+		final int[] indices = this.indices;
+
+		if (quantizedOffsets == null) {
+			final float[] offsets = this.offsets;
+			for (int i = 0, o = 0; i < indices.length; i++, o += 3) {
+				int s = indices[i] * 3;
+				sums[s] += offsets[o] * weight;
+				sums[s + 1] += offsets[o + 1] * weight;
+				sums[s + 2] += offsets[o + 2] * weight;
+			}
+		} else {
+			final short[] quantized = this.quantizedOffsets;
+			final float[] bounds = this.quantizeBounds;
+
+			// min + q * step, weighted
+			final float minX = bounds[0] * weight, minY = bounds[1] * weight, minZ = bounds[2] * weight;
+			final float stepX = bounds[3] * weight, stepY = bounds[4] * weight, stepZ = bounds[5] * weight;
+
+			for (int i = 0, o = 0; i < indices.length; i++, o += 3) {
+				int s = indices[i] * 3;
+				sums[s] += minX + (quantized[o] & QUANTIZE_LEVELS) * stepX;
+				sums[s + 1] += minY + (quantized[o + 1] & QUANTIZE_LEVELS) * stepY;
+				sums[s + 2] += minZ + (quantized[o + 2] & QUANTIZE_LEVELS) * stepZ;
+			}
+		}
+	}
+
+	/** adds indices of vertices this pose modifies to given set */
+	void collectVertexIndices(BitSet set) {
+		for (int index : indices) {
+			set.set(index);
+		}
 	}
 
 	void applyTransform(Matrix transform) {
-		for (SimpleVector offset : offsets) {
-			offset.matMul(transform);
+		boolean quantized = isQuantized();
+		float[] offsets = getOffsets();
+
+		SimpleVector tmp = new SimpleVector();
+		for (int i = 0; i < offsets.length; i += 3) {
+			tmp.set(offsets[i], offsets[i + 1], offsets[i + 2]);
+			tmp.matMul(transform);
+			offsets[i] = tmp.x;
+			offsets[i + 1] = tmp.y;
+			offsets[i + 2] = tmp.z;
+		}
+
+		this.offsets = offsets;
+		if (quantized) {
+			this.quantizedOffsets = null;
+			this.quantizeBounds = null;
+			quantize();
 		}
 	}
-	
-	private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
-		in.defaultReadObject();
+
+	static MeshPose readFromStream(java.io.DataInput in) throws IOException {
+		if (in.readInt() == BonesIO.NULL)
+			return null;
 		
-	    tmpVector = new SimpleVector();
+		MeshPose pose = new MeshPose(BonesIO.readString(in), 0);
+		pose.indices = BonesIO.readIntArray(in);
+		if (in.readBoolean()) {
+			pose.offsets = null;
+			pose.quantizeBounds = BonesIO.readFloatArray(in);
+			pose.quantizedOffsets = BonesIO.readShortArray(in);
+		} else {
+			pose.offsets = BonesIO.readFloatArray(in);
+		}
+		return pose;
 	}
 	
+	static void writeToStream(MeshPose object, java.io.DataOutput out) throws IOException {
+		if (object == null) {
+			out.writeInt(BonesIO.NULL);
+		} else {
+			out.writeInt(BonesIO.NON_NULL);
+			
+			BonesIO.writeString(out, object.name);
+			BonesIO.writeIntArray(out, object.indices);
+			out.writeBoolean(object.isQuantized());
+			if (object.isQuantized()) {
+				BonesIO.writeFloatArray(out, object.quantizeBounds);
+				BonesIO.writeShortArray(out, object.quantizedOffsets);
+			} else {
+				BonesIO.writeFloatArray(out, object.offsets);
+			}
+		}
+	}
+
+	private void writeObject(java.io.ObjectOutputStream out) throws IOException {
+		float[] offsets = getOffsets();
+		SimpleVector[] vectors = new SimpleVector[indices.length];
+		for (int i = 0; i < vectors.length; i++) {
+			vectors[i] = new SimpleVector(offsets[i * 3], offsets[i * 3 + 1], offsets[i * 3 + 2]);
+		}
+
+		java.io.ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("name", name);
+		fields.put("offsets", vectors);
+		fields.put("indices", indices);
+		fields.put("quantized", isQuantized());
+		out.writeFields();
+	}
+
+	private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
+		java.io.ObjectInputStream.GetField fields = in.readFields();
+
+		SimpleVector[] vectors = (SimpleVector[]) fields.get("offsets", null);
+		this.indices = (int[]) fields.get("indices", null);
+		this.offsets = new float[vectors.length * 3];
+		for (int i = 0; i < vectors.length; i++) {
+			offsets[i * 3] = vectors[i].x;
+			offsets[i * 3 + 1] = vectors[i].y;
+			offsets[i * 3 + 2] = vectors[i].z;
+		}
+
+		this.name = (String) fields.get("name", null);
+
+		if (fields.get("quantized", false))
+			quantize();
+	}
+
 }
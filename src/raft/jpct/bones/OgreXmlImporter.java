@@ -0,0 +1,983 @@
+package raft.jpct.bones;
+
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.threed.jpct.Logger;
+import com.threed.jpct.Matrix;
+import com.threed.jpct.SimpleVector;
+
+/**
+ * <p>Imports Ogre3D mesh and skeleton xml files directly with StAX, without jME. Elements are processed as they are
+ * read, so no document or scene graph is built and memory use is proportional to the created group.</p>
+ *
+ * <p>Result is the same as loading file with jME's OgreLoader and converting it via
+ * {@link BonesImporter#importOgre(com.jmex.model.ogrexml.OgreEntityNode, float, Quaternion)},
+ * apart from rounding of rotations since jME uses its own trigonometry.
+ * Differently, triangle strips and fans are converted to triangle lists, bone indices are not limited to a byte
+ * and pose animations of shared geometry are applied to all sub meshes using shared geometry.</p>
+ *
+ * @author hakan eryargi (r a f t)
+ */
+public class OgreXmlImporter {
+
+	private final URL meshUrl;
+	private final String nodeName;
+
+	private Geometry sharedGeometry = null;
+	private final List<SubMesh> subMeshes = new ArrayList<SubMesh>();
+	private final List<RawPose> poses = new ArrayList<RawPose>();
+	private String skeletonLink = null;
+
+	/** geometry new elements are read into */
+	private Geometry geometry = null;
+	private SubMesh subMesh = null;
+	private int vertex;
+	private int uvSet;
+	private int uvDimensions;
+	private int texCoord;
+	private IntArray faces = null;
+	private RawPose pose = null;
+	private FloatArray poseOffsets;
+	private IntArray poseIndices;
+
+	/** bones by name, in order of appearance. only used while reading skeleton */
+	private final Map<String, RawBone> bones = new LinkedHashMap<String, RawBone>();
+	private Skeleton skeleton = null;
+	/** file ids of bones, at their joint index */
+	private int[] jointOrder = null;
+	/** joint index of each file bone id */
+	private int[] jointIndices = null;
+	private Map<String, Integer> jointsByName = null;
+
+	/** bone tracks by skin animation name, in order they appear in skeleton file. only used while reading skeleton */
+	private final Map<String, List<RawTrack>> skinTracks = new LinkedHashMap<String, List<RawTrack>>();
+	/** skin clips by animation name, in order they appear in skeleton file */
+	private final Map<String, SkinClip> skinAnimations = new LinkedHashMap<String, SkinClip>();
+	/** pose tracks by animation name, in order they appear in mesh file */
+	private final Map<String, List<RawPoseTrack>> poseAnimations = new LinkedHashMap<String, List<RawPoseTrack>>();
+	private String animationName = null;
+	private List<RawTrack> boneTracks;
+	private List<RawPoseTrack> poseTracks;
+	private RawTrack track = null;
+	private RawPoseTrack poseTrack = null;
+
+	private OgreXmlImporter(URL meshUrl) {
+		this.meshUrl = meshUrl;
+		// same as jME: file name up to first dot
+		String name = meshUrl.getPath().replaceFirst(".*[\\\\/]", "").replaceFirst("\\..*", "");
+		this.nodeName = (name.length() == 0) ? "OgreNode" : name;
+	}
+
+	/**
+	 * <p>Constructs an {@link AnimatedGroup} out of an OGRE mesh xml file and the skeleton xml file it links to.</p>
+	 *
+	 * <p>Skeleton file is resolved relative to mesh file, with the name in skeleton link and .xml appended,
+	 * as jME does.</p>
+	 *
+	 * @param meshUrl location of OGRE mesh xml file
+	 * @param scale the scale
+	 * @param rotation the rotation applied to whole system. maybe null
+	 * @throws IOException if files cannot be read or are malformed
+	 * */
+	public static AnimatedGroup importGroup(URL meshUrl, float scale, Quaternion rotation) throws IOException {
+		return importGroup(meshUrl, scale, rotation, null);
+	}
+
+	/**
+	 * <p>Same as {@link #importGroup(URL, float, Quaternion)} but reads skeleton file through given cache.
+	 * Useful when many mesh files link to the same skeleton.</p>
+	 *
+	 * @param skeletons cache of skeleton files. maybe null
+	 * @see SkeletonCache
+	 * */
+	public static AnimatedGroup importGroup(URL meshUrl, float scale, Quaternion rotation, SkeletonCache skeletons) throws IOException {
+		if (scale == 0)
+			throw new IllegalArgumentException("scale: " + scale);
+
+		OgreXmlImporter loader = new OgreXmlImporter(meshUrl);
+		loader.parse(meshUrl, true);
+		if (loader.skeletonLink != null)
+			loader.loadSkeleton(skeletons);
+
+		return loader.createGroup(scale, rotation);
+	}
+
+	private void loadSkeleton(SkeletonCache skeletons) throws IOException {
+		RawSkeleton rawSkeleton;
+		try {
+			rawSkeleton = readSkeleton(new URL(meshUrl, skeletonLink + ".xml"), skeletons);
+		} catch (FileNotFoundException e) {
+			try {
+				rawSkeleton = readSkeleton(new URL(meshUrl, skeletonLink), skeletons);
+			} catch (FileNotFoundException e2) {
+				Logger.log("Proceeding without skeleton, couldnt find skeleton file " + skeletonLink, Logger.WARNING);
+				return;
+			}
+		}
+		setSkeleton(rawSkeleton);
+	}
+
+	private static RawSkeleton readSkeleton(URL skeletonUrl, SkeletonCache skeletons) throws IOException {
+		return (skeletons == null) ? readSkeleton(skeletonUrl) : skeletons.get(skeletonUrl);
+	}
+
+	/** reads bones and tracks of a skeleton file */
+	private static RawSkeleton readSkeleton(URL skeletonUrl) throws IOException {
+		OgreXmlImporter loader = new OgreXmlImporter(skeletonUrl);
+		loader.parse(skeletonUrl, false);
+		// skeleton files without animations. also validates bones
+		if (loader.jointOrder == null)
+			loader.createSkeleton();
+		return new RawSkeleton(loader.bones, loader.skinTracks);
+	}
+
+	/** creates skeleton and skin clips of this importer out of given raw skeleton, which is not modified */
+	private void setSkeleton(RawSkeleton rawSkeleton) throws IOException {
+		bones.putAll(rawSkeleton.bones);
+		createSkeleton();
+		Logger.log(MessageFormat.format("Skeleton created out of OGRE skeleton xml, {0} joints", skeleton.getNumberOfJoints()), Logger.MESSAGE);
+
+		for (Map.Entry<String, List<RawTrack>> entry : rawSkeleton.animations.entrySet()) {
+			List<JointChannel> jointChannels = new LinkedList<JointChannel>();
+			for (RawTrack track : entry.getValue()) {
+				jointChannels.add(createJointChannel(track));
+			}
+			SkinClip skinClip = new SkinClip(skeleton, jointChannels);
+			skinClip.setName(entry.getKey());
+			skinAnimations.put(entry.getKey(), skinClip);
+		}
+	}
+
+	private void parse(URL url, boolean mesh) throws IOException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+		InputStream in = url.openStream();
+		try {
+			XMLStreamReader reader = factory.createXMLStreamReader(new BufferedInputStream(in));
+			try {
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						if (mesh) {
+							startMeshElement(reader);
+						} else {
+							startSkeletonElement(reader);
+						}
+					} else if (event == XMLStreamConstants.END_ELEMENT) {
+						if (mesh) {
+							endMeshElement(reader);
+						} else {
+							endSkeletonElement(reader);
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(url + ": " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			throw new IOException(url + ": " + e.getMessage(), e);
+		} finally {
+			in.close();
+		}
+	}
+
+	private void startMeshElement(XMLStreamReader reader) throws IOException {
+		String element = reader.getLocalName();
+
+		if (element.equals("sharedgeometry")) {
+			sharedGeometry = new Geometry(intAttribute(reader, "vertexcount"));
+			geometry = sharedGeometry;
+
+		} else if (element.equals("submesh")) {
+			subMesh = new SubMesh(nodeName + "Mesh" + String.format("%03d", subMeshes.size()),
+					booleanAttribute(reader, "usesharedvertices", true),
+					attribute(reader, "operationtype", "triangle_list"));
+			subMeshes.add(subMesh);
+			geometry = subMesh.shared ? sharedGeometry : null;
+
+		} else if (element.equals("geometry")) {
+			geometry = new Geometry(intAttribute(reader, "vertexcount"));
+			subMesh.geometry = geometry;
+
+		} else if (element.equals("vertexbuffer")) {
+			if (geometry == null)
+				throw new IOException("vertexbuffer outside of geometry");
+			vertex = -1;
+			// like jME, last texture coordinate set is used
+			int sets = intAttribute(reader, "texture_coords", 0);
+			uvSet = sets - 1;
+			if (sets > 0) {
+				uvDimensions = parseDimensions(attribute(reader, "texture_coord_dimensions_" + uvSet, "2"));
+				geometry.uvs = new float[geometry.vertexCount * 2];
+			}
+
+		} else if (element.equals("vertex")) {
+			if (++vertex >= geometry.vertexCount)
+				throw new IOException("more vertices than vertexcount " + geometry.vertexCount);
+			texCoord = 0;
+
+		} else if (element.equals("position")) {
+			if (geometry.coordinates == null)
+				geometry.coordinates = new float[geometry.vertexCount * 3];
+			int offset = vertex * 3;
+			geometry.coordinates[offset] = floatAttribute(reader, "x");
+			geometry.coordinates[offset + 1] = floatAttribute(reader, "y");
+			geometry.coordinates[offset + 2] = floatAttribute(reader, "z");
+
+		} else if (element.equals("texcoord")) {
+			if (texCoord++ == uvSet) {
+				geometry.uvs[vertex * 2] = floatAttribute(reader, "u");
+				geometry.uvs[vertex * 2 + 1] = (uvDimensions > 1) ? floatAttribute(reader, "v") : 0;
+			}
+
+		} else if (element.equals("faces")) {
+			faces = new IntArray(intAttribute(reader, "count") * 3);
+
+		} else if (element.equals("face")) {
+			// faces of generated LOD levels are ignored like jME
+			if (faces == null)
+				return;
+			faces.add(intAttribute(reader, "v1"));
+			String v2 = reader.getAttributeValue(null, "v2");
+			String v3 = reader.getAttributeValue(null, "v3");
+			if ((v2 != null) && (v3 != null)) {
+				faces.add(Integer.parseInt(v2));
+				faces.add(Integer.parseInt(v3));
+			}
+
+		} else if (element.equals("boneassignments")) {
+			// like jME, sub meshes using shared geometry use its assignments
+			geometry = (subMesh == null) ? sharedGeometry : subMesh.shared ? null : subMesh.geometry;
+			if (geometry == null)
+				return;
+			geometry.weights = new float[geometry.vertexCount][Skeleton.MAX_JOINTS_PER_VERTEX];
+			geometry.boneIds = new int[geometry.vertexCount][Skeleton.MAX_JOINTS_PER_VERTEX];
+			geometry.assignments = new byte[geometry.vertexCount];
+
+		} else if (element.equals("vertexboneassignment")) {
+			if (geometry == null)
+				return;
+			int index = intAttribute(reader, "vertexindex");
+			// like jME, extra assignments are ignored
+			int slot = geometry.assignments[index];
+			if (slot < Skeleton.MAX_JOINTS_PER_VERTEX) {
+				geometry.boneIds[index][slot] = intAttribute(reader, "boneindex");
+				geometry.weights[index][slot] = floatAttribute(reader, "weight");
+				geometry.assignments[index]++;
+			}
+
+		} else if (element.equals("skeletonlink")) {
+			skeletonLink = attribute(reader, "name");
+
+		} else if (element.equals("submeshname")) {
+			subMeshes.get(intAttribute(reader, "index")).name = attribute(reader, "name");
+
+		} else if (element.equals("pose")) {
+			String target = attribute(reader, "target", "submesh");
+			pose = new RawPose(attribute(reader, "name"),
+					target.equals("mesh") ? RawPose.SHARED : intAttribute(reader, "index", 0));
+			poseOffsets = new FloatArray(256);
+			poseIndices = new IntArray(64);
+
+		} else if (element.equals("poseoffset")) {
+			poseIndices.add(intAttribute(reader, "index"));
+			poseOffsets.add(floatAttribute(reader, "x"));
+			poseOffsets.add(floatAttribute(reader, "y"));
+			poseOffsets.add(floatAttribute(reader, "z"));
+
+		} else if (element.equals("animation")) {
+			startAnimation(reader);
+
+		} else if (element.equals("track")) {
+			String target = attribute(reader, "target", "submesh");
+			String type = attribute(reader, "type");
+			if (type.equals("pose")) {
+				poseTrack = new RawPoseTrack(target.equals("mesh") ? RawPose.SHARED : intAttribute(reader, "index", 0));
+			} else {
+				Logger.log("skipping " + type + " track in animation " + animationName + ", only pose tracks are supported", Logger.WARNING);
+				poseTrack = null;
+			}
+
+		} else if (element.equals("keyframe")) {
+			if (poseTrack != null)
+				poseTrack.addKeyFrame(floatAttribute(reader, "time"));
+
+		} else if (element.equals("poseref")) {
+			if (poseTrack != null) {
+				int poseIndex = intAttribute(reader, "poseindex");
+				if (poseIndex >= poses.size())
+					throw new IOException("no pose with index " + poseIndex);
+				poseTrack.addPose(poses.get(poseIndex), floatAttribute(reader, "influence"));
+			}
+		}
+	}
+
+	private void endMeshElement(XMLStreamReader reader) throws IOException {
+		String element = reader.getLocalName();
+
+		if (element.equals("sharedgeometry") || element.equals("geometry")) {
+			geometry = null;
+
+		} else if (element.equals("submesh")) {
+			subMesh = null;
+			geometry = null;
+
+		} else if (element.equals("faces")) {
+			subMesh.indices = toTriangleList(faces.toArray(), subMesh.operationType);
+			faces = null;
+
+		} else if (element.equals("boneassignments")) {
+			geometry = (subMesh == null) ? null : subMesh.geometry;
+
+		} else if (element.equals("pose")) {
+			pose.indices = poseIndices.toArray();
+			pose.offsets = poseOffsets.toArray();
+			poses.add(pose);
+			pose = null;
+
+		} else if (element.equals("track")) {
+			if (poseTrack != null) {
+				if (poseTrack.times.size() == 0) {
+					Logger.log("No frames in pose track for submesh " + poseTrack.target + ", skipping", Logger.WARNING);
+				} else {
+					poseTracks.add(poseTrack);
+				}
+			}
+			poseTrack = null;
+
+		} else if (element.equals("animation")) {
+			if (!poseTracks.isEmpty()) {
+				poseAnimations.put(animationName, poseTracks);
+			} else {
+				Logger.log("No pose tracks in mesh animation '" + animationName + "', skipping completely", Logger.WARNING);
+			}
+			animationName = null;
+		}
+	}
+
+	private void startSkeletonElement(XMLStreamReader reader) throws IOException {
+		String element = reader.getLocalName();
+
+		if (element.equals("bone")) {
+			if (jointOrder != null)
+				throw new IOException("bones after animations");
+			track = new RawBone(intAttribute(reader, "id"), attribute(reader, "name"));
+			track.addKeyFrame(0);
+
+		} else if (element.equals("position") || element.equals("translate")) {
+			track.translations.set(track.translations.size() - 3, floatAttribute(reader, "x"));
+			track.translations.set(track.translations.size() - 2, floatAttribute(reader, "y"));
+			track.translations.set(track.translations.size() - 1, floatAttribute(reader, "z"));
+
+		} else if (element.equals("rotation") || element.equals("rotate")) {
+			track.angle = floatAttribute(reader, "angle");
+
+		} else if (element.equals("axis")) {
+			SimpleVector axis = new SimpleVector(floatAttribute(reader, "x"), floatAttribute(reader, "y"), floatAttribute(reader, "z"));
+			track.rotations.get(track.rotations.size() - 1).fromAngleAxis(track.angle, axis);
+
+		} else if (element.equals("boneparent")) {
+			String bone = attribute(reader, "bone");
+			String parent = attribute(reader, "parent");
+			RawBone child = bones.get(bone);
+			RawBone parentBone = bones.get(parent);
+			if ((child == null) || (parentBone == null))
+				throw new IOException(MessageFormat.format("unknown bone in boneparent, bone: {0}, parent: {1}", bone, parent));
+			child.parent = parentBone;
+
+		} else if (element.equals("animation")) {
+			if (jointOrder == null)
+				createSkeleton();
+			startAnimation(reader);
+
+		} else if (element.equals("track")) {
+			String bone = attribute(reader, "bone");
+			Integer jointIndex = jointsByName.get(bone);
+			if (jointIndex == null)
+				throw new IOException("unknown bone in track: " + bone);
+			track = new RawTrack(jointIndex);
+
+		} else if (element.equals("keyframe")) {
+			track.addKeyFrame(floatAttribute(reader, "time"));
+		}
+	}
+
+	private void endSkeletonElement(XMLStreamReader reader) throws IOException {
+		String element = reader.getLocalName();
+
+		if (element.equals("bone")) {
+			RawBone bone = (RawBone) track;
+			if (bones.put(bone.name, bone) != null)
+				throw new IOException("duplicate bone name: " + bone.name);
+			track = null;
+
+		} else if (element.equals("track")) {
+			if (track.times.size() == 0) {
+				Logger.log("No frames in track for joint " + track.jointIndex + ", skipping", Logger.WARNING);
+			} else {
+				boneTracks.add(track);
+			}
+			track = null;
+
+		} else if (element.equals("animation")) {
+			skinTracks.put(animationName, boneTracks);
+			animationName = null;
+		}
+	}
+
+	private void startAnimation(XMLStreamReader reader) throws IOException {
+		animationName = attribute(reader, "name");
+		boneTracks = new LinkedList<RawTrack>();
+		poseTracks = new LinkedList<RawPoseTrack>();
+	}
+
+	private void createSkeleton() throws IOException {
+		List<RawBone> rawBones = new ArrayList<RawBone>(bones.values());
+		if (rawBones.isEmpty())
+			throw new IOException("skeleton has no bones");
+
+		// jME stores bones by their ids
+		RawBone[] byId = new RawBone[rawBones.size()];
+		for (RawBone bone : rawBones) {
+			if (bone.id < 0 || bone.id >= byId.length || byId[bone.id] != null)
+				throw new IOException("bone ids are not unique or not in range [0," + byId.length + "): " + bone.id);
+			byId[bone.id] = bone;
+		}
+		rawBones.clear();
+		Collections.addAll(rawBones, byId);
+
+		// sort bones such that parents always comes first
+		Collections.sort(rawBones, new Comparator<RawBone>() {
+			public int compare(RawBone b1, RawBone b2) {
+				return b1.getDepth() - b2.getDepth();
+			}
+		});
+
+		jointOrder = new int[rawBones.size()];
+		jointIndices = new int[rawBones.size()];
+		jointsByName = new HashMap<String, Integer>();
+		for (int i = 0; i < jointOrder.length; i++) {
+			RawBone bone = rawBones.get(i);
+			jointOrder[i] = bone.id;
+			jointIndices[bone.id] = i;
+			jointsByName.put(bone.name, i);
+		}
+
+		Joint[] joints = new Joint[jointOrder.length];
+		for (int i = 0; i < joints.length; i++) {
+			RawBone bone = rawBones.get(i);
+			int parentIndex = (bone.parent == null) ? Joint.NO_PARENT : jointIndices[bone.parent.id];
+
+			// local = bindPose x parentInvertBindPose
+			// -> invertBindPose = (local x parentBindPose) -1
+			Matrix local = bone.rotations.get(0).getRotationMatrix();
+			local.translate(bone.translations.get(0), bone.translations.get(1), bone.translations.get(2));
+
+			if (parentIndex != Joint.NO_PARENT)
+				local.matMul(joints[parentIndex].bindPose);
+
+			joints[i] = new Joint(local.invert(), i, parentIndex, bone.name);
+		}
+
+		skeleton = new Skeleton(joints);
+	}
+
+    /**
+     * <p>Creates a new Channel out of Ogre track. Ogre tracks are relative to joints,
+     * skeleton is used for transforming track data into joint local space.<p>
+     * */
+	private JointChannel createJointChannel(RawTrack track) {
+		int length = track.times.size();
+
+		float[] times = track.times.toArray();
+		Quaternion[] rotations = new Quaternion[length];
+		SimpleVector[] translations = new SimpleVector[length];
+		SimpleVector[] scales = new SimpleVector[length];
+
+		Joint joint = skeleton.getJoint(track.jointIndex);
+		Joint parentJoint = joint.hasParent() ? skeleton.getJoint(joint.getParentIndex()) : null;
+
+		// like jME, scale is ignored
+		final SimpleVector noScale = new SimpleVector(1f, 1f, 1f);
+
+		for (int i = 0; i < length; i++) {
+			scales[i] = noScale;
+
+			Matrix m = track.rotations.get(i).getRotationMatrix();
+			m.matMul(joint.getBindPose()); // -> take to joint object space
+			m.translate(track.translations.get(i * 3), track.translations.get(i * 3 + 1), track.translations.get(i * 3 + 2));
+
+			if (parentJoint != null) {
+				// remove parent transform -> take to joint local space
+				m.matMul(parentJoint.getInverseBindPose());
+			}
+			rotations[i] = new Quaternion(m);
+			translations[i] = m.getTranslation();
+		}
+		return new JointChannel(track.jointIndex, times, translations, rotations, scales);
+	}
+
+	private AnimatedGroup createGroup(float scale, Quaternion rotation) throws IOException {
+		if (subMeshes.isEmpty())
+			throw new IOException("Mesh file has no submeshes");
+
+		Matrix transform = null;
+		if ((scale != 1) || (rotation != null)) {
+			transform = new Matrix();
+			if (rotation != null)
+				rotation.setRotation(transform);
+			if (scale != 1)
+				transform.matMul(SkinHelper.getScaleMatrix(scale, scale, scale));
+		}
+
+		SkeletonPose currentPose = null;
+		if (skeleton != null) {
+			currentPose = new SkeletonPose(skeleton);
+			currentPose.updateTransforms();
+		}
+
+		Animated3D[] objects = new Animated3D[subMeshes.size()];
+		for (int i = 0; i < objects.length; i++) {
+			SubMesh subMesh = subMeshes.get(i);
+			Geometry geometry = subMesh.shared ? sharedGeometry : subMesh.geometry;
+			if (geometry == null || geometry.coordinates == null)
+				throw new IOException("no vertex positions in submesh " + subMesh.name);
+			if (subMesh.indices == null)
+				throw new IOException("Cannot load submesh " + subMesh.name + ": faces definition required");
+
+			SkinData skin = null;
+			if (skeleton != null) {
+				if (geometry.weights == null)
+					throw new IOException("no bone assignments for submesh " + subMesh.name);
+				skin = createSkinData(geometry);
+			}
+			if (geometry.uvs == null)
+				Logger.log("Mesh has no texture coodinates", Logger.WARNING);
+
+			// shared geometry is copied, since each mesh is transformed separately
+			MeshData mesh = new MeshData(
+					subMesh.shared ? geometry.coordinates.clone() : geometry.coordinates,
+					(subMesh.shared && geometry.uvs != null) ? geometry.uvs.clone() : geometry.uvs,
+					subMesh.indices);
+			if (transform != null)
+				mesh.applyTransform(transform);
+
+			objects[i] = new Animated3D(mesh, skin, currentPose);
+			objects[i].setName(subMesh.name);
+			objects[i].setIndex(i);
+		}
+		List<SkinClip> skinClips = new LinkedList<SkinClip>();
+		for (SkinClip skinClip : skinAnimations.values()) {
+			skinClips.add(skinClip);
+
+			if (rotation != null) {
+				for (JointChannel channel : skinClip) {
+					if (channel != null)
+						channel.rotate(skeleton, rotation);
+				}
+			}
+			if (scale != 1) {
+				for (JointChannel channel : skinClip) {
+					if (channel != null)
+						channel.scale(scale);
+				}
+			}
+			Logger.log("Created skeleton animation clip: " + skinClip.getName(), Logger.MESSAGE);
+		}
+
+		// like jME, pose animations named same as skeleton animations come first
+		Map<String, List<RawPoseTrack>> orderedPoseAnimations = new LinkedHashMap<String, List<RawPoseTrack>>();
+		for (String name : skinAnimations.keySet()) {
+			if (poseAnimations.containsKey(name))
+				orderedPoseAnimations.put(name, poseAnimations.get(name));
+		}
+		orderedPoseAnimations.putAll(poseAnimations);
+
+		List<PoseClip> poseClips = new LinkedList<PoseClip>();
+		for (Map.Entry<String, List<RawPoseTrack>> entry : orderedPoseAnimations.entrySet()) {
+			List<MeshChannel> meshChannels = new LinkedList<MeshChannel>();
+			for (RawPoseTrack poseTrack : entry.getValue()) {
+				createMeshChannels(poseTrack, objects.length, transform, meshChannels);
+			}
+			PoseClip poseClip = new PoseClip(objects.length, meshChannels);
+			poseClip.setName(entry.getKey());
+			poseClips.add(poseClip);
+
+			Logger.log("Created pose animation clip: " + entry.getKey(), Logger.MESSAGE);
+		}
+
+		// finally rotate/scale skeleton. this should be done after jointChannels are rotated/scaled
+		if ((skeleton != null) && (transform != null)) {
+			if (rotation != null)
+				skeleton.rotate(rotation);
+			if (scale != 1)
+				skeleton.scale(scale);
+
+			currentPose.setToBindPose();
+			currentPose.updateTransforms();
+		}
+
+		AnimatedGroup group = new AnimatedGroup(objects);
+		if (!skinClips.isEmpty())
+			group.setSkinClipSequence(new SkinClipSequence(skinClips));
+		if (!poseClips.isEmpty())
+			group.setPoseClipSequence(new PoseClipSequence(poseClips));
+
+		return group;
+	}
+
+	private SkinData createSkinData(Geometry geometry) throws IOException {
+		float[][] weights = geometry.weights;
+		short[][] indices = new short[weights.length][Skeleton.MAX_JOINTS_PER_VERTEX];
+
+		for (int v = 0; v < weights.length; v++) {
+			// normalize weights like jME does
+			float sum = 0;
+			for (int j = 0; j < Skeleton.MAX_JOINTS_PER_VERTEX; j++)
+				sum += weights[v][j];
+
+			for (int j = 0; j < Skeleton.MAX_JOINTS_PER_VERTEX; j++) {
+				if (sum == 0) {
+					weights[v][j] = 0;
+				} else if (sum != 1f) {
+					weights[v][j] /= sum;
+				}
+				if (weights[v][j] == 0)
+					continue;
+
+				int boneId = geometry.boneIds[v][j];
+				if (boneId < 0 || boneId >= jointIndices.length)
+					throw new IOException("bone index out of range: " + boneId);
+				indices[v][j] = (short) jointIndices[boneId];
+			}
+		}
+		return new SkinData(weights, indices);
+	}
+
+	/** creates mesh channels of given track. tracks of shared geometry are applied to each sub mesh using it */
+	private void createMeshChannels(RawPoseTrack poseTrack, int objectCount, Matrix transform,
+			List<MeshChannel> meshChannels) throws IOException {
+
+		if (poseTrack.target == RawPose.SHARED) {
+			int[] targets = new int[objectCount];
+			int count = 0;
+			for (int i = 0; i < objectCount; i++) {
+				if (subMeshes.get(i).shared)
+					targets[count++] = i;
+			}
+			for (int i = 0; i < count; i++) {
+				meshChannels.add(createMeshChannel(poseTrack, targets[i], transform));
+			}
+		} else {
+			if (poseTrack.target < 0 || poseTrack.target >= objectCount)
+				throw new IOException("pose track target out of range: " + poseTrack.target);
+			meshChannels.add(createMeshChannel(poseTrack, poseTrack.target, transform));
+		}
+	}
+
+	private MeshChannel createMeshChannel(RawPoseTrack poseTrack, int target, Matrix transform) {
+		int length = poseTrack.times.size();
+		PoseFrame[] frames = new PoseFrame[length];
+
+		for (int i = 0; i < length; i++) {
+			int start = poseTrack.frameStarts.get(i);
+			int end = (i + 1 < length) ? poseTrack.frameStarts.get(i + 1) : poseTrack.framePoses.size();
+
+			MeshPose[] framePoses = new MeshPose[end - start];
+			float[] weights = new float[end - start];
+			for (int j = start; j < end; j++) {
+				framePoses[j - start] = poseTrack.framePoses.get(j).getMeshPose(target, transform);
+				weights[j - start] = poseTrack.frameWeights.get(j);
+			}
+			frames[i] = new PoseFrame(framePoses, weights);
+		}
+		return new MeshChannel(target, frames, poseTrack.times.toArray());
+	}
+
+	/** converts a triangle strip or fan to a triangle list */
+	static int[] toTriangleList(int[] indices, String operationType) {
+		if (operationType.equals("triangle_list"))
+			return indices;
+
+		boolean strip = operationType.equals("triangle_strip");
+		if (!strip && !operationType.equals("triangle_fan")) {
+			Logger.log("Invalid triangle mode " + operationType + ", assuming indexed triangles", Logger.WARNING);
+			return indices;
+		}
+		if (indices.length < 3)
+			return new int[0];
+
+		int[] list = new int[(indices.length - 2) * 3];
+		for (int i = 2, j = 0; i < indices.length; i++, j += 3) {
+			if (!strip) {
+				list[j] = indices[0];
+				list[j + 1] = indices[i - 1];
+			} else if ((i & 1) == 0) {
+				list[j] = indices[i - 2];
+				list[j + 1] = indices[i - 1];
+			} else {
+				list[j] = indices[i - 1];
+				list[j + 1] = indices[i - 2];
+			}
+			list[j + 2] = indices[i];
+		}
+		return list;
+	}
+
+	private static int parseDimensions(String value) {
+		try {
+			return Integer.parseInt(value.startsWith("float") ? value.substring("float".length()) : value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Unsupported texture_coord_dimensions value: '" + value + "'");
+		}
+	}
+
+	private static String attribute(XMLStreamReader reader, String name) throws IOException {
+		String value = reader.getAttributeValue(null, name);
+		if (value == null)
+			throw new IOException(MessageFormat.format("missing attribute {0} of {1} at line {2}",
+					name, reader.getLocalName(), reader.getLocation().getLineNumber()));
+		return value;
+	}
+
+	private static String attribute(XMLStreamReader reader, String name, String defaultValue) {
+		String value = reader.getAttributeValue(null, name);
+		return (value == null) ? defaultValue : value;
+	}
+
+	private static int intAttribute(XMLStreamReader reader, String name) throws IOException {
+		return Integer.parseInt(attribute(reader, name));
+	}
+
+	private static int intAttribute(XMLStreamReader reader, String name, int defaultValue) {
+		String value = reader.getAttributeValue(null, name);
+		return (value == null) ? defaultValue : Integer.parseInt(value);
+	}
+
+	private static float floatAttribute(XMLStreamReader reader, String name) throws IOException {
+		return Float.parseFloat(attribute(reader, name));
+	}
+
+	private static boolean booleanAttribute(XMLStreamReader reader, String name, boolean defaultValue) {
+		String value = reader.getAttributeValue(null, name);
+		return (value == null) ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	/** vertex data of shared geometry or a sub mesh */
+	private static class Geometry {
+		private final int vertexCount;
+		private float[] coordinates = null;
+		private float[] uvs = null;
+		private float[][] weights = null;
+		/** bone ids as in file */
+		private int[][] boneIds = null;
+		/** number of assignments of each vertex */
+		private byte[] assignments = null;
+
+		private Geometry(int vertexCount) {
+			if (vertexCount <= 0)
+				throw new IllegalArgumentException("Invalid vertex count value: " + vertexCount);
+			this.vertexCount = vertexCount;
+		}
+	}
+
+	private static class SubMesh {
+		private String name;
+		private final boolean shared;
+		private final String operationType;
+		private Geometry geometry = null;
+		private int[] indices = null;
+
+		private SubMesh(String name, boolean shared, String operationType) {
+			this.name = name;
+			this.shared = shared;
+			this.operationType = operationType;
+		}
+	}
+
+	/** a pose as read from file. converted to a {@link MeshPose} when first referenced by a track */
+	private static class RawPose {
+		/** target of poses and tracks of shared geometry */
+		private static final int SHARED = -1;
+
+		private final String name;
+		private final int target;
+		private int[] indices;
+		private float[] offsets;
+		/** mesh pose of each object. poses of shared geometry are used by many objects, and each object 
+		 * needs its own copy since poses are remapped with their object's vertices */
+		private final Map<Integer, MeshPose> meshPoses = new HashMap<Integer, MeshPose>();
+
+		private RawPose(String name, int target) {
+			this.name = name;
+			this.target = target;
+		}
+
+		private MeshPose getMeshPose(int object, Matrix transform) {
+			MeshPose meshPose = meshPoses.get(object);
+			if (meshPose == null) {
+				meshPose = new MeshPose(name, offsets, indices);
+				if (transform != null)
+					meshPose.applyTransform(transform);
+				meshPoses.put(object, meshPose);
+			}
+			return meshPose;
+		}
+	}
+
+	/**
+	 * <p>Shares skeleton xml files among imports, so a skeleton linked by many mesh files is read only once.
+	 * Each import still creates its own {@link Skeleton} and {@link SkinClip}s, so imported groups are independent.</p>
+	 *
+	 * <p>Can be used by many threads concurrently. Skeleton files are assumed not to change while the cache is used.</p>
+	 *
+	 * @see OgreXmlImporter#importGroup(URL, float, Quaternion, SkeletonCache)
+	 * */
+	public static class SkeletonCache {
+		/** reads of skeleton files by url. a failed read is kept too, so a missing file is looked up only once */
+		private final Map<String, FutureTask<RawSkeleton>> skeletons = new HashMap<String, FutureTask<RawSkeleton>>();
+
+		/** Returns number of cached skeleton files. */
+		public synchronized int getSize() {
+			return skeletons.size();
+		}
+
+		/** Forgets cached skeleton files. */
+		public synchronized void clear() {
+			skeletons.clear();
+		}
+
+		/** reads skeleton file if necessary, or waits for the thread reading it */
+		private RawSkeleton get(final URL url) throws IOException {
+			FutureTask<RawSkeleton> task;
+			boolean owner = false;
+			synchronized (this) {
+				// URL.equals may resolve host names, so external form is used as key
+				task = skeletons.get(url.toExternalForm());
+				if (task == null) {
+					task = new FutureTask<RawSkeleton>(new Callable<RawSkeleton>() {
+						public RawSkeleton call() throws IOException {
+							return readSkeleton(url);
+						}
+					});
+					skeletons.put(url.toExternalForm(), task);
+					owner = true;
+				}
+			}
+			if (owner)
+				task.run();
+
+			try {
+				return task.get();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+
+	/** bones and skin animation tracks of a skeleton file. not modified once read, so can be shared among imports */
+	private static class RawSkeleton {
+		private final Map<String, RawBone> bones;
+		private final Map<String, List<RawTrack>> animations;
+
+		private RawSkeleton(Map<String, RawBone> bones, Map<String, List<RawTrack>> animations) {
+			this.bones = bones;
+			this.animations = animations;
+		}
+	}
+
+	/** key frames of a bone track. bind pose of bones are read as a single key frame */
+	private static class RawTrack {
+		private final int jointIndex;
+		private final FloatArray times = new FloatArray(16);
+		final FloatArray translations = new FloatArray(48);
+		final List<Quaternion> rotations = new ArrayList<Quaternion>();
+		/** angle of rotation being read */
+		private float angle;
+
+		private RawTrack(int jointIndex) {
+			this.jointIndex = jointIndex;
+		}
+
+		/** adds a key frame with no translation and rotation */
+		private void addKeyFrame(float time) {
+			times.add(time);
+			translations.add(0);
+			translations.add(0);
+			translations.add(0);
+			rotations.add(new Quaternion());
+		}
+	}
+
+	private static class RawBone extends RawTrack {
+		private final int id;
+		private final String name;
+		private RawBone parent = null;
+
+		private RawBone(int id, String name) {
+			super(-1);
+			this.id = id;
+			this.name = name;
+		}
+
+		private int getDepth() {
+			int depth = 0;
+			for (RawBone b = parent; b != null; b = b.parent)
+				depth++;
+			return depth;
+		}
+	}
+
+	/** key frames of a pose track. poses of all frames are stored in a single list */
+	private static class RawPoseTrack {
+		private final int target;
+		private final FloatArray times = new FloatArray(16);
+		private final IntArray frameStarts = new IntArray(16);
+		private final List<RawPose> framePoses = new ArrayList<RawPose>();
+		private final FloatArray frameWeights = new FloatArray(16);
+
+		private RawPoseTrack(int target) {
+			this.target = target;
+		}
+
+		private void addKeyFrame(float time) {
+			times.add(time);
+			frameStarts.add(framePoses.size());
+		}
+
+		private void addPose(RawPose pose, float weight) {
+			framePoses.add(pose);
+			frameWeights.add(weight);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package raft.jpct.bones;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Loads groups whose {@link Skeleton} and {@link SkinClipSequence} are saved in separate packages.
+ * Each skeleton and clip package is loaded only once and shared by all groups referencing it.
+ * So, for example, many outfits on the same rig can be saved without repeating animations.</p>
+ *
+ * <p>Packages are referenced by an id and a hash of their contents. By default id is the path of package file
+ * relative to the directory of loader. This can be changed by overriding {@link #resolve(String)}.
+ * A reference whose hash does not match referenced package is an error.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @see BonesIO#saveSkeleton(Skeleton, java.io.OutputStream)
+ * @see BonesIO#saveClips(SkinClipSequence, String, java.io.OutputStream)
+ * @see BonesIO#saveGroup(AnimatedGroup, String, String, java.io.OutputStream)
+ * */
+public class PackageLoader {
+
+	private final File directory;
+	private final AssetRegistry registry;
+	private final long clipMemoryBudget;
+
+	private final Map<String, Package<Skeleton>> skeletons = new HashMap<String, Package<Skeleton>>();
+	private final Map<String, Package<SkinClipSequence>> clips = new HashMap<String, Package<SkinClipSequence>>();
+
+	/** Creates a new PackageLoader which resolves ids relative to given directory. */
+	public PackageLoader(File directory) {
+		this(directory, null, 0);
+	}
+
+	/**
+	 * Creates a new PackageLoader which resolves ids relative to given directory.
+	 *
+	 * @param registry registry to share mesh and skin data of loaded groups, may be null
+	 * @param clipMemoryBudget if positive, clips of each clip package are loaded lazily with this memory budget in bytes
+	 * @see AssetRegistry
+	 * @see BonesIO#loadGroupLazy(File, long)
+	 * */
+	public PackageLoader(File directory, AssetRegistry registry, long clipMemoryBudget) {
+		this.directory = directory;
+		this.registry = registry;
+		this.clipMemoryBudget = clipMemoryBudget;
+	}
+
+	/**
+	 * Loads a group. If group references other packages, they are loaded if not already loaded.
+	 * Groups which are not saved as packages can also be loaded.
+	 * */
+	public AnimatedGroup loadGroup(String id) throws IOException {
+		ByteBufferInput in = BonesIO.map(resolve(id));
+		BonesIO.readHeader(in, BonesIO.HEADER_GROUP, BonesIO.VERSION);
+		return BonesFormat.readContent(in, -1, registry, this).createGroup();
+	}
+
+	/** Returns the skeleton in given package. Package is loaded if not already loaded. */
+	public synchronized Skeleton loadSkeleton(String id) throws IOException {
+		Package<Skeleton> pack = skeletons.get(id);
+		if (pack == null) {
+			ByteBufferInput in = BonesIO.map(resolve(id));
+			BonesIO.readHeader(in, BonesIO.HEADER_SKELETON, BonesIO.VERSION);
+			BonesFormat.Content content = BonesFormat.readContent(in, -1, registry, this);
+			if (content.getSkeleton() == null)
+				throw new IOException("No skeleton found in package: " + id);
+
+			pack = new Package<Skeleton>(content.getSkeleton(), content.getHash());
+			skeletons.put(id, pack);
+		}
+		return pack.value;
+	}
+
+	/** Returns the clips in given package. Package and its skeleton are loaded if not already loaded. */
+	public synchronized SkinClipSequence loadClips(String id) throws IOException {
+		Package<SkinClipSequence> pack = clips.get(id);
+		if (pack == null) {
+			ByteBufferInput in = BonesIO.map(resolve(id));
+			BonesIO.readHeader(in, BonesIO.HEADER_CLIPS, BonesIO.VERSION);
+			BonesFormat.Content content = BonesFormat.readContent(in, clipMemoryBudget, registry, this);
+			if (content.getSkinClipSequence() == null)
+				throw new IOException("No clips found in package: " + id);
+
+			pack = new Package<SkinClipSequence>(content.getSkinClipSequence(), content.getHash());
+			clips.put(id, pack);
+		}
+		return pack.value;
+	}
+
+	/**
+	 * Returns the file of package with given id. Default implementation returns a file relative
+	 * to directory of this loader.
+	 * */
+	protected File resolve(String id) {
+		return new File(directory, id);
+	}
+
+	/** Returns number of loaded skeleton and clip packages. */
+	public synchronized int getSize() {
+		return skeletons.size() + clips.size();
+	}
+
+	/** Forgets loaded packages. Already loaded groups are not effected. */
+	public synchronized void clear() {
+		skeletons.clear();
+		clips.clear();
+	}
+
+	synchronized Skeleton resolveSkeleton(String id, byte[] hash) throws IOException {
+		Skeleton skeleton = loadSkeleton(id);
+		checkHash(id, skeletons.get(id).hash, hash);
+		return skeleton;
+	}
+
+	synchronized SkinClipSequence resolveClips(String id, byte[] hash) throws IOException {
+		SkinClipSequence sequence = loadClips(id);
+		checkHash(id, clips.get(id).hash, hash);
+		return sequence;
+	}
+
+	private static void checkHash(String id, byte[] packageHash, byte[] referenceHash) throws IOException {
+		if (!Arrays.equals(packageHash, referenceHash))
+			throw new IOException("Package does not match reference, it's probably re-exported: " + id);
+	}
+
+	/** Returns string representation. */
+	@Override
+	public synchronized String toString() {
+		return "PackageLoader [directory=" + directory + ", skeletons=" + skeletons.keySet() + ", clips=" + clips.keySet() + "]";
+	}
+
+	private static class Package<T> {
+		private final T value;
+		private final byte[] hash;
+
+		private Package(T value, byte[] hash) {
+			this.value = value;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package raft.jpct.bones;
+
+import com.threed.jpct.SimpleVector;
+
+/** 
+ * <p>Merges weighted {@link MeshPose}s of bracketing {@link PoseFrame}s and applies them to 
+ * destination vertices in a single sparse pass. Each {@link Animated3D} has its own accumulator.</p>
+ * */
+class PoseAccumulator {
+	
+	private MeshPose[] poses = new MeshPose[16];
+	private float[] weights = new float[16];
+	private int count = 0;
+	
+	/** per vertex packed sums. only entries of touched vertices are ever non zero */
+	private float[] sums = new float[0];
+	
+	/** adds poses of given frame with given weight. weights of same pose are merged */
+	void add(PoseFrame frame, float weight) {
+		if (weight == 0)
+			return;
+		
+		MeshPose[] framePoses = frame.poses;
+		float[] frameWeights = frame.weights;
+		
+		outer:
+		for (int i = 0; i < framePoses.length; i++) {
+			MeshPose pose = framePoses[i];
+			float poseWeight = frameWeights[i] * weight;
+			
+			for (int j = 0; j < count; j++) {
+				if (poses[j] == pose) {
+					weights[j] += poseWeight;
+					continue outer;
+				}
+			}
+			
+			if (count == poses.length) {
+				MeshPose[] newPoses = new MeshPose[count * 2];
+				System.arraycopy(poses, 0, newPoses, 0, count);
+				poses = newPoses;
+				
+				float[] newWeights = new float[count * 2];
+				System.arraycopy(weights, 0, newWeights, 0, count);
+				weights = newWeights;
+			}
+			poses[count] = pose;
+			weights[count] = poseWeight;
+			count++;
+		}
+	}
+	
+	/** 
+	 * accumulates added poses and adds the sums to destination vertices. only given touched vertices 
+	 * are visited. clears added poses afterwards. 
+	 * */
+	void apply(int[] touched, SimpleVector[] vertices) {
+		if (count == 0)
+			return;
+		
+		if (sums.length < vertices.length * 3)
+			sums = new float[vertices.length * 3];
+		final float[] sums = this.sums;
+		
+		for (int i = 0; i < count; i++) {
+			if (weights[i] != 0)
+				poses[i].accumulate(weights[i], sums);
+			poses[i] = null;
+		}
+		count = 0;
+		
+		for (int index : touched) {
+			int s = index * 3;
+			SimpleVector vertex = vertices[index];
+			vertex.x += sums[s];
+			vertex.y += sums[s + 1];
+			vertex.z += sums[s + 2];
+			
+			sums[s] = 0;
+			sums[s + 1] = 0;
+			sums[s + 2] = 0;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package raft.jpct.bones;
+
+import com.threed.jpct.Matrix;
+
+/**
+ * <p>A cache of evaluated {@link SkeletonPose}s shared by many groups. When many instances play the same
+ * {@link SkinClip} at the same (or nearly the same) time, pose is evaluated only once and copied to others.
+ * Evaluation time is quantized so nearly same times map to the same entry.</p>
+ *
+ * <p>Cache is opt-in: it's enabled per group with {@link AnimatedGroup#setPoseCache(PoseCache)}.
+ * Least recently used entries are evicted when memory cap is exceeded. This class is thread safe.</p>
+ *
+ * @see AnimatedGroup#setPoseCache(PoseCache)
+ * @see AnimatedGroup#createInstance()
+ * */
+public class PoseCache {
+
+	/** default time quantum in seconds */
+	public static final float DEFAULT_QUANTUM = 1f / 60;
+
+	/** default memory cap in bytes */
+	public static final long DEFAULT_MAX_MEMORY = 4 * 1024 * 1024;
+
+	private final float quantum;
+	private final LruCache<Entry> cache;
+
+	/** Creates a new PoseCache with default quantum and memory cap. */
+	public PoseCache() {
+		this(DEFAULT_QUANTUM, DEFAULT_MAX_MEMORY);
+	}
+
+	/**
+	 * Creates a new PoseCache.
+	 *
+	 * @param quantum time quantum in seconds. times are rounded to a multiple of this
+	 * @param maxMemory memory cap in bytes
+	 * */
+	public PoseCache(float quantum, long maxMemory) {
+		if (quantum <= 0)
+			throw new IllegalArgumentException("quantum: " + quantum);
+
+		this.quantum = quantum;
+		this.cache = new LruCache<Entry>(maxMemory);
+	}
+
+	/** Returns the time quantum in seconds. */
+	public float getQuantum() {
+		return quantum;
+	}
+
+	/** Returns the memory cap in bytes. */
+	public long getMaxMemory() {
+		return cache.getMaxMemory();
+	}
+
+	/**
+	 * <p>Sets given pose to given clip at given time. Global and palette transforms are also updated,
+	 * so there is no need to call {@link SkeletonPose#updateTransforms()}.</p>
+	 *
+	 * @param clip the clip
+	 * @param seconds the time in clip. rounded to a multiple of quantum
+	 * @param pose the pose to update
+	 * */
+	public void animate(SkinClip clip, float seconds, SkeletonPose pose) {
+		animate(clip.getCacheKey(), clip, seconds, pose);
+	}
+
+	/**
+	 * <p>Same as {@link #animate(SkinClip, float, SkeletonPose)} but animates whole sequence.</p>
+	 *
+	 * @see SkinClipSequence#getTime()
+	 * */
+	public void animate(SkinClipSequence sequence, float seconds, SkeletonPose pose) {
+		animate(sequence, sequence, seconds, pose);
+	}
+
+	/** cacheKey identifies source in cache, see {@link SkinClip#getCacheKey()} */
+	private void animate(Object cacheKey, Object source, float seconds, SkeletonPose pose) {
+		final int step = Math.round(seconds / quantum);
+		final LruCache.Key key = new LruCache.Key(step, cacheKey, pose.skeleton);
+
+		Entry entry = cache.get(key);
+		if (entry != null) {
+			entry.copyTo(pose);
+			return;
+		}
+
+		// evaluate outside of lock. another thread may evaluate same key concurrently, that's harmless
+		final float time = step * quantum;
+		if (source instanceof SkinClip) {
+			((SkinClip) source).applyTo(time, pose);
+		} else {
+			((SkinClipSequence) source).animate(time, pose);
+		}
+		pose.updateTransforms();
+
+		entry = new Entry(pose);
+		cache.put(key, entry, entry.size);
+	}
+
+	/** Returns number of cache hits since creation or last {@link #resetStatistics()}. */
+	public long getHits() {
+		return cache.getHits();
+	}
+
+	/** Returns number of cache misses since creation or last {@link #resetStatistics()}. */
+	public long getMisses() {
+		return cache.getMisses();
+	}
+
+	/** Returns number of evicted entries since creation or last {@link #resetStatistics()}. */
+	public long getEvictions() {
+		return cache.getEvictions();
+	}
+
+	/** Returns ratio of hits to total lookups, or zero if there is no lookup yet. */
+	public float getHitRatio() {
+		return cache.getHitRatio();
+	}
+
+	/** Resets hit, miss and eviction counts. */
+	public void resetStatistics() {
+		cache.resetStatistics();
+	}
+
+	/** Returns number of cached poses. */
+	public int getSize() {
+		return cache.getSize();
+	}
+
+	/** Returns estimated memory used by cached poses in bytes. */
+	public long getMemoryUsage() {
+		return cache.getMemoryUsage();
+	}
+
+	/** Removes all cached poses. */
+	public void clear() {
+		cache.clear();
+	}
+
+	/** Returns string representation. */
+	@Override
+	public String toString() {
+		return "PoseCache [" + cache + "]";
+	}
+
+	/** evaluated local, global and palette transforms as matrix dumps */
+	private static class Entry {
+		private final float[] locals;
+		private final float[] globals;
+		private final float[] palette;
+		private final long size;
+
+		private Entry(SkeletonPose pose) {
+			this.locals = dump(pose.locals);
+			this.globals = dump(pose.globals);
+			this.palette = dump(pose.palette);
+			this.size = SkinHelper.OBJECT_OVERHEAD + 3 * SkinHelper.sizeOfArray(locals.length, 4);
+		}
+
+		private void copyTo(SkeletonPose pose) {
+			float[] tmp = pose.tmpDump;
+			restore(locals, pose.locals, tmp);
+			restore(globals, pose.globals, tmp);
+			restore(palette, pose.palette, tmp);
+		}
+
+		private static float[] dump(Matrix[] matrices) {
+			float[] result = new float[matrices.length * 16];
+			float[] tmp = new float[16];
+			for (int i = 0; i < matrices.length; i++) {
+				matrices[i].fillDump(tmp);
+				System.arraycopy(tmp, 0, result, i * 16, 16);
+			}
+			return result;
+		}
+
+		private static void restore(float[] dump, Matrix[] matrices, float[] tmp) {
+			for (int i = 0; i < matrices.length; i++) {
+				System.arraycopy(dump, i * 16, tmp, 0, 16);
+				matrices[i].setDump(tmp);
+			}
+		}
+	}
+}
@@ -1,8 +1,10 @@
 package raft.jpct.bones;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import com.threed.jpct.Animation;
 
@@ -117,6 +119,45 @@ public class PoseClip implements java.io.Serializable, Iterable<MeshChannel>  {
     	channel.applyTo(time, target, weight);
     }
     
+    /** returns the channel related to given object index or null if there is none */
+    MeshChannel getChannel(int objectIndex) {
+    	return (objectIndex < channels.length) ? channels[objectIndex] : null;
+    }
+    
+	/** reads a clip. poses are referenced by their index in given pose table */
+	static PoseClip readFromStream(java.io.DataInput in, MeshPose[] poseTable) throws IOException {
+		if (in.readInt() == BonesIO.NULL)
+			return null;
+		
+		String name = BonesIO.readString(in);
+		PoseClip clip = new PoseClip(in.readInt());
+		clip.name = name;
+		
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			clip.addChannel(MeshChannel.readFromStream(in, poseTable));
+		}
+		return clip;
+	}
+	
+	/** writes clip. only non-null channels are written */
+	static void writeToStream(PoseClip object, java.io.DataOutput out, Map<MeshPose, Integer> poseIds) throws IOException {
+		if (object == null) {
+			out.writeInt(BonesIO.NULL);
+		} else {
+			out.writeInt(BonesIO.NON_NULL);
+			
+			BonesIO.writeString(out, object.name);
+			out.writeInt(object.channels.length);
+			
+			out.writeInt(object.size);
+			for (MeshChannel channel : object.channels) {
+				if (channel != null)
+					MeshChannel.writeToStream(channel, out, poseIds);
+			}
+		}
+	}
+	
     /** Returns name of this clip. May be null */
     public String getName() {
 		return name;
@@ -1,8 +1,13 @@
 package raft.jpct.bones;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import com.threed.jpct.Animation;
 
@@ -23,6 +28,9 @@ public class PoseClipSequence implements java.io.Serializable, Iterable<PoseClip
 
 	private PoseClip[] clips;
 	private float[] times;
+	
+	/** union of vertex indices modified by clips, per object index. lazily created */
+	private transient int[][] touchedVertices;
 
 	/**
 	 * <p>Creates a PoseClipSequence out of given clips.</p>
@@ -65,6 +73,116 @@ public class PoseClipSequence implements java.io.Serializable, Iterable<PoseClip
 		newClips[clips.length] = clip;
 		this.clips = newClips;
 		updateTimes();
+		invalidateTouchedVertices();
+	}
+	
+	/** 
+	 * <p>Quantizes all {@link MeshPose}s used by this sequence to 16 bits.</p>
+	 * 
+	 * @see MeshPose#quantize()
+	 * */
+	public void quantizePoses() {
+		for (PoseClip clip : clips) {
+			for (MeshChannel channel : clip) {
+				if (channel != null)
+					channel.quantizePoses();
+			}
+		}
+	}
+	
+	/** 
+	 * <p>returns sorted indices of vertices modified by any clip in this sequence for given object index. 
+	 * the result is cached and a new array is returned only if sequence changes, so callers can compare 
+	 * returned arrays by identity.</p>
+	 * */
+	synchronized int[] getTouchedVertices(int objectIndex) {
+		if (touchedVertices == null) {
+			touchedVertices = new int[objectIndex + 1][];
+		} else if (objectIndex >= touchedVertices.length) {
+			int[][] newTouched = new int[objectIndex + 1][];
+			System.arraycopy(touchedVertices, 0, newTouched, 0, touchedVertices.length);
+			touchedVertices = newTouched;
+		}
+		
+		int[] touched = touchedVertices[objectIndex];
+		if (touched == null) {
+			BitSet set = new BitSet();
+			for (PoseClip clip : clips) {
+				MeshChannel channel = clip.getChannel(objectIndex);
+				if (channel != null)
+					channel.collectVertexIndices(set);
+			}
+			touched = new int[set.cardinality()];
+			int i = 0;
+			for (int index = set.nextSetBit(0); index >= 0; index = set.nextSetBit(index + 1)) {
+				touched[i++] = index;
+			}
+			touchedVertices[objectIndex] = touched;
+		}
+		return touched;
+	}
+	
+	/** reads a sequence. shared poses are read once into a pose table */
+	static PoseClipSequence readFromStream(java.io.DataInput in) throws IOException {
+		if (in.readInt() == BonesIO.NULL)
+			return null;
+		
+		MeshPose[] poseTable = new MeshPose[in.readInt()];
+		for (int i = 0; i < poseTable.length; i++) {
+			poseTable[i] = MeshPose.readFromStream(in);
+		}
+		
+		List<PoseClip> clips = new ArrayList<PoseClip>();
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			clips.add(PoseClip.readFromStream(in, poseTable));
+		}
+		return new PoseClipSequence(clips);
+	}
+	
+	/** writes a sequence. poses shared among frames and clips are written once to a pose table */
+	static void writeToStream(PoseClipSequence object, java.io.DataOutput out) throws IOException {
+		if (object == null) {
+			out.writeInt(BonesIO.NULL);
+		} else {
+			out.writeInt(BonesIO.NON_NULL);
+			
+			Map<MeshPose, Integer> poseIds = new IdentityHashMap<MeshPose, Integer>();
+			List<MeshPose> poseTable = new ArrayList<MeshPose>();
+			for (PoseClip clip : object.clips) {
+				for (MeshChannel channel : clip) {
+					if (channel == null)
+						continue;
+					for (MeshPose pose : channel.getPoses()) {
+						if (!poseIds.containsKey(pose)) {
+							poseIds.put(pose, poseTable.size());
+							poseTable.add(pose);
+						}
+					}
+				}
+			}
+			
+			out.writeInt(poseTable.size());
+			for (MeshPose pose : poseTable) {
+				MeshPose.writeToStream(pose, out);
+			}
+			
+			out.writeInt(object.clips.length);
+			for (PoseClip clip : object.clips) {
+				PoseClip.writeToStream(clip, out, poseIds);
+			}
+		}
+	}
+	
+	/** clears cached touched vertices of this sequence and its channels. called when sequence or its poses change */
+	synchronized void invalidateTouchedVertices() {
+		touchedVertices = null;
+		for (PoseClip clip : clips) {
+			for (MeshChannel channel : clip) {
+				if (channel != null)
+					channel.invalidateTouchedVertices();
+			}
+		}
 	}
 	
 	void animate(float seconds, AnimatedGroup targetGroup) {
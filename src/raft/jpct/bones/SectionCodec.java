@@ -0,0 +1,214 @@
+package raft.jpct.bones;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Compresses section payloads in independently deflated chunks, so they can be inflated in parallel.</p>
+ *
+ * <p>Compressed payload is: total length, chunk count and for each chunk its raw length, compressed length
+ * and compressed bytes.</p>
+ *
+ * @see BonesFormat
+ * */
+class SectionCodec {
+
+	/** section flag: payload is deflated in chunks */
+	static final byte FLAG_DEFLATED = 1;
+
+	/** sections smaller than this are not worth compressing */
+	static final int MIN_COMPRESS_SIZE = 1024;
+
+	/** raw size of each chunk */
+	static final int CHUNK_SIZE = 128 * 1024;
+
+	/** executor to inflate chunks. created on demand */
+	private static ExecutorService executor = null;
+
+	/** can not be instantiated */
+	private SectionCodec() {}
+
+	/** returns deflated form of given data */
+	static byte[] deflate(byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2);
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		int chunkCount = (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		out.writeInt(data.length);
+		out.writeInt(chunkCount);
+
+		Deflater deflater = new Deflater();
+		byte[] buffer = new byte[CHUNK_SIZE + CHUNK_SIZE / 2];
+		try {
+			for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+				int rawLength = Math.min(CHUNK_SIZE, data.length - offset);
+				deflater.reset();
+				deflater.setInput(data, offset, rawLength);
+				deflater.finish();
+
+				ByteArrayOutputStream chunk = new ByteArrayOutputStream(rawLength / 2);
+				while (!deflater.finished()) {
+					int count = deflater.deflate(buffer);
+					chunk.write(buffer, 0, count);
+				}
+				out.writeInt(rawLength);
+				out.writeInt(chunk.size());
+				chunk.writeTo(out);
+			}
+		} finally {
+			deflater.end();
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/** inflates given payload on calling thread */
+	static byte[] inflate(ByteBuffer payload) throws IOException {
+		return startInflate(payload, false).get();
+	}
+
+	/**
+	 * <p>Starts inflating given payload. If parallel is true, chunks are inflated on a shared executor,
+	 * so several sections and chunks can be inflated at the same time. Otherwise they are inflated on calling thread.</p>
+	 *
+	 * @param payload compressed payload from position to limit. buffer is not modified
+	 * */
+	static Inflation startInflate(ByteBuffer payload, boolean parallel) throws IOException {
+		final ByteBuffer in = payload.duplicate();
+		if (in.remaining() < 8)
+			throw new IOException("Corrupt compressed section");
+		final int length = in.getInt();
+		final int chunkCount = in.getInt();
+		// validate before allocating, a corrupt length should not cause a huge allocation. each chunk has an 8 byte header
+		if ((length < 0) || (chunkCount < 0) || (chunkCount > in.remaining() / 8)
+				|| ((long) length > (long) chunkCount * CHUNK_SIZE))
+			throw new IOException("Corrupt compressed section");
+		final byte[] result = new byte[length];
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunkCount);
+		int offset = 0;
+		for (int i = 0; i < chunkCount; i++) {
+			if (in.remaining() < 8)
+				throw new IOException("Corrupt compressed section");
+			final int rawLength = in.getInt();
+			final int compressedLength = in.getInt();
+			if ((rawLength < 0) || (rawLength > CHUNK_SIZE) || (offset + rawLength > result.length) 
+					|| (compressedLength < 0) || (compressedLength > in.remaining()))
+				throw new IOException("Corrupt compressed section");
+
+			final ByteBuffer chunk = in.slice();
+			chunk.limit(compressedLength);
+			in.position(in.position() + compressedLength);
+
+			final int chunkOffset = offset;
+			tasks.add(new Callable<Void>() {
+				public Void call() throws IOException {
+					inflateChunk(chunk, result, chunkOffset, rawLength);
+					return null;
+				}
+			});
+			offset += rawLength;
+		}
+		if (offset != result.length)
+			throw new IOException("Corrupt compressed section");
+
+		Inflation inflation = new Inflation(result);
+		if (parallel) {
+			ExecutorService executor = getExecutor();
+			for (Callable<Void> task : tasks) {
+				inflation.chunks.add(executor.submit(task));
+			}
+		} else {
+			for (Callable<Void> task : tasks) {
+				FutureTask<Void> future = new FutureTask<Void>(task);
+				future.run();
+				inflation.chunks.add(future);
+			}
+		}
+		return inflation;
+	}
+
+	private static void inflateChunk(ByteBuffer chunk, byte[] result, int offset, int length) throws IOException {
+		byte[] input;
+		int inputOffset;
+		if (chunk.hasArray()) {
+			input = chunk.array();
+			inputOffset = chunk.arrayOffset() + chunk.position();
+		} else {
+			input = new byte[chunk.remaining()];
+			chunk.duplicate().get(input);
+			inputOffset = 0;
+		}
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(input, inputOffset, chunk.remaining());
+			int count = 0;
+			while (count < length) {
+				int inflated = inflater.inflate(result, offset + count, length - count);
+				if ((inflated == 0) && (inflater.finished() || inflater.needsInput()))
+					break;
+				count += inflated;
+			}
+			if (count != length)
+				throw new IOException("Corrupt compressed chunk");
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "BonesIO inflater");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/** an inflation in progress */
+	static class Inflation {
+		private final byte[] result;
+		private final List<Future<Void>> chunks = new ArrayList<Future<Void>>();
+
+		private Inflation(byte[] result) {
+			this.result = result;
+		}
+
+		/** waits for all chunks and returns inflated data */
+		byte[] get() throws IOException {
+			try {
+				for (Future<Void> chunk : chunks) {
+					chunk.get();
+				}
+			} catch (InterruptedException e) {
+				throw new java.io.InterruptedIOException();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+			return result;
+		}
+	}
+}
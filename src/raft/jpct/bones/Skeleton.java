@@ -7,9 +7,12 @@
  */
 package raft.jpct.bones;
 
+import java.io.IOException;
+
 import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedList;
 
 import com.threed.jpct.Logger;
 import com.threed.jpct.SimpleVector;
@@ -26,9 +29,15 @@ public class Skeleton implements java.io.Serializable, Iterable<Joint> {
 	
     /** Maximum number of joints per vertex. */
     public static final int MAX_JOINTS_PER_VERTEX = 4;
+    
+    /** maximum number of released poses kept in pool */
+    private static final int MAX_POOLED_POSES = 64;
 	
     final Joint[] joints;
     
+    /** poses released by instances. see {@link AnimatedGroup#createInstance()} */
+    private transient LinkedList<SkeletonPose> posePool;
+    
     /** <p>Creates a new Skeleton out of given joints. Joint's indices must match their position in array
      * and array should be ordered such that, parent comes first.</p> */
     public Skeleton(Joint[] joints) {
@@ -52,14 +61,23 @@ public class Skeleton implements java.io.Serializable, Iterable<Joint> {
 			printJoints();
     }
     
-//	private Skeleton(ObjectInputStream in) throws IOException {
-//		int size = in.readInt();
-//		joints = new Joint[size];
-//		for (int i = 0; i < size; i++) {
-//			joints[i] = Joint.readFromStream(in);
-//		}
-//	}
+	private Skeleton(java.io.DataInput in) throws IOException {
+		int size = in.readInt();
+		joints = new Joint[size];
+		for (int i = 0; i < size; i++) {
+			joints[i] = Joint.readFromStream(in);
+		}
+	}
 
+	/** returns estimated memory used by this skeleton and its joints in bytes */
+	long estimateMemory() {
+		long memory = SkinHelper.OBJECT_OVERHEAD + SkinHelper.sizeOfArray(joints.length, SkinHelper.REFERENCE_SIZE);
+		for (Joint joint : joints) {
+			memory += SkinHelper.OBJECT_OVERHEAD + 2 * SkinHelper.MATRIX_SIZE + SkinHelper.sizeOf(joint.name);
+		}
+		return memory;
+	}
+	
 	/** Returns number of joints */
 	public int getNumberOfJoints() {
 		return joints.length;
@@ -100,6 +118,29 @@ public class Skeleton implements java.io.Serializable, Iterable<Joint> {
 		}
 	}
 	
+	/** returns a pose from pool or a new one if pool is empty. returned pose is in bind pose */
+	synchronized SkeletonPose obtainPose() {
+		if ((posePool == null) || posePool.isEmpty()) {
+			SkeletonPose pose = new SkeletonPose(this);
+			pose.updateTransforms();
+			return pose;
+		}
+		SkeletonPose pose = posePool.removeFirst();
+		pose.setToBindPose();
+		pose.updateTransforms();
+		return pose;
+	}
+	
+	/** returns given pose to pool */
+	synchronized void releasePose(SkeletonPose pose) {
+		if (pose.skeleton != this)
+			throw new IllegalArgumentException("pose belongs to another skeleton");
+		if (posePool == null)
+			posePool = new LinkedList<SkeletonPose>();
+		if (posePool.size() < MAX_POOLED_POSES)
+			posePool.add(pose);
+	}
+	
 	private void printJoints() {
 		System.out.println("-- total " + joints.length + " joint(s) --");
 		for (Joint joint : joints) {
@@ -126,23 +167,23 @@ public class Skeleton implements java.io.Serializable, Iterable<Joint> {
 		}
 	}
 	
-//	static Skeleton readFromStream(java.io.ObjectInputStream in) throws IOException {
-//		if (in.readInt() == BonesIO.NULL)
-//			return null;
-//		return new Skeleton(in);
-//	}
-//	
-//	static void writeToStream(Skeleton object, java.io.ObjectOutputStream out) throws IOException {
-//		if (object == null) {
-//			out.writeInt(BonesIO.NULL);
-//		} else {
-//			out.writeInt(BonesIO.NON_NULL);
-//			
-//			out.writeInt(object.joints.length);
-//			for (Joint joint : object.joints) {
-//				Joint.writeToStream(joint, out);
-//			}
-//		}
-//	}
+	static Skeleton readFromStream(java.io.DataInput in) throws IOException {
+		if (in.readInt() == BonesIO.NULL)
+			return null;
+		return new Skeleton(in);
+	}
+	
+	static void writeToStream(Skeleton object, java.io.DataOutput out) throws IOException {
+		if (object == null) {
+			out.writeInt(BonesIO.NULL);
+		} else {
+			out.writeInt(BonesIO.NON_NULL);
+			
+			out.writeInt(object.joints.length);
+			for (Joint joint : object.joints) {
+				Joint.writeToStream(joint, out);
+			}
+		}
+	}
 	
 }
@@ -1,7 +1,10 @@
 package raft.jpct.bones;
 
 
+import java.io.IOException;
+
 import com.threed.jpct.Matrix;
+import com.threed.jpct.SimpleVector;
 
 /** 
  * <p>A pose of {@link Skeleton} {@link Joint Joint}'s. Poses are used to deform (animate) {@link Animated3D}'s.
@@ -23,6 +26,16 @@ public class SkeletonPose implements java.io.Serializable {
 	/** the transform which can directly be applied to a mesh vertex */
 	final Matrix[] palette;
 	
+	// temporary objects used by JointChannel while sampling into this pose. they are kept here 
+	// (instead of in channels) so a channel can be applied to different poses concurrently
+	transient Quaternion tmpRotation = new Quaternion();
+	transient SimpleVector tmpTranslation = new SimpleVector();
+	transient SimpleVector tmpScale = new SimpleVector();
+	transient Matrix tmpScaleMatrix = new Matrix();
+	
+	/** temporary matrix dump used by {@link PoseCache} while restoring a cached pose into this pose */
+	transient float[] tmpDump = new float[16];
+	
 	
 	/** Creates a new Pose for given {@link Skeleton}. */
 	public SkeletonPose(Skeleton skeleton) {
@@ -117,6 +130,11 @@ public class SkeletonPose implements java.io.Serializable {
         }
     }
     
+    /** returns estimated memory usage of this pose in bytes. skeleton is not included since it's shared. */
+    long estimateMemory() {
+    	return SkinHelper.OBJECT_OVERHEAD + 3 * SkinHelper.sizeOfArray(locals.length, SkinHelper.REFERENCE_SIZE + SkinHelper.MATRIX_SIZE);
+    }
+    
     /** Returns a new {@link SkeletonPose} sharing same skeleton with this.
      * Created SkeletonPose is initially in bind pose. */
     @Override
@@ -141,6 +159,16 @@ public class SkeletonPose implements java.io.Serializable {
 //		}
 //	}
     
+	private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		
+	    tmpRotation = new Quaternion();
+	    tmpTranslation = new SimpleVector();
+	    tmpScale = new SimpleVector();
+	    tmpScaleMatrix = new Matrix();
+	    tmpDump = new float[16];
+	}
+	
 	private static Matrix[] createNMatrices(int length) {
 		Matrix[] result = new Matrix[length];
         for (int i = 0; i < length; i++) {
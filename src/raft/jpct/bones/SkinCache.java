@@ -0,0 +1,156 @@
+package raft.jpct.bones;
+
+import com.threed.jpct.SimpleVector;
+
+/**
+ * <p>A cache of skinned vertices and normals shared by identical {@link Animated3D}s. Objects which share
+ * the same source mesh and {@link SkinData} (like instances created by {@link AnimatedGroup#createInstance()})
+ * and play the same {@link SkinClip} at the same quantized time, are skinned only once. Others copy 
+ * skinned frame from cache.</p>
+ * 
+ * <p>Cache is opt-in: it's enabled per group with {@link AnimatedGroup#setSkinCache(SkinCache)}.
+ * Clip time is rounded to a multiple of quantum, so a larger quantum means more hits but choppier animation.
+ * Least recently used frames are evicted when memory cap is exceeded. Cache is bypassed for an object
+ * if a pose animation is applied to it in the same frame. This class is thread safe.</p>
+ * 
+ * <p>If a {@link PoseCache} is also used, its quantum should be a divisor of skin cache's quantum.</p>
+ * 
+ * @see AnimatedGroup#setSkinCache(SkinCache)
+ * @see PoseCache
+ * */
+public class SkinCache {
+
+	/** default time quantum in seconds */
+	public static final float DEFAULT_QUANTUM = 1f / 30;
+
+	/** default memory cap in bytes */
+	public static final long DEFAULT_MAX_MEMORY = 16 * 1024 * 1024;
+	
+	private final float quantum;
+	private final LruCache<float[]> cache;
+
+	/** Creates a new SkinCache with default quantum and memory cap. */
+	public SkinCache() {
+		this(DEFAULT_QUANTUM, DEFAULT_MAX_MEMORY);
+	}
+
+	/**
+	 * Creates a new SkinCache.
+	 *
+	 * @param quantum time quantum in seconds. times are rounded to a multiple of this
+	 * @param maxMemory memory cap in bytes
+	 * */
+	public SkinCache(float quantum, long maxMemory) {
+		if (quantum <= 0)
+			throw new IllegalArgumentException("quantum: " + quantum);
+		
+		this.quantum = quantum;
+		this.cache = new LruCache<float[]>(maxMemory);
+	}
+	
+	/** Returns the time quantum in seconds. */
+	public float getQuantum() {
+		return quantum;
+	}
+
+	/** Returns the memory cap in bytes. */
+	public long getMaxMemory() {
+		return cache.getMaxMemory();
+	}
+	
+	/** returns the frame number of given time */
+	int getFrame(float seconds) {
+		return Math.round(seconds / quantum);
+	}
+	
+	/** returns the time of given frame number */
+	float getTime(int frame) {
+		return frame * quantum;
+	}
+	
+	/** 
+	 * copies skinned frame into destination arrays if cached and returns true. 
+	 * source is either cache key of a SkinClip or a SkinClipSequence  
+	 * @see SkinClip#getCacheKey() 
+	 * */
+	boolean get(Object source, int frame, SimpleVector[] sourceMesh, SkinData skin, 
+			SimpleVector[] destMesh, SimpleVector[] destNormals) {
+		
+		float[] data = cache.get(new LruCache.Key(frame, source, sourceMesh, skin));
+		if (data == null)
+			return false;
+		
+		int offset = 0;
+		for (int i = 0; i < destMesh.length; i++) {
+			destMesh[i].set(data[offset], data[offset + 1], data[offset + 2]);
+			destNormals[i].set(data[offset + 3], data[offset + 4], data[offset + 5]);
+			offset += 6;
+		}
+		return true;
+	}
+	
+	/** stores given skinned frame */
+	void put(Object source, int frame, SimpleVector[] sourceMesh, SkinData skin, 
+			SimpleVector[] destMesh, SimpleVector[] destNormals) {
+		
+		float[] data = new float[destMesh.length * 6];
+		int offset = 0;
+		for (int i = 0; i < destMesh.length; i++) {
+			SimpleVector v = destMesh[i];
+			SimpleVector n = destNormals[i];
+			data[offset++] = v.x;
+			data[offset++] = v.y;
+			data[offset++] = v.z;
+			data[offset++] = n.x;
+			data[offset++] = n.y;
+			data[offset++] = n.z;
+		}
+		cache.put(new LruCache.Key(frame, source, sourceMesh, skin), data, SkinHelper.sizeOfArray(data.length, 4));
+	}
+	
+	/** Returns number of cache hits since creation or last {@link #resetStatistics()}. */
+	public long getHits() {
+		return cache.getHits();
+	}
+
+	/** Returns number of cache misses since creation or last {@link #resetStatistics()}. */
+	public long getMisses() {
+		return cache.getMisses();
+	}
+
+	/** Returns number of evicted frames since creation or last {@link #resetStatistics()}. */
+	public long getEvictions() {
+		return cache.getEvictions();
+	}
+
+	/** Returns ratio of hits to total lookups, or zero if there is no lookup yet. */
+	public float getHitRatio() {
+		return cache.getHitRatio();
+	}
+
+	/** Resets hit, miss and eviction counts. */
+	public void resetStatistics() {
+		cache.resetStatistics();
+	}
+
+	/** Returns number of cached frames. */
+	public int getSize() {
+		return cache.getSize();
+	}
+
+	/** Returns estimated memory used by cached frames in bytes. */
+	public long getMemoryUsage() {
+		return cache.getMemoryUsage();
+	}
+
+	/** Removes all cached frames. */
+	public void clear() {
+		cache.clear();
+	}
+
+	/** Returns string representation. */
+	@Override
+	public String toString() {
+		return "SkinCache [" + cache + "]";
+	}
+}
@@ -7,6 +7,7 @@
  */
 package raft.jpct.bones;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -30,6 +31,8 @@ public class SkinClip implements java.io.Serializable, Iterable<JointChannel> {
 	private float maxTime = 0;
 	private int size = 0;
 	private String name = null;
+	/** identifies this clip in cache keys. set for lazily loaded clips, so all loads of a clip share cached entries */
+	private transient Object cacheKey = null;
 	
 	/**
 	 * <p>Creates a new SkinClip.</p>
@@ -72,20 +75,29 @@ public class SkinClip implements java.io.Serializable, Iterable<JointChannel> {
 		this.skeleton = skeleton;
 		this.channels = new JointChannel[skeleton.getNumberOfJoints()];
 	}
+
+	/** 
+	 * returns the object identifying this clip in {@link PoseCache} and {@link SkinCache} keys. 
+	 * this is the clip itself unless it's lazily loaded 
+	 * */
+	Object getCacheKey() {
+		return (cacheKey != null) ? cacheKey : this;
+	}
 	
-//	private SkinClip(ObjectInputStream in) throws IOException, ClassNotFoundException {
-//		this.skeleton = (Skeleton) in.readObject();
-//		this.maxTime = in.readFloat();
-//		this.size = in.readInt();
-//		this.name = BonesIO.readString(in);
-//		
-//		int length = in.readInt();
-//		this.channels = new JointChannel[length];
-//		for (int i = 0; i < length; i++) {
-//			channels[i] = JointChannel.readFromStream(in); 
-//		}
-//	}
+	void setCacheKey(Object cacheKey) {
+		this.cacheKey = cacheKey;
+	}
 
+	/** returns estimated memory used by this clip and its channels in bytes */
+	long estimateMemory() {
+		long memory = SkinHelper.OBJECT_OVERHEAD + SkinHelper.sizeOfArray(channels.length, SkinHelper.REFERENCE_SIZE);
+		for (JointChannel channel : channels) {
+			if (channel != null)
+				memory += channel.estimateMemory();
+		}
+		return memory;
+	}
+	
 	/** returns time of this clip in seconds. time of clip is the time of the longest channel */
     public float getTime() {
         return maxTime;
@@ -133,7 +145,7 @@ public class SkinClip implements java.io.Serializable, Iterable<JointChannel> {
     	for (JointChannel channel : channels) {
         	if (channel == null)
         		continue;
-        	channel.applyTo(time, pose.getLocal(channel.jointIndex));
+        	channel.applyTo(time, pose);
     	}
     }
     
@@ -176,29 +188,36 @@ public class SkinClip implements java.io.Serializable, Iterable<JointChannel> {
 		this.skeleton = skeleton;
 	}
 	
-//	static SkinClip readFromStream(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
-//		if (in.readInt() == BonesIO.NULL)
-//			return null;
-//		return new SkinClip(in);
-//	}
-//	
-//	static void writeToStream(SkinClip object, java.io.ObjectOutputStream out) throws IOException {
-//		if (object == null) {
-//			out.writeInt(BonesIO.NULL);
-//		} else {
-//			out.writeInt(BonesIO.NON_NULL);
-//			
-//			out.writeObject(object.skeleton);
-//			out.writeFloat(object.maxTime);
-//			out.writeInt(object.size);
-//			
-//			BonesIO.writeString(out, object.name);
-//			
-//			out.writeInt(object.channels.length);
-//			for (JointChannel channel : object.channels) {
-//				JointChannel.writeToStream(channel, out);
-//			}
-//		}
-//	}
+	/** reads a clip for given skeleton. */
+	static SkinClip readFromStream(java.io.DataInput in, Skeleton skeleton) throws IOException {
+		if (in.readInt() == BonesIO.NULL)
+			return null;
+		
+		SkinClip clip = new SkinClip(skeleton);
+		clip.name = BonesIO.readString(in);
+		
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			clip.addChannel(JointChannel.readFromStream(in));
+		}
+		return clip;
+	}
+	
+	/** writes clip without skeleton. only non-null channels are written */
+	static void writeToStream(SkinClip object, java.io.DataOutput out) throws IOException {
+		if (object == null) {
+			out.writeInt(BonesIO.NULL);
+		} else {
+			out.writeInt(BonesIO.NON_NULL);
+			
+			BonesIO.writeString(out, object.name);
+			
+			out.writeInt(object.size);
+			for (JointChannel channel : object.channels) {
+				if (channel != null)
+					JointChannel.writeToStream(channel, out);
+			}
+		}
+	}
 	
 }
@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import com.threed.jpct.Animation;
 
@@ -13,6 +14,10 @@ import com.threed.jpct.Animation;
  * A ClipSequence can be assigned to a {@link Animated3D} and the object can be 
  * directly animated</p>.
  * 
+ * <p>A sequence loaded via {@link BonesIO#loadGroupLazy(java.io.File, long)} is lazy: its clips are loaded
+ * on first use and least recently used ones are unloaded when memory budget is exceeded. 
+ * Clips can also be explicitly loaded with {@link #prefetch(int...)} and unloaded with {@link #unload(int...)}.</p>
+ * 
  * @see Animated3D#setSkinClipSequence(SkinClipSequence)
  * @see Animated3D#animateSkin(float, int)
  * 
@@ -23,6 +28,9 @@ public class SkinClipSequence implements java.io.Serializable, Iterable<SkinClip
 	
 	private SkinClip[] clips;
 	private float[] times;
+	
+	/** if not null, clips are loaded on demand from here and clips array is null */
+	private transient LazySkinClips lazyClips;
 
 	/**
 	 * <p>Creates a ClipSequence out of given clips. All clips should be bound to same skeleton. 
@@ -48,6 +56,12 @@ public class SkinClipSequence implements java.io.Serializable, Iterable<SkinClip
 		updateTimes();
 	}
 	
+	/** creates a lazy sequence */
+	SkinClipSequence(LazySkinClips lazyClips) {
+		this.lazyClips = lazyClips;
+		updateTimes();
+	}
+	
 //	private SkinClipSequence(ObjectInputStream in) throws IOException, ClassNotFoundException {
 //		this.times = BonesIO.readFloatArray(in);
 //		
@@ -60,12 +74,79 @@ public class SkinClipSequence implements java.io.Serializable, Iterable<SkinClip
 
 	/** Returns number of clips */
 	public int getSize() {
-		return clips.length;
+		return (lazyClips != null) ? lazyClips.getSize() : clips.length;
 	}
 	
-	/** Returns the specified clip */
+	/** Returns the specified clip. If this sequence is lazy, clip is loaded if necessary. */
 	public SkinClip getClip(int index) {
-		return clips[index];
+		return (lazyClips != null) ? lazyClips.get(index) : clips[index];
+	}
+	
+	/** 
+	 * Returns index of first clip with given name or -1 if not found. 
+	 * Does not load any clips. 
+	 * */
+	public int indexOf(String clipName) {
+		for (int i = 0; i < getSize(); i++) {
+			String name = (lazyClips != null) ? lazyClips.getName(i) : clips[i].getName();
+			if (clipName.equals(name))
+				return i;
+		}
+		return -1;
+	}
+	
+	/** Returns true if clips of this sequence are loaded on demand. */
+	public boolean isLazy() {
+		return (lazyClips != null);
+	}
+	
+	/** Returns true if specified clip is currently loaded. Always true if this sequence is not lazy. */
+	public boolean isLoaded(int index) {
+		return (lazyClips != null) ? lazyClips.isLoaded(index) : true;
+	}
+	
+	/** 
+	 * <p>Loads specified clips in advance, so that they are ready on first use. 
+	 * Has no effect if this sequence is not lazy.</p> 
+	 * 
+	 * <p>Note a prefetched clip may still be unloaded if memory budget is exceeded.</p>
+	 * */
+	public void prefetch(int... indices) {
+		if (lazyClips == null)
+			return;
+		for (int index : indices) 
+			lazyClips.get(index);
+	}
+	
+	/** 
+	 * <p>Unloads specified clips. They will be loaded again on next use. 
+	 * If no index is given, all clips are unloaded. Has no effect if this sequence is not lazy.</p>
+	 * */
+	public void unload(int... indices) {
+		if (lazyClips == null)
+			return;
+		if (indices.length == 0) {
+			lazyClips.unloadAll();
+			return;
+		}
+		for (int index : indices) 
+			lazyClips.unload(index);
+	}
+	
+	/** Returns estimated memory used by currently loaded clips in bytes. */
+	public long getLoadedMemory() {
+		if (lazyClips != null)
+			return lazyClips.getMemoryUsage();
+		
+		long memory = 0;
+		for (SkinClip clip : clips) 
+			memory += clip.estimateMemory();
+		return memory;
+	}
+	
+	/** Returns memory budget of a lazy sequence in bytes, or -1 if this sequence is not lazy. */
+	public long getMemoryBudget() {
+		return (lazyClips != null) ? lazyClips.getMemoryBudget() : -1;
 	}
 	
 	/** return total time of clips in seconds */
@@ -75,13 +156,19 @@ public class SkinClipSequence implements java.io.Serializable, Iterable<SkinClip
 	
 	/** return the skeleton this clip is related to. */
 	public Skeleton getSkeleton() {
-		return clips[0].getSkeleton();
+		return (lazyClips != null) ? lazyClips.getSkeleton() : clips[0].getSkeleton();
 	}
 	
+	/** Adds given clip to end of this sequence. If this sequence is lazy, all clips are loaded and it's no longer lazy. */
 	public void addClip(SkinClip clip) {
 		if (clip.getSkeleton() != getSkeleton()) 
 			throw new IllegalArgumentException("Clip has a different skeleton!");
 		
+		if (lazyClips != null) {
+			this.clips = loadAll();
+			this.lazyClips = null;
+		}
+		
 		SkinClip[] newClips = new SkinClip[clips.length + 1];
 		System.arraycopy(clips, 0, newClips, 0, clips.length);
 		newClips[clips.length] = clip;
@@ -95,11 +182,12 @@ public class SkinClipSequence implements java.io.Serializable, Iterable<SkinClip
 	 * */
 	void animate(final float seconds, SkeletonPose pose) {
 		// figure out what frames we are between and by how much
-		final int lastClip = clips.length - 1;
-		if (seconds < 0 || clips.length == 1) {
-			clips[0].applyTo(seconds, pose);
+		final int lastClip = getSize() - 1;
+		if (seconds < 0 || lastClip == 0) {
+			getClip(0).applyTo(seconds, pose);
 		} else if (seconds >= times[lastClip+1]) {
-			clips[lastClip].applyTo(clips[lastClip].getTime(), pose); 
+			SkinClip clip = getClip(lastClip);
+			clip.applyTo(clip.getTime(), pose); 
 		} else {
 			int clipIndex = 0;
 
@@ -110,7 +198,7 @@ public class SkinClipSequence implements java.io.Serializable, Iterable<SkinClip
 				}
 			}
 			final float clipTime = seconds - times[clipIndex];
-			clips[clipIndex].applyTo(clipTime, pose);
+			getClip(clipIndex).applyTo(clipTime, pose);
 		}
 	}
 	
@@ -129,14 +217,29 @@ public class SkinClipSequence implements java.io.Serializable, Iterable<SkinClip
 	
 	/** creates and populates times array from scratch. */
 	private void updateTimes() {
-		this.times = new float[clips.length + 1];
+		final int size = getSize();
+		this.times = new float[size + 1];
 		
 		float cumulativeTime = 0f;
-		for (int i = 0; i < clips.length; i++) {
+		for (int i = 0; i < size; i++) {
 			times[i] = cumulativeTime;
-			cumulativeTime += clips[i].getTime();
+			cumulativeTime += (lazyClips != null) ? lazyClips.getTime(i) : clips[i].getTime();
 		}
-		times[clips.length] = cumulativeTime;
+		times[size] = cumulativeTime;
+	}
+	
+	/** returns all clips, loading them if necessary */
+	private SkinClip[] loadAll() {
+		SkinClip[] all = new SkinClip[getSize()];
+		for (int i = 0; i < all.length; i++) {
+			all[i] = getClip(i);
+		}
+		return all;
+	}
+	
+	/** a lazy sequence is serialized as a regular one */
+	private Object writeReplace() {
+		return (lazyClips != null) ? new SkinClipSequence(loadAll()) : this;
 	}
 
 	
@@ -170,16 +273,35 @@ public class SkinClipSequence implements java.io.Serializable, Iterable<SkinClip
 		List<SkinClip> clips = new LinkedList<SkinClip>();
 		
 		for (SkinClipSequence sequence : sequences) {
-			for (SkinClip clip : sequence.clips) {
+			for (SkinClip clip : sequence) {
 				clips.add(new SkinClip(skeleton, clip));
 			}
 		}
 		return new SkinClipSequence(clips);
 	}
 
-    /** <p>Returns an iterator of {@link SkinClip}s.</p> */
+    /** <p>Returns an iterator of {@link SkinClip}s. If this sequence is lazy, clips are loaded as they are iterated.</p> */
 	public Iterator<SkinClip> iterator() {
-		return Arrays.asList(clips).iterator();
+		if (lazyClips == null)
+			return Arrays.asList(clips).iterator();
+		
+		return new Iterator<SkinClip>() {
+			private int next = 0;
+			
+			public boolean hasNext() {
+				return next < getSize();
+			}
+			
+			public SkinClip next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return getClip(next++);
+			}
+			
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 	
 
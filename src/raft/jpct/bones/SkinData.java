@@ -1,10 +1,16 @@
 package raft.jpct.bones;
 
+import java.io.IOException;
+
 
 
 /** 
  * <p>Skin contains information how a {@link Animated3D} is deformed with respect to {@link SkeletonPose}.</p>
  * 
+ * <p>Optionally weights can be pruned and packed, see {@link #compact(float)}. A packed skin stores 
+ * {@link Skeleton#MAX_JOINTS_PER_VERTEX} weights as 8-bit unorm values in one int per vertex, and joint indices 
+ * as bytes in another int, instead of two arrays per vertex.</p>
+ * 
  * <p>This class is adapted from <a href="http://www.ardor3d.com">Ardor3D.</a></p>
  *  */
 public class SkinData implements java.io.Serializable {
@@ -12,9 +18,22 @@ public class SkinData implements java.io.Serializable {
 	
 	// TODO separate max joints for ardor and jME to be safe in the future
 	
+	/** stride of packed skin in stream */
+	private static final int PACKED_STRIDE = -1;
+	
+	private static final int WEIGHT_LEVELS = 0xFF;
+	private static final float WEIGHT_SCALE = 1f / WEIGHT_LEVELS;
+	
+	/** weights of each vertex. null if packed */
 	final float[][] weights;
+	/** joint indices of each vertex. null if packed */
 	final short[][] jointIndices;
 	
+	/** 8-bit unorm weights of each vertex, one byte for each slot. null if not packed */
+	final int[] packedWeights;
+	/** joint indices of each vertex, one byte for each slot. null if not packed */
+	final int[] packedJointIndices;
+	
 	/** <p>Creates a new SkinData out of given information. The arrays are copied.</p>
 	 * 
 	 * @param weights how much each vertex in mesh is effected by corresponding skeleton joints 
@@ -23,6 +42,8 @@ public class SkinData implements java.io.Serializable {
 	public SkinData(float[][] weights, short[][] jointIndices) {
 		this.weights = copyWeights(weights);
 		this.jointIndices = copyIndices(jointIndices);
+		this.packedWeights = null;
+		this.packedJointIndices = null;
 		
 //		this.weights = new float[weights.length][];
 //		this.jointIndices = new short[jointIndices.length][];
@@ -37,48 +58,284 @@ public class SkinData implements java.io.Serializable {
 //		}
 	}
 	
-//	private SkinData(ObjectInputStream in) throws IOException {
-//		this.weights = BonesIO.readFloat2Array(in);
-//		this.jointIndices = BonesIO.readShort2Array(in);
-//	} 
+	private SkinData(int[] packedWeights, int[] packedJointIndices) {
+		this.weights = null;
+		this.jointIndices = null;
+		this.packedWeights = packedWeights;
+		this.packedJointIndices = packedJointIndices;
+	}
+	
+	/** creates a packed skin out of given arrays, which are not copied. see {@link #compact(float)} for layout */
+	static SkinData packed(int[] packedWeights, int[] packedJointIndices) {
+		if (packedWeights.length != packedJointIndices.length)
+			throw new IllegalArgumentException("Arrays must be same length");
+		return new SkinData(packedWeights, packedJointIndices);
+	}
+
+	/** reads weights and joint indices which are written either packed or as flat arrays of fixed stride */
+	private SkinData(java.io.DataInput in) throws IOException {
+		int vertexCount = in.readInt();
+		int stride = in.readInt();
+		if (stride == PACKED_STRIDE) {
+			this.weights = null;
+			this.jointIndices = null;
+			this.packedWeights = BonesIO.readIntArray(in);
+			this.packedJointIndices = BonesIO.readIntArray(in);
+			if ((packedWeights.length != vertexCount) || (packedJointIndices.length != vertexCount))
+				throw new IOException("Corrupt packed skin");
+			return;
+		}
+		this.packedWeights = null;
+		this.packedJointIndices = null;
+		
+		float[] flatWeights = BonesIO.readFloatArray(in);
+		short[] flatIndices = BonesIO.readShortArray(in);
+		
+		this.weights = new float[vertexCount][stride];
+		this.jointIndices = new short[vertexCount][stride];
+		for (int i = 0; i < vertexCount; i++) {
+			System.arraycopy(flatWeights, i * stride, weights[i], 0, stride);
+			System.arraycopy(flatIndices, i * stride, jointIndices[i], 0, stride);
+		}
+	} 
+	
+	/** returns estimated memory used by this skin data in bytes */
+	long estimateMemory() {
+		if (isPacked())
+			return SkinHelper.OBJECT_OVERHEAD + 2 * SkinHelper.sizeOfArray(packedWeights.length, 4);
+		
+		long memory = SkinHelper.OBJECT_OVERHEAD + 2 * SkinHelper.sizeOfArray(weights.length, SkinHelper.REFERENCE_SIZE);
+		for (int i = 0; i < weights.length; i++) {
+			memory += SkinHelper.sizeOfArray(weights[i].length, 4) + SkinHelper.sizeOfArray(jointIndices[i].length, 2);
+		}
+		return memory;
+	}
 	
 	/** Returns a deep copy of this SkinData. */
 	@Override
 	public SkinData clone() {
+		if (isPacked())
+			return new SkinData(packedWeights.clone(), packedJointIndices.clone());
 		return new SkinData(this.weights, this.jointIndices); 
 	}
 	
-	/** Returns a copy of weights array. */
+	/** Returns a copy of weights array. If packed, weights are unpacked. */
 	public float[][] getWeights() {
-		return copyWeights(weights);
+		if (!isPacked())
+			return copyWeights(weights);
+		
+		float[][] result = new float[packedWeights.length][Skeleton.MAX_JOINTS_PER_VERTEX];
+		short[] tmp = new short[Skeleton.MAX_JOINTS_PER_VERTEX];
+		for (int i = 0; i < result.length; i++) 
+			unpack(packedWeights[i], packedJointIndices[i], result[i], tmp);
+		return result;
 	}
 
-	/** Returns a copy of joint indices array. */
+	/** Returns a copy of joint indices array. If packed, joint indices are unpacked. */
 	public short[][] getJointIndices() {
-		return copyIndices(jointIndices);
+		if (!isPacked())
+			return copyIndices(jointIndices);
+		
+		short[][] result = new short[packedJointIndices.length][Skeleton.MAX_JOINTS_PER_VERTEX];
+		float[] tmp = new float[Skeleton.MAX_JOINTS_PER_VERTEX];
+		for (int i = 0; i < result.length; i++) 
+			unpack(packedWeights[i], packedJointIndices[i], tmp, result[i]);
+		return result;
+	}
+	
+	/** Returns true if weights and joint indices are packed. */
+	public boolean isPacked() {
+		return (packedWeights != null);
+	}
+	
+	/** 
+	 * <p>Returns a compacted copy of this skin. Influences whose weight is below threshold are dropped and 
+	 * remaining weights of each vertex are renormalized to sum to one. At most {@link Skeleton#MAX_JOINTS_PER_VERTEX} 
+	 * influences with highest weights are kept.</p>
+	 * 
+	 * <p>If all joint indices are below 256, result is packed: weights are quantized to 8 bits, so each weight
+	 * has an error of at most 1/510. Otherwise result has the pruned float weights.</p>
+	 * 
+	 * @param threshold minimum weight of an influence, for example 0.01. zero keeps all non-zero influences. 
+	 * */
+	public SkinData compact(float threshold) {
+		final int vertexCount = getVertexCount();
+		final int slots = Skeleton.MAX_JOINTS_PER_VERTEX;
+		
+		float[][] weights = new float[vertexCount][slots];
+		short[][] jointIndices = new short[vertexCount][slots];
+		boolean packable = true;
+		
+		for (int i = 0; i < vertexCount; i++) {
+			float[] w = weights[i];
+			short[] j = jointIndices[i];
+			
+			// insertion sort of influences by weight, descending
+			int count = 0;
+			for (int slot = 0; slot < getSlotCount(i); slot++) {
+				float weight = getWeight(i, slot);
+				if ((weight <= 0) || (weight < threshold))
+					continue;
+				int k = Math.min(count, slots - 1);
+				if ((count == slots) && (weight <= w[k]))
+					continue;
+				while ((k > 0) && (w[k - 1] < weight)) {
+					w[k] = w[k - 1];
+					j[k] = j[k - 1];
+					k--;
+				}
+				w[k] = weight;
+				j[k] = (short) getJointIndex(i, slot);
+				count = Math.min(count + 1, slots);
+			}
+			if (count == 0) {
+				// everything is pruned, keep strongest influence 
+				for (int slot = 0; slot < getSlotCount(i); slot++) {
+					if (getWeight(i, slot) > w[0]) {
+						w[0] = getWeight(i, slot);
+						j[0] = (short) getJointIndex(i, slot);
+						count = 1;
+					}
+				}
+			}
+			
+			float sum = 0;
+			for (int k = 0; k < count; k++) 
+				sum += w[k];
+			for (int k = 0; k < count; k++) {
+				w[k] /= sum;
+				if (j[k] > WEIGHT_LEVELS)
+					packable = false;
+			}
+		}
+		
+		if (!packable)
+			return new SkinData(weights, jointIndices);
+		
+		int[] packedWeights = new int[vertexCount];
+		int[] packedJointIndices = new int[vertexCount];
+		for (int i = 0; i < vertexCount; i++) {
+			float[] w = weights[i];
+			
+			// quantize so that weights sum up to exactly 255, rounding error goes to strongest influence 
+			int[] q = new int[slots];
+			int total = 0;
+			for (int k = 0; k < slots; k++) {
+				q[k] = Math.round(w[k] * WEIGHT_LEVELS);
+				total += q[k];
+			}
+			if (total != 0)
+				q[0] += WEIGHT_LEVELS - total;
+			
+			int pw = 0, pj = 0;
+			for (int k = 0; k < slots; k++) {
+				pw |= (q[k] & 0xFF) << (k * 8);
+				pj |= (jointIndices[i][k] & 0xFF) << (k * 8);
+			}
+			packedWeights[i] = pw;
+			packedJointIndices[i] = pj;
+		}
+		return new SkinData(packedWeights, packedJointIndices);
+	}
+	
+	/** returns number of vertices */
+	int getVertexCount() {
+		return isPacked() ? packedWeights.length : weights.length;
+	}
+	
+	/** returns number of influence slots of given vertex. some slots may have zero weight */
+	int getSlotCount(int vertex) {
+		return isPacked() ? Skeleton.MAX_JOINTS_PER_VERTEX : weights[vertex].length;
+	}
+	
+	float getWeight(int vertex, int slot) {
+		return isPacked() ? ((packedWeights[vertex] >>> (slot * 8)) & 0xFF) * WEIGHT_SCALE : weights[vertex][slot];
+	}
+	
+	int getJointIndex(int vertex, int slot) {
+		return isPacked() ? (packedJointIndices[vertex] >>> (slot * 8)) & 0xFF : jointIndices[vertex][slot];
+	}
+	
+	/** unpacks packed weights and joint indices of a vertex into given arrays */
+	static void unpack(int packedWeights, int packedJointIndices, float[] weights, short[] jointIndices) {
+		for (int slot = 0; slot < Skeleton.MAX_JOINTS_PER_VERTEX; slot++) {
+			weights[slot] = ((packedWeights >>> (slot * 8)) & 0xFF) * WEIGHT_SCALE;
+			jointIndices[slot] = (short) ((packedJointIndices >>> (slot * 8)) & 0xFF);
+		}
+	}
+	
+	/** 
+	 * returns a new skin whose vertices are remapped with given old to new vertex index map. 
+	 * vertices mapped to -1 are removed. if more than one vertex is mapped to same index, the last one is kept   
+	 * */
+	SkinData remap(int[] map, int newCount) {
+		if (isPacked()) {
+			int[] newWeights = new int[newCount];
+			int[] newJointIndices = new int[newCount];
+			for (int i = 0; i < map.length; i++) {
+				if (map[i] < 0)
+					continue;
+				newWeights[map[i]] = packedWeights[i];
+				newJointIndices[map[i]] = packedJointIndices[i];
+			}
+			return new SkinData(newWeights, newJointIndices);
+		}
+		
+		float[][] newWeights = new float[newCount][];
+		short[][] newJointIndices = new short[newCount][];
+		for (int i = 0; i < map.length; i++) {
+			if (map[i] < 0)
+				continue;
+			newWeights[map[i]] = weights[i];
+			newJointIndices[map[i]] = jointIndices[i];
+		}
+		return new SkinData(newWeights, newJointIndices);
 	}
 
 	void checkAlmostEqual(SkinData other) {
-		if (weights.length != other.weights.length)
+		if (getVertexCount() != other.getVertexCount())
 			throw new IllegalArgumentException("Number of vertices differ!");
 	}
 
-//	static SkinData readFromStream(java.io.ObjectInputStream in) throws IOException {
-//		if (in.readInt() == BonesIO.NULL)
-//			return null;
-//		return new SkinData(in);
-//	}
-//	
-//	static void writeToStream(SkinData object, java.io.ObjectOutputStream out) throws IOException {
-//		if (object == null) {
-//			out.writeInt(BonesIO.NULL);
-//		} else {
-//			out.writeInt(BonesIO.NON_NULL);
-//			
-//			BonesIO.writeFloat2Array(out, object.weights);
-//			BonesIO.writeShort2Array(out, object.jointIndices);
-//		}
-//	}
+	static SkinData readFromStream(java.io.DataInput in) throws IOException {
+		if (in.readInt() == BonesIO.NULL)
+			return null;
+		return new SkinData(in);
+	}
+	
+	static void writeToStream(SkinData object, java.io.DataOutput out) throws IOException {
+		if (object == null) {
+			out.writeInt(BonesIO.NULL);
+		} else {
+			out.writeInt(BonesIO.NON_NULL);
+			
+			if (object.isPacked()) {
+				out.writeInt(object.packedWeights.length);
+				out.writeInt(PACKED_STRIDE);
+				BonesIO.writeIntArray(out, object.packedWeights);
+				BonesIO.writeIntArray(out, object.packedJointIndices);
+				return;
+			}
+			
+			int vertexCount = object.weights.length;
+			int stride = 0;
+			for (int i = 0; i < vertexCount; i++) 
+				stride = Math.max(stride, Math.max(object.weights[i].length, object.jointIndices[i].length));
+			
+			// unused slots are left as zero weight
+			float[] flatWeights = new float[vertexCount * stride];
+			short[] flatIndices = new short[vertexCount * stride];
+			for (int i = 0; i < vertexCount; i++) {
+				System.arraycopy(object.weights[i], 0, flatWeights, i * stride, object.weights[i].length);
+				System.arraycopy(object.jointIndices[i], 0, flatIndices, i * stride, object.jointIndices[i].length);
+			}
+			
+			out.writeInt(vertexCount);
+			out.writeInt(stride);
+			BonesIO.writeFloatArray(out, flatWeights);
+			BonesIO.writeShortArray(out, flatIndices);
+		}
+	}
 	
 	private static float[][] copyWeights(float[][] weights) {
 		float[][] copy = new float[weights.length][];
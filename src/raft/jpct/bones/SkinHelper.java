@@ -13,6 +13,16 @@ import com.threed.jpct.SimpleVector;
  * */
 class SkinHelper {
 	
+	// rough sizes in bytes used for memory estimations. assumes a 64 bit VM with compressed references 
+	static final int REFERENCE_SIZE = 4;
+	static final int OBJECT_OVERHEAD = 16;
+	static final int ARRAY_OVERHEAD = 16;
+	static final int SIMPLE_VECTOR_SIZE = OBJECT_OVERHEAD + 3 * 4;
+	static final int QUATERNION_SIZE = OBJECT_OVERHEAD + 4 * 4;
+	// a jPCT matrix holds a float[4][4] and a reference to each row  
+	static final int MATRIX_SIZE = OBJECT_OVERHEAD + 5 * REFERENCE_SIZE 
+			+ ARRAY_OVERHEAD + 4 * REFERENCE_SIZE + 4 * (ARRAY_OVERHEAD + 4 * 4);
+	
 	private SkinHelper() {}
 	
 	/** clears translation information in given matrix */
@@ -167,6 +177,21 @@ class SkinHelper {
 			return max;
 		return value;
 	}
+	/** returns estimated size of an array of given length in bytes */
+	public static long sizeOfArray(int length, int elementSize) {
+		return ARRAY_OVERHEAD + (long) length * elementSize;
+	}
+	
+	/** returns estimated size of given string in bytes */
+	public static long sizeOf(String s) {
+		return (s == null) ? 0 : OBJECT_OVERHEAD + REFERENCE_SIZE + sizeOfArray(s.length(), 2);
+	}
+	
+	/** returns estimated size of given SimpleVector array in bytes, including vectors */
+	public static long sizeOf(SimpleVector[] array) {
+		return (array == null) ? 0 : sizeOfArray(array.length, REFERENCE_SIZE + SIMPLE_VECTOR_SIZE);
+	}
+	
 	public static Matrix getScaleMatrix(float scale) {
 		return getScaleMatrix(scale, scale, scale);
 	}
@@ -12,6 +12,8 @@ import java.util.NoSuchElementException;
 import raft.jpct.bones.AnimatedGroup;
 import raft.jpct.bones.BonesIO;
 import raft.jpct.bones.BonesImporter;
+import raft.jpct.bones.ColladaXmlImporter;
+import raft.jpct.bones.GroupWriter;
 import raft.jpct.bones.Quaternion;
 
 import com.ardor3d.extension.model.collada.jdom.ColladaImporter;
@@ -21,8 +23,8 @@ import com.ardor3d.util.resource.SimpleResourceLocator;
 import com.threed.jpct.Logger;
 
 /** 
- * <p>Utility class to import Collada skins via Ardor3D's collada loader. 
- * Can also be used as a command line tool. Use the script in scripts folder to use from command line.</p>
+ * <p>Utility class to import Collada skins via Ardor3D's collada loader, or optionally by reading xml files directly 
+ * without Ardor3D. Can also be used as a command line tool. Use the script in scripts folder to use from command line.</p>
  *  
  * @author hakan eryargi (r a f t)
  */
@@ -33,6 +35,10 @@ public class ArdorColladaImporter {
 	private final float scale;
 	private final Quaternion rotation;
 	private boolean mergeAnimations = true;
+	private boolean streaming = false;
+	private boolean incremental = false;
+	private boolean useNative = false;
+	private final MeshOptions meshOptions = new MeshOptions();
 	
 	/** 
 	 * Creates a new importer with given parameters.
@@ -65,8 +71,102 @@ public class ArdorColladaImporter {
 		return this;
 	}
 	
+	/** <p>Sets streaming mode. In streaming mode, skeleton and objects of first file are written once, 
+	 * then animations of each file are appended to out file as soon as the file is imported. So only one input 
+	 * file is in memory at a time. Streaming requires animations to be merged and an out file.</p>
+	 *  
+	 * @param streaming write animations as they are imported
+	 * @return this for chaining 
+	 * @see GroupWriter */
+	public ArdorColladaImporter setStreaming(boolean streaming) {
+		this.streaming = streaming;
+		return this;
+	}
+	
+	/** <p>Sets incremental mode. In incremental mode, content hashes of input files, import parameters 
+	 * and importer version are saved next to out file. Import is skipped if they are not changed since last import.</p>
+	 *  
+	 * @param incremental skip import if out file is up to date
+	 * @return this for chaining */
+	public ArdorColladaImporter setIncremental(boolean incremental) {
+		this.incremental = incremental;
+		return this;
+	}
+	
+	/** <p>Sets if collada files are read directly with StAX instead of Ardor3D's collada loader. 
+	 * Ardor3D libraries are not required in native mode.</p>
+	 *  
+	 * @param useNative read collada files without Ardor3D
+	 * @return this for chaining 
+	 * @see ColladaXmlImporter */
+	public ArdorColladaImporter setNative(boolean useNative) {
+		this.useNative = useNative;
+		return this;
+	}
+	
+	/** <p>Sets if meshes are optimized. If set, unused vertices are removed and duplicate ones are welded.</p>
+	 *  
+	 * @param optimize optimize meshes of imported groups
+	 * @return this for chaining 
+	 * @see BonesImporter#optimizeMeshes(AnimatedGroup) */
+	public ArdorColladaImporter setOptimize(boolean optimize) {
+		meshOptions.optimize = optimize;
+		return this;
+	}
+	
+	/** <p>Sets if meshes are reordered for vertex cache locality. Polygons are reordered, then vertices by their first use.</p>
+	 *  
+	 * @param reorder reorder meshes of imported groups
+	 * @return this for chaining 
+	 * @see BonesImporter#reorderMeshes(AnimatedGroup, boolean) */
+	public ArdorColladaImporter setReorder(boolean reorder) {
+		meshOptions.reorder = reorder;
+		return this;
+	}
+	
+	/** <p>Sets if polygons are grouped by their dominant joint while reordering. Implies reordering.</p>
+	 *  
+	 * @param clusterJoints group polygons by joint
+	 * @return this for chaining 
+	 * @see BonesImporter#reorderMeshes(AnimatedGroup, boolean) */
+	public ArdorColladaImporter setClusterJoints(boolean clusterJoints) {
+		meshOptions.clusterJoints = clusterJoints;
+		return this;
+	}
+	
+	/** <p>Sets if skins are compacted. Influences below threshold are dropped and weights are packed into 8 bits.</p>
+	 *  
+	 * @param weightThreshold minimum weight of an influence. negative disables compaction, which is the default
+	 * @return this for chaining 
+	 * @see BonesImporter#compactSkins(AnimatedGroup, float) */
+	public ArdorColladaImporter setCompactSkin(float weightThreshold) {
+		meshOptions.weightThreshold = weightThreshold;
+		return this;
+	}
+	
 	/** Executes the importer. */
 	public void run() throws Exception {
+		ImportStamp stamp = null;
+		if (incremental && (outFile != null)) {
+			stamp = new ImportStamp(inputFiles, stampParams(scale, rotation, mergeAnimations, streaming, useNative, meshOptions));
+			if (stamp.isUpToDate(outFile)) {
+				Logger.log("Up to date, skipping " + outFile, Logger.MESSAGE);
+				return;
+			}
+			ImportStamp.delete(outFile);
+		}
+		
+		if (streaming) {
+			runStreaming();
+		} else {
+			runInMemory();
+		}
+		
+		if (stamp != null)
+			stamp.write(outFile);
+	}
+	
+	private void runInMemory() throws Exception {
 		final AnimatedGroup group = loadGroup();
 		
 		if (outFile != null) {
@@ -84,6 +184,28 @@ public class ArdorColladaImporter {
 		}
 	}
 	
+	private void runStreaming() throws Exception {
+		if (outFile == null)
+			throw new IllegalStateException("Streaming requires an out file");
+		if (!mergeAnimations)
+			throw new IllegalStateException("Streaming can only merge animations");
+		if (outFile.isDirectory())
+			throw new IllegalArgumentException("Out file is a directory: " + outFile);
+		Helper.createParentDirs(outFile);
+		
+		FileOutputStream fos = new FileOutputStream(outFile);
+		try {
+			GroupWriter writer = new GroupWriter(loadGroup(inputFiles.get(0)), fos);
+			for (File input : inputFiles.subList(1, inputFiles.size())) {
+				writer.addClips(loadGroup(input));
+			}
+			writer.finish();
+			Logger.log("Saved bones-group with " + writer.getClipCount() + " skin animation(s) to " + outFile, Logger.MESSAGE);
+		} finally {
+			fos.close();
+		}
+	}
+	
 	private AnimatedGroup loadGroup() throws Exception { 
 		if (inputFiles.size() == 1) {
 			return loadGroup(inputFiles.get(0));
@@ -105,41 +227,93 @@ public class ArdorColladaImporter {
 	}
 	
 	private AnimatedGroup loadGroup(File colladaFile) throws Exception {
-		URI uri = colladaFile.toURI();
+		return importFile(colladaFile, scale, rotation, useNative, meshOptions);
+	}
+	
+	/** imports a single file. used by batch mode too, so can be called concurrently */
+	static AnimatedGroup importFile(File colladaFile, float scale, Quaternion rotation, boolean useNative, 
+			MeshOptions meshOptions) throws Exception {
 		
-        final SimpleResourceLocator resLocater = new SimpleResourceLocator(uri.resolve("./"));
-        ResourceLocatorTool.addResourceLocator(ResourceLocatorTool.TYPE_MODEL, resLocater);
-        
-		try {
-			ColladaImporter colladaImporter = new ColladaImporter().loadTextures(false);
-			ColladaStorage colladaStorage = colladaImporter.load(uri.toString());
-			
-			AnimatedGroup group = BonesImporter.importCollada(colladaStorage, scale, rotation);
-			
-			int skinAnims = (group.getSkinClipSequence() == null) ? 0 : group.getSkinClipSequence().getSize();
-			//int poseAnims = (group.getPoseClipSequence() == null) ? 0 : group.getPoseClipSequence().getSize();
-			
-			Logger.log(MessageFormat.format("Loaded collada file: {0}, scale: {1}, rotation: {2}\n" +
-					"\t{3} sub objects, {4} skin animation(s)", 
-					colladaFile, scale, rotation, group.getSize(), skinAnims), Logger.MESSAGE);
+		AnimatedGroup group = useNative ? ColladaXmlImporter.importGroup(colladaFile.toURI().toURL(), scale, rotation)
+				: ArdorLoader.load(colladaFile, scale, rotation);
+		group = meshOptions.apply(group);
+		
+		int skinAnims = (group.getSkinClipSequence() == null) ? 0 : group.getSkinClipSequence().getSize();
+		//int poseAnims = (group.getPoseClipSequence() == null) ? 0 : group.getPoseClipSequence().getSize();
+		
+		Logger.log(MessageFormat.format("Loaded collada file: {0}, scale: {1}, rotation: {2}\n" +
+				"\t{3} sub objects, {4} skin animation(s)", 
+				colladaFile, scale, rotation, group.getSize(), skinAnims), Logger.MESSAGE);
+		
+		return group;
+	}
+	
+	/** loads with Ardor3D. in a separate class, so Ardor3D is not required in native mode */
+	private static class ArdorLoader {
+		private static AnimatedGroup load(File colladaFile, float scale, Quaternion rotation) throws Exception {
+			URI uri = colladaFile.toURI();
 			
-			return group;
-		} finally {
-			ResourceLocatorTool.removeResourceLocator(ResourceLocatorTool.TYPE_MODEL, resLocater);
+	        final SimpleResourceLocator resLocater = new SimpleResourceLocator(uri.resolve("./"));
+	        ResourceLocatorTool.addResourceLocator(ResourceLocatorTool.TYPE_MODEL, resLocater);
+	        
+			try {
+				ColladaImporter colladaImporter = new ColladaImporter().loadTextures(false);
+				ColladaStorage colladaStorage = colladaImporter.load(uri.toString());
+				
+				return BonesImporter.importCollada(colladaStorage, scale, rotation);
+			} finally {
+				ResourceLocatorTool.removeResourceLocator(ResourceLocatorTool.TYPE_MODEL, resLocater);
+			}
 		}
 	}
+	
+	/** returns description of import parameters, including the loader used */
+	private static String stampParams(float scale, Quaternion rotation, boolean mergeAnimations, boolean streaming, 
+			boolean useNative, MeshOptions meshOptions) {
+		return ImportStamp.params(ArdorColladaImporter.class, scale, rotation, mergeAnimations, streaming, meshOptions) 
+				+ " native=" + useNative;
+	}
 
 	private static void printUsage(PrintStream ps) {
         ps.println("usage: ArdorColladaImporter [options] -in <collada file> [collada file...]");
+        ps.println("       ArdorColladaImporter [options] -batch <directory|manifest> [-outDir <directory>] [-threads <count>]");
         ps.println("options:");
         ps.println("    -out <destination file>                         : destination file to write");
         ps.println("    -scale <scale>                                  : loading scale, default 1");
         ps.println("    -rotation <<x|y|zdegrees>[,x|y|zdegrees]...>    : loading rotation, default none (sample: x180,y180)");
         ps.println("    -mergeGroups                                    : merge groups if many input files are given. by default animations are merged");
+        ps.println("    -stream                                         : write animations as each file is imported, requires -out");
+        ps.println("    -batch <directory|manifest>                     : convert all .dae files in directory, or files listed in manifest");
+        ps.println("                                                      manifest lines are: <destination file> <input file> [input file...]");
+        ps.println("    -outDir <directory>                             : destination directory in batch mode, default is input directory");
+        ps.println("    -threads <count>                                : number of files converted concurrently in batch mode, default number of CPUs");
+        ps.println("    -native                                         : read collada files directly, without Ardor3D");
+        ps.println("    -incremental                                    : skip files whose inputs and parameters are not changed since last import");
+        ps.println("    -optimize                                       : remove unused vertices and weld duplicate ones");
+        ps.println("    -reorder                                        : reorder polygons and vertices for vertex cache locality");
+        ps.println("    -clusterJoints                                  : reorder grouping polygons by the joint effecting them most");
+        ps.println("    -compactSkin <threshold>                        : drop skin weights below threshold and pack them into 8 bits");
         ps.println("    -h | -help                                      : print help");
         ps.println("    -log <logLevel: VERBOSE*|WARNING|ERROR>         : set log level");
     }
 
+	/** 
+	 * converts files in given directory or manifest concurrently. returns number of failed files 
+	 * @see BatchImport 
+	 * */
+	static int runBatch(File batch, File outDir, int threads, final float scale, final Quaternion rotation, 
+			boolean mergeAnimations, boolean incremental, final boolean useNative, final MeshOptions meshOptions) throws Exception {
+		List<BatchImport.Job> jobs = BatchImport.readJobs(batch, ".dae", outDir);
+		String stampParams = incremental ? stampParams(scale, rotation, mergeAnimations, false, useNative, meshOptions) : null;
+		
+		return new BatchImport(jobs, threads, mergeAnimations, stampParams) {
+			@Override
+			AnimatedGroup importFile(File file) throws Exception {
+				return ArdorColladaImporter.importFile(file, scale, rotation, useNative, meshOptions);
+			}
+		}.run();
+	}
+
 	/** Command line entry method. */
 	public static void main(String[] args) throws Exception {
 		ComLineArgs comLine = new ComLineArgs(args);
@@ -152,6 +326,27 @@ public class ArdorColladaImporter {
         if (comLine.containsArg("-log"))
         	Helper.setLogLevel(comLine.getArg("-log"));
 
+        float scale = comLine.containsArg("-scale") ? Float.parseFloat(comLine.getArg("-scale")) : 1f;
+        Quaternion rotation = comLine.containsArg("-rotation") ? 
+        		Helper.parseRotation(comLine.getArg("-rotation")) : null; 
+        
+        boolean mergeAnimations = !comLine.containsArg("-mergeGroups");
+        boolean incremental = comLine.containsArg("-incremental");
+        boolean useNative = comLine.containsArg("-native");
+        MeshOptions meshOptions = MeshOptions.parse(comLine);
+        
+        if (comLine.containsArg("-batch")) {
+        	File batch = new File(comLine.getArg("-batch"));
+        	File outDir = comLine.containsArg("-outDir") ? new File(comLine.getArg("-outDir")) : null;
+        	int threads = comLine.containsArg("-threads") ? 
+        			Integer.parseInt(comLine.getArg("-threads")) : Runtime.getRuntime().availableProcessors();
+        	
+            if (comLine.isUnconsumed())
+                throw new IllegalArgumentException("Unknown args: " + comLine.getUnconsumed());
+            
+            System.exit(runBatch(batch, outDir, threads, scale, rotation, mergeAnimations, incremental, useNative, meshOptions) == 0 ? 0 : 1);
+        }
+        
         List<File> inputFiles = new LinkedList<File>();
         inputFiles.add(new File(comLine.getArg("-in")));
         
@@ -164,16 +359,14 @@ public class ArdorColladaImporter {
         }
         
         File outFile = comLine.containsArg("-out") ? new File(comLine.getArg("-out")) : null;
-        float scale = comLine.containsArg("-scale") ? Float.parseFloat(comLine.getArg("-scale")) : 1f;
-        Quaternion rotation = comLine.containsArg("-rotation") ? 
-        		Helper.parseRotation(comLine.getArg("-rotation")) : null; 
+        boolean streaming = comLine.containsArg("-stream");
         
-        boolean mergeAnimations = !comLine.containsArg("-mergeGroups");
-        		
         if (comLine.isUnconsumed())
             throw new IllegalArgumentException("Unknown args: " + comLine.getUnconsumed());
         
-        new ArdorColladaImporter(outFile, inputFiles, scale, rotation).setMergeAnimations(mergeAnimations).run();
+        new ArdorColladaImporter(outFile, inputFiles, scale, rotation).setMergeAnimations(mergeAnimations).setStreaming(streaming).setIncremental(incremental)
+        		.setNative(useNative).setOptimize(meshOptions.optimize).setReorder(meshOptions.reorder).setClusterJoints(meshOptions.clusterJoints)
+        		.setCompactSkin(meshOptions.weightThreshold).run();
 //        new ArdorColladaImporter(outFile, inputFiles, scale, rotation).run();
         
 	}
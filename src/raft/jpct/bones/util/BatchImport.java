@@ -0,0 +1,338 @@
+package raft.jpct.bones.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import raft.jpct.bones.AnimatedGroup;
+import raft.jpct.bones.BonesIO;
+import raft.jpct.bones.SkinClipSequence;
+
+import com.threed.jpct.Logger;
+
+/**
+ * <p>Converts many files concurrently within one JVM. Each job converts one or more input files into
+ * one bones file. Input files referenced by more than one job are imported only once and released
+ * when last job using them is done.</p>
+ *
+ * <p>Jobs are either read from a manifest file or created for each matching file in a directory.
+ * Each line of a manifest is an out file followed by its input files, separated by whitespace.
+ * Paths are relative to manifest's directory. Empty lines and lines starting with # are ignored.</p>
+ *
+ * <p>If stamp parameters are given, jobs whose out file is up to date are skipped.</p>
+ *
+ * @author hakan eryargi (r a f t)
+ */
+abstract class BatchImport {
+
+	/** a conversion of input files to an out file */
+	static class Job {
+		final File outFile;
+		final List<File> inputFiles;
+
+		Job(File outFile, List<File> inputFiles) {
+			if (inputFiles.isEmpty())
+				throw new IllegalArgumentException("No input files for " + outFile);
+			this.outFile = outFile;
+			this.inputFiles = inputFiles;
+		}
+	}
+
+	private final List<Job> jobs;
+	private final int threads;
+	private final boolean mergeAnimations;
+	private final String stampParams;
+	private final AtomicInteger skipped = new AtomicInteger();
+
+	/** imported groups by input file, shared among jobs */
+	private final Map<File, SharedGroup> groups = new HashMap<File, SharedGroup>();
+
+	/**
+	 * @param threads maximum number of files converted at the same time
+	 * @param mergeAnimations merge animations or groups of jobs with many input files
+	 * @param stampParams description of import parameters. if not null, up to date jobs are skipped
+	 * @see ImportStamp
+	 * */
+	BatchImport(List<Job> jobs, int threads, boolean mergeAnimations, String stampParams) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads: " + threads);
+
+		this.jobs = jobs;
+		this.threads = threads;
+		this.mergeAnimations = mergeAnimations;
+		this.stampParams = stampParams;
+
+		for (Job job : jobs) {
+			for (File input : job.inputFiles) {
+				File key = input.getAbsoluteFile();
+				SharedGroup shared = groups.get(key);
+				if (shared == null) {
+					shared = new SharedGroup(key);
+					groups.put(key, shared);
+				}
+				shared.users++;
+			}
+		}
+	}
+
+	/** imports a single file. called concurrently from pool threads */
+	abstract AnimatedGroup importFile(File file) throws Exception;
+
+	/** returns files to be stamped for given input files. default implementation returns input files as is */
+	List<File> stampInputs(List<File> inputFiles) throws IOException {
+		return inputFiles;
+	}
+
+	/** Runs all jobs, prints timing of each and a summary. Returns number of failed jobs. */
+	int run() throws InterruptedException {
+		Logger.log(MessageFormat.format("Converting {0} file(s) with {1} thread(s)", jobs.size(), threads), Logger.MESSAGE);
+
+		final long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Long>> results = new ArrayList<Future<Long>>(jobs.size());
+		try {
+			for (final Job job : jobs) {
+				results.add(executor.submit(new Callable<Long>() {
+					public Long call() throws Exception {
+						return convert(job);
+					}
+				}));
+			}
+
+			int failed = 0;
+			long totalTime = 0;
+			for (int i = 0; i < jobs.size(); i++) {
+				try {
+					totalTime += results.get(i).get();
+				} catch (ExecutionException e) {
+					failed++;
+					Logger.log(MessageFormat.format("Failed {0}: {1}", jobs.get(i).outFile, e.getCause()), Logger.WARNING);
+				}
+			}
+
+			int imports = 0;
+			for (SharedGroup shared : groups.values())
+				if (shared.imported) imports++;
+
+			long wallTime = (System.nanoTime() - start) / 1000000;
+			Logger.log(MessageFormat.format("Converted {0} of {1} file(s) in {2,number,#} ms, total job time {3,number,#} ms, " +
+					"{4} input file(s) imported, {5} up to date, {6} failed",
+					jobs.size() - failed - skipped.get(), jobs.size(), wallTime, totalTime, imports, skipped.get(), failed), Logger.MESSAGE);
+			return failed;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** converts a job and returns elapsed time in millis */
+	private long convert(Job job) throws Exception {
+		final long start = System.nanoTime();
+
+		ImportStamp stamp = null;
+		if (stampParams != null) {
+			stamp = new ImportStamp(stampInputs(job.inputFiles), stampParams);
+			if (stamp.isUpToDate(job.outFile)) {
+				for (File input : job.inputFiles) {
+					groups.get(input.getAbsoluteFile()).release();
+				}
+				skipped.incrementAndGet();
+				Logger.log("Up to date, skipping " + job.outFile, Logger.MESSAGE);
+				return (System.nanoTime() - start) / 1000000;
+			}
+			ImportStamp.delete(job.outFile);
+		}
+
+		List<AnimatedGroup> loaded = new ArrayList<AnimatedGroup>(job.inputFiles.size());
+		try {
+			for (File input : job.inputFiles) {
+				loaded.add(groups.get(input.getAbsoluteFile()).get());
+			}
+
+			AnimatedGroup group;
+			if (loaded.size() == 1) {
+				group = loaded.get(0);
+			} else if (mergeAnimations) {
+				group = AnimatedGroup.mergeAnimations(loaded.toArray(new AnimatedGroup[loaded.size()]));
+			} else {
+				// mergeGroups modifies objects and clips of given groups, so it's given copies of shared groups
+				AnimatedGroup[] copies = new AnimatedGroup[loaded.size()];
+				for (int i = 0; i < copies.length; i++) {
+					copies[i] = copyOf(loaded.get(i));
+				}
+				group = AnimatedGroup.mergeGroups(copies);
+			}
+
+			Helper.createParentDirs(job.outFile);
+			FileOutputStream fos = new FileOutputStream(job.outFile);
+			try {
+				BonesIO.saveGroup(group, fos);
+			} finally {
+				fos.close();
+			}
+			if (stamp != null)
+				stamp.write(job.outFile);
+		} finally {
+			for (File input : job.inputFiles) {
+				groups.get(input.getAbsoluteFile()).release();
+			}
+		}
+
+		long time = (System.nanoTime() - start) / 1000000;
+		Logger.log(MessageFormat.format("Converted {0} in {1,number,#} ms", job.outFile, time), Logger.MESSAGE);
+		return time;
+	}
+
+	/** returns a copy of given group whose objects and skin clips can be modified without effecting given group */
+	private static AnimatedGroup copyOf(AnimatedGroup group) {
+		AnimatedGroup copy = group.clone(AnimatedGroup.MESH_DONT_REUSE);
+		// clone does not copy names
+		for (int i = 0; i < group.getSize(); i++) {
+			copy.get(i).setName(group.get(i).getName());
+		}
+		SkinClipSequence clips = group.getSkinClipSequence();
+		if (clips != null) {
+			SkinClipSequence clipsCopy = SkinClipSequence.merge(clips);
+			// neither does merge
+			for (int i = 0; i < clips.getSize(); i++) {
+				clipsCopy.getClip(i).setName(clips.getClip(i).getName());
+			}
+			copy.setSkinClipSequence(clipsCopy);
+		}
+		return copy;
+	}
+
+	/**
+	 * creates a job for each file in directory and its sub directories whose name ends with given suffix.
+	 * out files are placed in outDir at the same relative path, or next to input files if outDir is null
+	 * */
+	static List<Job> scanDirectory(File dir, String suffix, File outDir) throws IOException {
+		if (!dir.isDirectory())
+			throw new IOException("Not a directory: " + dir);
+		List<Job> jobs = new ArrayList<Job>();
+		scanDirectory(dir, suffix, (outDir == null) ? dir : outDir, jobs);
+		return jobs;
+	}
+
+	private static void scanDirectory(File dir, String suffix, File outDir, List<Job> jobs) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null)
+			throw new IOException("Couldnt list " + dir);
+
+		for (File file : files) {
+			if (file.isDirectory()) {
+				scanDirectory(file, suffix, new File(outDir, file.getName()), jobs);
+			} else if (file.getName().endsWith(suffix)) {
+				String name = file.getName();
+				File outFile = new File(outDir, name.substring(0, name.length() - suffix.length()) + ".bones");
+				jobs.add(new Job(outFile, Collections.singletonList(file)));
+			}
+		}
+	}
+
+	/** reads jobs from given manifest file */
+	static List<Job> readManifest(File manifest) throws IOException {
+		File dir = manifest.getAbsoluteFile().getParentFile();
+		List<Job> jobs = new ArrayList<Job>();
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if ((line.length() == 0) || line.startsWith("#"))
+					continue;
+
+				String[] parts = line.split("\\s+");
+				if (parts.length < 2)
+					throw new IOException(MessageFormat.format("No input files at {0}:{1}", manifest, lineNumber));
+
+				List<File> inputs = new ArrayList<File>(parts.length - 1);
+				for (int i = 1; i < parts.length; i++) {
+					inputs.add(resolve(dir, parts[i]));
+				}
+				jobs.add(new Job(resolve(dir, parts[0]), inputs));
+			}
+		} finally {
+			reader.close();
+		}
+		return jobs;
+	}
+
+	private static File resolve(File dir, String path) {
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(dir, path);
+	}
+
+	/** reads jobs from given manifest file or directory */
+	static List<Job> readJobs(File batch, String suffix, File outDir) throws IOException {
+		return batch.isDirectory() ? scanDirectory(batch, suffix, outDir) : readManifest(batch);
+	}
+
+	/** a group imported on demand by first job needing it and released after last one */
+	private class SharedGroup {
+		private final File file;
+		private int users = 0;
+		private boolean imported = false;
+		private FutureTask<AnimatedGroup> task;
+
+		private SharedGroup(File file) {
+			this.file = file;
+		}
+
+		/** imports group if necessary, or waits for the job importing it */
+		private AnimatedGroup get() throws Exception {
+			FutureTask<AnimatedGroup> task;
+			boolean owner = false;
+			synchronized (this) {
+				if (this.task == null) {
+					this.task = new FutureTask<AnimatedGroup>(new Callable<AnimatedGroup>() {
+						public AnimatedGroup call() throws Exception {
+							long start = System.nanoTime();
+							AnimatedGroup group = importFile(file);
+							Logger.log(MessageFormat.format("Imported {0} in {1,number,#} ms",
+									file, (System.nanoTime() - start) / 1000000), Logger.MESSAGE);
+							return group;
+						}
+					});
+					imported = true;
+					owner = true;
+				}
+				task = this.task;
+			}
+			if (owner)
+				task.run();
+
+			try {
+				return task.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				throw e;
+			}
+		}
+
+		/** called by each job when done. forgets group after last job */
+		private synchronized void release() {
+			if (--users == 0)
+				task = null;
+		}
+	}
+}
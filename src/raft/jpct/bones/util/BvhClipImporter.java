@@ -0,0 +1,126 @@
+package raft.jpct.bones.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import raft.jpct.bones.AnimatedGroup;
+import raft.jpct.bones.BonesIO;
+import raft.jpct.bones.BvhImporter;
+import raft.jpct.bones.GroupWriter;
+import raft.jpct.bones.Quaternion;
+
+import com.threed.jpct.Logger;
+
+/**
+ * <p>Utility class to add motion capture data in BVH files to a bones group as skin animations.
+ * Can also be used as a command line tool. Use the script in scripts folder to use from command line.</p>
+ *
+ * <p>Group's skeleton and objects are copied to out file, then each BVH file is streamed into it,
+ * so long motions can be imported with little memory.</p>
+ *
+ * @see BvhImporter
+ * @author hakan eryargi (r a f t)
+ */
+public class BvhClipImporter {
+
+	private final File groupFile;
+	private final File outFile;
+	private final List<File> inputFiles;
+	private final float scale;
+	private final Quaternion rotation;
+
+	/**
+	 * Creates a new importer with given parameters.
+	 *
+	 * @param groupFile bones group whose skeleton is animated by BVH files
+	 * @param outFile destination file to write bones group. Cannot be same as group file
+	 * @param inputFiles list of BVH files. There must be at least one.
+	 * @param scale the scaling of motion, should be same as the one group is imported with
+	 * @param rotation the rotation applied while loading, should be same as the one group is imported with
+	 *
+	 * @see BvhImporter#writeClip(java.net.URL, GroupWriter, float, Quaternion)
+	 * */
+	public BvhClipImporter(File groupFile, File outFile, List<File> inputFiles, float scale, Quaternion rotation) {
+		if (inputFiles.isEmpty())
+			throw new IllegalArgumentException("No input files");
+
+		this.groupFile = groupFile;
+		this.outFile = outFile;
+		this.inputFiles = inputFiles;
+		this.scale  = scale;
+		this.rotation = rotation;
+	}
+
+	/** Executes the importer. */
+	public void run() throws Exception {
+		if (outFile.isDirectory())
+			throw new IllegalArgumentException("Out file is a directory: " + outFile);
+		if (outFile.getCanonicalFile().equals(groupFile.getCanonicalFile()))
+			throw new IllegalArgumentException("Out file cannot be same as group file: " + outFile);
+
+		AnimatedGroup group = BonesIO.loadGroup(groupFile);
+		Helper.createParentDirs(outFile);
+
+		FileOutputStream fos = new FileOutputStream(outFile);
+		try {
+			GroupWriter writer = new GroupWriter(group, fos);
+			for (File input : inputFiles) {
+				BvhImporter.writeClip(input.toURI().toURL(), writer, scale, rotation);
+				Logger.log("Imported bvh file: " + input, Logger.MESSAGE);
+			}
+			writer.finish();
+			Logger.log("Saved bones-group with " + writer.getClipCount() + " skin animation(s) to " + outFile, Logger.MESSAGE);
+		} finally {
+			fos.close();
+		}
+	}
+
+	private static void printUsage(PrintStream ps) {
+        ps.println("usage: BvhClipImporter [options] -group <bones file> -out <destination file> -in <file.bvh> [file.bvh...]");
+        ps.println("options:");
+        ps.println("    -scale <scale>                                  : loading scale, default 1");
+        ps.println("    -rotation <<x|y|zdegrees>[,x|y|zdegrees]...>    : loading rotation, default none (sample: x180,y180)");
+        ps.println("    -h | -help                                      : print help");
+        ps.println("    -log <logLevel: VERBOSE*|WARNING|ERROR>         : set log level");
+    }
+
+	/** Command line entry method. */
+	public static void main(String[] args) throws Exception {
+		ComLineArgs comLine = new ComLineArgs(args);
+
+        if (comLine.isEmpty() || comLine.containsArg("-h") || comLine.containsArg("-help")) {
+            printUsage(System.out);
+            System.exit(0);
+        }
+
+        if (comLine.containsArg("-log"))
+        	Helper.setLogLevel(comLine.getArg("-log"));
+
+        float scale = comLine.containsArg("-scale") ? Float.parseFloat(comLine.getArg("-scale")) : 1f;
+        Quaternion rotation = comLine.containsArg("-rotation") ?
+        		Helper.parseRotation(comLine.getArg("-rotation")) : null;
+
+        File groupFile = new File(comLine.getArg("-group"));
+        File outFile = new File(comLine.getArg("-out"));
+
+        List<File> inputFiles = new ArrayList<File>();
+        inputFiles.add(new File(comLine.getArg("-in")));
+
+        for (int i = 1;; i++) {
+        	try {
+        		inputFiles.add(new File(comLine.getArg("-in", i)));
+        	} catch (NoSuchElementException e) {
+        		break;
+        	}
+        }
+
+        if (comLine.isUnconsumed())
+            throw new IllegalArgumentException("Unknown args: " + comLine.getUnconsumed());
+
+        new BvhClipImporter(groupFile, outFile, inputFiles, scale, rotation).run();
+	}
+}
@@ -0,0 +1,136 @@
+package raft.jpct.bones.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import raft.jpct.bones.BonesIO;
+import raft.jpct.bones.Quaternion;
+
+/**
+ * <p>Records what an out file is imported from: content hashes of input files, import parameters and
+ * version of importer. Stamp is saved next to out file, so importing again can be skipped if nothing
+ * has changed.</p>
+ *
+ * @author hakan eryargi (r a f t)
+ */
+class ImportStamp {
+
+	/** increase when importers produce different output for same input */
+	// 2: Ogre poses on shared geometry are kept separate per sub mesh
+	static final int IMPORTER_VERSION = 2;
+
+	private static final String CHARSET = "UTF-8";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String content;
+
+	/**
+	 * creates a stamp for given inputs and parameters. all inputs are read and hashed.
+	 *
+	 * @param inputs input files including files they refer to, like skeletons
+	 * @param params description of import parameters
+	 * */
+	ImportStamp(List<File> inputs, String params) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("# bones import stamp\n");
+		sb.append("importer ").append(IMPORTER_VERSION).append(" format ").append(BonesIO.getFormatVersion()).append('\n');
+		sb.append("params ").append(params).append('\n');
+		for (File input : inputs) {
+			sb.append("input ").append(hash(input)).append(' ').append(input.getAbsolutePath()).append('\n');
+		}
+		this.content = sb.toString();
+	}
+
+	/** returns description of import parameters */
+	static String params(Class<?> importer, float scale, Quaternion rotation, boolean mergeAnimations, 
+			boolean streaming, MeshOptions meshOptions) {
+		return importer.getSimpleName() + " scale=" + scale + " rotation=" + rotation 
+				+ " mergeAnimations=" + mergeAnimations + " streaming=" + streaming + " " + meshOptions;
+	}
+
+	/** returns the stamp file of given out file */
+	static File stampFile(File outFile) {
+		return new File(outFile.getPath() + ".stamp");
+	}
+
+	/** returns true if out file exists and its stamp is same as this one */
+	boolean isUpToDate(File outFile) throws IOException {
+		File stampFile = stampFile(outFile);
+		if (!outFile.isFile() || !stampFile.isFile())
+			return false;
+		return content.equals(new String(readFully(stampFile), CHARSET));
+	}
+
+	/** writes this stamp next to given out file */
+	void write(File outFile) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(stampFile(outFile)), CHARSET);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/** deletes stamp of given out file if any, so a failed import is not taken as up to date */
+	static void delete(File outFile) throws IOException {
+		File stampFile = stampFile(outFile);
+		if (stampFile.exists() && !stampFile.delete())
+			throw new IOException("Couldnt delete " + stampFile);
+	}
+
+	private static String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int count;
+			while ((count = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, count);
+			}
+		} finally {
+			in.close();
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private static byte[] readFully(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[(int) file.length()];
+			int offset = 0;
+			while (offset < bytes.length) {
+				int count = in.read(bytes, offset, bytes.length - offset);
+				if (count < 0)
+					break;
+				offset += count;
+			}
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Returns string representation. */
+	@Override
+	public String toString() {
+		return content;
+	}
+}
@@ -1,17 +1,26 @@
 package raft.jpct.bones.util;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.net.URL;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import raft.jpct.bones.BonesIO;
 import raft.jpct.bones.AnimatedGroup;
 import raft.jpct.bones.BonesImporter;
+import raft.jpct.bones.GroupWriter;
+import raft.jpct.bones.OgreXmlImporter;
 import raft.jpct.bones.Quaternion;
 
 import com.jmex.model.ogrexml.OgreEntityNode;
@@ -19,18 +28,26 @@ import com.jmex.model.ogrexml.OgreLoader;
 import com.threed.jpct.Logger;
 
 /** 
- * <p>Utility class to import Ogre3D skins via jME's ogrexml loader. 
- * Can also be used as a command line tool. Use the script in scripts folder to use from command line.</p>
+ * <p>Utility class to import Ogre3D skins via jME's ogrexml loader, or optionally by reading xml files directly 
+ * without jME. Can also be used as a command line tool. Use the script in scripts folder to use from command line.</p>
  *  
  * @author hakan eryargi (r a f t)
  */
 public class JMEOgreImporter {
 	
+	private static final Pattern SKELETON_LINK_PATTERN = Pattern.compile("<skeletonlink\\s+name\\s*=\\s*\"([^\"]+)\"");
+	
 	private final File outFile;
 	private final List<File> inputFiles;
 	private final float scale;
 	private final Quaternion rotation;
 	private boolean mergeAnimations = true;
+	private boolean streaming = false;
+	private boolean incremental = false;
+	private boolean useNative = false;
+	private final MeshOptions meshOptions = new MeshOptions();
+	/** skeleton files linked by input files, read once in native mode */
+	private final OgreXmlImporter.SkeletonCache skeletons = new OgreXmlImporter.SkeletonCache();
 	
 	/** 
 	 * Creates a new importer with given parameters.
@@ -63,9 +80,103 @@ public class JMEOgreImporter {
 		this.mergeAnimations = mergeAnimations;
 		return this;
 	}
+	
+	/** <p>Sets streaming mode. In streaming mode, skeleton and objects of first file are written once, 
+	 * then animations of each file are appended to out file as soon as the file is imported. So only one input 
+	 * file is in memory at a time. Streaming requires animations to be merged and an out file.</p>
+	 *  
+	 * @param streaming write animations as they are imported
+	 * @return this for chaining 
+	 * @see GroupWriter */
+	public JMEOgreImporter setStreaming(boolean streaming) {
+		this.streaming = streaming;
+		return this;
+	}
+	
+	/** <p>Sets incremental mode. In incremental mode, content hashes of input files and their skeleton files, import parameters 
+	 * and importer version are saved next to out file. Import is skipped if they are not changed since last import.</p>
+	 *  
+	 * @param incremental skip import if out file is up to date
+	 * @return this for chaining */
+	public JMEOgreImporter setIncremental(boolean incremental) {
+		this.incremental = incremental;
+		return this;
+	}
+	
+	/** <p>Sets if xml files are read directly with StAX instead of jME's ogrexml loader. 
+	 * jME libraries are not required in native mode.</p>
+	 *  
+	 * @param useNative read xml files without jME
+	 * @return this for chaining 
+	 * @see OgreXmlImporter */
+	public JMEOgreImporter setNative(boolean useNative) {
+		this.useNative = useNative;
+		return this;
+	}
+	
+	/** <p>Sets if meshes are optimized. If set, unused vertices are removed and duplicate ones are welded.</p>
+	 *  
+	 * @param optimize optimize meshes of imported groups
+	 * @return this for chaining 
+	 * @see BonesImporter#optimizeMeshes(AnimatedGroup) */
+	public JMEOgreImporter setOptimize(boolean optimize) {
+		meshOptions.optimize = optimize;
+		return this;
+	}
+	
+	/** <p>Sets if meshes are reordered for vertex cache locality. Polygons are reordered, then vertices by their first use.</p>
+	 *  
+	 * @param reorder reorder meshes of imported groups
+	 * @return this for chaining 
+	 * @see BonesImporter#reorderMeshes(AnimatedGroup, boolean) */
+	public JMEOgreImporter setReorder(boolean reorder) {
+		meshOptions.reorder = reorder;
+		return this;
+	}
+	
+	/** <p>Sets if polygons are grouped by their dominant joint while reordering. Implies reordering.</p>
+	 *  
+	 * @param clusterJoints group polygons by joint
+	 * @return this for chaining 
+	 * @see BonesImporter#reorderMeshes(AnimatedGroup, boolean) */
+	public JMEOgreImporter setClusterJoints(boolean clusterJoints) {
+		meshOptions.clusterJoints = clusterJoints;
+		return this;
+	}
+	
+	/** <p>Sets if skins are compacted. Influences below threshold are dropped and weights are packed into 8 bits.</p>
+	 *  
+	 * @param weightThreshold minimum weight of an influence. negative disables compaction, which is the default
+	 * @return this for chaining 
+	 * @see BonesImporter#compactSkins(AnimatedGroup, float) */
+	public JMEOgreImporter setCompactSkin(float weightThreshold) {
+		meshOptions.weightThreshold = weightThreshold;
+		return this;
+	}
 
 	/** Executes the importer. */
 	public void run() throws Exception {
+		ImportStamp stamp = null;
+		if (incremental && (outFile != null)) {
+			stamp = new ImportStamp(stampInputs(inputFiles), stampParams(scale, rotation, mergeAnimations, streaming, useNative, meshOptions));
+			if (stamp.isUpToDate(outFile)) {
+				Logger.log("Up to date, skipping " + outFile, Logger.MESSAGE);
+				return;
+			}
+			ImportStamp.delete(outFile);
+		}
+		
+		if (streaming) {
+			runStreaming();
+		} else {
+			runInMemory();
+		}
+		
+		if (stamp != null)
+			stamp.write(outFile);
+	}
+	
+	private void runInMemory() throws Exception {
 		final AnimatedGroup group = loadGroup();
 		
 		if (outFile != null) {
@@ -83,6 +194,28 @@ public class JMEOgreImporter {
 		}
 	}
 	
+	private void runStreaming() throws Exception {
+		if (outFile == null)
+			throw new IllegalStateException("Streaming requires an out file");
+		if (!mergeAnimations)
+			throw new IllegalStateException("Streaming can only merge animations");
+		if (outFile.isDirectory())
+			throw new IllegalArgumentException("Out file is a directory: " + outFile);
+		Helper.createParentDirs(outFile);
+		
+		FileOutputStream fos = new FileOutputStream(outFile);
+		try {
+			GroupWriter writer = new GroupWriter(loadGroup(inputFiles.get(0)), fos);
+			for (File input : inputFiles.subList(1, inputFiles.size())) {
+				writer.addClips(loadGroup(input));
+			}
+			writer.finish();
+			Logger.log("Saved bones-group with " + writer.getClipCount() + " skin animation(s) to " + outFile, Logger.MESSAGE);
+		} finally {
+			fos.close();
+		}
+	}
+	
 	private AnimatedGroup loadGroup() throws Exception { 
 		if (inputFiles.size() == 1) {
 			return loadGroup(inputFiles.get(0));
@@ -104,12 +237,23 @@ public class JMEOgreImporter {
 	}
 	
 	private AnimatedGroup loadGroup(File meshFile) throws Exception {
+		return importFile(meshFile, scale, rotation, useNative, meshOptions, skeletons);
+	}
+	
+	/** imports a single file. used by batch mode too, so can be called concurrently */
+	static AnimatedGroup importFile(File meshFile, float scale, Quaternion rotation, boolean useNative, 
+			MeshOptions meshOptions, OgreXmlImporter.SkeletonCache skeletons) throws Exception {
 		URL url = meshFile.toURI().toURL();
 		
-		OgreLoader loader = new OgreLoader();
-		OgreEntityNode node = loader.loadModel(url);
-
-		AnimatedGroup group = BonesImporter.importOgre(node, scale, rotation);
+		AnimatedGroup group;
+		if (useNative) {
+			group = OgreXmlImporter.importGroup(url, scale, rotation, skeletons);
+		} else {
+			OgreLoader loader = new OgreLoader();
+			OgreEntityNode node = loader.loadModel(url);
+			group = BonesImporter.importOgre(node, scale, rotation);
+		}
+		group = meshOptions.apply(group);
 		
 		int skinAnims = (group.getSkinClipSequence() == null) ? 0 : group.getSkinClipSequence().getSize();
 		int poseAnims = (group.getPoseClipSequence() == null) ? 0 : group.getPoseClipSequence().getSize();
@@ -121,18 +265,93 @@ public class JMEOgreImporter {
 		return group;
 	}
 
+	/** returns description of import parameters, including the loader used */
+	private static String stampParams(float scale, Quaternion rotation, boolean mergeAnimations, boolean streaming, 
+			boolean useNative, MeshOptions meshOptions) {
+		return ImportStamp.params(JMEOgreImporter.class, scale, rotation, mergeAnimations, streaming, meshOptions) 
+				+ " native=" + useNative;
+	}
+
+	/** returns given mesh files and skeleton files they link to */
+	static List<File> stampInputs(List<File> meshFiles) throws IOException {
+		List<File> inputs = new ArrayList<File>(meshFiles);
+		for (File meshFile : meshFiles) {
+			String skeletonLink = findSkeletonLink(meshFile);
+			if (skeletonLink != null) {
+				// ogre loader appends .xml to skeleton link
+				File skeletonFile = new File(meshFile.getParentFile(), skeletonLink + ".xml");
+				if (!skeletonFile.exists())
+					skeletonFile = new File(meshFile.getParentFile(), skeletonLink);
+				if (skeletonFile.exists())
+					inputs.add(skeletonFile);
+			}
+		}
+		return inputs;
+	}
+	
+	private static String findSkeletonLink(File meshFile) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(meshFile), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Matcher matcher = SKELETON_LINK_PATTERN.matcher(line);
+				if (matcher.find())
+					return matcher.group(1);
+			}
+			return null;
+		} finally {
+			reader.close();
+		}
+	}
+
 	private static void printUsage(PrintStream ps) {
         ps.println("usage: JMEOgreImporter [options] -in <ogre.mesh.xml> [ogre.mesh.xml...]");
+        ps.println("       JMEOgreImporter [options] -batch <directory|manifest> [-outDir <directory>] [-threads <count>]");
         ps.println("options:");
         ps.println("    -out <destination file>                         : destination file to write");
         ps.println("    -scale <scale>                                  : loading scale, default 1");
         ps.println("    -rotation <<x|y|zdegrees>[,x|y|zdegrees]...>    : loading rotation, default none (sample: x180,y180)");
         ps.println("    -mergeGroups                                    : merge groups if many input files are given. by default animations are merged");
+        ps.println("    -stream                                         : write animations as each file is imported, requires -out");
+        ps.println("    -batch <directory|manifest>                     : convert all .mesh.xml files in directory, or files listed in manifest");
+        ps.println("                                                      manifest lines are: <destination file> <input file> [input file...]");
+        ps.println("    -outDir <directory>                             : destination directory in batch mode, default is input directory");
+        ps.println("    -threads <count>                                : number of files converted concurrently in batch mode, default number of CPUs");
+        ps.println("    -native                                         : read xml files directly, without jME");
+        ps.println("    -incremental                                    : skip files whose inputs and parameters are not changed since last import");
+        ps.println("    -optimize                                       : remove unused vertices and weld duplicate ones");
+        ps.println("    -reorder                                        : reorder polygons and vertices for vertex cache locality");
+        ps.println("    -clusterJoints                                  : reorder grouping polygons by the joint effecting them most");
+        ps.println("    -compactSkin <threshold>                        : drop skin weights below threshold and pack them into 8 bits");
         ps.println("    -h | -help                                      : print help");
         ps.println("    -log <logLevel: VERBOSE*|WARNING|ERROR>         : set log level");
     }
 
 	
+	/** 
+	 * converts files in given directory or manifest concurrently. returns number of failed files 
+	 * @see BatchImport 
+	 * */
+	static int runBatch(File batch, File outDir, int threads, final float scale, final Quaternion rotation, 
+			boolean mergeAnimations, boolean incremental, final boolean useNative, final MeshOptions meshOptions) throws Exception {
+		List<BatchImport.Job> jobs = BatchImport.readJobs(batch, ".mesh.xml", outDir);
+		String stampParams = incremental ? stampParams(scale, rotation, mergeAnimations, false, useNative, meshOptions) : null;
+		// skeleton files are shared by jobs too
+		final OgreXmlImporter.SkeletonCache skeletons = new OgreXmlImporter.SkeletonCache();
+		
+		return new BatchImport(jobs, threads, mergeAnimations, stampParams) {
+			@Override
+			AnimatedGroup importFile(File file) throws Exception {
+				return JMEOgreImporter.importFile(file, scale, rotation, useNative, meshOptions, skeletons);
+			}
+			
+			@Override
+			List<File> stampInputs(List<File> inputFiles) throws IOException {
+				return JMEOgreImporter.stampInputs(inputFiles);
+			}
+		}.run();
+	}
+
 	/** Command line entry method. */
 	public static void main(String[] args) throws Exception {
 		ComLineArgs comLine = new ComLineArgs(args);
@@ -145,6 +364,27 @@ public class JMEOgreImporter {
         if (comLine.containsArg("-log"))
         	Helper.setLogLevel(comLine.getArg("-log"));
 
+        float scale = comLine.containsArg("-scale") ? Float.parseFloat(comLine.getArg("-scale")) : 1f;
+        Quaternion rotation = comLine.containsArg("-rotation") ? 
+        		Helper.parseRotation(comLine.getArg("-rotation")) : null; 
+        
+        boolean mergeAnimations = !comLine.containsArg("-mergeGroups");
+        boolean incremental = comLine.containsArg("-incremental");
+        boolean useNative = comLine.containsArg("-native");
+        MeshOptions meshOptions = MeshOptions.parse(comLine);
+        
+        if (comLine.containsArg("-batch")) {
+        	File batch = new File(comLine.getArg("-batch"));
+        	File outDir = comLine.containsArg("-outDir") ? new File(comLine.getArg("-outDir")) : null;
+        	int threads = comLine.containsArg("-threads") ? 
+        			Integer.parseInt(comLine.getArg("-threads")) : Runtime.getRuntime().availableProcessors();
+        	
+            if (comLine.isUnconsumed())
+                throw new IllegalArgumentException("Unknown args: " + comLine.getUnconsumed());
+            
+            System.exit(runBatch(batch, outDir, threads, scale, rotation, mergeAnimations, incremental, useNative, meshOptions) == 0 ? 0 : 1);
+        }
+        
         List<File> inputFiles = new LinkedList<File>();
         inputFiles.add(new File(comLine.getArg("-in")));
         
@@ -157,16 +397,14 @@ public class JMEOgreImporter {
         }
         
         File outFile = comLine.containsArg("-out") ? new File(comLine.getArg("-out")) : null;
-        float scale = comLine.containsArg("-scale") ? Float.parseFloat(comLine.getArg("-scale")) : 1f;
-        Quaternion rotation = comLine.containsArg("-rotation") ? 
-        		Helper.parseRotation(comLine.getArg("-rotation")) : null; 
-        
-        boolean mergeAnimations = !comLine.containsArg("-mergeGroups");
+        boolean streaming = comLine.containsArg("-stream");
         
         if (comLine.isUnconsumed())
             throw new IllegalArgumentException("Unknown args: " + comLine.getUnconsumed());
         
-        new JMEOgreImporter(outFile, inputFiles, scale, rotation).setMergeAnimations(mergeAnimations).run();
+        new JMEOgreImporter(outFile, inputFiles, scale, rotation).setMergeAnimations(mergeAnimations).setStreaming(streaming).setIncremental(incremental)
+        		.setNative(useNative).setOptimize(meshOptions.optimize).setReorder(meshOptions.reorder).setClusterJoints(meshOptions.clusterJoints)
+        		.setCompactSkin(meshOptions.weightThreshold).run();
 //        new JMEOgreImporter(outFile, inputFiles, scale, rotation).run();
         
 	}
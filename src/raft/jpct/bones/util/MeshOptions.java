@@ -0,0 +1,49 @@
+package raft.jpct.bones.util;
+
+import raft.jpct.bones.AnimatedGroup;
+import raft.jpct.bones.BonesImporter;
+
+/**
+ * <p>Mesh and skin optimizations applied to each imported file. Shared by importers and batch mode.</p>
+ *
+ * @author hakan eryargi (r a f t)
+ */
+class MeshOptions {
+
+	/** remove unused vertices and weld duplicates */
+	boolean optimize = false;
+	/** reorder polygons and vertices for vertex cache locality */
+	boolean reorder = false;
+	/** group polygons by dominant joint while reordering */
+	boolean clusterJoints = false;
+	/** if not negative, prune skin weights below this and pack them */
+	float weightThreshold = -1;
+
+	/** reads options from command line */
+	static MeshOptions parse(ComLineArgs comLine) {
+		MeshOptions options = new MeshOptions();
+		options.optimize = comLine.containsArg("-optimize");
+		options.reorder = comLine.containsArg("-reorder");
+		options.clusterJoints = comLine.containsArg("-clusterJoints");
+		if (comLine.containsArg("-compactSkin"))
+			options.weightThreshold = Float.parseFloat(comLine.getArg("-compactSkin"));
+		return options;
+	}
+
+	/** applies options to given group. returns given group if there is nothing to do */
+	AnimatedGroup apply(AnimatedGroup group) {
+		if (optimize)
+			group = BonesImporter.optimizeMeshes(group);
+		if (reorder || clusterJoints)
+			group = BonesImporter.reorderMeshes(group, clusterJoints);
+		if (weightThreshold >= 0)
+			group = BonesImporter.compactSkins(group, weightThreshold);
+		return group;
+	}
+
+	/** Returns string representation, used in import stamps. */
+	@Override
+	public String toString() {
+		return "optimize=" + optimize + " reorder=" + reorder + " clusterJoints=" + clusterJoints + " weightThreshold=" + weightThreshold;
+	}
+}
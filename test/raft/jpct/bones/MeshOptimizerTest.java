@@ -0,0 +1,264 @@
+package raft.jpct.bones;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.threed.jpct.Logger;
+import com.threed.jpct.Matrix;
+import com.threed.jpct.PolygonManager;
+import com.threed.jpct.SimpleVector;
+
+/**
+ * <p>Checks {@link BonesImporter#optimizeMeshes(AnimatedGroup)} and {@link BonesImporter#reorderMeshes(AnimatedGroup, boolean)}
+ * on a small group of two objects sharing their vertices and a pose, like sub meshes of Ogre's shared geometry.
+ * Vertex 4 is a duplicate of vertex 2 and vertex 5 is not used by any polygon.</p>
+ *
+ * <p>Run from the project directory, throws an {@link AssertionError} if a check fails.</p>
+ * */
+public class MeshOptimizerTest {
+
+	private static final float[] COORDINATES = {
+		0, 0, 0,
+		1, 0, 0,
+		1, 1, 0,
+		0, 1, 0,
+		1, 1, 0,
+		2, 2, 2 };
+	private static final float[] UVS = { 0, 0,  1, 0,  1, 1,  0, 1,  1, 1,  0, 0 };
+	private static final float[][] WEIGHTS = { {1, 0, 0, 0}, {0.5f, 0.5f, 0, 0}, {1, 0, 0, 0}, {1, 0, 0, 0}, {1, 0, 0, 0}, {1, 0, 0, 0} };
+	private static final short[][] JOINTS = { {0, 0, 0, 0}, {0, 1, 0, 0}, {1, 0, 0, 0}, {1, 0, 0, 0}, {1, 0, 0, 0}, {0, 0, 0, 0} };
+	/** polygons of each object */
+	private static final int[][] INDICES = { {0, 1, 2,  0, 4, 3}, {1, 2, 3} };
+
+	/** pose offsets of shared vertices 1, 2, 4 and 5 */
+	private static final int[] POSE_INDICES = { 1, 2, 4, 5 };
+	private static final float[] POSE_OFFSETS = { 1, 0, 0,  0, 0, 1,  0, 0, 1,  0, 0, 9 };
+
+	public static void main(String[] args) {
+		Logger.setLogLevel(Logger.LL_ONLY_ERRORS);
+
+		testWeld();
+		testReorder(false);
+		testReorder(true);
+
+		System.out.println("MeshOptimizerTest passed");
+	}
+
+	private static void testWeld() {
+		AnimatedGroup group = BonesImporter.optimizeMeshes(createGroup());
+
+		// duplicate vertex 4 is welded to 2, unused vertex 5 is removed
+		check(vertexCount(group.get(0)) == 4, "vertex count of object 0: " + vertexCount(group.get(0)));
+		checkEquals(new int[] { 0, 1, 2,  0, 2, 3 }, group.get(0).getMeshData().indices, "indices of object 0");
+		// object 1 uses only vertices 1, 2 and 3
+		check(vertexCount(group.get(1)) == 3, "vertex count of object 1: " + vertexCount(group.get(1)));
+		checkEquals(new int[] { 0, 1, 2 }, group.get(1).getMeshData().indices, "indices of object 1");
+
+		// shared pose is remapped separately for each object
+		MeshPose pose0 = getPose(group, 0);
+		MeshPose pose1 = getPose(group, 1);
+		check(pose0 != pose1, "objects share a pose");
+		checkEquals(new int[] { 1, 2 }, pose0.getIndices(), "pose indices of object 0");
+		checkEquals(new float[] { 1, 0, 0,  0, 0, 1 }, pose0.getOffsets(), "pose offsets of object 0");
+		checkEquals(new int[] { 0, 1 }, pose1.getIndices(), "pose indices of object 1");
+		checkEquals(new float[] { 1, 0, 0,  0, 0, 1 }, pose1.getOffsets(), "pose offsets of object 1");
+
+		checkSameOutput(createGroup(), group);
+	}
+
+	private static void testReorder(boolean clusterJoints) {
+		AnimatedGroup group = BonesImporter.reorderMeshes(createGroup(), clusterJoints);
+
+		// reordering does not weld, but unused vertices are removed
+		int[] vertexCounts = { 5, 3 };
+		for (int i = 0; i < group.getSize(); i++) {
+			MeshData mesh = group.get(i).getMeshData();
+			check(vertexCount(group.get(i)) == vertexCounts[i], "vertex count of object " + i + ": " + vertexCount(group.get(i)));
+
+			// vertices are ordered by first use
+			int next = 0;
+			for (int index : mesh.indices) {
+				check(index <= next, "vertex " + index + " used before " + next + " in object " + i);
+				if (index == next)
+					next++;
+			}
+			// same polygons, possibly in another order
+			checkEquals(getPolygons(COORDINATES, INDICES[i]), getPolygons(mesh.coordinates, mesh.indices), "polygons of object " + i);
+
+			// pose offsets follow their vertices. vertex 5 is removed so its offset is dropped
+			MeshPose pose = getPose(group, i);
+			int[] indices = pose.getIndices();
+			float[] offsets = pose.getOffsets();
+			check(indices.length == ((i == 0) ? 3 : 2), "pose size of object " + i + ": " + indices.length);
+			for (int k = 0; k < indices.length; k++) {
+				int original = findPoseVertex(mesh.coordinates, indices[k]);
+				checkEquals(Arrays.copyOfRange(POSE_OFFSETS, original * 3, original * 3 + 3),
+						Arrays.copyOfRange(offsets, k * 3, k * 3 + 3), "pose offset of vertex " + indices[k] + " in object " + i);
+			}
+		}
+		checkSameOutput(createGroup(), group);
+	}
+
+	/** returns index in pose of the original vertex at same position with given vertex */
+	private static int findPoseVertex(float[] coordinates, int vertex) {
+		for (int k = 0; k < POSE_INDICES.length; k++) {
+			int original = POSE_INDICES[k];
+			if ((COORDINATES[original * 3] == coordinates[vertex * 3])
+					&& (COORDINATES[original * 3 + 1] == coordinates[vertex * 3 + 1])
+					&& (COORDINATES[original * 3 + 2] == coordinates[vertex * 3 + 2]))
+				return k;
+		}
+		throw new AssertionError("pose has an offset for vertex " + vertex + " which is not posed originally");
+	}
+
+	/** animates both groups with the same pose and skin animation and checks transformed polygons are the same */
+	private static void checkSameOutput(AnimatedGroup expected, AnimatedGroup actual) {
+		for (float index = 0; index <= 1; index += 0.25f) {
+			float[] expectedOutput = animate(expected, index);
+			float[] actualOutput = animate(actual, index);
+			check(expectedOutput.length == actualOutput.length, "output sizes differ");
+			for (int i = 0; i < expectedOutput.length; i++) {
+				check(Math.abs(expectedOutput[i] - actualOutput[i]) < 0.0001f,
+						"skinned output differs at " + index + ": " + expectedOutput[i] + " != " + actualOutput[i]);
+			}
+		}
+	}
+
+	/** returns transformed polygons of all objects, each object sorted */
+	private static float[] animate(AnimatedGroup group, float index) {
+		group.setAutoApplyAnimation(false);
+		group.animatePose(index, 1);
+		group.animateSkin(index, 1);
+		group.applyAnimation();
+
+		List<Float> result = new ArrayList<Float>();
+		for (Animated3D object : group) {
+			PolygonManager polygons = object.getPolygonManager();
+			float[] transformed = new float[(polygons.getMaxPolygonID()) * 9];
+			for (int p = 0; p < polygons.getMaxPolygonID(); p++) {
+				for (int v = 0; v < 3; v++) {
+					SimpleVector vertex = polygons.getTransformedVertex(p, v);
+					transformed[p * 9 + v * 3] = vertex.x;
+					transformed[p * 9 + v * 3 + 1] = vertex.y;
+					transformed[p * 9 + v * 3 + 2] = vertex.z;
+				}
+			}
+			for (float[] polygon : sortPolygons(transformed)) {
+				for (float f : polygon)
+					result.add(f);
+			}
+		}
+		float[] array = new float[result.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = result.get(i);
+		return array;
+	}
+
+	/** returns coordinates of polygons, sorted */
+	private static float[] getPolygons(float[] coordinates, int[] indices) {
+		float[] polygons = new float[indices.length * 3];
+		for (int i = 0; i < indices.length; i++)
+			System.arraycopy(coordinates, indices[i] * 3, polygons, i * 3, 3);
+
+		float[] result = new float[polygons.length];
+		int i = 0;
+		for (float[] polygon : sortPolygons(polygons)) {
+			System.arraycopy(polygon, 0, result, i, 9);
+			i += 9;
+		}
+		return result;
+	}
+
+	private static List<float[]> sortPolygons(float[] polygons) {
+		List<float[]> list = new ArrayList<float[]>();
+		for (int i = 0; i < polygons.length; i += 9)
+			list.add(Arrays.copyOfRange(polygons, i, i + 9));
+		Collections.sort(list, new Comparator<float[]>() {
+			public int compare(float[] p1, float[] p2) {
+				for (int i = 0; i < p1.length; i++) {
+					// rounded, so tiny differences in skinned output does not change order
+					int c = Math.round(p1[i] * 1000) - Math.round(p2[i] * 1000);
+					if (c != 0)
+						return c;
+				}
+				return 0;
+			}
+		});
+		return list;
+	}
+
+	private static MeshPose getPose(AnimatedGroup group, int object) {
+		List<MeshPose> poses = MeshOptimizer.getPoses(group.getPoseClipSequence(), object);
+		check(poses.size() == 1, "object " + object + " has " + poses.size() + " poses");
+		return poses.get(0);
+	}
+
+	private static int vertexCount(Animated3D object) {
+		return object.getMeshData().coordinates.length / 3;
+	}
+
+	/**
+	 * creates the test group. a joint at origin and its child at (1, 0, 0) which is rotated by skin clip,
+	 * and a pose clip using the same pose for both objects
+	 * */
+	private static AnimatedGroup createGroup() {
+		Matrix childBind = new Matrix();
+		childBind.translate(-1, 0, 0);
+		Skeleton skeleton = new Skeleton(new Joint[] {
+				new Joint(new Matrix(), 0, Joint.NO_PARENT, "root"),
+				new Joint(childBind, 1, 0, "child") });
+		SkeletonPose currentPose = new SkeletonPose(skeleton);
+		currentPose.updateTransforms();
+
+		Animated3D[] objects = new Animated3D[INDICES.length];
+		for (int i = 0; i < objects.length; i++) {
+			float[][] weights = new float[WEIGHTS.length][];
+			short[][] joints = new short[JOINTS.length][];
+			for (int v = 0; v < weights.length; v++) {
+				weights[v] = WEIGHTS[v].clone();
+				joints[v] = JOINTS[v].clone();
+			}
+			MeshData mesh = new MeshData(COORDINATES.clone(), UVS.clone(), INDICES[i].clone());
+			objects[i] = new Animated3D(mesh, new SkinData(weights, joints), currentPose);
+			objects[i].setName("object" + i);
+			objects[i].setIndex(i);
+		}
+		AnimatedGroup group = new AnimatedGroup(objects);
+
+		SimpleVector[] noScale = { new SimpleVector(1, 1, 1), new SimpleVector(1, 1, 1) };
+		float[] times = { 0, 1 };
+		JointChannel root = new JointChannel(0, times, new SimpleVector[] { new SimpleVector(), new SimpleVector() },
+				new Quaternion[] { new Quaternion(), new Quaternion() }, noScale);
+		JointChannel child = new JointChannel(1, times, new SimpleVector[] { new SimpleVector(1, 0, 0), new SimpleVector(1, 0, 0) },
+				new Quaternion[] { new Quaternion(), new Quaternion().rotateZ(1f) }, noScale);
+		group.setSkinClipSequence(new SkinClipSequence(new SkinClip(skeleton, root, child)));
+
+		MeshPose pose = new MeshPose("bulge", POSE_OFFSETS.clone(), POSE_INDICES.clone());
+		group.setPoseClipSequence(new PoseClipSequence(new PoseClip(objects.length,
+				new MeshChannel(0, createFrames(pose), times), new MeshChannel(1, createFrames(pose), times))));
+		return group;
+	}
+
+	/** creates frames which apply given pose from zero to full weight */
+	private static PoseFrame[] createFrames(MeshPose pose) {
+		return new PoseFrame[] {
+				new PoseFrame(new MeshPose[] { pose }, new float[] { 0 }),
+				new PoseFrame(new MeshPose[] { pose }, new float[] { 1 }) };
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	private static void checkEquals(int[] expected, int[] actual, String message) {
+		check(Arrays.equals(expected, actual), message + ", expected: " + Arrays.toString(expected) + " but was: " + Arrays.toString(actual));
+	}
+
+	private static void checkEquals(float[] expected, float[] actual, String message) {
+		check(Arrays.equals(expected, actual), message + ", expected: " + Arrays.toString(expected) + " but was: " + Arrays.toString(actual));
+	}
+}
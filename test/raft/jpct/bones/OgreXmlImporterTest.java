@@ -0,0 +1,78 @@
+package raft.jpct.bones;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import com.threed.jpct.Logger;
+
+/**
+ * <p>Imports samples/data/shared/shared.mesh.xml, two sub meshes using shared geometry and a pose
+ * which moves a vertex of each sub mesh. Checks each sub mesh keeps the offset of its own vertex
+ * after import, welding and reordering.</p>
+ *
+ * <p>Run from the project directory, throws an {@link AssertionError} if a check fails.</p>
+ * */
+public class OgreXmlImporterTest {
+
+	private static final File SHARED_MESH = new File("samples/data/shared/shared.mesh.xml");
+
+	public static void main(String[] args) throws Exception {
+		Logger.setLogLevel(Logger.LL_ONLY_ERRORS);
+
+		testImport();
+		testOptimize();
+
+		System.out.println("OgreXmlImporterTest passed");
+	}
+
+	private static void testImport() throws Exception {
+		AnimatedGroup group = importShared();
+		check(group.getSize() == 2, "object count: " + group.getSize());
+
+		// each sub mesh has its own copy of pose
+		MeshPose pose0 = getPose(group, 0);
+		MeshPose pose1 = getPose(group, 1);
+		check(pose0 != pose1, "sub meshes share a pose");
+		checkEquals(pose0.getIndices(), pose1.getIndices(), "pose indices");
+		checkEquals(pose0.getOffsets(), pose1.getOffsets(), "pose offsets");
+	}
+
+	private static void testOptimize() throws Exception {
+		AnimatedGroup group = BonesImporter.reorderMeshes(BonesImporter.optimizeMeshes(importShared()), false);
+
+		// each sub mesh keeps only its own three vertices, moved vertex is the second one in both
+		float[][] offsets = { { 0, 2, 0 }, { 0, 3, 0 } };
+		for (int i = 0; i < group.getSize(); i++) {
+			int vertexCount = group.get(i).getMeshData().coordinates.length / 3;
+			check(vertexCount == 3, "vertex count of object " + i + ": " + vertexCount);
+
+			MeshPose pose = getPose(group, i);
+			checkEquals(new int[] { 1 }, pose.getIndices(), "pose indices of object " + i);
+			checkEquals(offsets[i], pose.getOffsets(), "pose offsets of object " + i);
+		}
+	}
+
+	private static AnimatedGroup importShared() throws Exception {
+		return OgreXmlImporter.importGroup(SHARED_MESH.toURI().toURL(), 1f, null);
+	}
+
+	private static MeshPose getPose(AnimatedGroup group, int object) {
+		List<MeshPose> poses = MeshOptimizer.getPoses(group.getPoseClipSequence(), object);
+		check(poses.size() == 1, "object " + object + " has " + poses.size() + " poses");
+		return poses.get(0);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	private static void checkEquals(int[] expected, int[] actual, String message) {
+		check(Arrays.equals(expected, actual), message + ", expected: " + Arrays.toString(expected) + " but was: " + Arrays.toString(actual));
+	}
+
+	private static void checkEquals(float[] expected, float[] actual, String message) {
+		check(Arrays.equals(expected, actual), message + ", expected: " + Arrays.toString(expected) + " but was: " + Arrays.toString(actual));
+	}
+}